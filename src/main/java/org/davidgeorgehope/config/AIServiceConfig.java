@@ -1,20 +1,116 @@
 package org.davidgeorgehope.socialmediaposter.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.davidgeorgehope.socialmediaposter.service.AICompletionService;
+import org.davidgeorgehope.socialmediaposter.service.CachingAICompletionService;
 import org.davidgeorgehope.socialmediaposter.service.ClaudeCompletionService;
+import org.davidgeorgehope.socialmediaposter.service.LlmResponseStore;
 import org.davidgeorgehope.socialmediaposter.service.OpenAICompletionService;
+import org.davidgeorgehope.socialmediaposter.service.RoutingAICompletionService;
+import org.davidgeorgehope.socialmediaposter.service.ThrottledAICompletionService;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 @Configuration
 public class AIServiceConfig {
 
     @Value("${ai.service.provider:openai}")
     private String aiServiceProvider;
 
+    @Value("${ai.cache.enabled:true}")
+    private boolean aiCacheEnabled;
+
+    @Value("${ai.cache.memory.max-entries:500}")
+    private long aiCacheMemoryMaxEntries;
+
+    @Value("${ai.cache.ttl-hours:168}")
+    private long aiCacheTtlHours;
+
+    @Value("${ai.throttle.openai.max-concurrent:${ai.throttle.max-concurrent:4}}")
+    private int openAIMaxConcurrent;
+
+    @Value("${ai.throttle.openai.requests-per-minute:${ai.throttle.requests-per-minute:60}}")
+    private int openAIRequestsPerMinute;
+
+    @Value("${ai.throttle.claude.max-concurrent:${ai.throttle.max-concurrent:4}}")
+    private int claudeMaxConcurrent;
+
+    @Value("${ai.throttle.claude.requests-per-minute:${ai.throttle.requests-per-minute:60}}")
+    private int claudeRequestsPerMinute;
+
+    @Value("${ai.router.backends:openai,claude}")
+    private List<String> routerBackends;
+
+    @Value("${ai.router.hedge.enabled:true}")
+    private boolean routerHedgeEnabled;
+
+    @Value("${ai.router.hedge.min-delay-ms:2000}")
+    private long routerHedgeMinDelayMs;
+
+    @Value("${ai.router.ewma-alpha:0.2}")
+    private double routerEwmaAlpha;
+
+    @Value("${ai.router.max-error-rate:0.5}")
+    private double routerMaxErrorRate;
+
+    @Value("${ai.router.probe-interval-ms:30000}")
+    private long routerProbeIntervalMs;
+
+    @Value("${ai.router.max-parallel:8}")
+    private int routerMaxParallel;
+
+    // ai.service.provider=router spreads requests over ai.router.backends, otherwise a single provider is used
     @Bean
-    public AICompletionService aiCompletionService(OpenAICompletionService openAIService, ClaudeCompletionService claudeService) {
-        return "claude".equalsIgnoreCase(aiServiceProvider) ? claudeService : openAIService;
+    public AICompletionService aiCompletionService(OpenAICompletionService openAIService, ClaudeCompletionService claudeService,
+                                                   LlmResponseStore llmResponseStore, MeterRegistry meterRegistry) {
+        AICompletionService openAI = new ThrottledAICompletionService(openAIService, openAIMaxConcurrent, openAIRequestsPerMinute);
+        AICompletionService claude = new ThrottledAICompletionService(claudeService, claudeMaxConcurrent, claudeRequestsPerMinute);
+        AICompletionService provider;
+        if ("router".equalsIgnoreCase(aiServiceProvider)) {
+            Map<String, AICompletionService> available = Map.of("openai", openAI, "claude", claude);
+            List<AICompletionService> backends = routerBackends.stream()
+                    .map(name -> {
+                        AICompletionService backend = available.get(name.trim().toLowerCase());
+                        if (backend == null) {
+                            throw new IllegalArgumentException("Unknown AI backend in ai.router.backends: " + name);
+                        }
+                        return backend;
+                    })
+                    .toList();
+            provider = new RoutingAICompletionService(backends, routerExecutor(), routerHedgeEnabled,
+                    Duration.ofMillis(routerHedgeMinDelayMs), routerEwmaAlpha, routerMaxErrorRate,
+                    Duration.ofMillis(routerProbeIntervalMs), meterRegistry);
+        } else {
+            provider = "claude".equalsIgnoreCase(aiServiceProvider) ? claude : openAI;
+        }
+        if (!aiCacheEnabled) {
+            return provider;
+        }
+        return new CachingAICompletionService(provider, llmResponseStore, aiCacheMemoryMaxEntries,
+                Duration.ofHours(aiCacheTtlHours), meterRegistry);
+    }
+
+    // Daemon threads that time out when idle, so the pool needs no shutdown hook
+    private ExecutorService routerExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(routerMaxParallel, routerMaxParallel, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(routerMaxParallel * 4),
+                r -> {
+                    Thread t = new Thread(r, "ai-router-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
-}
\ No newline at end of file
+}
@@ -1,34 +0,0 @@
-package org.davidgeorgehope.config;
-
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
-import org.springframework.scheduling.annotation.EnableScheduling;
-import org.springframework.scheduling.annotation.SchedulingConfigurer;
-import org.springframework.scheduling.config.ScheduledTaskRegistrar;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-
-@Configuration
-@EnableScheduling
-public class SchedulerConfig implements SchedulingConfigurer {
-
-    private static final Logger logger = LoggerFactory.getLogger(SchedulerConfig.class);
-
-    @Override
-    public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
-        taskRegistrar.setScheduler(taskExecutor());
-    }
-
-    @Bean(destroyMethod = "shutdown")
-    public Executor taskExecutor() {
-        return Executors.newScheduledThreadPool(10, r -> {
-            Thread t = new Thread(r);
-            t.setUncaughtExceptionHandler((thread, ex) -> 
-                logger.error("Uncaught exception in thread {}: {}", thread.getName(), ex.getMessage(), ex));
-            return t;
-        });
-    }
-}
\ No newline at end of file
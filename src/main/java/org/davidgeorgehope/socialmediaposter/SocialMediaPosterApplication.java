@@ -1,9 +1,24 @@
 package org.davidgeorgehope.socialmediaposter;
 
+import java.net.URI;
 import java.time.Duration;
+import java.util.List;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 
 import org.apache.http.Header;
 import org.apache.http.HttpHost;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.message.BasicHeader;
 import org.elasticsearch.client.RestClient;
 import org.slf4j.Logger;
@@ -14,10 +29,19 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.theokanning.openai.client.OpenAiApi;
 import com.theokanning.openai.service.OpenAiService;
+import okhttp3.OkHttpClient;
 
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.json.jackson.JacksonJsonpMapper;
 import co.elastic.clients.transport.ElasticsearchTransport;
@@ -39,40 +63,181 @@ public class SocialMediaPosterApplication {
     @Value("${elasticsearch.api-key}")
     private String elasticsearchApiKey;
 
+    @Value("${elasticsearch.max-connections:50}")
+    private int elasticsearchMaxConnections;
+
+    @Value("${elasticsearch.max-connections-per-route:20}")
+    private int elasticsearchMaxConnectionsPerRoute;
+
+    @Value("${elasticsearch.connect-timeout-ms:5000}")
+    private int elasticsearchConnectTimeoutMs;
+
+    @Value("${elasticsearch.socket-timeout-ms:30000}")
+    private int elasticsearchSocketTimeoutMs;
+
+    @Value("${elasticsearch.keep-alive-ms:60000}")
+    private long elasticsearchKeepAliveMs;
+
+    @Value("${elasticsearch.compression:true}")
+    private boolean elasticsearchCompression;
+
+    // 0 keeps the client default (one IO thread per CPU)
+    @Value("${elasticsearch.io-threads:0}")
+    private int elasticsearchIoThreads;
+
+    @Value("${http.client.max-connections:100}")
+    private int httpMaxConnections;
+
+    @Value("${http.client.max-connections-per-route:20}")
+    private int httpMaxConnectionsPerRoute;
+
+    @Value("${http.client.route-limits:}")
+    private List<String> httpRouteLimits;
+
+    @Value("${http.client.connect-timeout-ms:5000}")
+    private long httpConnectTimeoutMs;
+
+    // Long enough for a full, non-streamed completion
+    @Value("${http.client.read-timeout-ms:120000}")
+    private long httpReadTimeoutMs;
+
+    // How long a request may wait for a free pooled connection
+    @Value("${http.client.pool-timeout-ms:10000}")
+    private long httpPoolTimeoutMs;
+
+    @Value("${http.client.keep-alive-ms:30000}")
+    private long httpKeepAliveMs;
+
+    @Value("${http.client.connection-ttl-ms:300000}")
+    private long httpConnectionTtlMs;
+
     @Value("${openai.api-key}")
     private String openaiApiKey;
 
+    // One pre-configured mapper for every Elasticsearch (de)serialization, shared by the client and services
     @Bean
-    public ElasticsearchClient elasticsearchClient() {
+    public JacksonJsonpMapper jsonpMapper() {
+        ObjectMapper objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        return new JacksonJsonpMapper(objectMapper);
+    }
+
+    // Low-level client with a sized connection pool, timeouts, keep-alive and gzip request compression.
+    // Exposing it as a bean also makes Boot's own RestClient (and its health check) use this cluster.
+    @Bean(destroyMethod = "close")
+    public RestClient elasticsearchRestClient() {
         // Remove this log statement to avoid exposing the API key in logs
         // log.error("KEY"+elasticsearchApiKey);
 
-        // Create the low-level client
-        RestClient restClient = RestClient.builder(
+        return RestClient.builder(
                 new HttpHost(elasticsearchHost, elasticsearchPort, "https"))
                 .setDefaultHeaders(new Header[]{
                         new BasicHeader("Authorization", "ApiKey " + elasticsearchApiKey)
                 })
+                .setCompressionEnabled(elasticsearchCompression)
+                .setRequestConfigCallback(requestConfig -> requestConfig
+                        .setConnectTimeout(elasticsearchConnectTimeoutMs)
+                        .setSocketTimeout(elasticsearchSocketTimeoutMs))
+                .setHttpClientConfigCallback(httpClient -> {
+                    httpClient
+                            .setMaxConnTotal(elasticsearchMaxConnections)
+                            .setMaxConnPerRoute(elasticsearchMaxConnectionsPerRoute)
+                            .setKeepAliveStrategy((response, context) -> elasticsearchKeepAliveMs);
+                    if (elasticsearchIoThreads > 0) {
+                        httpClient.setDefaultIOReactorConfig(IOReactorConfig.custom()
+                                .setIoThreadCount(elasticsearchIoThreads)
+                                .build());
+                    }
+                    return httpClient;
+                })
                 .build();
+    }
 
-        // Create the transport with a Jackson mapper
-        ElasticsearchTransport transport = new RestClientTransport(
-                restClient, new JacksonJsonpMapper());
+    // Shared by the blocking and the async client, so both use the same pool and mapper
+    @Bean
+    public ElasticsearchTransport elasticsearchTransport(RestClient elasticsearchRestClient, JacksonJsonpMapper jsonpMapper) {
+        return new RestClientTransport(elasticsearchRestClient, jsonpMapper);
+    }
 
-        // And create the API client
-        return new ElasticsearchClient(transport);
+    @Bean
+    public ElasticsearchClient elasticsearchClient(ElasticsearchTransport elasticsearchTransport) {
+        return new ElasticsearchClient(elasticsearchTransport);
     }
+
     @Bean
-    public RestTemplate restTemplate() {
-        log.error("KEY"+elasticsearchApiKey);
+    public ElasticsearchAsyncClient elasticsearchAsyncClient(ElasticsearchTransport elasticsearchTransport) {
+        return new ElasticsearchAsyncClient(elasticsearchTransport);
+    }
 
-        return new RestTemplate();
+    // Pool shared by every RestTemplate call (LinkedIn, Claude). Its leased/available/pending counts are exported
+    // as httpcomponents.httpclient.pool.* gauges so connection starvation shows up in metrics.
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager httpConnectionManager(MeterRegistry meterRegistry) {
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(httpMaxConnections)
+                .setMaxConnPerRoute(httpMaxConnectionsPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(httpConnectTimeoutMs))
+                        .setSocketTimeout(Timeout.ofMilliseconds(httpReadTimeoutMs))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .setTimeToLive(TimeValue.ofMilliseconds(httpConnectionTtlMs))
+                        .build())
+                .build();
+        // Entries like "https://api.linkedin.com=10" override the per-host limit
+        for (String routeLimit : httpRouteLimits) {
+            String[] parts = routeLimit.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid http.client.route-limits entry: " + routeLimit);
+            }
+            URI uri = URI.create(parts[0].trim());
+            boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+            org.apache.hc.core5.http.HttpHost host = new org.apache.hc.core5.http.HttpHost(uri.getScheme(), uri.getHost(), uri.getPort() > 0 ? uri.getPort() : (secure ? 443 : 80));
+            connectionManager.setMaxPerRoute(new HttpRoute(host, null, secure), Integer.parseInt(parts[1].trim()));
+        }
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "rest-template").bindTo(meterRegistry);
+        return connectionManager;
     }
 
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient httpClient(PoolingHttpClientConnectionManager httpConnectionManager) {
+        return HttpClients.custom()
+                .setConnectionManager(httpConnectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(httpPoolTimeoutMs))
+                        .setResponseTimeout(Timeout.ofMilliseconds(httpReadTimeoutMs))
+                        .build())
+                .setKeepAliveStrategy((response, context) -> TimeValue.ofMilliseconds(httpKeepAliveMs))
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(httpKeepAliveMs))
+                .build();
+    }
+
+    @Bean
+    public RestTemplate restTemplate(CloseableHttpClient httpClient) {
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+    }
+
+
+    @Value("${openai.api.url:https://api.openai.com/}")
+    private String openaiApiUrl;
+
+    // Built from the library defaults so the base URL can point at a proxy or a local stub server
+    @Bean
+    public OpenAiApi openAiApi() {
+        ObjectMapper mapper = OpenAiService.defaultObjectMapper();
+        OkHttpClient client = OpenAiService.defaultClient(openaiApiKey, Duration.ofSeconds(30));
+        return OpenAiService.defaultRetrofit(client, mapper).newBuilder()
+                .baseUrl(openaiApiUrl)
+                .build()
+                .create(OpenAiApi.class);
+    }
 
     @Bean
-    public OpenAiService openAiService() {
-        return new OpenAiService(openaiApiKey, Duration.ofSeconds(30));
+    public OpenAiService openAiService(OpenAiApi openAiApi) {
+        return new OpenAiService(openAiApi);
     }
 
     public static void main(String[] args) {
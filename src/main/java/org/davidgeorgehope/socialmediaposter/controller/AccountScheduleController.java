@@ -0,0 +1,60 @@
+package org.davidgeorgehope.socialmediaposter.controller;
+
+import org.davidgeorgehope.socialmediaposter.model.AccountSchedule;
+import org.davidgeorgehope.socialmediaposter.service.AccountPostingEngine;
+import org.davidgeorgehope.socialmediaposter.service.AccountScheduleStore;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.Map;
+
+@RestController
+public class AccountScheduleController {
+
+    private final AccountScheduleStore scheduleStore;
+    private final AccountPostingEngine postingEngine;
+
+    public AccountScheduleController(AccountScheduleStore scheduleStore, AccountPostingEngine postingEngine) {
+        this.scheduleStore = scheduleStore;
+        this.postingEngine = postingEngine;
+    }
+
+    @GetMapping("/api/accounts/{account}/schedule")
+    public ResponseEntity<?> getSchedule(@PathVariable String account) throws IOException {
+        return scheduleStore.get(account)
+                .<ResponseEntity<?>>map(schedule -> ResponseEntity.ok(Map.of(
+                        "schedule", schedule,
+                        "nextSlot", schedule.postsEnabled()
+                                ? schedule.nextSlotAfter(Instant.now()).map(Instant::toString).orElse("")
+                                : "")))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @PutMapping("/api/accounts/{account}/schedule")
+    public ResponseEntity<?> putSchedule(@PathVariable String account, @RequestBody AccountSchedule schedule) throws IOException {
+        AccountSchedule withAccount = schedule.withAccount(account);
+        try {
+            withAccount.validate();
+        } catch (IllegalArgumentException | DateTimeException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+        AccountSchedule stored = scheduleStore.save(withAccount);
+        postingEngine.refresh(account);
+        return ResponseEntity.ok(stored);
+    }
+
+    @DeleteMapping("/api/accounts/{account}/schedule")
+    public ResponseEntity<Void> deleteSchedule(@PathVariable String account) throws IOException {
+        boolean deleted = scheduleStore.delete(account);
+        postingEngine.refresh(account);
+        return deleted ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+}
@@ -1,23 +1,71 @@
 package org.davidgeorgehope.socialmediaposter.controller;
 
 import org.davidgeorgehope.socialmediaposter.service.ElasticsearchOpenAIService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Map;
 
 @RestController
 public class ChatController {
 
+    private static final Logger logger = LoggerFactory.getLogger(ChatController.class);
+
     @Autowired
     private ElasticsearchOpenAIService elasticsearchOpenAIService;
 
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private TaskExecutor taskExecutor;
+
+    @Value("${chat.stream.timeout-ms:120000}")
+    private long streamTimeoutMs;
+
     @PostMapping("/api/chat")
     public String chat(@RequestBody Map<String, String> request) throws IOException {
         String message = request.get("message");
         return elasticsearchOpenAIService.processAssistantQuestion(message);
     }
-}
\ No newline at end of file
+
+    // Same as /api/chat, but sends the answer as "delta" events while the model generates it, then a "done" event
+    @PostMapping(value = "/api/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStream(@RequestBody Map<String, String> request) {
+        String message = request.get("message");
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+
+        taskExecutor.execute(() -> {
+            try {
+                elasticsearchOpenAIService.streamAssistantQuestion(message, delta -> {
+                    try {
+                        emitter.send(SseEmitter.event().name("delta").data(Map.of("text", delta)));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                emitter.send(SseEmitter.event().name("done").data(""));
+                emitter.complete();
+            } catch (Exception e) {
+                logger.error("Error streaming chat response", e);
+                try {
+                    emitter.send(SseEmitter.event().name("error").data("Could not get a response."));
+                } catch (IOException | IllegalStateException ignored) {
+                    // client already gone
+                }
+                emitter.complete();
+            }
+        });
+
+        return emitter;
+    }
+}
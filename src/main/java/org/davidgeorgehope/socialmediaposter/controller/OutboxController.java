@@ -0,0 +1,38 @@
+package org.davidgeorgehope.socialmediaposter.controller;
+
+import org.davidgeorgehope.socialmediaposter.service.OutboxIntent;
+import org.davidgeorgehope.socialmediaposter.service.PostOutbox;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.List;
+
+@RestController
+public class OutboxController {
+
+    private final PostOutbox postOutbox;
+
+    public OutboxController(PostOutbox postOutbox) {
+        this.postOutbox = postOutbox;
+    }
+
+    @GetMapping("/api/outbox/{key}")
+    public ResponseEntity<OutboxIntent> getIntent(@PathVariable String key) throws IOException {
+        return postOutbox.get(key).map(ResponseEntity::ok).orElse(ResponseEntity.notFound().build());
+    }
+
+    @GetMapping("/api/outbox/dead")
+    public List<OutboxIntent> deadLetters(@RequestParam(defaultValue = "100") int size) throws IOException {
+        return postOutbox.deadLetters(Math.min(Math.max(size, 1), 1000));
+    }
+
+    @PostMapping("/api/outbox/{key}/retry")
+    public ResponseEntity<Void> retry(@PathVariable String key) throws IOException {
+        return postOutbox.requeue(key) ? ResponseEntity.accepted().build() : ResponseEntity.notFound().build();
+    }
+}
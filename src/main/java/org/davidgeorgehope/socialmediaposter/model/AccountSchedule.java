@@ -0,0 +1,84 @@
+package org.davidgeorgehope.socialmediaposter.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+// A document of the social-pilot-account-schedules index: when one LinkedIn account posts.
+// times are local "HH:mm" slots in zone; days limits them to some weekdays ("MON".."SUN"), null means every day.
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record AccountSchedule(
+        String account,
+        String zone,
+        List<String> times,
+        List<String> days,
+        Boolean enabled,
+        @JsonProperty("updated_at") Instant updatedAt) {
+
+    public AccountSchedule {
+        times = times != null ? List.copyOf(times) : List.of();
+        days = days != null ? List.copyOf(days) : null;
+    }
+
+    public AccountSchedule withAccount(String account) {
+        return new AccountSchedule(account, zone, times, days, enabled, updatedAt);
+    }
+
+    public AccountSchedule withUpdatedAt(Instant updatedAt) {
+        return new AccountSchedule(account, zone, times, days, enabled, updatedAt);
+    }
+
+    public boolean postsEnabled() {
+        return !Boolean.FALSE.equals(enabled) && !times.isEmpty();
+    }
+
+    // Throws IllegalArgumentException or DateTimeException for an unusable schedule
+    public void validate() {
+        if (account == null || account.isBlank()) {
+            throw new IllegalArgumentException("account is required");
+        }
+        ZoneId.of(zone != null ? zone : "");
+        times.forEach(LocalTime::parse);
+        if (days != null) {
+            days.forEach(AccountSchedule::dayOf);
+        }
+    }
+
+    // The first slot strictly after the given instant, searching up to a week ahead
+    public Optional<Instant> nextSlotAfter(Instant after) {
+        ZoneId zoneId = ZoneId.of(zone);
+        LocalDate date = after.atZone(zoneId).toLocalDate();
+        Instant best = null;
+        for (int day = 0; day <= 7 && best == null; day++, date = date.plusDays(1)) {
+            if (days != null && days.stream().map(AccountSchedule::dayOf).noneMatch(date.getDayOfWeek()::equals)) {
+                continue;
+            }
+            for (String time : times) {
+                Instant slot = ZonedDateTime.of(date, LocalTime.parse(time), zoneId).toInstant();
+                if (slot.isAfter(after) && (best == null || slot.isBefore(best))) {
+                    best = slot;
+                }
+            }
+        }
+        return Optional.ofNullable(best);
+    }
+
+    private static DayOfWeek dayOf(String day) {
+        String upper = day.trim().toUpperCase(Locale.ROOT);
+        for (DayOfWeek dayOfWeek : DayOfWeek.values()) {
+            if (dayOfWeek.name().startsWith(upper) && upper.length() >= 3) {
+                return dayOfWeek;
+            }
+        }
+        throw new IllegalArgumentException("Unknown day: " + day);
+    }
+}
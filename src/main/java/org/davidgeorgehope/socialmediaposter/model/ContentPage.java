@@ -0,0 +1,7 @@
+package org.davidgeorgehope.socialmediaposter.model;
+
+import java.util.List;
+
+// One page of the content listing plus the opaque cursor that continues after it (null on the last page)
+public record ContentPage(List<SocialPilotContent> items, long totalHits, String nextCursor) {
+}
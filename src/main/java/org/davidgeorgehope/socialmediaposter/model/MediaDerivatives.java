@@ -0,0 +1,12 @@
+package org.davidgeorgehope.socialmediaposter.model;
+
+// What the derivative pipeline learned about a media file: its real content type (from magic bytes),
+// its dimensions when it is an image, and the URLs of the UI thumbnail and of the LinkedIn-sized copy.
+// A null optimizedUrl means the original is already fit for LinkedIn.
+public record MediaDerivatives(
+        String contentType,
+        Integer width,
+        Integer height,
+        String thumbnailUrl,
+        String optimizedUrl) {
+}
@@ -0,0 +1,109 @@
+package org.davidgeorgehope.socialmediaposter.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+import java.time.Instant;
+import java.util.List;
+
+// A document of the social-pilot-content index. The inference chunks are read-only: they are never
+// written back, so indexing a piece of content only sends its plain fields. The id is also stored as
+// content_id, a unique keyword the listing sorts on last (sorting on _id is disabled by default).
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonDeserialize(using = SocialPilotContentDeserializer.class)
+public record SocialPilotContent(
+        @JsonProperty("content_id") String id,
+        String text,
+        @JsonIgnore List<String> chunks,
+        String mediaUrl,
+        String mediaType,
+        String mediaHash,
+        MediaDerivatives derivatives,
+        @JsonProperty("last_posted_date") Instant lastPostedDate,
+        @JsonProperty("last_updated") Instant lastUpdated,
+        String status,
+        String account) {
+
+    // Drafts (e.g. generated variants) are listed but never picked by the scheduler until edited
+    public static final String STATUS_DRAFT = "draft";
+    public static final String STATUS_READY = "ready";
+    // Generated ahead of time for one account (see account) and only used when nothing else is eligible
+    public static final String STATUS_PREGENERATED = "pregenerated";
+
+    public SocialPilotContent {
+        chunks = chunks != null ? List.copyOf(chunks) : List.of();
+    }
+
+    public static SocialPilotContent of(String text, String mediaUrl, String mediaType) {
+        return new SocialPilotContent(null, text, null, mediaUrl, mediaType, null, null, null, null, null, null);
+    }
+
+    public static SocialPilotContent empty() {
+        return of(null, null, null);
+    }
+
+    public SocialPilotContent withId(String id) {
+        return new SocialPilotContent(id, text, chunks, mediaUrl, mediaType, mediaHash, derivatives, lastPostedDate, lastUpdated, status, account);
+    }
+
+    // mediaHash is the SHA-256 of the stored file, which is also its name in the media store
+    public SocialPilotContent withMedia(String mediaUrl, String mediaType, String mediaHash) {
+        return new SocialPilotContent(id, text, chunks, mediaUrl, mediaType, mediaHash, derivatives, lastPostedDate, lastUpdated, status, account);
+    }
+
+    public SocialPilotContent withDerivatives(MediaDerivatives derivatives) {
+        return new SocialPilotContent(id, text, chunks, mediaUrl, mediaType, mediaHash, derivatives, lastPostedDate, lastUpdated, status, account);
+    }
+
+    public SocialPilotContent withLastPostedDate(Instant lastPostedDate) {
+        return new SocialPilotContent(id, text, chunks, mediaUrl, mediaType, mediaHash, derivatives, lastPostedDate, lastUpdated, status, account);
+    }
+
+    public SocialPilotContent withLastUpdated(Instant lastUpdated) {
+        return new SocialPilotContent(id, text, chunks, mediaUrl, mediaType, mediaHash, derivatives, lastPostedDate, lastUpdated, status, account);
+    }
+
+    public SocialPilotContent withStatus(String status) {
+        return new SocialPilotContent(id, text, chunks, mediaUrl, mediaType, mediaHash, derivatives, lastPostedDate, lastUpdated, status, account);
+    }
+
+    public SocialPilotContent withAccount(String account) {
+        return new SocialPilotContent(id, text, chunks, mediaUrl, mediaType, mediaHash, derivatives, lastPostedDate, lastUpdated, status, account);
+    }
+
+    @JsonIgnore
+    public boolean isDraft() {
+        return STATUS_DRAFT.equals(status);
+    }
+
+    @JsonIgnore
+    public boolean isPregenerated() {
+        return STATUS_PREGENERATED.equals(status);
+    }
+
+    @JsonIgnore
+    public boolean hasMedia() {
+        return mediaUrl != null && !mediaUrl.isEmpty();
+    }
+
+    @JsonIgnore
+    public String mediaFilename() {
+        return hasMedia() ? mediaUrl.substring(mediaUrl.lastIndexOf('/') + 1) : null;
+    }
+
+    // The small derivative for the UI, falling back to the original until the pipeline has produced it
+    @JsonIgnore
+    public String thumbnailFilename() {
+        if (derivatives != null && derivatives.thumbnailUrl() != null) {
+            return derivatives.thumbnailUrl().substring(derivatives.thumbnailUrl().lastIndexOf('/') + 1);
+        }
+        return mediaFilename();
+    }
+
+    @JsonIgnore
+    public String linkedInMediaUrl() {
+        return derivatives != null && derivatives.optimizedUrl() != null ? derivatives.optimizedUrl() : mediaUrl;
+    }
+}
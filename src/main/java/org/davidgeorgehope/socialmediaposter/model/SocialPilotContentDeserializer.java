@@ -0,0 +1,85 @@
+package org.davidgeorgehope.socialmediaposter.model;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads both document generations: "text" as a plain string (legacy and freshly indexed docs) or as the
+// semantic_text object {text, inference: {chunks: [...]}}. Empty or malformed dates are read as null.
+public class SocialPilotContentDeserializer extends StdDeserializer<SocialPilotContent> {
+
+    public SocialPilotContentDeserializer() {
+        super(SocialPilotContent.class);
+    }
+
+    @Override
+    public SocialPilotContent deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        JsonNode node = parser.readValueAsTree();
+
+        String text = null;
+        List<String> chunks = new ArrayList<>();
+        JsonNode textNode = node.path("text");
+        if (textNode.isTextual()) {
+            text = textNode.asText();
+        } else if (textNode.isObject()) {
+            text = textOrNull(textNode.path("text"));
+            for (JsonNode chunk : textNode.path("inference").path("chunks")) {
+                String chunkText = textOrNull(chunk.path("text"));
+                if (chunkText != null) {
+                    chunks.add(chunkText);
+                }
+            }
+        }
+
+        return new SocialPilotContent(
+                null,
+                text,
+                chunks,
+                textOrNull(node.path("mediaUrl")),
+                textOrNull(node.path("mediaType")),
+                textOrNull(node.path("mediaHash")),
+                derivativesOrNull(node.path("derivatives")),
+                instantOrNull(node.path("last_posted_date")),
+                instantOrNull(node.path("last_updated")),
+                textOrNull(node.path("status")),
+                textOrNull(node.path("account")));
+    }
+
+    private static MediaDerivatives derivativesOrNull(JsonNode node) {
+        if (!node.isObject()) {
+            return null;
+        }
+        return new MediaDerivatives(
+                textOrNull(node.path("contentType")),
+                node.path("width").isNumber() ? node.path("width").asInt() : null,
+                node.path("height").isNumber() ? node.path("height").asInt() : null,
+                textOrNull(node.path("thumbnailUrl")),
+                textOrNull(node.path("optimizedUrl")));
+    }
+
+    private static String textOrNull(JsonNode node) {
+        return node.isTextual() ? node.asText() : null;
+    }
+
+    private static Instant instantOrNull(JsonNode node) {
+        if (node.isNumber()) {
+            return Instant.ofEpochMilli(node.asLong());
+        }
+        String value = textOrNull(node);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return Instant.parse(value);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
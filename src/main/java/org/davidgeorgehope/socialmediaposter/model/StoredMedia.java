@@ -0,0 +1,5 @@
+package org.davidgeorgehope.socialmediaposter.model;
+
+// A file in the media store: mediaUrl is what content documents reference, hash is the SHA-256 of its bytes
+public record StoredMedia(String mediaUrl, String hash, long size) {
+}
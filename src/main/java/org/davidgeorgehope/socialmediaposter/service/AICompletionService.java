@@ -1,5 +1,29 @@
 package org.davidgeorgehope.socialmediaposter.service;
 
+import java.util.function.Consumer;
+
 public interface AICompletionService {
     String generateCompletion(String systemPrompt, String userPrompt);
-}
\ No newline at end of file
+
+    // bypassCache asks caching decorators for a fresh completion ("regenerate"); plain providers ignore it
+    default String generateCompletion(String systemPrompt, String userPrompt, boolean bypassCache) {
+        return generateCompletion(systemPrompt, userPrompt);
+    }
+
+    // Like generateCompletion, but abortable from another thread through attempt. Providers wire the attempt to
+    // their HTTP client's cancel and decorators pass it on; the default just marks the start.
+    default String generateCompletion(String systemPrompt, String userPrompt, boolean bypassCache, CompletionAttempt attempt) {
+        attempt.started();
+        return generateCompletion(systemPrompt, userPrompt, bypassCache);
+    }
+
+    String providerName();
+
+    String modelName();
+
+    // Delivers the completion incrementally as text deltas, on the calling thread.
+    // Providers without native streaming deliver the whole completion as a single delta.
+    default void streamCompletion(String systemPrompt, String userPrompt, Consumer<String> onDelta) {
+        onDelta.accept(generateCompletion(systemPrompt, userPrompt));
+    }
+}
@@ -0,0 +1,324 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.davidgeorgehope.socialmediaposter.model.AccountSchedule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Posts for many LinkedIn accounts, each on its own schedule (see AccountSchedule), enabled with
+// scheduler.accounts.enabled. Every enabled account has exactly one upcoming slot in a hashed timing wheel;
+// when it fires, the account's following slot is scheduled and the post is handed to a bounded worker pool.
+// Posts of one account run one after another, different accounts in parallel. Schedules are reloaded from
+// Elasticsearch every scheduler.accounts.reload-interval-ms and right away when changed through the API.
+// In scheduler.mode=cluster only the lease holder posts, and each account slot is claimed like a cron slot;
+// the lease holder also catches up, every scheduler.catch-up.interval-ms, the latest unclaimed slot of each
+// account within scheduler.accounts.max-lateness-ms, which covers slots that fired while no node held the lease.
+// A post the saturated worker pool rejects goes back on the wheel for scheduler.accounts.retry-delay-ms and is
+// retried until it is max-lateness late, when it is skipped like any other late slot.
+// Metrics: scheduler.accounts.scheduled, scheduler.accounts.dispatches{result}, scheduler.accounts.lag.
+@Service
+public class AccountPostingEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(AccountPostingEngine.class);
+
+    private final AccountScheduleStore scheduleStore;
+    private final PostSchedulerService postSchedulerService;
+    private final SchedulerLease schedulerLease;
+    private final SchedulerSlots schedulerSlots;
+    private final boolean enabled;
+    private final Duration maxLateness;
+    private final Duration retryDelay;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Deque<Slot>> accountQueues = new ConcurrentHashMap<>();
+    private final TimingWheel<Slot> wheel;
+    private final ThreadPoolExecutor workers;
+    private final Counter posted;
+    private final Counter failed;
+    private final Counter skipped;
+    private final Counter rejected;
+    private final Timer lag;
+
+    public AccountPostingEngine(AccountScheduleStore scheduleStore, PostSchedulerService postSchedulerService,
+                                SchedulerLease schedulerLease, SchedulerSlots schedulerSlots, MeterRegistry meterRegistry,
+                                @Value("${scheduler.accounts.enabled:false}") boolean enabled,
+                                @Value("${scheduler.accounts.workers:8}") int workerCount,
+                                @Value("${scheduler.accounts.queue-capacity:1000}") int queueCapacity,
+                                @Value("${scheduler.accounts.tick-ms:100}") long tickMs,
+                                @Value("${scheduler.accounts.wheel-size:512}") int wheelSize,
+                                @Value("${scheduler.accounts.max-lateness-ms:600000}") long maxLatenessMs,
+                                @Value("${scheduler.accounts.retry-delay-ms:5000}") long retryDelayMs) {
+        this.scheduleStore = scheduleStore;
+        this.postSchedulerService = postSchedulerService;
+        this.schedulerLease = schedulerLease;
+        this.schedulerSlots = schedulerSlots;
+        this.enabled = enabled;
+        this.maxLateness = Duration.ofMillis(maxLatenessMs);
+        this.retryDelay = Duration.ofMillis(retryDelayMs);
+        this.wheel = enabled ? new TimingWheel<>("account-wheel", Duration.ofMillis(tickMs), wheelSize, this::onDue) : null;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "account-post-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.workers.allowCoreThreadTimeOut(true);
+        this.posted = meterRegistry.counter("scheduler.accounts.dispatches", "result", "posted");
+        this.failed = meterRegistry.counter("scheduler.accounts.dispatches", "result", "failed");
+        this.skipped = meterRegistry.counter("scheduler.accounts.dispatches", "result", "skipped");
+        this.rejected = meterRegistry.counter("scheduler.accounts.dispatches", "result", "rejected");
+        this.lag = meterRegistry.timer("scheduler.accounts.lag");
+        meterRegistry.gauge("scheduler.accounts.scheduled", entries, Map::size);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${scheduler.accounts.reload-interval-ms:300000}", initialDelay = 300000)
+    public void reload() {
+        if (!enabled) {
+            return;
+        }
+        Set<String> seen = new HashSet<>();
+        try {
+            long count = scheduleStore.forEach(schedule -> {
+                seen.add(schedule.account());
+                apply(schedule.account(), schedule);
+            });
+            entries.keySet().stream().filter(account -> !seen.contains(account)).toList()
+                    .forEach(account -> apply(account, null));
+            logger.info("Loaded {} account schedules, {} accounts have an upcoming slot", count, entries.size());
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to load account schedules", e);
+        }
+    }
+
+    // Picks up a schedule that was just saved or deleted, without waiting for the next reload
+    public void refresh(String account) throws IOException {
+        if (enabled) {
+            apply(account, scheduleStore.get(account).orElse(null));
+        }
+    }
+
+    private void apply(String account, AccountSchedule schedule) {
+        entries.compute(account, (key, current) -> {
+            if (schedule == null || !schedule.postsEnabled()) {
+                if (current != null) {
+                    current.timeout().cancel();
+                }
+                return null;
+            }
+            if (current != null && current.schedule().equals(schedule)) {
+                return current;
+            }
+            if (current != null) {
+                current.timeout().cancel();
+            }
+            try {
+                return scheduleNext(schedule, Instant.now());
+            } catch (RuntimeException e) {
+                logger.warn("Ignoring invalid schedule for {}: {}", account, e.getMessage());
+                return null;
+            }
+        });
+    }
+
+    private Entry scheduleNext(AccountSchedule schedule, Instant after) {
+        return schedule.nextSlotAfter(after)
+                .map(slot -> new Entry(schedule, wheel.schedule(new Slot(schedule.account(), slot, false), slot)))
+                .orElse(null);
+    }
+
+    // Cluster mode only: posts the slots the lease holder's wheel never dispatched. Of several missed slots of
+    // one account only the latest is posted, the older ones are recorded as skipped, like PostSchedulerService
+    // does for cron slots. A slot still waiting behind a running post may be dispatched twice; the claim in
+    // post() lets only one of them through.
+    @Scheduled(fixedDelayString = "${scheduler.catch-up.interval-ms:60000}", initialDelay = 60000)
+    public void catchUp() {
+        if (!enabled || !schedulerLease.isLeader()) {
+            return;
+        }
+        Instant now = Instant.now();
+        for (Entry entry : entries.values()) {
+            String account = entry.schedule().account();
+            try {
+                List<Instant> due = new ArrayList<>();
+                for (Optional<Instant> slot = entry.schedule().nextSlotAfter(now.minus(maxLateness));
+                     slot.isPresent() && !slot.get().isAfter(now);
+                     slot = entry.schedule().nextSlotAfter(slot.get())) {
+                    due.add(slot.get());
+                }
+                for (int i = 0; i < due.size(); i++) {
+                    Instant at = due.get(i);
+                    if (schedulerSlots.isClaimed(jobFor(account), at)) {
+                        continue;
+                    }
+                    if (i < due.size() - 1) {
+                        if (schedulerSlots.claim(jobFor(account), at, schedulerLease.nodeId(), SchedulerSlots.STATUS_SKIPPED)) {
+                            logger.warn("Skipping missed slot {} for {}, a later slot is also due", at, account);
+                            skipped.increment();
+                        }
+                        continue;
+                    }
+                    logger.info("Catching up missed slot {} for {}", at, account);
+                    executeSerially(new Slot(account, at, false));
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to catch up slots for {}: {}", account, e.getMessage());
+            }
+        }
+    }
+
+    // Runs on the wheel thread: schedule the account's next slot, then hand the post to the workers
+    private void onDue(Slot slot) {
+        if (slot.retry()) {
+            executeSerially(slot);
+            return;
+        }
+        Entry[] current = new Entry[1];
+        entries.computeIfPresent(slot.account(), (account, entry) -> {
+            if (entry.timeout().task() != slot) {
+                return entry;
+            }
+            current[0] = entry;
+            return scheduleNext(entry.schedule(), slot.at());
+        });
+        if (current[0] == null) {
+            return;
+        }
+        executeSerially(slot);
+    }
+
+    private void post(Slot slot) {
+        Duration late = Duration.between(slot.at(), Instant.now());
+        lag.record(late.isNegative() ? Duration.ZERO : late);
+        String job = jobFor(slot.account());
+        try {
+            if (late.compareTo(maxLateness) > 0) {
+                logger.warn("Skipping slot {} for {}, it is {} s late", slot.at(), slot.account(), late.toSeconds());
+                skipped.increment();
+                if (schedulerLease.isLeader()) {
+                    schedulerSlots.claim(job, slot.at(), schedulerLease.nodeId(), SchedulerSlots.STATUS_SKIPPED);
+                }
+                return;
+            }
+            // A non-leader leaves the slot unclaimed for the lease holder, or its catch-up after a failover
+            if (schedulerLease.isClusterMode()
+                    && (!schedulerLease.isLeader()
+                    || !schedulerSlots.claim(job, slot.at(), schedulerLease.nodeId(), SchedulerSlots.STATUS_RUNNING))) {
+                skipped.increment();
+                return;
+            }
+            postSchedulerService.schedulePost(slot.account(), slot.at());
+            posted.increment();
+            if (schedulerLease.isClusterMode()) {
+                schedulerSlots.finish(job, slot.at(), SchedulerSlots.STATUS_DONE);
+            }
+        } catch (IOException | RuntimeException e) {
+            failed.increment();
+            logger.error("Scheduled post for {} at {} failed", slot.account(), slot.at(), e);
+            if (schedulerLease.isClusterMode()) {
+                schedulerSlots.finish(job, slot.at(), SchedulerSlots.STATUS_FAILED);
+            }
+        }
+    }
+
+    private static String jobFor(String account) {
+        return "account_" + account;
+    }
+
+    // Queues the slot behind any post of the same account that is still running; the first slot of an idle
+    // account starts a drain on a worker, which then posts that account's slots in order
+    private void executeSerially(Slot slot) {
+        String account = slot.account();
+        boolean[] idle = new boolean[1];
+        accountQueues.compute(account, (key, queue) -> {
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                idle[0] = true;
+            }
+            queue.add(slot);
+            return queue;
+        });
+        if (!idle[0]) {
+            return;
+        }
+        try {
+            workers.execute(() -> drain(account));
+        } catch (RejectedExecutionException e) {
+            Deque<Slot> queued = accountQueues.remove(account);
+            if (queued == null || workers.isShutdown()) {
+                return;
+            }
+            rejected.increment(queued.size());
+            logger.warn("Posting workers are saturated, retrying {} scheduled post(s) for {} in {} ms",
+                    queued.size(), account, retryDelay.toMillis());
+            Instant retryAt = Instant.now().plus(retryDelay);
+            queued.forEach(queuedSlot -> wheel.schedule(new Slot(account, queuedSlot.at(), true), retryAt));
+        }
+    }
+
+    private void drain(String account) {
+        while (true) {
+            Slot[] next = new Slot[1];
+            accountQueues.computeIfPresent(account, (key, queue) -> {
+                next[0] = queue.peek();
+                return queue;
+            });
+            if (next[0] == null) {
+                return;
+            }
+            post(next[0]);
+            boolean[] more = new boolean[1];
+            accountQueues.computeIfPresent(account, (key, queue) -> {
+                queue.poll();
+                more[0] = !queue.isEmpty();
+                return more[0] ? queue : null;
+            });
+            if (!more[0]) {
+                return;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (wheel != null) {
+            wheel.stop();
+        }
+        workers.shutdownNow();
+    }
+
+    // retry marks a slot put back on the wheel after the workers rejected it, rather than the account's next slot
+    private record Slot(String account, Instant at, boolean retry) {
+    }
+
+    private record Entry(AccountSchedule schedule, TimingWheel<Slot>.Timeout timeout) {
+    }
+}
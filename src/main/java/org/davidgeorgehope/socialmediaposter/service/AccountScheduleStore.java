@@ -0,0 +1,96 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.Result;
+import co.elastic.clients.elasticsearch.core.GetResponse;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import org.davidgeorgehope.socialmediaposter.model.AccountSchedule;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+// Per-account posting schedules, one document per account with the account as its id
+@Service
+public class AccountScheduleStore {
+
+    private static final String SCHEDULE_INDEX = "social-pilot-account-schedules";
+    private static final String PIT_KEEP_ALIVE = "1m";
+    private static final int PAGE_SIZE = 1000;
+
+    private final ElasticsearchClient esClient;
+
+    public AccountScheduleStore(ElasticsearchClient esClient) {
+        this.esClient = esClient;
+    }
+
+    public Optional<AccountSchedule> get(String account) throws IOException {
+        GetResponse<AccountSchedule> response = esClient.get(g -> g.index(SCHEDULE_INDEX).id(account), AccountSchedule.class);
+        return response.found() ? Optional.ofNullable(response.source()) : Optional.empty();
+    }
+
+    public AccountSchedule save(AccountSchedule schedule) throws IOException {
+        AccountSchedule stored = schedule.withUpdatedAt(Instant.now());
+        esClient.index(i -> i.index(SCHEDULE_INDEX).id(stored.account()).document(stored));
+        return stored;
+    }
+
+    public boolean delete(String account) throws IOException {
+        return esClient.delete(d -> d.index(SCHEDULE_INDEX).id(account)).result() == Result.Deleted;
+    }
+
+    // Streams every schedule with a point in time and search_after, so thousands of accounts are read page by page
+    public long forEach(Consumer<AccountSchedule> consumer) throws IOException {
+        if (!esClient.indices().exists(e -> e.index(SCHEDULE_INDEX)).value()) {
+            return 0;
+        }
+        String pitId = esClient.openPointInTime(p -> p
+                .index(SCHEDULE_INDEX)
+                .keepAlive(k -> k.time(PIT_KEEP_ALIVE))
+        ).id();
+
+        long streamed = 0;
+        try {
+            List<FieldValue> searchAfter = null;
+            while (true) {
+                String currentPit = pitId;
+                List<FieldValue> after = searchAfter;
+                SearchResponse<AccountSchedule> response = esClient.search(s -> {
+                    s.pit(p -> p.id(currentPit).keepAlive(k -> k.time(PIT_KEEP_ALIVE)))
+                            .size(PAGE_SIZE)
+                            .sort(sort -> sort.field(f -> f.field("_shard_doc")))
+                            .trackTotalHits(t -> t.enabled(false));
+                    if (after != null) {
+                        s.searchAfter(after);
+                    }
+                    return s;
+                }, AccountSchedule.class);
+
+                List<Hit<AccountSchedule>> hits = response.hits().hits();
+                for (Hit<AccountSchedule> hit : hits) {
+                    if (hit.source() != null) {
+                        consumer.accept(hit.source().account() != null ? hit.source() : hit.source().withAccount(hit.id()));
+                        streamed++;
+                    }
+                }
+
+                if (hits.size() < PAGE_SIZE) {
+                    break;
+                }
+                searchAfter = hits.get(hits.size() - 1).sort();
+                if (response.pitId() != null) {
+                    pitId = response.pitId();
+                }
+            }
+        } finally {
+            String pitToClose = pitId;
+            esClient.closePointInTime(c -> c.id(pitToClose));
+        }
+        return streamed;
+    }
+}
@@ -0,0 +1,143 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+// Readability-style main content extraction: strips page chrome (navigation, footers, cookie banners,
+// sidebars), scores the containers of paragraphs by how much prose they hold, and returns the text of
+// the best one. Falls back to the whole body when no container holds a reasonable amount of text.
+@Service
+public class ArticleExtractor {
+
+    private static final String CHROME_TAGS = "script, style, noscript, template, iframe, svg, form, button, "
+            + "nav, header, footer, aside, dialog";
+    private static final Pattern UNLIKELY = Pattern.compile(
+            "cookie|consent|banner|gdpr|nav|menu|footer|header|sidebar|comment|share|social|related|promo"
+                    + "|subscribe|newsletter|signup|popup|modal|breadcrumb|advert|sponsor|skip-link|toolbar",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern LIKELY = Pattern.compile(
+            "article|content|entry|main|post|story|body|text|blog", Pattern.CASE_INSENSITIVE);
+    private static final String PARAGRAPHS = "p, pre, blockquote, li, h2, h3, h4";
+    private static final int MIN_PARAGRAPH_CHARS = 25;
+    private static final int MIN_ARTICLE_CHARS = 250;
+
+    public String extract(Document doc) {
+        Element body = doc.clone().body();
+        if (body == null) {
+            return "";
+        }
+        body.select(CHROME_TAGS).remove();
+        removeUnlikelyCandidates(body);
+
+        Element article = bestCandidate(body);
+        String text = article != null ? textOf(article) : "";
+        return text.length() >= MIN_ARTICLE_CHARS ? text : body.text();
+    }
+
+    private static void removeUnlikelyCandidates(Element body) {
+        for (Element element : body.select("[class], [id], [role]")) {
+            if (element == body || element.tagName().equals("article") || element.tagName().equals("main")) {
+                continue;
+            }
+            String role = element.attr("role");
+            if (role.equals("navigation") || role.equals("banner") || role.equals("contentinfo")
+                    || role.equals("complementary") || role.equals("dialog")) {
+                element.remove();
+                continue;
+            }
+            String signature = element.className() + " " + element.id();
+            if (UNLIKELY.matcher(signature).find() && !LIKELY.matcher(signature).find()) {
+                element.remove();
+            }
+        }
+    }
+
+    // Every paragraph adds to its parent's score and half as much to its grandparent's, so the element
+    // that directly wraps most of the prose wins; link-heavy containers are scaled down
+    private static Element bestCandidate(Element body) {
+        Map<Element, Double> scores = new HashMap<>();
+        for (Element paragraph : body.select(PARAGRAPHS)) {
+            String text = paragraph.text();
+            if (text.length() < MIN_PARAGRAPH_CHARS) {
+                continue;
+            }
+            double score = 1 + text.split(",").length + Math.min(text.length() / 100, 3);
+            Element parent = paragraph.parent();
+            if (parent != null) {
+                scores.merge(parent, score, Double::sum);
+                Element grandparent = parent.parent();
+                if (grandparent != null) {
+                    scores.merge(grandparent, score / 2, Double::sum);
+                }
+            }
+        }
+
+        Element best = null;
+        double bestScore = 0;
+        for (Map.Entry<Element, Double> entry : scores.entrySet()) {
+            Element candidate = entry.getKey();
+            double score = entry.getValue() * (1 - linkDensity(candidate));
+            if (LIKELY.matcher(candidate.className() + " " + candidate.id()).find()
+                    || candidate.tagName().equals("article") || candidate.tagName().equals("main")) {
+                score *= 1.25;
+            }
+            if (score > bestScore) {
+                best = candidate;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private static double linkDensity(Element element) {
+        int textLength = element.text().length();
+        if (textLength == 0) {
+            return 1;
+        }
+        int linkLength = 0;
+        for (Element link : element.select("a")) {
+            linkLength += link.text().length();
+        }
+        return Math.min(1, (double) linkLength / textLength);
+    }
+
+    // Keeps paragraph breaks so the prompt reads like the article rather than one run-on line
+    private static String textOf(Element article) {
+        Elements blocks = article.select(PARAGRAPHS);
+        if (blocks.isEmpty()) {
+            return article.text();
+        }
+        Set<Element> blockSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        blockSet.addAll(blocks);
+        StringBuilder text = new StringBuilder();
+        for (Element block : blocks) {
+            // Nested blocks (a <p> inside an <li>) are already part of their ancestor's text
+            if (hasBlockAncestor(block, article, blockSet)) {
+                continue;
+            }
+            String blockText = block.text();
+            if (!blockText.isEmpty()) {
+                text.append(blockText).append("\n\n");
+            }
+        }
+        return text.toString().trim();
+    }
+
+    private static boolean hasBlockAncestor(Element block, Element article, Set<Element> blocks) {
+        for (Element ancestor = block.parent(); ancestor != null && ancestor != article; ancestor = ancestor.parent()) {
+            if (blocks.contains(ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
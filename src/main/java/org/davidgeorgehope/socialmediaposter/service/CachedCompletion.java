@@ -0,0 +1,14 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Instant;
+
+// A stored LLM response plus what it originally cost to produce, so cache hits can report saved latency
+public record CachedCompletion(
+        String provider,
+        String model,
+        String response,
+        @JsonProperty("latency_ms") long latencyMs,
+        @JsonProperty("created_at") Instant createdAt) {
+}
@@ -0,0 +1,150 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+// Decorates a provider with a two-tier response cache keyed on a hash of provider, model, system prompt
+// and user prompt: a bounded in-memory tier in front of the persistent LlmResponseStore. The system prompt
+// includes any retrieved context, so enabling ContextRetriever lowers the hit rate; see there.
+// Metrics: ai.cache.requests{result=memory_hit|store_hit|miss|bypass} and ai.cache.saved (original latency of each hit).
+public class CachingAICompletionService implements AICompletionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingAICompletionService.class);
+
+    private final AICompletionService delegate;
+    private final LlmResponseStore store;
+    private final Cache<String, CachedCompletion> memory;
+    private final Counter memoryHits;
+    private final Counter storeHits;
+    private final Counter misses;
+    private final Counter bypasses;
+    private final Timer savedLatency;
+
+    public CachingAICompletionService(AICompletionService delegate, LlmResponseStore store,
+                                      long maxMemoryEntries, Duration ttl, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.store = store;
+        this.memory = Caffeine.newBuilder()
+                .maximumSize(maxMemoryEntries)
+                .expireAfterWrite(ttl)
+                .build();
+        this.memoryHits = meterRegistry.counter("ai.cache.requests", "result", "memory_hit");
+        this.storeHits = meterRegistry.counter("ai.cache.requests", "result", "store_hit");
+        this.misses = meterRegistry.counter("ai.cache.requests", "result", "miss");
+        this.bypasses = meterRegistry.counter("ai.cache.requests", "result", "bypass");
+        this.savedLatency = meterRegistry.timer("ai.cache.saved");
+        meterRegistry.gauge("ai.cache.hit.ratio", this, CachingAICompletionService::hitRatio);
+    }
+
+    @Override
+    public String generateCompletion(String systemPrompt, String userPrompt) {
+        return generateCompletion(systemPrompt, userPrompt, false);
+    }
+
+    @Override
+    public String generateCompletion(String systemPrompt, String userPrompt, boolean bypassCache) {
+        String key = cacheKey(systemPrompt, userPrompt);
+        if (bypassCache) {
+            bypasses.increment();
+        } else {
+            Optional<CachedCompletion> cached = lookup(key);
+            if (cached.isPresent()) {
+                return cached.get().response();
+            }
+        }
+
+        long start = System.nanoTime();
+        String response = delegate.generateCompletion(systemPrompt, userPrompt);
+        remember(key, response, start);
+        return response;
+    }
+
+    @Override
+    public void streamCompletion(String systemPrompt, String userPrompt, Consumer<String> onDelta) {
+        String key = cacheKey(systemPrompt, userPrompt);
+        Optional<CachedCompletion> cached = lookup(key);
+        if (cached.isPresent()) {
+            onDelta.accept(cached.get().response());
+            return;
+        }
+
+        long start = System.nanoTime();
+        StringBuilder full = new StringBuilder();
+        delegate.streamCompletion(systemPrompt, userPrompt, delta -> {
+            full.append(delta);
+            onDelta.accept(delta);
+        });
+        remember(key, full.toString(), start);
+    }
+
+    @Override
+    public String providerName() {
+        return delegate.providerName();
+    }
+
+    @Override
+    public String modelName() {
+        return delegate.modelName();
+    }
+
+    private Optional<CachedCompletion> lookup(String key) {
+        CachedCompletion entry = memory.getIfPresent(key);
+        if (entry != null) {
+            memoryHits.increment();
+        } else {
+            entry = store.get(key).orElse(null);
+            if (entry == null) {
+                misses.increment();
+                return Optional.empty();
+            }
+            storeHits.increment();
+            memory.put(key, entry);
+        }
+        savedLatency.record(Duration.ofMillis(entry.latencyMs()));
+        logger.debug("LLM cache hit for key {}", key);
+        return Optional.of(entry);
+    }
+
+    private void remember(String key, String response, long startNanos) {
+        if (response == null || response.isEmpty()) {
+            return;
+        }
+        long latencyMs = Duration.ofNanos(System.nanoTime() - startNanos).toMillis();
+        CachedCompletion entry = new CachedCompletion(providerName(), modelName(), response, latencyMs, Instant.now());
+        memory.put(key, entry);
+        store.put(key, entry);
+    }
+
+    private String cacheKey(String systemPrompt, String userPrompt) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[]{providerName(), modelName(), systemPrompt, userPrompt}) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private double hitRatio() {
+        double hits = memoryHits.count() + storeHits.count();
+        double total = hits + misses.count();
+        return total == 0 ? 0 : hits / total;
+    }
+}
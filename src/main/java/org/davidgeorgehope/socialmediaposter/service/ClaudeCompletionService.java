@@ -1,54 +1,148 @@
 package org.davidgeorgehope.socialmediaposter.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 @Service
 public class ClaudeCompletionService implements AICompletionService {
 
+    private static final String MODEL = "claude-3-5-sonnet-20240620";
+
     private final RestTemplate restTemplate;
+    private final CloseableHttpClient httpClient;
     private final String apiKey;
-    private final String apiUrl = "https://api.anthropic.com/v1/messages";
+    private final String apiUrl;
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public ClaudeCompletionService(RestTemplate restTemplate, @Value("${claude.api.key}") String apiKey) {
+    public ClaudeCompletionService(RestTemplate restTemplate, CloseableHttpClient httpClient,
+                                   @Value("${claude.api.key}") String apiKey,
+                                   @Value("${claude.api.url:https://api.anthropic.com/v1/messages}") String apiUrl) {
         this.restTemplate = restTemplate;
+        this.httpClient = httpClient;
         this.apiKey = apiKey;
+        this.apiUrl = apiUrl;
+    }
+
+    @Override
+    public String providerName() {
+        return "claude";
+    }
+
+    @Override
+    public String modelName() {
+        return MODEL;
     }
 
     @Override
     public String generateCompletion(String systemPrompt, String userPrompt) {
+        return generateCompletion(systemPrompt, userPrompt, false, new CompletionAttempt());
+    }
+
+    // Sent on the shared pooled client rather than RestTemplate so the request object is at hand: cancelling it
+    // closes the connection, which unblocks a read that is waiting on a slow response
+    @Override
+    public String generateCompletion(String systemPrompt, String userPrompt, boolean bypassCache, CompletionAttempt attempt) {
+        HttpPost request = new HttpPost(apiUrl);
+        buildHeaders().forEach((name, values) -> values.forEach(value -> request.addHeader(name, value)));
+        try {
+            request.setEntity(new ByteArrayEntity(objectMapper.writeValueAsBytes(buildRequestBody(systemPrompt, userPrompt, false)),
+                    ContentType.APPLICATION_JSON));
+            attempt.onAbort(request::cancel);
+            JsonNode response = httpClient.execute(request, httpResponse -> {
+                JsonNode body = objectMapper.readTree(httpResponse.getEntity().getContent());
+                if (httpResponse.getCode() >= 300) {
+                    throw new RuntimeException("Claude API returned " + httpResponse.getCode() + ": "
+                            + body.path("error").path("message").asText());
+                }
+                return body;
+            });
+            String text = response.path("content").path(0).path("text").asText(null);
+            if (text != null) {
+                return text;
+            }
+        } catch (IOException e) {
+            attempt.throwIfAborted();
+            throw new UncheckedIOException("Claude API request failed", e);
+        }
+
+        throw new RuntimeException("Failed to get response from Claude API");
+    }
+
+    // Reads the server-sent events of a streamed message and forwards the text of each content_block_delta
+    @Override
+    public void streamCompletion(String systemPrompt, String userPrompt, Consumer<String> onDelta) {
+        Map<String, Object> requestBody = buildRequestBody(systemPrompt, userPrompt, true);
+
+        restTemplate.execute(apiUrl, HttpMethod.POST,
+            request -> {
+                request.getHeaders().putAll(buildHeaders());
+                request.getHeaders().setAccept(List.of(MediaType.TEXT_EVENT_STREAM));
+                objectMapper.writeValue(request.getBody(), requestBody);
+            },
+            response -> {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.getBody(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.startsWith("data:")) {
+                            continue;
+                        }
+                        JsonNode event = objectMapper.readTree(line.substring(5).trim());
+                        String type = event.path("type").asText();
+                        if ("content_block_delta".equals(type)) {
+                            String text = event.path("delta").path("text").asText("");
+                            if (!text.isEmpty()) {
+                                onDelta.accept(text);
+                            }
+                        } else if ("error".equals(type)) {
+                            throw new RuntimeException("Claude API stream error: " + event.path("error").path("message").asText());
+                        } else if ("message_stop".equals(type)) {
+                            break;
+                        }
+                    }
+                }
+                return null;
+            });
+    }
+
+    private HttpHeaders buildHeaders() {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
         headers.set("x-api-key", apiKey);
         headers.set("anthropic-version", "2023-06-01");
+        return headers;
+    }
 
+    private Map<String, Object> buildRequestBody(String systemPrompt, String userPrompt, boolean stream) {
         Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("model", "claude-3-5-sonnet-20240620");
+        requestBody.put("model", MODEL);
         requestBody.put("max_tokens", 1000);
         requestBody.put("system", systemPrompt);
         requestBody.put("messages", List.of(
             Map.of("role", "user", "content", userPrompt)
         ));
-
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
-
-        Map<String, Object> response = restTemplate.postForObject(apiUrl, request, Map.class);
-
-        if (response != null && response.containsKey("content")) {
-            List<Map<String, Object>> content = (List<Map<String, Object>>) response.get("content");
-            if (!content.isEmpty() && content.get(0).containsKey("text")) {
-                return (String) content.get(0).get("text");
-            }
+        if (stream) {
+            requestBody.put("stream", true);
         }
-
-        throw new RuntimeException("Failed to get response from Claude API");
+        return requestBody;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,57 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import java.util.concurrent.CancellationException;
+
+// One request to a provider as the router sees it. The throttle marks when the request really starts, so time
+// spent waiting for a permit is not counted as backend latency, and the provider registers how to abort its
+// HTTP call (HttpUriRequestBase#cancel, OkHttp Call#cancel) so a hedge loser stops instead of running on.
+public final class CompletionAttempt {
+
+    private final long createdNanos = System.nanoTime();
+    private volatile long startedNanos;
+    private Runnable abortAction;
+    private boolean aborted;
+
+    public void started() {
+        startedNanos = System.nanoTime();
+    }
+
+    // When the request started, or when the attempt was created if nothing marked the start
+    public long startNanos() {
+        long started = startedNanos;
+        return started != 0 ? started : createdNanos;
+    }
+
+    // Runs the action right away when the attempt was already aborted
+    public void onAbort(Runnable action) {
+        synchronized (this) {
+            if (!aborted) {
+                abortAction = action;
+                return;
+            }
+        }
+        action.run();
+    }
+
+    public void abort() {
+        Runnable action;
+        synchronized (this) {
+            aborted = true;
+            action = abortAction;
+            abortAction = null;
+        }
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    public synchronized boolean isAborted() {
+        return aborted;
+    }
+
+    public void throwIfAborted() {
+        if (isAborted()) {
+            throw new CancellationException("Completion request aborted");
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.davidgeorgehope.socialmediaposter.model.SocialPilotContent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Bounded, TTL-based read-through cache for single content documents.
+// Hit/miss/eviction counters are published as the "content" cache meters.
+@Component
+public class ContentCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentCache.class);
+
+    @FunctionalInterface
+    public interface Loader {
+        SocialPilotContent load() throws IOException;
+    }
+
+    private final Cache<String, SocialPilotContent> cache;
+    // Bumped on every invalidation so a load that raced with a write is not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    public ContentCache(@Value("${content.cache.enabled:true}") boolean enabled,
+                        @Value("${content.cache.max-size:1000}") long maxSize,
+                        @Value("${content.cache.ttl-seconds:300}") long ttlSeconds,
+                        MeterRegistry meterRegistry) {
+        if (enabled) {
+            this.cache = Caffeine.newBuilder()
+                    .maximumSize(maxSize)
+                    .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                    .recordStats()
+                    .build();
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, "content");
+            logger.info("Content cache enabled: maxSize={}, ttl={}s", maxSize, ttlSeconds);
+        } else {
+            this.cache = null;
+            logger.info("Content cache disabled");
+        }
+    }
+
+    public SocialPilotContent get(String id, Loader loader) throws IOException {
+        if (cache == null) {
+            return loader.load();
+        }
+        SocialPilotContent cached = cache.getIfPresent(id);
+        if (cached != null) {
+            return cached;
+        }
+        long loadGeneration = generation.get();
+        SocialPilotContent loaded = loader.load();
+        putIfCurrent(id, loaded, loadGeneration);
+        return loaded;
+    }
+
+    public CompletableFuture<SocialPilotContent> getAsync(String id, Supplier<CompletableFuture<SocialPilotContent>> loader) {
+        if (cache == null) {
+            return loader.get();
+        }
+        SocialPilotContent cached = cache.getIfPresent(id);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        long loadGeneration = generation.get();
+        return loader.get().thenApply(loaded -> {
+            putIfCurrent(id, loaded, loadGeneration);
+            return loaded;
+        });
+    }
+
+    // The generation check and the insert run under the entry's lock, which invalidating the same id also
+    // takes, so a load that raced with a write is never stored after that write's invalidation. A full
+    // invalidation does not lock every entry, hence the re-check that removes a value it may have missed.
+    private void putIfCurrent(String id, SocialPilotContent loaded, long loadGeneration) {
+        if (loaded == null) {
+            return;
+        }
+        cache.asMap().compute(id, (key, current) -> generation.get() == loadGeneration ? loaded : current);
+        if (generation.get() != loadGeneration) {
+            cache.asMap().remove(id, loaded);
+        }
+    }
+
+    @EventListener
+    public void onContentChanged(ContentChangedEvent event) {
+        if (cache == null) {
+            return;
+        }
+        if (event.contentId() == null) {
+            generation.incrementAndGet();
+            cache.invalidateAll();
+        } else {
+            cache.asMap().compute(event.contentId(), (key, current) -> {
+                generation.incrementAndGet();
+                return null;
+            });
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+// Published after every write to the content index. A null id means "anything may have changed".
+// In a multi-node setup, re-publish this event from the shared invalidation channel to keep caches coherent.
+public record ContentChangedEvent(String contentId) {
+}
@@ -0,0 +1,47 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+// One-off migration run with --content.backfill-ids=true: gives every document indexed before content_id
+// existed its _id as content_id, so the listing order is total for them too. Only documents lacking the field
+// are touched, so a second run retries the ones whose update failed and is otherwise a no-op.
+@Component
+@ConditionalOnProperty(name = "content.backfill-ids", havingValue = "true")
+public class ContentIdBackfillRunner implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentIdBackfillRunner.class);
+
+    private final ElasticsearchService elasticsearchService;
+    private final ConfigurableApplicationContext context;
+
+    // Stop the application once the backfill is done, so it can be run as a command
+    @Value("${content.backfill-ids.exit:true}")
+    private boolean exitWhenDone;
+
+    public ContentIdBackfillRunner(ElasticsearchService elasticsearchService, ConfigurableApplicationContext context) {
+        this.elasticsearchService = elasticsearchService;
+        this.context = context;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        ElasticsearchService.ContentIdBackfill backfill = elasticsearchService.backfillContentIds();
+        if (!backfill.failedIds().isEmpty()) {
+            logger.error("{} documents could not be given a content_id; run the backfill again to retry them: {}",
+                    backfill.failedIds().size(), backfill.failedIds());
+        }
+        logger.info("content_id backfill done: {} documents updated", backfill.backfilled());
+
+        if (exitWhenDone) {
+            System.exit(SpringApplication.exit(context, () -> 0));
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch.core.GetResponse;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import jakarta.annotation.PreDestroy;
+import org.davidgeorgehope.socialmediaposter.model.SocialPilotContent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Keeps content.pregen.buffer-size posts per account generated ahead of time, so a scheduled post that finds
+// no eligible content only has to take one from the index instead of waiting on the LLM.
+// Generation runs on one low-priority thread, during the off-peak window content.pregen.off-peak
+// (e.g. "01:00-06:00" in content.pregen.zone), and stops for the day once content.pregen.max-tokens-per-day
+// (estimated prompt plus completion tokens) is used up. An account whose buffer is empty is refilled
+// outside the window too, since its next post would otherwise have to generate synchronously.
+// In scheduler.mode=cluster only the lease holder generates. The day's spend is kept in the scheduler index
+// and updated with if_seq_no, so the budget holds across nodes and leader changes; when it cannot be read,
+// nothing is generated.
+@Service
+public class ContentPregenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentPregenerator.class);
+    private static final int BUDGET_WRITE_ATTEMPTS = 5;
+
+    private final ElasticsearchService elasticsearchService;
+    private final ElasticsearchOpenAIService elasticsearchOpenAIService;
+    private final AccountScheduleStore scheduleStore;
+    private final ElasticsearchClient esClient;
+    private final SchedulerLease schedulerLease;
+    private final String userEmail;
+    private final boolean accountsEnabled;
+    private final boolean enabled;
+    private final int bufferSize;
+    private final LocalTime offPeakStart;
+    private final LocalTime offPeakEnd;
+    private final ZoneId zone;
+    private final long maxTokensPerDay;
+    private final ThreadPoolExecutor executor;
+
+    public ContentPregenerator(ElasticsearchService elasticsearchService,
+                               ElasticsearchOpenAIService elasticsearchOpenAIService,
+                               AccountScheduleStore scheduleStore,
+                               ElasticsearchClient esClient,
+                               SchedulerLease schedulerLease,
+                               @Value("${linkedin.user-email}") String userEmail,
+                               @Value("${scheduler.accounts.enabled:false}") boolean accountsEnabled,
+                               @Value("${content.pregen.enabled:true}") boolean enabled,
+                               @Value("${content.pregen.buffer-size:2}") int bufferSize,
+                               @Value("${content.pregen.off-peak:01:00-06:00}") String offPeak,
+                               @Value("${content.pregen.zone:${scheduler.zone:America/New_York}}") String zone,
+                               @Value("${content.pregen.max-tokens-per-day:50000}") long maxTokensPerDay) {
+        this.elasticsearchService = elasticsearchService;
+        this.elasticsearchOpenAIService = elasticsearchOpenAIService;
+        this.scheduleStore = scheduleStore;
+        this.esClient = esClient;
+        this.schedulerLease = schedulerLease;
+        this.userEmail = userEmail;
+        this.accountsEnabled = accountsEnabled;
+        this.enabled = enabled;
+        this.bufferSize = bufferSize;
+        String[] window = offPeak.split("-");
+        this.offPeakStart = LocalTime.parse(window[0].trim());
+        this.offPeakEnd = LocalTime.parse(window[1].trim());
+        this.zone = ZoneId.of(zone);
+        this.maxTokensPerDay = maxTokensPerDay;
+        // One refill at a time; a refill requested while one is queued is redundant and dropped
+        this.executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1),
+                r -> {
+                    Thread t = new Thread(r, "content-pregen");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Scheduled(fixedDelayString = "${content.pregen.interval-ms:900000}", initialDelay = 120000)
+    public void refill() {
+        if (!enabled || (schedulerLease.isClusterMode() && !schedulerLease.isLeader())) {
+            return;
+        }
+        try {
+            executor.execute(this::refillAll);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Pre-generation already running or queued");
+        }
+    }
+
+    private void refillAll() {
+        boolean offPeak = isOffPeak(ZonedDateTime.now(zone).toLocalTime());
+        try {
+            for (String account : accounts()) {
+                long buffered = elasticsearchService.countPregenerated(account);
+                if (buffered >= bufferSize || (buffered > 0 && !offPeak)) {
+                    continue;
+                }
+                for (long i = buffered; i < bufferSize; i++) {
+                    if (!withinBudget()) {
+                        logger.info("Pre-generation token budget of {} used up for today", maxTokensPerDay);
+                        return;
+                    }
+                    generate(account);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Pre-generating content failed", e);
+        }
+    }
+
+    private void generate(String account) throws IOException {
+        long start = System.nanoTime();
+        String prompt = PostSchedulerService.GENERATION_PROMPT;
+        // Always a fresh completion: a cached one would make every buffered post identical
+        String text = elasticsearchOpenAIService.processQuestion(prompt, true);
+        long tokens = PromptBudget.estimateTokens(elasticsearchOpenAIService.createOpenAIPrompt(""))
+                + PromptBudget.estimateTokens(prompt) + PromptBudget.estimateTokens(text);
+        spend(tokens);
+
+        SocialPilotContent content = SocialPilotContent.of(text, "", "")
+                .withStatus(SocialPilotContent.STATUS_PREGENERATED)
+                .withAccount(account)
+                .withLastUpdated(Instant.now());
+        String id = elasticsearchService.indexContent(content);
+        logger.info("Pre-generated post {} for {} in {} ms (~{} tokens)", id, account,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), tokens);
+    }
+
+    private Set<String> accounts() throws IOException {
+        Set<String> accounts = new LinkedHashSet<>();
+        if (userEmail != null && !userEmail.isBlank()) {
+            accounts.add(userEmail);
+        }
+        if (accountsEnabled) {
+            scheduleStore.forEach(schedule -> {
+                if (schedule.postsEnabled()) {
+                    accounts.add(schedule.account());
+                }
+            });
+        }
+        return accounts;
+    }
+
+    private boolean isOffPeak(LocalTime time) {
+        if (offPeakStart.isBefore(offPeakEnd)) {
+            return !time.isBefore(offPeakStart) && time.isBefore(offPeakEnd);
+        }
+        // The window wraps around midnight
+        return !time.isBefore(offPeakStart) || time.isBefore(offPeakEnd);
+    }
+
+    private boolean withinBudget() {
+        try {
+            GetResponse<Budget> budget = budget(LocalDate.now(zone));
+            return budget == null || !budget.found() || budget.source().tokensUsed() < maxTokensPerDay;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to read the pre-generation token budget, generating nothing: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private void spend(long tokens) {
+        LocalDate day = LocalDate.now(zone);
+        for (int attempt = 0; attempt < BUDGET_WRITE_ATTEMPTS; attempt++) {
+            try {
+                GetResponse<Budget> current = budget(day);
+                if (current == null || !current.found()) {
+                    Budget created = new Budget(day.toString(), tokens, Instant.now());
+                    esClient.create(c -> c.index(SchedulerLease.SCHEDULER_INDEX).id(budgetId(day)).document(created));
+                } else {
+                    Budget updated = new Budget(day.toString(), current.source().tokensUsed() + tokens, Instant.now());
+                    esClient.index(i -> i.index(SchedulerLease.SCHEDULER_INDEX).id(budgetId(day))
+                            .ifSeqNo(current.seqNo()).ifPrimaryTerm(current.primaryTerm()).document(updated));
+                }
+                return;
+            } catch (IOException | RuntimeException e) {
+                if (!ElasticsearchErrors.isConflict(e)) {
+                    logger.warn("Failed to record {} pre-generation tokens: {}", tokens, e.getMessage());
+                    return;
+                }
+            }
+        }
+        logger.warn("Gave up recording {} pre-generation tokens after {} conflicting writes", tokens, BUDGET_WRITE_ATTEMPTS);
+    }
+
+    // Null when nothing was spent yet and the scheduler index does not exist
+    private GetResponse<Budget> budget(LocalDate day) throws IOException {
+        try {
+            return esClient.get(g -> g.index(SchedulerLease.SCHEDULER_INDEX).id(budgetId(day)), Budget.class);
+        } catch (ElasticsearchException e) {
+            if (e.status() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    static String budgetId(LocalDate day) {
+        return "pregen_budget_" + day;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    record Budget(
+            @JsonProperty("day") String day,
+            @JsonProperty("tokens_used") long tokensUsed,
+            @JsonProperty("updated_at") Instant updatedAt) {
+    }
+}
@@ -0,0 +1,201 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonData;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Finds previously written posts related to a question, for use as context in the prompt. The query is a
+// stored mustache search template, so the question is passed as a JSON-escaped parameter instead of being
+// pasted into query JSON. Each lookup gets ai.retrieval.timeout-ms; a slower or failed lookup yields no
+// context rather than delaying the completion, and a late answer still lands in the cache.
+// Contexts are cached per normalized question for ai.retrieval.cache.ttl-minutes.
+// Off unless ai.retrieval.enabled is set. The context becomes part of the system prompt, so it is also part of
+// the LLM response cache key (CachingAICompletionService): the same question only hits that cache while its
+// retrieved context is unchanged. New related posts, an expired context and a timed-out lookup (no context)
+// each make it miss, and an uncached question waits up to ai.retrieval.timeout-ms before the completion starts.
+// Metrics: ai.retrieval.requests{result=hit|miss|timeout|error} and ai.retrieval.latency.
+@Service
+public class ContextRetriever {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContextRetriever.class);
+    private static final String INDEX = "social-pilot-content";
+    private static final String TEMPLATE_ID = "social-pilot-retrieval";
+    private static final String TEMPLATE = """
+        {
+          "query": {
+            "nested": {
+              "path": "text.inference.chunks",
+              "query": {
+                "sparse_vector": {
+                  "inference_id": "social-pilot-inference",
+                  "field": "text.inference.chunks.embeddings",
+                  "query": "{{query}}"
+                }
+              },
+              "inner_hits": {
+                "size": 2,
+                "name": "social-pilot-content.text",
+                "_source": {
+                  "includes": ["text.inference.chunks.text"]
+                }
+              }
+            }
+          },
+          "_source": false,
+          "size": {{size}}
+        }
+        """;
+    private static final String INNER_HITS = INDEX + ".text";
+
+    private final ElasticsearchAsyncClient esAsyncClient;
+    private final Cache<String, String> contexts;
+    private final AtomicBoolean templateStored = new AtomicBoolean();
+    private final boolean enabled;
+    private final long timeoutMs;
+    private final int size;
+    private final int maxQueryChars;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter timeouts;
+    private final Counter errors;
+    private final Timer latency;
+
+    public ContextRetriever(ElasticsearchAsyncClient esAsyncClient, MeterRegistry meterRegistry,
+                            @Value("${ai.retrieval.enabled:false}") boolean enabled,
+                            @Value("${ai.retrieval.timeout-ms:500}") long timeoutMs,
+                            @Value("${ai.retrieval.size:3}") int size,
+                            @Value("${ai.retrieval.max-query-chars:2000}") int maxQueryChars,
+                            @Value("${ai.retrieval.cache.max-entries:1000}") long cacheMaxEntries,
+                            @Value("${ai.retrieval.cache.ttl-minutes:10}") long cacheTtlMinutes) {
+        this.esAsyncClient = esAsyncClient;
+        this.enabled = enabled;
+        this.timeoutMs = timeoutMs;
+        this.size = size;
+        this.maxQueryChars = maxQueryChars;
+        this.contexts = Caffeine.newBuilder()
+                .maximumSize(cacheMaxEntries)
+                .expireAfterWrite(Duration.ofMinutes(cacheTtlMinutes))
+                .build();
+        this.hits = meterRegistry.counter("ai.retrieval.requests", "result", "hit");
+        this.misses = meterRegistry.counter("ai.retrieval.requests", "result", "miss");
+        this.timeouts = meterRegistry.counter("ai.retrieval.requests", "result", "timeout");
+        this.errors = meterRegistry.counter("ai.retrieval.requests", "result", "error");
+        this.latency = meterRegistry.timer("ai.retrieval.latency");
+    }
+
+    // Context text for the prompt, or an empty string when retrieval is off, finds nothing or is too slow
+    public String contextFor(String question) {
+        if (!enabled || question == null || question.isBlank()) {
+            return "";
+        }
+        String key = normalize(question);
+        String cached = contexts.getIfPresent(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+
+        try {
+            // The budget applies to a copy, so a late answer still reaches the cache
+            return search(key).copy().orTimeout(timeoutMs, TimeUnit.MILLISECONDS).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                timeouts.increment();
+                logger.warn("Context retrieval exceeded its {} ms budget, continuing without context", timeoutMs);
+            } else {
+                errors.increment();
+                logger.warn("Context retrieval failed, continuing without context: {}", e.getCause().getMessage());
+            }
+            return "";
+        }
+    }
+
+    public CompletableFuture<List<Hit<Object>>> searchHits(String query) {
+        long start = System.nanoTime();
+        return storeTemplate()
+                .thenCompose(stored -> esAsyncClient.searchTemplate(s -> s
+                        .index(INDEX)
+                        .id(TEMPLATE_ID)
+                        .params("query", JsonData.of(query))
+                        .params("size", JsonData.of(size)), Object.class))
+                .thenApply(response -> response.hits().hits())
+                .whenComplete((result, error) -> {
+                    latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    if (error != null) {
+                        // The template may have been deleted, e.g. by a cluster reset; store it again next time
+                        templateStored.set(false);
+                    }
+                });
+    }
+
+    private CompletableFuture<String> search(String key) {
+        return searchHits(key).thenApply(results -> {
+            String context = buildContextFromHits(results);
+            // Cached even when the caller has given up waiting, so the next request benefits
+            contexts.put(key, context);
+            return context;
+        });
+    }
+
+    private CompletableFuture<Boolean> storeTemplate() {
+        if (templateStored.get()) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return esAsyncClient.putScript(p -> p
+                        .id(TEMPLATE_ID)
+                        .script(s -> s.lang("mustache").source(TEMPLATE)))
+                .thenApply(response -> {
+                    templateStored.set(true);
+                    logger.info("Stored search template {}", TEMPLATE_ID);
+                    return true;
+                });
+    }
+
+    // Only the start of a long question is used: the embedding model truncates its input anyway,
+    // and it keeps cache keys small
+    private String normalize(String question) {
+        String normalized = question.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        return normalized.length() > maxQueryChars ? normalized.substring(0, maxQueryChars) : normalized;
+    }
+
+    private static String buildContextFromHits(List<Hit<Object>> results) {
+        if (results == null || results.isEmpty()) {
+            return "";
+        }
+
+        StringBuilder context = new StringBuilder();
+        for (Hit<Object> hit : results) {
+            if (hit.innerHits() != null && hit.innerHits().containsKey(INNER_HITS)) {
+                hit.innerHits().get(INNER_HITS).hits().hits().stream()
+                    .map(Hit::source)
+                    .filter(Objects::nonNull)
+                    .map(source -> source.to(Map.class).get("text"))
+                    .filter(String.class::isInstance)
+                    .map(String.class::cast)
+                    .forEach(text -> context.append(text).append("\n --- \n"));
+            }
+        }
+        return context.toString();
+    }
+}
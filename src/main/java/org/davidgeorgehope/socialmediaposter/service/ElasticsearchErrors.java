@@ -0,0 +1,27 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import org.elasticsearch.client.ResponseException;
+
+// The Java client only parses error bodies for the status codes it asks the low-level client to ignore
+// (400, 401, 403, 404, 405); any other error, including a 409 from op_type=create or if_seq_no, arrives
+// as the low-level ResponseException instead of an ElasticsearchException.
+final class ElasticsearchErrors {
+
+    private ElasticsearchErrors() {
+    }
+
+    static boolean isConflict(Exception e) {
+        return status(e) == 409;
+    }
+
+    static int status(Exception e) {
+        if (e instanceof ElasticsearchException es) {
+            return es.status();
+        }
+        if (e instanceof ResponseException re) {
+            return re.getResponse().getStatusLine().getStatusCode();
+        }
+        return -1;
+    }
+}
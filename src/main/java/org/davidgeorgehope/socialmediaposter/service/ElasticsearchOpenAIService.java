@@ -1,7 +1,5 @@
 package org.davidgeorgehope.socialmediaposter.service;
 
-import co.elastic.clients.elasticsearch.ElasticsearchClient;
-import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.elasticsearch.core.search.Hit;
 import com.theokanning.openai.completion.chat.ChatCompletionRequest;
 import com.theokanning.openai.completion.chat.ChatMessage;
@@ -9,7 +7,6 @@ import com.theokanning.openai.service.OpenAiService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import java.net.URL;
@@ -20,100 +17,61 @@ import org.slf4j.LoggerFactory;
 import org.jsoup.select.Elements;
 
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 @Service
 public class ElasticsearchOpenAIService {
 
     private static final Logger logger = LoggerFactory.getLogger(ElasticsearchOpenAIService.class);
-    private final ElasticsearchClient esClient;
     private final AICompletionService aiCompletionService;
+    private final PageFetchCache pageFetchCache;
+    private final ArticleExtractor articleExtractor;
+    private final PromptBudget promptBudget;
+    private final ContextRetriever contextRetriever;
 
-    private static final Map<String, List<String>> INDEX_SOURCE_FIELDS = new HashMap<>();
-    static {
-        INDEX_SOURCE_FIELDS.put("social-pilot-content", List.of("text"));
-    }
+    private static final String ASSISTANT_PROMPT = "You are a social media content creator AI Assistant specializing in helping a user make posts for Site Reliability Engineers (SREs)"+
+        "Writing Guidelines:\n" +
+        "- Adopt a knowledgeable yet conversational tone, as if explaining concepts to a colleague.\n" +
+        "- Begin with a thought-provoking question or personal anecdote when appropriate.\n" +
+        "- Focus on real-world scenarios and practical applications.\n" +
+        "- Share insights or lessons learned from experience working with SREs.\n" +
+        "- Discuss challenges in observability and how they can be addressed.\n" +
+        "- Use technical terms accurately and explain them when necessary.\n" +
+        "- Provide actionable advice or step-by-step guidance.\n" +
+        "- Use emojis sparingly to add personality or for formatting where appropriate.\n" +
+        "- Avoid marketing language; strive for authenticity and human connection.\n\n" +
+        "Secondary Themes (to incorporate if relevant):\n" +
+        "- How Elastic Observability can solve key challenges for SREs.\n" +
+        "- Improving operational efficiency and reducing toil.\n" +
+        "- Enhancing observability strategies in organizations.\n\n";
 
     private static final Pattern URL_PATTERN = Pattern.compile("^(https?://)?[a-zA-Z0-9.-]+\\.[a-zA-Z]{2,4}(/\\S*)?$");
 
     @Autowired
-    public ElasticsearchOpenAIService(ElasticsearchClient esClient, AICompletionService aiCompletionService) {
-        this.esClient = esClient;
+    public ElasticsearchOpenAIService(AICompletionService aiCompletionService, PageFetchCache pageFetchCache,
+                                      ArticleExtractor articleExtractor, PromptBudget promptBudget,
+                                      ContextRetriever contextRetriever) {
         this.aiCompletionService = aiCompletionService;
+        this.pageFetchCache = pageFetchCache;
+        this.articleExtractor = articleExtractor;
+        this.promptBudget = promptBudget;
+        this.contextRetriever = contextRetriever;
     }
 
     public List<Hit<Object>> getElasticsearchResults(String query) throws IOException {
-        String esQuery = """
-        {
-          "query": {
-            "nested": {
-              "path": "text.inference.chunks",
-              "query": {
-                "sparse_vector": {
-                  "inference_id": "social-pilot-inference",
-                  "field": "text.inference.chunks.embeddings",
-                  "query": "%s"
-                }
-              },
-              "inner_hits": {
-                "size": 2,
-                "name": "social-pilot-content.text",
-                "_source": {
-                  "includes": ["text.inference.chunks.text"]
-                }
-              }
-            }
-          },
-          "size": 3
+        try {
+            return contextRetriever.searchHits(query).join();
+        } catch (CompletionException e) {
+            throw new IOException("Retrieval search failed", e.getCause());
         }
-        """.formatted(query);
-
-        SearchResponse<Object> response = esClient.search(s -> s
-            .index("social-pilot-content")
-            .withJson(new StringReader(esQuery)),
-            Object.class
-        );
-
-        return response.hits().hits();
     }
 
-    private String buildContextFromHits(List<Hit<Object>> results) {
-        if (results == null || results.isEmpty()) {
-            return "";
-        }
-
-        StringBuilder context = new StringBuilder();
-        for (Hit<Object> hit : results) {
-            String indexName = hit.index();
-            if (indexName != null && INDEX_SOURCE_FIELDS.containsKey(indexName)) {
-                String sourceField = INDEX_SOURCE_FIELDS.get(indexName).get(0);
-                String innerHitPath = indexName + "." + sourceField;
-                
-                if (hit.innerHits() != null && hit.innerHits().containsKey(innerHitPath)) {
-                    hit.innerHits().get(innerHitPath).hits().hits().stream()
-                        .map(Hit::source)
-                        .filter(Map.class::isInstance)
-                        .map(source -> ((Map<?, ?>) source).get("text"))
-                        .filter(String.class::isInstance)
-                        .map(String.class::cast)
-                        .forEach(text -> context.append(text).append("\n --- \n"));
-                } else if (hit.source() instanceof Map) {
-                    Object sourceValue = ((Map<?, ?>) hit.source()).get(sourceField);
-                    if (sourceValue instanceof String) {
-                        context.append((String) sourceValue).append("\n");
-                    }
-                }
-            }
-        }
-        return context.toString();
-    }
-
-    public String createOpenAIPrompt(List<Hit<Object>> results) {
-        String context = buildContextFromHits(results);
+    public String createOpenAIPrompt(String context) {
         return "You are a social media content creator specializing in posts for Site Reliability Engineers (SREs). Your task is to create engaging LinkedIn posts based on provided content while adhering to specific guidelines and themes.\n\n" +
         "The content will be provided in the user prompt. Your primary focus should be on this content. Use the following guidelines to enhance and frame the message without overshadowing it:\n\n" +
         "1. Adopt a knowledgeable yet conversational tone, as if explaining concepts to a colleague.\n" +
@@ -140,74 +98,103 @@ public class ElasticsearchOpenAIService {
         "4. Draft your post, ensuring it aligns with the writing guidelines and incorporates relevant themes.\n" +
         "5. Review your draft to ensure it focuses primarily on the user's content and doesn't overshadow it with additional information.\n\n" +
         "Take a step back and reflect carefully on how best to solve your task"+
-        "IMPORTANT: Output ONLY the final post. Do not include any explanations, notes, or commentary before or after the post. Do not use Markdown formatting. Do not use any tags in your output.\n" ;
+        "IMPORTANT: Output ONLY the final post. Do not include any explanations, notes, or commentary before or after the post. Do not use Markdown formatting. Do not use any tags in your output.\n" +
+        relatedPosts(context);
+    }
+
+    // Earlier posts on the same topic, so new posts stay consistent with them without repeating them
+    private static String relatedPosts(String context) {
+        if (context == null || context.isEmpty()) {
+            return "";
+        }
+        return "\nFor reference, here are excerpts from related posts written earlier. Keep the new post consistent with them, but do not repeat them:\n" +
+        context;
     }
     
     
 
     public String generateOpenAICompletion(String userPrompt, String question) {
-        String response = aiCompletionService.generateCompletion(userPrompt, question);
+        return generateOpenAICompletion(userPrompt, question, false);
+    }
+
+    public String generateOpenAICompletion(String userPrompt, String question, boolean regenerate) {
+        String response = aiCompletionService.generateCompletion(userPrompt, question, regenerate);
         return formatForLinkedIn(response);
     }
 
     public String formatForLinkedIn(String postContent) {
-        return postContent
+        String formatted = postContent
             .replaceAll("\\*\\*", "")  // Remove bold markers
             .replaceAll("_", "")        // Handle any italic markers if used
-            .replaceAll("\\* ", "- ")   // Replace bullet points
-            .replaceAll("\\[([^\\]]+)\\]\\((https?://[^\\)]+)\\)", "$2"); // Remove markdown links, keep URL
+            .replaceAll("\\* ", "- ");  // Replace bullet points
+        return LinkedInStreamFormatter.MARKDOWN_LINK.matcher(formatted).replaceAll("$2"); // Remove markdown links, keep URL
     }
     
 
     public String processQuestion(String question) throws IOException {
-        //List<Hit<Object>> elasticsearchResults = getElasticsearchResults(question);
-        String contextPrompt = createOpenAIPrompt(null);
-        return generateOpenAICompletion(contextPrompt, question);
+        return processQuestion(question, false);
+    }
+
+    // regenerate skips any cached completion for the same prompt
+    public String processQuestion(String question, boolean regenerate) throws IOException {
+        String contextPrompt = createOpenAIPrompt(contextRetriever.contextFor(question));
+        return generateOpenAICompletion(contextPrompt, question, regenerate);
     }
 
     public String processAssistantQuestion(String question) throws IOException {
-        //List<Hit<Object>> elasticsearchResults = getElasticsearchResults(question);
-        String contextPrompt = "You are a social media content creator AI Assistant specializing in helping a user make posts for Site Reliability Engineers (SREs)"+
-        "Writing Guidelines:\n" +
-        "- Adopt a knowledgeable yet conversational tone, as if explaining concepts to a colleague.\n" +
-        "- Begin with a thought-provoking question or personal anecdote when appropriate.\n" +
-        "- Focus on real-world scenarios and practical applications.\n" +
-        "- Share insights or lessons learned from experience working with SREs.\n" +
-        "- Discuss challenges in observability and how they can be addressed.\n" +
-        "- Use technical terms accurately and explain them when necessary.\n" +
-        "- Provide actionable advice or step-by-step guidance.\n" +
-        "- Use emojis sparingly to add personality or for formatting where appropriate.\n" +
-        "- Avoid marketing language; strive for authenticity and human connection.\n\n" +
-        "Secondary Themes (to incorporate if relevant):\n" +
-        "- How Elastic Observability can solve key challenges for SREs.\n" +
-        "- Improving operational efficiency and reducing toil.\n" +
-        "- Enhancing observability strategies in organizations.\n\n";
- 
-        return generateOpenAICompletion(contextPrompt, question);
+        return generateOpenAICompletion(ASSISTANT_PROMPT + relatedPosts(contextRetriever.contextFor(question)), question);
+    }
+
+    // Streams the assistant answer as formatted deltas; markdown split across deltas is still stripped
+    public void streamAssistantQuestion(String question, Consumer<String> onDelta) {
+        LinkedInStreamFormatter formatter = new LinkedInStreamFormatter(this::formatForLinkedIn, onDelta);
+        aiCompletionService.streamCompletion(ASSISTANT_PROMPT + relatedPosts(contextRetriever.contextFor(question)), question, formatter);
+        formatter.finish();
     }
 
     public Map<String, String> processContent(String content) throws IOException {
-        if (isUrl(content)) {
-            Map<String, String> fetchedContent = fetchContentFromUrl(content);
-            String fetchedText = fetchedContent.get("content");
-            String imageUrl = fetchedContent.get("imageUrl");
+        return processContent(content, false);
+    }
 
-            String prompt = "Create a LinkedIn post based on the following content. Include key points and insights. Add the original URL at the end of the post:\n\n" + fetchedText + "\n\nOriginal URL: " + content;
+    public Map<String, String> processContent(String content, boolean regenerate) throws IOException {
+        return processContent(content, regenerate, imageUrl -> { });
+    }
 
-            String generatedContent = processQuestion(prompt);
-            fetchedContent.put("content", generatedContent);
+    // onImageUrl is told about the page's image before the LLM call starts, so it can be downloaded meanwhile
+    public Map<String, String> processContent(String content, boolean regenerate, Consumer<String> onImageUrl) throws IOException {
+        Map<String, String> prepared = prepareContentPrompt(content);
+        if (prepared.get("imageUrl") != null) {
+            onImageUrl.accept(prepared.get("imageUrl"));
+        }
 
-            // Handle the imageUrl (e.g., store it or pass it along with the content)
-            // You might need to adjust your application to accept and process the image URL
+        Map<String, String> result = new HashMap<>();
+        result.put("content", processQuestion(prepared.get("prompt"), regenerate));
+        // Handle the imageUrl (e.g., store it or pass it along with the content)
+        result.put("imageUrl", prepared.get("imageUrl"));
+        return result;
+    }
+
+    // Builds the user prompt for a piece of content, fetching the page once when it is a URL.
+    // Returns "prompt" and, for URLs, the page's "imageUrl".
+    public Map<String, String> prepareContentPrompt(String content) throws IOException {
+        Map<String, String> prepared = new HashMap<>();
+        if (isUrl(content)) {
+            Map<String, String> fetchedContent = fetchContentFromUrl(content);
+            String fetchedText = promptBudget.fit(fetchedContent.get("content"), aiCompletionService.providerName());
 
-            // For now, return both the content and image URL (you can adjust this as needed)
-            return fetchedContent;
+            prepared.put("prompt", "Create a LinkedIn post based on the following content. Include key points and insights. Add the original URL at the end of the post:\n\n" + fetchedText + "\n\nOriginal URL: " + content);
+            prepared.put("imageUrl", fetchedContent.get("imageUrl"));
         } else {
-            String question = "Please review and improve the following content for a LinkedIn post:\n\n" + content;
-            Map<String, String> fetchedContent = new HashMap<>();
-            fetchedContent.put("content", processQuestion(question));
-            return fetchedContent;
+            prepared.put("prompt", "Please review and improve the following content for a LinkedIn post:\n\n" + content);
         }
+        return prepared;
+    }
+
+    // One of several alternative drafts for the same prompt; always a fresh completion
+    public String generateVariant(String prompt, int variant, int totalVariants) throws IOException {
+        String variantPrompt = prompt + "\n\nThis is draft " + variant + " of " + totalVariants
+                + ". Take a different angle and opening hook than the other drafts would.";
+        return processQuestion(variantPrompt, true);
     }
 
     public boolean isUrl(String input) {
@@ -215,11 +202,17 @@ public class ElasticsearchOpenAIService {
         return matcher.matches();
     }
 
+    // Served from the page cache when the page was fetched recently or has not changed since
     public Map<String, String> fetchContentFromUrl(String url) throws IOException {
         logger.info("Fetching content from URL: {}", url);
+        return pageFetchCache.fetch(url, this::extractContent);
+    }
 
-        Document doc = Jsoup.connect(url).get();
-        String textContent = doc.body().text();
+    private Map<String, String> extractContent(Document doc) {
+        // Only the article itself goes into the prompt, not the navigation, footer and banners around it
+        String textContent = articleExtractor.extract(doc);
+        logger.info("Extracted article of {} tokens from a page of {} tokens",
+                PromptBudget.estimateTokens(textContent), PromptBudget.estimateTokens(doc.body().text()));
         logger.debug("Fetched text content (first 100 chars): {}", textContent.substring(0, Math.min(textContent.length(), 100)));
 
         // Extract image from twitter:image meta tag
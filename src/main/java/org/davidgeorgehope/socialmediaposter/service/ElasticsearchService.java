@@ -1,170 +1,703 @@
 package org.davidgeorgehope.socialmediaposter.service;
 
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOptions;
+import co.elastic.clients.elasticsearch._types.mapping.FieldType;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
 import co.elastic.clients.elasticsearch.core.search.Hit;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import co.elastic.clients.elasticsearch.core.IndexRequest;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import co.elastic.clients.json.JsonData;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
 import co.elastic.clients.elasticsearch._types.SortOrder;
 import co.elastic.clients.elasticsearch.core.DeleteRequest;
 import co.elastic.clients.elasticsearch.core.GetResponse;
+import co.elastic.clients.elasticsearch.core.UpdateRequest;
+import co.elastic.clients.elasticsearch.core.UpdateResponse;
+import org.elasticsearch.client.ResponseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.davidgeorgehope.socialmediaposter.model.ContentPage;
+import org.davidgeorgehope.socialmediaposter.model.MediaDerivatives;
+import org.davidgeorgehope.socialmediaposter.model.SocialPilotContent;
+import org.davidgeorgehope.socialmediaposter.model.StoredMedia;
 
 import java.io.IOException;
-import java.io.StringReader;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.time.Duration;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 
 @Service
 public class ElasticsearchService {
 
+    private static final Logger logger = LoggerFactory.getLogger(ElasticsearchService.class);
+    private static final String CONTENT_INDEX = "social-pilot-content";
+    private static final String PIT_KEEP_ALIVE = "1m";
+    // Only the fields needed to pick and announce a candidate; the full document is fetched for the winner
+    static final String POSTED_BY_FIELD = "last_posted_by";
+    private static final List<String> SCHEDULING_FIELDS = List.of("last_posted_date", "mediaUrl", "mediaType");
+
+    // last_updated breaks most last_posted_date ties, but documents written in the same millisecond still tie,
+    // so the unique content_id comes last and makes the order total for search_after paging
+    private static final List<SortOptions> LISTING_SORT = List.of(
+            SortOptions.of(so -> so.field(f -> f.field("last_posted_date").order(SortOrder.Desc).missing("_last"))),
+            SortOptions.of(so -> so.field(f -> f.field("last_updated").order(SortOrder.Desc).missing("_last"))),
+            SortOptions.of(so -> so.field(f -> f.field("content_id.keyword").order(SortOrder.Asc).missing("_last")
+                    .unmappedType(FieldType.Keyword)))
+    );
+    // Only what content-list.html renders; the embedding chunks stay on the server
+    private static final List<String> LISTING_FIELDS = List.of("text", "last_posted_date", "status");
+    private static final List<String> LISTING_EXCLUDES = List.of("text.inference");
+    private static final int MAX_CACHED_CURSORS = 1000;
+    // Hits skipped per request when walking to an uncached page, within the default max_result_window
+    private static final int CURSOR_HOP = 10_000;
+    private static final int MEDIA_REWRITE_BATCH = 500;
+
     private final ElasticsearchClient esClient;
+    private final ElasticsearchAsyncClient esAsyncClient;
+    private final ObjectMapper objectMapper;
+    private final ContentCache contentCache;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MediaStore mediaStore;
+    private final MediaDerivativeService mediaDerivativeService;
 
-    @Value("${media.upload.dir}")
-    private String mediaUploadDir;
+    // "size:page" -> cursor of the page's first hit. Cleared on writes because they can reorder the listing.
+    private final Map<String, String> pageCursors = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > MAX_CACHED_CURSORS;
+                }
+            });
 
-    public String uploadMedia(MultipartFile file) throws IOException {
-        String fileName = UUID.randomUUID().toString() + "_" + file.getOriginalFilename();
-        Path filePath = Paths.get(mediaUploadDir, fileName);
-        Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
-        return mediaUploadDir + fileName;
+    @Value("${scheduler.eligibility.page-size:1000}")
+    private int schedulingPageSize;
+
+    // Stored under its content hash, so re-uploading the same file does not add a copy.
+    // Thumbnail and LinkedIn derivatives are produced in the background.
+    public StoredMedia uploadMedia(MultipartFile file) throws IOException {
+        StoredMedia media;
+        try (InputStream in = file.getInputStream()) {
+            media = mediaStore.store(in, file.getOriginalFilename());
+        }
+        mediaDerivativeService.submit(media);
+        return media;
     }
 
     @Autowired
-    public ElasticsearchService(ElasticsearchClient esClient) {
+    public ElasticsearchService(ElasticsearchClient esClient, ElasticsearchAsyncClient esAsyncClient,
+                                JacksonJsonpMapper jsonpMapper, ContentCache contentCache,
+                                ApplicationEventPublisher eventPublisher, MediaStore mediaStore,
+                                MediaDerivativeService mediaDerivativeService) {
         this.esClient = esClient;
+        this.esAsyncClient = esAsyncClient;
+        this.objectMapper = jsonpMapper.objectMapper();
+        this.contentCache = contentCache;
+        this.eventPublisher = eventPublisher;
+        this.mediaStore = mediaStore;
+        this.mediaDerivativeService = mediaDerivativeService;
     }
 
-    // Fetch content from Elasticsearch index
-    public List<Map<String, Object>> getContentFromIndex(int page, int size) throws IOException {
-        SearchResponse<Map<String, Object>> response = esClient.search(s -> s
-                .index("social-pilot-content")
-                .from((page - 1) * size)
-                .size(size)
-                .sort(sort -> sort
-                    .field(f -> f
-                        .field("last_posted_date")
-                        .order(SortOrder.Desc)
-                        .missing("_last")
-                    )
-                ),
-                (Class<Map<String, Object>>)(Class<?>)Map.class
-        );
+    // Keyset-paginated listing: one request returns the page and the total, and deep pages cost the
+    // same as the first one. A null cursor with page > 1 is resolved from the cursor cache, so the
+    // numbered pagination keeps working.
+    public ContentPage listContent(int page, int size, String cursor) throws IOException {
+        List<FieldValue> searchAfter = cursor != null && !cursor.isBlank() ? decodeCursor(cursor) : cursorForPage(page, size);
+
+        SearchResponse<SocialPilotContent> response = esClient.search(s -> {
+            s.index(CONTENT_INDEX)
+                    .size(size)
+                    .sort(LISTING_SORT)
+                    .source(src -> src.filter(f -> f.includes(LISTING_FIELDS).excludes(LISTING_EXCLUDES)))
+                    .trackTotalHits(t -> t.enabled(true));
+            if (searchAfter != null) {
+                s.searchAfter(searchAfter);
+            }
+            return s;
+        }, SocialPilotContent.class);
 
-        return response.hits().hits().stream()
-                .map(hit -> {
-                    Map<String, Object> sourceWithId = hit.source();
-                    sourceWithId.put("_id", hit.id());
-                    return sourceWithId;
-                })
+        List<Hit<SocialPilotContent>> hits = response.hits().hits();
+        List<SocialPilotContent> items = hits.stream()
+                .map(ElasticsearchService::toContent)
                 .collect(Collectors.toList());
+
+        String nextCursor = null;
+        if (hits.size() == size) {
+            nextCursor = encodeCursor(hits.get(hits.size() - 1).sort());
+            pageCursors.put(size + ":" + (page + 1), nextCursor);
+        }
+        long total = response.hits().total() != null ? response.hits().total().value() : items.size();
+        return new ContentPage(items, total, nextCursor);
     }
 
-    // Update document in Elasticsearch
-    public void updateContent(String id, Map<String, Object> content) throws IOException {
-        // Create a new map to avoid modifying the original content
-        Map<String, Object> updateContent = new HashMap<>(content);
-        
-        // Remove _id from the content if it exists
-        updateContent.remove("_id");
-        
-        // Add last_updated field
-        updateContent.put("last_updated", Instant.now().toString());
-        
-        esClient.update(u -> u
-                .index("social-pilot-content")
+    // The search_after values for the first hit of a page: cached, or found by walking forward from the
+    // nearest cached page with source-less search_after requests of up to CURSOR_HOP hits. Every page
+    // boundary passed on the way is cached, so neighbouring pages are resolved without another walk.
+    private List<FieldValue> cursorForPage(int page, int size) throws IOException {
+        if (page <= 1) {
+            return null;
+        }
+        String cached = pageCursors.get(size + ":" + page);
+        if (cached != null) {
+            return decodeCursor(cached);
+        }
+
+        int startPage = page - 1;
+        List<FieldValue> after = null;
+        for (; startPage > 1; startPage--) {
+            String known = pageCursors.get(size + ":" + startPage);
+            if (known != null) {
+                after = decodeCursor(known);
+                break;
+            }
+        }
+
+        // Position of the next hit in the listing, counted from 0
+        long position = (long) (startPage - 1) * size;
+        long target = (long) (page - 1) * size;
+        while (position < target) {
+            int hop = (int) Math.min(target - position, CURSOR_HOP);
+            List<FieldValue> from = after;
+            SearchResponse<Void> response = esClient.search(s -> {
+                s.index(CONTENT_INDEX)
+                        .size(hop)
+                        .sort(LISTING_SORT)
+                        .source(src -> src.fetch(false))
+                        .trackTotalHits(t -> t.enabled(false));
+                if (from != null) {
+                    s.searchAfter(from);
+                }
+                return s;
+            }, Void.class);
+
+            List<Hit<Void>> hits = response.hits().hits();
+            for (Hit<Void> hit : hits) {
+                position++;
+                if (position % size == 0 && position < target) {
+                    pageCursors.put(size + ":" + (position / size + 1), encodeCursor(hit.sort()));
+                }
+            }
+            if (!hits.isEmpty()) {
+                after = hits.get(hits.size() - 1).sort();
+            }
+            if (hits.size() < hop) {
+                // The page is past the end: searching after the last hit returns an empty page
+                return after;
+            }
+        }
+        pageCursors.put(size + ":" + page, encodeCursor(after));
+        return after;
+    }
+
+    private String encodeCursor(List<FieldValue> sortValues) {
+        List<Object> values = sortValues.stream()
+                .map(v -> v.isNull() ? null : v._get())
+                .collect(Collectors.toList());
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(values));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode listing cursor", e);
+        }
+    }
+
+    private List<FieldValue> decodeCursor(String cursor) {
+        try {
+            List<?> values = objectMapper.readValue(Base64.getUrlDecoder().decode(cursor), List.class);
+            return values.stream()
+                    .map(v -> {
+                        if (v == null) {
+                            return FieldValue.NULL;
+                        } else if (v instanceof Number n && !(v instanceof Double || v instanceof Float)) {
+                            return FieldValue.of(n.longValue());
+                        } else if (v instanceof Number n) {
+                            return FieldValue.of(n.doubleValue());
+                        } else if (v instanceof Boolean b) {
+                            return FieldValue.of(b);
+                        }
+                        return FieldValue.of(v.toString());
+                    })
+                    .collect(Collectors.toList());
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid listing cursor", e);
+        }
+    }
+
+    // Partially update a document with only the given fields. The text field carries the
+    // semantic_text embeddings, so callers should pass only what actually changed: untouched
+    // fields are never sent and inference is not re-run for them. Fields whose stored value already
+    // matches are dropped too, so re-saving an unchanged post writes nothing and invalidates nothing.
+    public void patchContent(String id, Map<String, Object> changedFields) throws IOException {
+        String mediaHash = (String) changedFields.get("mediaHash");
+        Optional<MediaDerivatives> ready = mediaDerivativeService.completed(mediaHash);
+        Map<String, Object> fields = changedFields;
+        if (ready.isPresent()) {
+            fields = new HashMap<>(changedFields);
+            fields.put("derivatives", ready.get());
+        }
+
+        UpdateRequest<Map<String, Object>, Map<String, Object>> request = fields.isEmpty() ? null
+                : buildPatchRequest(id, withoutUnchanged(fields, storedFields(id, fields.keySet())));
+        if (request != null) {
+            UpdateResponse<Map<String, Object>> response = esClient.update(request, (Class<Map<String, Object>>)(Class<?>)Map.class);
+            logger.debug("Patched content {}: {}", id, response.result());
+            contentChanged(id);
+        }
+
+        if (mediaHash != null && ready.isEmpty()) {
+            attachLateDerivatives(id, mediaHash);
+        }
+    }
+
+    public CompletableFuture<Void> patchContentAsync(String id, Map<String, Object> changedFields) {
+        if (changedFields.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return esAsyncClient.get(g -> g
+                        .index(CONTENT_INDEX)
+                        .id(id)
+                        .sourceIncludes(new ArrayList<>(changedFields.keySet())),
+                        ObjectNode.class)
+                .thenCompose(stored -> {
+                    UpdateRequest<Map<String, Object>, Map<String, Object>> request = buildPatchRequest(id,
+                            withoutUnchanged(changedFields, stored.found() ? stored.source() : null));
+                    if (request == null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return esAsyncClient.update(request, (Class<Map<String, Object>>)(Class<?>)Map.class)
+                            .thenAccept(response -> {
+                                logger.debug("Patched content {}: {}", id, response.result());
+                                contentChanged(id);
+                            });
+                });
+    }
+
+    public void markPosted(String id, String account, Instant postedAt) throws IOException {
+        patchContent(id, postedPatch(account, postedAt));
+    }
+
+    public CompletableFuture<Void> markPostedAsync(String id, String account, Instant postedAt) {
+        return patchContentAsync(id, postedPatch(account, postedAt));
+    }
+
+    // last_posted_date is the latest post to any account, for the listing; the cooldown of each account is kept
+    // under last_posted_by, which Elasticsearch merges into the object already stored
+    private Map<String, Object> postedPatch(String account, Instant postedAt) {
+        Map<String, Object> patch = new HashMap<>();
+        patch.put("last_posted_date", postedAt.toString());
+        patch.put(POSTED_BY_FIELD, Map.of(postedByKey(account), postedAt.toString()));
+        return patch;
+    }
+
+    // Dots would nest the field, so they are escaped; % is escaped first to keep the key unambiguous
+    static String postedByKey(String account) {
+        return account.toLowerCase(Locale.ROOT).replace("%", "%25").replace(".", "%2E");
+    }
+
+    // Only the patched fields are read back, never the embeddings
+    private ObjectNode storedFields(String id, Set<String> fields) throws IOException {
+        GetResponse<ObjectNode> response = esClient.get(g -> g
+                        .index(CONTENT_INDEX)
+                        .id(id)
+                        .sourceIncludes(new ArrayList<>(fields)),
+                ObjectNode.class);
+        return response.found() ? response.source() : null;
+    }
+
+    // Values are compared as the client would serialize them; anything that cannot be shown equal is kept
+    private Map<String, Object> withoutUnchanged(Map<String, Object> fields, ObjectNode stored) {
+        if (stored == null) {
+            return fields;
+        }
+        Map<String, Object> changed = new HashMap<>();
+        fields.forEach((field, value) -> {
+            JsonNode current = stored.get(field);
+            if (current == null || !current.equals(objectMapper.valueToTree(value))) {
+                changed.put(field, value);
+            }
+        });
+        return changed;
+    }
+
+    // last_updated is only stamped here, once the patch is known to hold a real change
+    private UpdateRequest<Map<String, Object>, Map<String, Object>> buildPatchRequest(String id, Map<String, Object> changedFields) {
+        Map<String, Object> patch = new HashMap<>(changedFields);
+        patch.remove("_id");
+        if (patch.isEmpty()) {
+            logger.debug("Nothing to update for content {}", id);
+            return null;
+        }
+        patch.put("last_updated", Instant.now().toString());
+
+        return UpdateRequest.of(u -> u
+                .index(CONTENT_INDEX)
                 .id(id)
-                .doc(updateContent),
-                (Class<Map<String, Object>>)(Class<?>)Map.class // Fix for the generic Map type
+                .doc(patch)
+                .retryOnConflict(3)
         );
     }
 
-    public List<Map<String, Object>> getContentForScheduling() throws IOException {
-        SearchResponse<Map<String, Object>> response = esClient.search(s -> s
-                .index("social-pilot-content")
-                .size(100) // Adjust size as needed
-                .sort(sort -> sort
-                    .field(f -> f
-                        .field("last_posted_date")
-                        .order(SortOrder.Asc)
-                        .missing("_first")
-                    )
-                ),
-                (Class<Map<String, Object>>)(Class<?>)Map.class
-        );
+    // Streams every non-draft document that has never been posted, or was last posted before now - cooldown.
+    // Eligibility is evaluated by Elasticsearch and the whole set is walked through a point-in-time
+    // with search_after, so the result is not capped by a single page. Only lightweight fields are returned.
+    public long streamEligibleContent(Duration cooldown, Consumer<SocialPilotContent> consumer) throws IOException {
+        return streamEligibleContent(null, cooldown, consumer);
+    }
 
-        return response.hits().hits().stream()
-                .map(hit -> {
-                    Map<String, Object> sourceWithId = hit.source();
-                    sourceWithId.put("_id", hit.id());
-                    return sourceWithId;
-                })
-                .collect(Collectors.toList());
+    // The same, with the cooldown of one account: content another account posted yesterday is still eligible.
+    // Documents posted before per-account dates were kept have no last_posted_by and fall back to last_posted_date.
+    public long streamEligibleContent(String account, Duration cooldown, Consumer<SocialPilotContent> consumer)
+            throws IOException {
+        String cutoff = Instant.now().minus(cooldown).toString();
+        Query eligible = Query.of(q -> q.bool(b -> {
+            if (account != null) {
+                String postedBy = POSTED_BY_FIELD + "." + postedByKey(account);
+                b.should(s -> s.range(r -> r.field(postedBy).lt(JsonData.of(cutoff))))
+                        .should(s -> s.bool(nb -> nb
+                                .filter(f -> f.exists(e -> e.field(POSTED_BY_FIELD)))
+                                .mustNot(mn -> mn.exists(e -> e.field(postedBy)))))
+                        .should(s -> s.bool(nb -> nb
+                                .filter(f -> f.range(r -> r.field("last_posted_date").lt(JsonData.of(cutoff))))
+                                .mustNot(mn -> mn.exists(e -> e.field(POSTED_BY_FIELD)))));
+            } else {
+                b.should(s -> s.range(r -> r.field("last_posted_date").lt(JsonData.of(cutoff))));
+            }
+            return b
+                    .should(s -> s.bool(nb -> nb.mustNot(mn -> mn.exists(e -> e.field("last_posted_date")))))
+                    .minimumShouldMatch("1")
+                    .mustNot(mn -> mn.term(t -> t.field("status").value(SocialPilotContent.STATUS_DRAFT)))
+                    .mustNot(mn -> mn.term(t -> t.field("status").value(SocialPilotContent.STATUS_PREGENERATED)));
+        }));
+
+        return scan(eligible, SCHEDULING_FIELDS, consumer);
     }
 
-    public String indexContent(Map<String, Object> content) throws IOException {
-        content.put("last_updated", Instant.now().toString());
+    public long countPregenerated(String account) throws IOException {
+        return esClient.count(c -> c.index(CONTENT_INDEX).query(pregeneratedFor(account))).count();
+    }
 
-        ObjectMapper objectMapper = new ObjectMapper();
-        String jsonDocument = objectMapper.writeValueAsString(content);
+    // Takes the oldest pre-generated post of the account and makes it ordinary ready content. The status change
+    // is conditional on the sequence number the document was read with, so two callers never take the same post.
+    public Optional<SocialPilotContent> claimPregenerated(String account) throws IOException {
+        SearchResponse<SocialPilotContent> response = esClient.search(s -> s
+                .index(CONTENT_INDEX)
+                .query(pregeneratedFor(account))
+                .sort(so -> so.field(f -> f.field("last_updated").order(SortOrder.Asc).missing("_last")))
+                .size(5)
+                .seqNoPrimaryTerm(true)
+                .source(src -> src.filter(f -> f.excludes(LISTING_EXCLUDES))),
+                SocialPilotContent.class);
+
+        for (Hit<SocialPilotContent> hit : response.hits().hits()) {
+            Map<String, Object> patch = Map.of(
+                    "status", SocialPilotContent.STATUS_READY,
+                    "last_updated", Instant.now().toString());
+            try {
+                esClient.update(u -> u.index(CONTENT_INDEX).id(hit.id())
+                        .ifSeqNo(hit.seqNo()).ifPrimaryTerm(hit.primaryTerm())
+                        .doc(patch), Map.class);
+            } catch (ElasticsearchException | ResponseException e) {
+                if (ElasticsearchErrors.isConflict(e)) {
+                    continue;
+                }
+                throw e;
+            }
+            contentChanged(hit.id());
+            return Optional.of(toContent(hit).withStatus(SocialPilotContent.STATUS_READY));
+        }
+        return Optional.empty();
+    }
+
+    // account is matched on its keyword sub-field, which dynamic mapping adds to every string field
+    private static Query pregeneratedFor(String account) {
+        return Query.of(q -> q.bool(b -> b
+                .filter(f -> f.term(t -> t.field("status").value(SocialPilotContent.STATUS_PREGENERATED)))
+                .filter(f -> f.term(t -> t.field("account.keyword").value(account)))
+        ));
+    }
+
+    // Points media references at their content-addressed copies: documents whose mediaUrl file name is a
+    // key of replacements get the new mediaUrl and mediaHash, in bulk requests of MEDIA_REWRITE_BATCH.
+    // Legacy files referenced by a document whose update failed are reported as retained: they must be kept.
+    public MediaRewrite rewriteMedia(Map<String, StoredMedia> replacements) throws IOException {
+        Query withMedia = Query.of(q -> q.exists(e -> e.field("mediaUrl")));
+        List<BulkOperation> batch = new ArrayList<>();
+        Map<String, String> legacyFileById = new HashMap<>();
+        Set<String> failedIds = new HashSet<>();
+
+        scan(withMedia, List.of("mediaUrl"), content -> {
+            StoredMedia media = replacements.get(content.mediaFilename());
+            if (media == null || media.mediaUrl().equals(content.mediaUrl())) {
+                return;
+            }
+            Map<String, Object> doc = Map.of("mediaUrl", media.mediaUrl(), "mediaHash", media.hash());
+            batch.add(BulkOperation.of(b -> b.update(u -> u
+                    .index(CONTENT_INDEX)
+                    .id(content.id())
+                    .action(a -> a.doc(doc)))));
+            legacyFileById.put(content.id(), content.mediaFilename());
+            if (batch.size() >= MEDIA_REWRITE_BATCH) {
+                failedIds.addAll(flushBulk(batch));
+            }
+        });
+        failedIds.addAll(flushBulk(batch));
+
+        Set<String> retainedFiles = new HashSet<>();
+        for (Map.Entry<String, String> entry : legacyFileById.entrySet()) {
+            if (failedIds.contains(entry.getKey())) {
+                retainedFiles.add(entry.getValue());
+            } else {
+                contentChanged(entry.getKey());
+            }
+        }
+        return new MediaRewrite(legacyFileById.size() - failedIds.size(), failedIds, retainedFiles);
+    }
+
+    // Documents indexed before content_id was written have no listing tiebreaker; copy their _id into it.
+    // Partial doc updates in bulk requests of MEDIA_REWRITE_BATCH, never a script: Elasticsearch rejects
+    // scripted updates on the semantic_text index, and text is not sent, so nothing is re-embedded.
+    // last_updated is left alone so the listing order does not change. Run by ContentIdBackfillRunner.
+    public ContentIdBackfill backfillContentIds() throws IOException {
+        Query withoutContentId = Query.of(q -> q.bool(b -> b.mustNot(mn -> mn.exists(e -> e.field("content_id")))));
+        List<BulkOperation> batch = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        Set<String> failedIds = new HashSet<>();
+
+        scan(withoutContentId, List.of("content_id"), content -> {
+            Map<String, Object> doc = Map.of("content_id", content.id());
+            batch.add(BulkOperation.of(b -> b.update(u -> u
+                    .index(CONTENT_INDEX)
+                    .id(content.id())
+                    .action(a -> a.doc(doc)))));
+            ids.add(content.id());
+            if (batch.size() >= MEDIA_REWRITE_BATCH) {
+                failedIds.addAll(flushBulk(batch));
+            }
+        });
+        failedIds.addAll(flushBulk(batch));
+
+        ids.stream().filter(id -> !failedIds.contains(id)).forEach(this::contentChanged);
+        return new ContentIdBackfill(ids.size() - failedIds.size(), failedIds);
+    }
+
+    public record ContentIdBackfill(long backfilled, Set<String> failedIds) {
+    }
+
+    // retainedFiles are legacy file names still referenced by one of the failedIds documents
+    public record MediaRewrite(long rewritten, Set<String> failedIds, Set<String> retainedFiles) {
+    }
+
+    // Returns the ids of the items Elasticsearch rejected; a transport failure is thrown
+    private Set<String> flushBulk(List<BulkOperation> batch) {
+        if (batch.isEmpty()) {
+            return Set.of();
+        }
+        try {
+            BulkResponse response = esClient.bulk(b -> b.operations(batch));
+            if (!response.errors()) {
+                return Set.of();
+            }
+            Set<String> failed = new HashSet<>();
+            response.items().stream()
+                    .filter(item -> item.error() != null)
+                    .forEach(item -> {
+                        logger.error("Bulk update of {} failed: {}", item.id(), item.error().reason());
+                        failed.add(item.id());
+                    });
+            return failed;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    // Walks every match of the query with a point in time and search_after, one page at a time
+    private long scan(Query query, List<String> fields, Consumer<SocialPilotContent> consumer) throws IOException {
+        String pitId = esClient.openPointInTime(p -> p
+                .index(CONTENT_INDEX)
+                .keepAlive(k -> k.time(PIT_KEEP_ALIVE))
+        ).id();
+
+        long streamed = 0;
+        try {
+            List<FieldValue> searchAfter = null;
+            while (true) {
+                String currentPit = pitId;
+                List<FieldValue> after = searchAfter;
+                SearchResponse<SocialPilotContent> response = esClient.search(s -> {
+                    s.pit(p -> p.id(currentPit).keepAlive(k -> k.time(PIT_KEEP_ALIVE)))
+                            .query(query)
+                            .size(schedulingPageSize)
+                            .source(src -> src.filter(f -> f.includes(fields)))
+                            .sort(sort -> sort.field(f -> f.field("_shard_doc")))
+                            .trackTotalHits(t -> t.enabled(false));
+                    if (after != null) {
+                        s.searchAfter(after);
+                    }
+                    return s;
+                }, SocialPilotContent.class);
+
+                List<Hit<SocialPilotContent>> hits = response.hits().hits();
+                for (Hit<SocialPilotContent> hit : hits) {
+                    consumer.accept(toContent(hit));
+                    streamed++;
+                }
+
+                if (hits.size() < schedulingPageSize) {
+                    break;
+                }
+                searchAfter = hits.get(hits.size() - 1).sort();
+                if (response.pitId() != null) {
+                    pitId = response.pitId();
+                }
+            }
+        } finally {
+            String pitToClose = pitId;
+            esClient.closePointInTime(c -> c.id(pitToClose));
+        }
+        return streamed;
+    }
+
+    // Serialized once by the client's shared mapper; inference chunks are never sent. The id is generated
+    // here rather than by Elasticsearch so the document carries it as content_id from the first write.
+    public String indexContent(SocialPilotContent content) throws IOException {
+        SocialPilotContent withDerivatives = content.derivatives() == null
+                ? mediaDerivativeService.completed(content.mediaHash()).map(content::withDerivatives).orElse(content)
+                : content;
+        String id = UUID.randomUUID().toString();
+        SocialPilotContent document = withDerivatives.withId(id).withLastUpdated(Instant.now());
 
         var response = esClient.index(i -> i
-                .index("social-pilot-content")
-                .withJson(new StringReader(jsonDocument))
+                .index(CONTENT_INDEX)
+                .id(id)
+                .document(document)
         );
 
+        contentChanged(response.id());
+        if (document.mediaHash() != null && document.derivatives() == null) {
+            attachLateDerivatives(response.id(), document.mediaHash());
+        }
         return response.id();
     }
 
+    // Derivatives that finished while the document was being written were announced before it was
+    // searchable, so the ready event may have missed it: attach them directly.
+    private void attachLateDerivatives(String id, String mediaHash) throws IOException {
+        Optional<MediaDerivatives> ready = mediaDerivativeService.completed(mediaHash);
+        if (ready.isPresent()) {
+            patchContent(id, Map.of("derivatives", ready.get()));
+        }
+    }
+
+    // Runs on the derivative worker: refreshes so documents written before the event are searchable,
+    // then attaches the derivative metadata to every document referencing the media
+    @EventListener
+    public void onMediaDerivativesReady(MediaDerivativesReadyEvent event) {
+        try {
+            esClient.indices().refresh(r -> r.index(CONTENT_INDEX));
+            SearchResponse<Void> response = esClient.search(s -> s
+                    .index(CONTENT_INDEX)
+                    .query(q -> q.term(t -> t.field("mediaHash").value(event.mediaHash())))
+                    .size(MEDIA_REWRITE_BATCH)
+                    .source(src -> src.fetch(false)),
+                    Void.class
+            );
+            List<BulkOperation> batch = new ArrayList<>();
+            List<String> ids = new ArrayList<>();
+            Map<String, Object> doc = Map.of("derivatives", event.derivatives());
+            for (Hit<Void> hit : response.hits().hits()) {
+                batch.add(BulkOperation.of(b -> b.update(u -> u
+                        .index(CONTENT_INDEX)
+                        .id(hit.id())
+                        .action(a -> a.doc(doc)))));
+                ids.add(hit.id());
+            }
+            Set<String> failed = flushBulk(batch);
+            ids.stream().filter(id -> !failed.contains(id)).forEach(this::contentChanged);
+        } catch (Exception e) {
+            logger.warn("Failed to attach derivatives for media {}: {}", event.mediaHash(), e.getMessage());
+        }
+    }
+
     public void deleteContent(String id) throws IOException {
         DeleteRequest deleteRequest = DeleteRequest.of(d -> d
-            .index("social-pilot-content")
+            .index(CONTENT_INDEX)
             .id(id)
         );
 
         esClient.delete(deleteRequest);
+        contentChanged(id);
+    }
+
+    public SocialPilotContent getContentById(String id) throws IOException {
+        return contentCache.get(id, () -> fetchContentById(id));
+    }
+
+    // Non-blocking variant so independent lookups (e.g. the existing document while the LLM runs) can overlap
+    public CompletableFuture<SocialPilotContent> getContentByIdAsync(String id) {
+        return contentCache.getAsync(id, () -> esAsyncClient.get(g -> g
+                        .index(CONTENT_INDEX)
+                        .id(id),
+                        SocialPilotContent.class
+                ).thenApply(response -> foundContent(id, response)));
     }
 
-    public Map<String, Object> getContentById(String id) throws IOException {
-        GetResponse<Map<String, Object>> response = esClient.get(g -> g
-                .index("social-pilot-content")
+    private SocialPilotContent fetchContentById(String id) throws IOException {
+        GetResponse<SocialPilotContent> response = esClient.get(g -> g
+                .index(CONTENT_INDEX)
                 .id(id),
-                (Class<Map<String, Object>>)(Class<?>)Map.class
+                SocialPilotContent.class
         );
+        return foundContent(id, response);
+    }
 
+    private SocialPilotContent foundContent(String id, GetResponse<SocialPilotContent> response) {
         if (response.found()) {
-            Map<String, Object> source = response.source();
-            source.put("_id", response.id());
-            return source;
+            return response.source().withId(response.id());
         } else {
             throw new RuntimeException("Content not found for id: " + id);
         }
     }
 
-    // Add a new method to get the total number of documents
-    public long getTotalContentCount() throws IOException {
-        SearchResponse<Map<String, Object>> response = esClient.search(s -> s
-                .index("social-pilot-content")
-                .size(0),
-                (Class<Map<String, Object>>)(Class<?>)Map.class
-        );
+    private void contentChanged(String id) {
+        pageCursors.clear();
+        eventPublisher.publishEvent(new ContentChangedEvent(id));
+    }
 
-        return response.hits().total().value();
+    private static SocialPilotContent toContent(Hit<SocialPilotContent> hit) {
+        SocialPilotContent source = hit.source() != null
+                ? hit.source()
+                : SocialPilotContent.empty();
+        return source.withId(hit.id());
     }
 }
@@ -0,0 +1,90 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// A byte range of a file as a request body. Each getInputStream() opens the file again at the range start,
+// so a failed part upload can be retried, and the part is streamed from disk rather than buffered.
+class FileRangeResource extends AbstractResource {
+
+    private final Path path;
+    private final long start;
+    private final long length;
+
+    FileRangeResource(Path path, long start, long length) {
+        this.path = path;
+        this.start = start;
+        this.length = length;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ).position(start);
+        return new FilterInputStream(Channels.newInputStream(channel)) {
+            private long remaining = length;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int b = super.read();
+                if (b >= 0) {
+                    remaining--;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int len) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int read = super.read(buffer, offset, (int) Math.min(len, remaining));
+                if (read > 0) {
+                    remaining -= read;
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(Math.min(n, remaining));
+                remaining -= skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (int) Math.min(super.available(), remaining);
+            }
+        };
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    @Override
+    public boolean exists() {
+        return path.toFile().exists();
+    }
+
+    @Override
+    public String getFilename() {
+        return path.getFileName().toString();
+    }
+
+    @Override
+    public String getDescription() {
+        return "bytes " + start + "-" + (start + length - 1) + " of " + path;
+    }
+}
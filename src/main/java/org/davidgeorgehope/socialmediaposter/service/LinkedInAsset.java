@@ -0,0 +1,14 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Instant;
+
+// A media file already uploaded to LinkedIn for one member, keyed by the SHA-256 of its bytes
+public record LinkedInAsset(
+        @JsonProperty("asset_urn") String assetUrn,
+        @JsonProperty("member_id") String memberId,
+        @JsonProperty("media_hash") String mediaHash,
+        @JsonProperty("media_type") String mediaType,
+        @JsonProperty("uploaded_at") Instant uploadedAt) {
+}
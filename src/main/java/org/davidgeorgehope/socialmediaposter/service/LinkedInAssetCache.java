@@ -0,0 +1,82 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.GetResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+// Remembers which LinkedIn asset URN holds a given media file for a given member, so reposts of the same
+// media skip registerUpload and the binary upload. Entries are trusted for linkedin.asset-cache.validity-days
+// after upload; an asset LinkedIn rejects before then is invalidated by the caller. A hit is a single get,
+// with no write when an asset is reused.
+// Failures are logged and treated as misses: the cache must never break a post.
+@Service
+public class LinkedInAssetCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(LinkedInAssetCache.class);
+    private static final String ASSET_INDEX = "social-pilot-linkedin-assets";
+
+    private final ElasticsearchClient esClient;
+    private final boolean enabled;
+    private final Duration validity;
+
+    public LinkedInAssetCache(ElasticsearchClient esClient,
+                              @Value("${linkedin.asset-cache.enabled:true}") boolean enabled,
+                              @Value("${linkedin.asset-cache.validity-days:90}") long validityDays) {
+        this.esClient = esClient;
+        this.enabled = enabled;
+        this.validity = Duration.ofDays(validityDays);
+    }
+
+    public Optional<String> get(String mediaHash, String memberId) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        String id = documentId(mediaHash, memberId);
+        try {
+            GetResponse<LinkedInAsset> response = esClient.get(g -> g.index(ASSET_INDEX).id(id), LinkedInAsset.class);
+            LinkedInAsset asset = response.found() ? response.source() : null;
+            if (asset == null || asset.assetUrn() == null || asset.uploadedAt() == null
+                    || asset.uploadedAt().plus(validity).isBefore(Instant.now())) {
+                return Optional.empty();
+            }
+            return Optional.of(asset.assetUrn());
+        } catch (Exception e) {
+            logger.warn("LinkedIn asset lookup failed for {}: {}", id, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    public void put(String mediaHash, String memberId, String mediaType, String assetUrn) {
+        if (!enabled) {
+            return;
+        }
+        LinkedInAsset asset = new LinkedInAsset(assetUrn, memberId, mediaHash, mediaType, Instant.now());
+        try {
+            esClient.index(i -> i.index(ASSET_INDEX).id(documentId(mediaHash, memberId)).document(asset));
+        } catch (Exception e) {
+            logger.warn("Failed to store LinkedIn asset {}: {}", assetUrn, e.getMessage());
+        }
+    }
+
+    public void invalidate(String mediaHash, String memberId) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            esClient.delete(d -> d.index(ASSET_INDEX).id(documentId(mediaHash, memberId)));
+        } catch (Exception e) {
+            logger.warn("Failed to invalidate LinkedIn asset for {}: {}", mediaHash, e.getMessage());
+        }
+    }
+
+    private static String documentId(String mediaHash, String memberId) {
+        return mediaHash + "_" + memberId;
+    }
+}
@@ -1,22 +1,31 @@
 package org.davidgeorgehope.socialmediaposter.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.*;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
+import java.time.Instant;
 import java.util.Map;
+import java.util.Optional;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.io.IOException;
@@ -28,14 +37,39 @@ public class LinkedInService {
     private static final Logger logger = LoggerFactory.getLogger(LinkedInService.class);
     
     private final RestTemplate restTemplate;
+    private final LinkedInAssetCache assetCache;
+    private final MediaStore mediaStore;
+    private final LinkedInTokenStore tokenStore;
+    private final SchedulerLease schedulerLease;
     private final String clientId;
     private final String clientSecret;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Counter refreshed;
+    private final Counter refreshFailed;
 
-    private static final String DATA_SEPARATOR = ",";
-    private static final long TOKEN_EXPIRY_BUFFER = 300; // 5 minutes buffer
+    // Overridable so the client can be pointed at a stub LinkedIn
+    @Value("${linkedin.api-base-url:https://api.linkedin.com}")
+    private String apiBaseUrl;
 
-    public LinkedInService(RestTemplate restTemplate,
+    @Value("${linkedin.oauth-base-url:https://www.linkedin.com}")
+    private String oauthBaseUrl;
+
+    // Tokens expiring within this window are refreshed ahead of time, well before TOKEN_EXPIRY_BUFFER
+    @Value("${linkedin.token.refresh-ahead-seconds:86400}")
+    private long refreshAheadSeconds;
+
+    // Videos above this size use LinkedIn's multipart upload, so a failure only repeats one part
+    @Value("${linkedin.upload.multipart-threshold-bytes:104857600}")
+    private long multipartThresholdBytes;
+
+    @Value("${linkedin.upload.max-attempts:3}")
+    private int uploadMaxAttempts;
+
+    @Value("${linkedin.upload.retry-backoff-ms:2000}")
+    private long uploadRetryBackoffMs;
+
+    public LinkedInService(RestTemplate restTemplate, LinkedInAssetCache assetCache, MediaStore mediaStore,
+                           LinkedInTokenStore tokenStore, SchedulerLease schedulerLease, MeterRegistry meterRegistry,
                            @Value("${linkedin.client-id}") String clientId,
                            @Value("${linkedin.client-secret}") String clientSecret) {
         logger.info("Initializing LinkedInService");
@@ -52,6 +86,12 @@ public class LinkedInService {
             throw new IllegalArgumentException("Client Secret cannot be null or empty");
         }
         this.restTemplate = restTemplate;
+        this.assetCache = assetCache;
+        this.mediaStore = mediaStore;
+        this.tokenStore = tokenStore;
+        this.schedulerLease = schedulerLease;
+        this.refreshed = meterRegistry.counter("linkedin.tokens.refreshes", "result", "success");
+        this.refreshFailed = meterRegistry.counter("linkedin.tokens.refreshes", "result", "failed");
         this.clientId = clientId;
         this.clientSecret = clientSecret;
         logger.info("LinkedInService initialized successfully");
@@ -61,14 +101,11 @@ public class LinkedInService {
         logger.debug("Getting initial LinkedIn tokens for email: {}", email);
         
         // Check if we already have a valid token
-        String[] existingUserData = getUserData(email);
-        if (existingUserData != null && existingUserData.length >= 3 && !isTokenExpired(existingUserData[2])) {
+        if (tokenStore.hasValidAccessToken(email)) {
             logger.info("Valid token already exists for email: {}", email);
             return "Existing valid token found for email: " + email;
         }
 
-        String tokenUrl = "https://www.linkedin.com/oauth/v2/accessToken";
-        
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
 
@@ -82,7 +119,7 @@ public class LinkedInService {
         HttpEntity<MultiValueMap<String, String>> request = new HttpEntity<>(body, headers);
 
         try {
-            ResponseEntity<Map> response = restTemplate.exchange(tokenUrl, HttpMethod.POST, request, Map.class);
+            ResponseEntity<Map> response = restTemplate.exchange(tokenUrl(), HttpMethod.POST, request, Map.class);
 
             if (response.getStatusCode() == HttpStatus.OK) {
                 Map<String, Object> responseBody = response.getBody();
@@ -90,7 +127,6 @@ public class LinkedInService {
 
                 String accessToken = (String) responseBody.get("access_token");
                 long expiresIn = Long.parseLong(String.valueOf(responseBody.get("expires_in")));
-                long expirationTime = System.currentTimeMillis() + (expiresIn * 1000);
                 
                 logger.debug("Access Token: {}", accessToken);
                 logger.debug("Expires In: {} seconds", expiresIn);
@@ -102,7 +138,7 @@ public class LinkedInService {
                     logger.warn("Failed to retrieve member ID. This is non-critical.", e);
                 }
 
-                storeUserData(email, accessToken, memberId, String.valueOf(expirationTime));
+                tokenStore.store(email, tokenFrom(responseBody, memberId, null));
 
                 return "Access token obtained and stored successfully for email: " + email + ". Expires in: " + expiresIn + " seconds";
             } else {
@@ -116,7 +152,7 @@ public class LinkedInService {
     }
 
     /*private String getMemberId(String accessToken) {
-        String apiUrl = "https://api.linkedin.com/v2/userinfo";
+        String apiUrl = apiBaseUrl + "/v2/userinfo";
         HttpHeaders headers = new HttpHeaders();
         headers.setBearerAuth(accessToken);
         
@@ -139,52 +175,76 @@ public class LinkedInService {
         }
     }*/
 
-    private void storeUserData(String email, String accessToken, String memberId, String expirationTime) {
-        if (email == null || email.isEmpty() || accessToken == null || accessToken.isEmpty()) {
-            logger.warn("Attempted to store null or empty email or access token");
-            return;
-        }
-        try {
-            String data = accessToken + DATA_SEPARATOR + 
-                          (memberId != null ? memberId : "") + DATA_SEPARATOR + 
-                          expirationTime;
-            Files.write(Paths.get(email + "_linkedin_data.txt"), data.getBytes());
-            logger.info("User data stored successfully for email: {}", email);
-        } catch (IOException e) {
-            logger.error("Failed to store user data for email: {}", email, e);
-            throw new RuntimeException("Failed to store user data", e);
+    // Reads an access token response; a refresh response without a new refresh token keeps the previous one
+    private LinkedInTokenStore.Token tokenFrom(Map<String, Object> responseBody, String memberId,
+                                               LinkedInTokenStore.Token previous) {
+        long now = System.currentTimeMillis();
+        String accessToken = (String) responseBody.get("access_token");
+        long expiresAt = now + Long.parseLong(String.valueOf(responseBody.get("expires_in"))) * 1000;
+        String refreshToken = (String) responseBody.get("refresh_token");
+        long refreshExpiresAt = responseBody.get("refresh_token_expires_in") != null
+                ? now + Long.parseLong(String.valueOf(responseBody.get("refresh_token_expires_in"))) * 1000
+                : 0;
+        if (refreshToken == null && previous != null) {
+            refreshToken = previous.refreshToken();
+            refreshExpiresAt = previous.refreshExpiresAt();
         }
+        return new LinkedInTokenStore.Token(accessToken, memberId, expiresAt, refreshToken, refreshExpiresAt);
     }
 
-    private String[] getUserData(String email) {
-        try {
-            Path path = Paths.get(email + "_linkedin_data.txt");
-            if (Files.exists(path)) {
-                String data = new String(Files.readAllBytes(path)).trim();
-                return data.split(DATA_SEPARATOR);
+    // Refreshes every access token that would otherwise expire within linkedin.token.refresh-ahead-seconds,
+    // so posting and token checks never find an expired token while a refresh token is still valid.
+    // In scheduler.mode=cluster only the lease holder refreshes, so two nodes never spend the same refresh token.
+    @Scheduled(fixedDelayString = "${linkedin.token.refresh-interval-ms:3600000}", initialDelay = 60000)
+    public void refreshExpiringTokens() {
+        if (schedulerLease.isClusterMode() && !schedulerLease.isLeader()) {
+            return;
+        }
+        for (Map.Entry<String, LinkedInTokenStore.Token> entry : tokenStore.expiringWithin(refreshAheadSeconds * 1000)) {
+            String email = entry.getKey();
+            LinkedInTokenStore.Token token = entry.getValue();
+            if (!token.canRefresh()) {
+                logger.warn("LinkedIn token for {} expires soon and has no usable refresh token; re-authorize the account", email);
+                continue;
+            }
+            try {
+                refreshAccessToken(email, token);
+                refreshed.increment();
+            } catch (RuntimeException e) {
+                refreshFailed.increment();
+                logger.error("Failed to refresh LinkedIn token for {}", email, e);
             }
-        } catch (IOException e) {
-            logger.error("Failed to read user data for email: {}", email, e);
         }
-        return null;
     }
 
-    private boolean isTokenExpired(String expirationTimeStr) {
-        try {
-            long expirationTime = Long.parseLong(expirationTimeStr);
-            return System.currentTimeMillis() > (expirationTime - TOKEN_EXPIRY_BUFFER * 1000);
-        } catch (NumberFormatException e) {
-            logger.error("Invalid expiration time format", e);
-            return true; // Assume expired if we can't parse the time
+    private void refreshAccessToken(String email, LinkedInTokenStore.Token token) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+
+        MultiValueMap<String, String> body = new LinkedMultiValueMap<>();
+        body.add("grant_type", "refresh_token");
+        body.add("refresh_token", token.refreshToken());
+        body.add("client_id", clientId);
+        body.add("client_secret", clientSecret);
+
+        ResponseEntity<Map> response = restTemplate.exchange(tokenUrl(), HttpMethod.POST, new HttpEntity<>(body, headers), Map.class);
+        if (response.getStatusCode() != HttpStatus.OK || response.getBody() == null) {
+            throw new RuntimeException("Failed to refresh token. Status code: " + response.getStatusCode());
         }
+        LinkedInTokenStore.Token renewed = tokenFrom(response.getBody(), token.memberId(), token);
+        tokenStore.store(email, renewed);
+        logger.info("Refreshed LinkedIn token for {}, now valid until {}", email, Instant.ofEpochMilli(renewed.expiresAt()));
+    }
+
+    private String tokenUrl() {
+        return oauthBaseUrl + "/oauth/v2/accessToken";
     }
 
     public boolean hasValidAccessToken(String email) {
-        String[] userData = getUserData(email);
-        return userData != null && userData.length >= 3 && !isTokenExpired(userData[2]);
+        return tokenStore.hasValidAccessToken(email);
     }
     private String getMemberId(String accessToken) {
-        String apiUrl = "https://api.linkedin.com/v2/me";
+        String apiUrl = apiBaseUrl + "/v2/me";
         HttpHeaders headers = new HttpHeaders();
         headers.setBearerAuth(accessToken);
         
@@ -207,20 +267,81 @@ public class LinkedInService {
         }
     }
 
-    public void postToLinkedIn(String postContent, String email, String mediaUrl, String mediaType) {
+    // Returns the URN of the created post
+    public String postToLinkedIn(String postContent, String email, String mediaUrl, String mediaType) {
         logger.info("Attempting to post to LinkedIn for email: {}", email);
-        String[] userData = getUserData(email);
-        if (userData == null || userData.length == 0 || userData[0].isEmpty()) {
-            throw new RuntimeException("No valid access token found for email: " + email);
-        }
-        String accessToken = userData[0];
-        String memberId = userData.length > 1 ? userData[1] : null;
+        LinkedInTokenStore.Token token = tokenStore.get(email)
+                .orElseThrow(() -> new RuntimeException("No valid access token found for email: " + email));
+        String accessToken = token.accessToken();
+        String memberId = token.memberId();
 
         if (memberId == null || memberId.isEmpty()) {
             throw new RuntimeException("Member ID is required to post on LinkedIn");
         }
 
-        String apiUrl = "https://api.linkedin.com/v2/ugcPosts";
+        if (mediaUrl == null || mediaUrl.isEmpty()) {
+            return createPost(accessToken, memberId, email, postContent, null, null);
+        }
+
+        String mediaHash;
+        String assetId;
+        boolean reused;
+        try {
+            mediaHash = mediaStore.hashOf(Paths.get(mediaUrl));
+            Optional<String> cachedAsset = assetCache.get(mediaHash, memberId);
+            reused = cachedAsset.isPresent();
+            assetId = reused ? cachedAsset.get() : uploadAndRemember(accessToken, memberId, mediaUrl, mediaType, mediaHash);
+            if (reused) {
+                logger.info("Reusing LinkedIn asset {} for {}", assetId, mediaUrl);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to upload media to LinkedIn", e);
+            throw new RuntimeException("Failed to upload media to LinkedIn", e);
+        }
+
+        try {
+            return createPost(accessToken, memberId, email, postContent, mediaType, assetId);
+        } catch (RejectedPostException e) {
+            if (!reused) {
+                throw e;
+            }
+            // The cached asset may have been removed or expired on LinkedIn's side: upload again and retry once
+            logger.warn("LinkedIn rejected reused asset {}, uploading the media again", assetId);
+            assetCache.invalidate(mediaHash, memberId);
+            try {
+                assetId = uploadAndRemember(accessToken, memberId, mediaUrl, mediaType, mediaHash);
+            } catch (IOException ioe) {
+                logger.error("Failed to upload media to LinkedIn", ioe);
+                throw new RuntimeException("Failed to upload media to LinkedIn", ioe);
+            }
+            return createPost(accessToken, memberId, email, postContent, mediaType, assetId);
+        }
+    }
+
+    // The post exists once LinkedIn answered 2xx, so an unreadable body only loses the URN, not the post
+    private String postUrnOf(ResponseEntity<String> response) {
+        String postUrn = response.getHeaders().getFirst("X-RestLi-Id");
+        if (postUrn != null || response.getBody() == null || response.getBody().isEmpty()) {
+            return postUrn;
+        }
+        try {
+            return objectMapper.readTree(response.getBody()).path("id").asText(null);
+        } catch (IOException e) {
+            logger.warn("Could not read the post URN from LinkedIn's response: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private String uploadAndRemember(String accessToken, String memberId, String mediaUrl, String mediaType, String mediaHash) throws IOException {
+        String assetId = uploadMediaToLinkedIn(accessToken, memberId, mediaUrl, mediaType);
+        assetCache.put(mediaHash, memberId, mediaType, assetId);
+        return assetId;
+    }
+
+    // assetId is null for a text-only post. A 4xx answer is reported as a RejectedPostException.
+    // Returns the post URN from the X-RestLi-Id header, or from the response body's id.
+    private String createPost(String accessToken, String memberId, String email, String postContent, String mediaType, String assetId) {
+        String apiUrl = apiBaseUrl + "/v2/ugcPosts";
 
         HttpHeaders headers = new HttpHeaders();
         headers.setBearerAuth(accessToken);
@@ -233,20 +354,14 @@ public class LinkedInService {
         ObjectNode shareContent = objectMapper.createObjectNode();
         shareContent.set("shareCommentary", objectMapper.createObjectNode().put("text", postContent));
         
-        if (mediaUrl != null && !mediaUrl.isEmpty()) {
+        if (assetId != null) {
             shareContent.put("shareMediaCategory", mediaType.toUpperCase());
             ArrayNode mediaArray = shareContent.putArray("media");
             ObjectNode mediaNode = mediaArray.addObject();
             mediaNode.put("status", "READY");
             mediaNode.set("description", objectMapper.createObjectNode().put("text", "Media description"));
             mediaNode.set("title", objectMapper.createObjectNode().put("text", "Media title"));
-            try {
-                String assetId = uploadMediaToLinkedIn(accessToken, memberId, mediaUrl, mediaType);
-                mediaNode.put("media", assetId);
-            } catch (IOException e) {
-                logger.error("Failed to upload media to LinkedIn", e);
-                throw new RuntimeException("Failed to upload media to LinkedIn", e);
-            }
+            mediaNode.put("media", assetId);
         } else {
             shareContent.put("shareMediaCategory", "NONE");
         }
@@ -266,7 +381,9 @@ public class LinkedInService {
             ResponseEntity<String> response = restTemplate.exchange(apiUrl, HttpMethod.POST, request, String.class);
             
             if (response.getStatusCode().is2xxSuccessful()) {
-                logger.info("Successfully posted to LinkedIn for email: {}", email);
+                String postUrn = postUrnOf(response);
+                logger.info("Successfully posted {} to LinkedIn for email: {}", postUrn, email);
+                return postUrn;
             } else {
                 logger.error("Failed to post to LinkedIn for email: {}. Status code: {}", email, response.getStatusCode());
                 throw new RuntimeException("Failed to post to LinkedIn: " + response.getBody());
@@ -275,28 +392,46 @@ public class LinkedInService {
             HttpStatus statusCode = HttpStatus.valueOf(e.getStatusCode().value());
             String responseBody = e.getResponseBodyAsString();
             logger.error("LinkedIn API error for email: {}: Status Code: {}, Response Body: {}", email, statusCode, responseBody);
-            logger.error("Request Headers: {}", headers);
             logger.error("Request Body: {}", requestBodyString);
-            throw new RuntimeException("Failed to post to LinkedIn. Status: " + statusCode + ", Body: " + responseBody);
-        } catch (Exception e) {
+            String message = "Failed to post to LinkedIn. Status: " + statusCode + ", Body: " + responseBody;
+            if (e.getStatusCode().is4xxClientError()) {
+                throw new RejectedPostException(message, e);
+            }
+            throw new RuntimeException(message);
+        } catch (RuntimeException e) {
             logger.error("Unexpected error posting to LinkedIn for email: {}", email, e);
             throw new RuntimeException("Failed to post to LinkedIn", e);
         }
     }
 
+    static class RejectedPostException extends RuntimeException {
+        RejectedPostException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
     private String uploadMediaToLinkedIn(String accessToken, String memberId, String mediaUrl, String mediaType) throws IOException {
-        // Step 1: Register the media and get the asset ID and upload URL
-        UploadResponse uploadResponse = registerMedia(accessToken, memberId, mediaType);
+        Path mediaPath = Paths.get(mediaUrl);
+        long fileSize = Files.size(mediaPath);
+        boolean multipart = mediaType.equalsIgnoreCase("video") && fileSize > multipartThresholdBytes;
+
+        // Step 1: Register the media and get the asset ID and upload URL (or the part URLs of a multipart upload)
+        UploadResponse uploadResponse = registerMedia(accessToken, memberId, mediaType, multipart ? fileSize : -1);
 
-        // Step 2: Upload the media binary using the upload URL
-        uploadMediaBinary(uploadResponse.getUploadUrl(), mediaUrl, mediaType);
+        // Step 2: Stream the media binary from disk
+        if (uploadResponse.isMultipart()) {
+            uploadMediaParts(accessToken, uploadResponse, mediaPath, mediaType);
+        } else {
+            uploadMediaBinary(uploadResponse.getUploadUrl(), mediaPath, mediaType);
+        }
 
         // Return the asset ID
         return uploadResponse.getAssetId();
     }
 
-    private UploadResponse registerMedia(String accessToken, String memberId, String mediaType) throws IOException {
-        String apiUrl = "https://api.linkedin.com/v2/assets?action=registerUpload";
+    // fileSize >= 0 asks LinkedIn for a multipart upload of a file of that size
+    private UploadResponse registerMedia(String accessToken, String memberId, String mediaType, long fileSize) throws IOException {
+        String apiUrl = apiBaseUrl + "/v2/assets?action=registerUpload";
         
         HttpHeaders headers = new HttpHeaders();
         headers.setBearerAuth(accessToken);
@@ -309,6 +444,10 @@ public class LinkedInService {
         recipes.add(mediaType.equalsIgnoreCase("image") ? "urn:li:digitalmediaRecipe:feedshare-image" : "urn:li:digitalmediaRecipe:feedshare-video");
         
         registerUploadRequest.put("owner", "urn:li:person:" + memberId);
+        if (fileSize >= 0) {
+            registerUploadRequest.put("fileSize", fileSize);
+            registerUploadRequest.putArray("supportedUploadMechanism").add("MULTIPART_UPLOAD");
+        }
         
         ArrayNode serviceRelationships = registerUploadRequest.putArray("serviceRelationships");
         ObjectNode relationship = serviceRelationships.addObject();
@@ -321,9 +460,15 @@ public class LinkedInService {
             ResponseEntity<JsonNode> response = restTemplate.exchange(apiUrl, HttpMethod.POST, request, JsonNode.class);
     
             if (response.getStatusCode() == HttpStatus.OK) {
-                JsonNode responseBody = response.getBody();
-                String assetId = responseBody.path("value").path("asset").asText();
-                String uploadUrl = responseBody.path("value").path("uploadMechanism")
+                JsonNode value = response.getBody().path("value");
+                String assetId = value.path("asset").asText();
+                JsonNode uploadMechanism = value.path("uploadMechanism");
+                JsonNode multipartUpload = uploadMechanism.path("com.linkedin.digitalmedia.uploading.MultipartUpload");
+                if (!multipartUpload.isMissingNode()) {
+                    return new UploadResponse(assetId, null, value.path("mediaArtifact").asText(),
+                        multipartUpload.path("metadata").asText(), multipartUpload.path("partUploadRequests"));
+                }
+                String uploadUrl = uploadMechanism
                     .path("com.linkedin.digitalmedia.uploading.MediaUploadHttpRequest").path("uploadUrl").asText();
                 return new UploadResponse(assetId, uploadUrl);
             } else {
@@ -337,35 +482,139 @@ public class LinkedInService {
     }
     
 
-    private void uploadMediaBinary(String uploadUrl, String mediaUrl, String mediaType) throws IOException {
-        byte[] mediaBytes = Files.readAllBytes(Paths.get(mediaUrl));
+    // The file is streamed from disk by the resource converter, so only a copy buffer is ever on the heap
+    private void uploadMediaBinary(String uploadUrl, Path mediaPath, String mediaType) throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(contentTypeFor(mediaPath, mediaType));
+
+        putWithRetry(uploadUrl, new FileSystemResource(mediaPath), headers, "media binary");
+    }
+
+    // Uploads each byte range LinkedIn asked for; a failed part is retried on its own, then the upload is finalized
+    private void uploadMediaParts(String accessToken, UploadResponse uploadResponse, Path mediaPath, String mediaType) throws IOException {
+        JsonNode partRequests = uploadResponse.getPartUploadRequests();
+        ArrayNode partResponses = objectMapper.createArrayNode();
+        logger.info("Uploading {} in {} parts", mediaPath.getFileName(), partRequests.size());
+
+        for (JsonNode partRequest : partRequests) {
+            long firstByte = partRequest.path("byteRange").path("firstByte").asLong();
+            long lastByte = partRequest.path("byteRange").path("lastByte").asLong();
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(contentTypeFor(mediaPath, mediaType));
+            partRequest.path("headers").fields().forEachRemaining(header -> headers.set(header.getKey(), header.getValue().asText()));
+
+            ResponseEntity<String> response = putWithRetry(partRequest.path("url").asText(),
+                new FileRangeResource(mediaPath, firstByte, lastByte - firstByte + 1), headers,
+                "part " + firstByte + "-" + lastByte);
+
+            ObjectNode partResponse = partResponses.addObject();
+            partResponse.put("httpStatusCode", response.getStatusCode().value());
+            partResponse.putObject("headers").put("ETag", response.getHeaders().getETag());
+        }
+
+        completeMultipartUpload(accessToken, uploadResponse, partResponses);
+    }
+
+    private void completeMultipartUpload(String accessToken, UploadResponse uploadResponse, ArrayNode partResponses) throws IOException {
+        String apiUrl = apiBaseUrl + "/v2/assets?action=completeMultiPartUpload";
 
         HttpHeaders headers = new HttpHeaders();
-        MediaType contentType;
-        if (mediaType.equalsIgnoreCase("image")) {
-            contentType = MediaType.IMAGE_JPEG; // Adjust if not JPEG
-        } else if (mediaType.equalsIgnoreCase("video")) {
-            contentType = MediaType.valueOf("video/mp4"); // Adjust if not MP4
-        } else {
-            contentType = MediaType.APPLICATION_OCTET_STREAM;
+        headers.setBearerAuth(accessToken);
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        ObjectNode requestBody = objectMapper.createObjectNode();
+        ObjectNode completeRequest = requestBody.putObject("completeMultipartUploadRequest");
+        completeRequest.put("mediaArtifact", uploadResponse.getMediaArtifact());
+        completeRequest.put("metadata", uploadResponse.getMetadata());
+        completeRequest.set("partUploadResponses", partResponses);
+
+        try {
+            ResponseEntity<String> response = restTemplate.exchange(apiUrl, HttpMethod.POST,
+                new HttpEntity<>(requestBody.toString(), headers), String.class);
+            if (!response.getStatusCode().is2xxSuccessful()) {
+                throw new IOException("Failed to complete multipart upload. Status: " + response.getStatusCode());
+            }
+        } catch (HttpStatusCodeException e) {
+            logger.error("LinkedIn API error: Status Code: {}, Response Body: {}", e.getStatusCode(), e.getResponseBodyAsString());
+            throw new IOException("Failed to complete multipart upload: " + e.getMessage(), e);
         }
-        headers.setContentType(contentType);
+    }
 
-        HttpEntity<byte[]> request = new HttpEntity<>(mediaBytes, headers);
-        ResponseEntity<String> response = restTemplate.exchange(uploadUrl, HttpMethod.PUT, request, String.class);
+    // Retries network errors and 5xx responses with a linear backoff; 4xx responses fail immediately
+    private ResponseEntity<String> putWithRetry(String url, Resource body, HttpHeaders headers, String description) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.PUT, new HttpEntity<>(body, headers), String.class);
+                if (!response.getStatusCode().is2xxSuccessful()) {
+                    throw new IOException("Failed to upload " + description + " to LinkedIn. Status: " + response.getStatusCode());
+                }
+                return response;
+            } catch (ResourceAccessException | HttpServerErrorException e) {
+                if (attempt >= uploadMaxAttempts) {
+                    throw new IOException("Failed to upload " + description + " to LinkedIn after " + attempt + " attempts", e);
+                }
+                logger.warn("Upload of {} failed (attempt {} of {}), retrying: {}", description, attempt, uploadMaxAttempts, e.getMessage());
+                try {
+                    Thread.sleep(uploadRetryBackoffMs * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while retrying upload of " + description, ie);
+                }
+            } catch (HttpClientErrorException e) {
+                throw new IOException("Failed to upload " + description + " to LinkedIn: " + e.getMessage(), e);
+            }
+        }
+    }
 
-        if (!response.getStatusCode().is2xxSuccessful()) {
-            throw new IOException("Failed to upload media binary to LinkedIn");
+    // The real type from the file's magic bytes; the generic per-category type only if it is unrecognised
+    private MediaType contentTypeFor(Path mediaPath, String mediaType) throws IOException {
+        String detected = MediaStore.detectContentType(mediaPath);
+        if (detected != null) {
+            return MediaType.parseMediaType(detected);
         }
+        if (mediaType.equalsIgnoreCase("image")) {
+            return MediaType.IMAGE_JPEG; // Adjust if not JPEG
+        } else if (mediaType.equalsIgnoreCase("video")) {
+            return MediaType.valueOf("video/mp4"); // Adjust if not MP4
+        }
+        return MediaType.APPLICATION_OCTET_STREAM;
     }
+
     public class UploadResponse {
         private String assetId;
         private String uploadUrl;
+        private String mediaArtifact;
+        private String metadata;
+        private JsonNode partUploadRequests;
     
         public UploadResponse(String assetId, String uploadUrl) {
             this.assetId = assetId;
             this.uploadUrl = uploadUrl;
         }
+
+        public UploadResponse(String assetId, String uploadUrl, String mediaArtifact, String metadata, JsonNode partUploadRequests) {
+            this(assetId, uploadUrl);
+            this.mediaArtifact = mediaArtifact;
+            this.metadata = metadata;
+            this.partUploadRequests = partUploadRequests;
+        }
+
+        public boolean isMultipart() {
+            return partUploadRequests != null && partUploadRequests.size() > 0;
+        }
+
+        public String getMediaArtifact() {
+            return mediaArtifact;
+        }
+
+        public String getMetadata() {
+            return metadata;
+        }
+
+        public JsonNode getPartUploadRequests() {
+            return partUploadRequests;
+        }
     
         public String getAssetId() {
             return assetId;
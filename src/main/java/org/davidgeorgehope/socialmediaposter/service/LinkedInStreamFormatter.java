@@ -0,0 +1,97 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Applies the LinkedIn formatting to a stream of deltas. Text that could still turn into a markdown
+// construct (trailing '*' and '_' that may become "**" or "* ", or a '[' that may still start a "[..](..)" link) is
+// held back until the next delta decides it, so the output matches formatting the whole text at once.
+// Links are decided the way the formatter finds them: left to right, on the text without "**" and '_'.
+public class LinkedInStreamFormatter implements Consumer<String> {
+
+    // The markdown link formatForLinkedIn replaces with its URL
+    static final Pattern MARKDOWN_LINK = Pattern.compile("\\[([^\\]]+)\\]\\((https?://[^\\)]+)\\)");
+
+    // Upper bound for text held back behind a '[' that never becomes a link
+    private static final int MAX_HELD_LINK_CHARS = 512;
+
+    private final UnaryOperator<String> formatter;
+    private final Consumer<String> downstream;
+    private final StringBuilder pending = new StringBuilder();
+
+    public LinkedInStreamFormatter(UnaryOperator<String> formatter, Consumer<String> downstream) {
+        this.formatter = formatter;
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void accept(String delta) {
+        if (delta == null || delta.isEmpty()) {
+            return;
+        }
+        pending.append(delta);
+        int safe = safeLength();
+        if (safe > 0) {
+            emit(pending.substring(0, safe));
+            pending.delete(0, safe);
+        }
+    }
+
+    // Flushes whatever is still held back once the stream has ended
+    public void finish() {
+        if (pending.length() > 0) {
+            emit(pending.toString());
+            pending.setLength(0);
+        }
+    }
+
+    private int safeLength() {
+        int decided = pending.length();
+        // '_' is removed before "* " is matched, so "*_" followed by a space still becomes "- "
+        while (decided > 0 && (pending.charAt(decided - 1) == '*' || pending.charAt(decided - 1) == '_')) {
+            decided--;
+        }
+        int linkStart = undecidedLinkStart(decided);
+        return linkStart >= 0 ? linkStart : decided;
+    }
+
+    // Where in pending the first link still depends on text to come, or -1. Links are matched after "**" and
+    // '_' are removed, so they are looked for in that view of the decided part of pending, and origin maps it
+    // back. A '[' that would hold back MAX_HELD_LINK_CHARS or more is given up on.
+    private int undecidedLinkStart(int decided) {
+        StringBuilder view = new StringBuilder(decided);
+        int[] origin = new int[decided];
+        for (int i = 0; i < decided; i++) {
+            char c = pending.charAt(i);
+            if (c == '*' && i + 1 < decided && pending.charAt(i + 1) == '*') {
+                i++;
+            } else if (c != '_') {
+                origin[view.length()] = i;
+                view.append(c);
+            }
+        }
+
+        Matcher matcher = MARKDOWN_LINK.matcher(view);
+        for (int start = view.indexOf("["); start >= 0; ) {
+            matcher.region(start, view.length());
+            if (matcher.lookingAt()) {
+                start = view.indexOf("[", matcher.end());
+                continue;
+            }
+            if (matcher.hitEnd() && pending.length() - origin[start] < MAX_HELD_LINK_CHARS) {
+                return origin[start];
+            }
+            start = view.indexOf("[", start + 1);
+        }
+        return -1;
+    }
+
+    private void emit(String text) {
+        String formatted = formatter.apply(text);
+        if (!formatted.isEmpty()) {
+            downstream.accept(formatted);
+        }
+    }
+}
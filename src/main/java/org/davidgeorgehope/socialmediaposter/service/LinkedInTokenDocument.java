@@ -0,0 +1,20 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Instant;
+
+// One account's LinkedIn token as stored in the token index, keyed by email. access_token and refresh_token
+// are ciphertext when linkedin.token.encryption-key is set; the expiry times stay in clear so expiring tokens
+// can be found with a range query.
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record LinkedInTokenDocument(
+        @JsonProperty("email") String email,
+        @JsonProperty("member_id") String memberId,
+        @JsonProperty("access_token") String accessToken,
+        @JsonProperty("expires_at") Instant expiresAt,
+        @JsonProperty("refresh_token") String refreshToken,
+        @JsonProperty("refresh_expires_at") Instant refreshExpiresAt,
+        @JsonProperty("updated_at") Instant updatedAt) {
+}
@@ -0,0 +1,328 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch.core.GetResponse;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+// LinkedIn tokens per email, kept in the social-pilot-linkedin-tokens index so every node sees the same tokens,
+// and cached in memory so token checks and posts rarely touch Elasticsearch. A cached token is read again
+// once it is older than linkedin.token.cache-ttl-ms, and an email with no cached token is looked up on every
+// call, so a token stored or refreshed on another node is picked up. A store writes the index first and only
+// then updates the cache; writes for one email are serialized on this node. expiringWithin always queries the
+// index, so the refresh sees every account whichever node authorized it.
+// With linkedin.token.encryption-key (a base64 AES key of 16, 24 or 32 bytes) the access and refresh tokens
+// are stored AES-GCM encrypted, bound to their email and field; tokens stored in clear before the key was set
+// still load and are encrypted on their next store.
+// Token files from the old node-local store (<email>_linkedin_data.txt in linkedin.token-dir) are imported
+// at startup, unless the index already holds a token that expires later, and the file is then deleted.
+// Metrics: linkedin.tokens.lookups{result=hit|expired|miss}, linkedin.tokens.cached.
+@Service
+public class LinkedInTokenStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(LinkedInTokenStore.class);
+    static final String TOKEN_INDEX = "social-pilot-linkedin-tokens";
+    private static final String DATA_SEPARATOR = ",";
+    private static final String FILE_SUFFIX = "_linkedin_data.txt";
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final String CIPHER_PREFIX = "v1:";
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    // Tokens returned per refresh run; the rest are picked up by the next run
+    private static final int REFRESH_BATCH = 1000;
+    static final long TOKEN_EXPIRY_BUFFER = 300; // 5 minutes buffer
+
+    private final ElasticsearchClient esClient;
+    private final Path legacyDirectory;
+    private final SecretKey key;
+    private final long cacheTtlNanos;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Cached> tokens = new ConcurrentHashMap<>();
+    private final Counter hits;
+    private final Counter expired;
+    private final Counter misses;
+
+    public LinkedInTokenStore(ElasticsearchClient esClient, MeterRegistry meterRegistry,
+                              @Value("${linkedin.token-dir:.}") String legacyDirectory,
+                              @Value("${linkedin.token.encryption-key:}") String encryptionKey,
+                              @Value("${linkedin.token.cache-ttl-ms:300000}") long cacheTtlMs) {
+        this.esClient = esClient;
+        this.legacyDirectory = Paths.get(legacyDirectory);
+        this.key = encryptionKey.isBlank() ? null : aesKey(encryptionKey);
+        this.cacheTtlNanos = cacheTtlMs * 1_000_000;
+        this.hits = meterRegistry.counter("linkedin.tokens.lookups", "result", "hit");
+        this.expired = meterRegistry.counter("linkedin.tokens.lookups", "result", "expired");
+        this.misses = meterRegistry.counter("linkedin.tokens.lookups", "result", "miss");
+        meterRegistry.gauge("linkedin.tokens.cached", tokens, Map::size);
+        if (key == null) {
+            logger.warn("linkedin.token.encryption-key is not set, LinkedIn tokens are stored unencrypted");
+        }
+        importLegacyFiles();
+    }
+
+    public Optional<Token> get(String email) {
+        Token token = null;
+        if (email != null) {
+            Cached cached = tokens.get(email);
+            if (cached == null || System.nanoTime() - cached.loadedAtNanos() > cacheTtlNanos) {
+                cached = reload(email, cached);
+            }
+            token = cached != null ? cached.token() : null;
+        }
+        if (token == null) {
+            misses.increment();
+        } else if (token.expiresWithin(TOKEN_EXPIRY_BUFFER * 1000)) {
+            expired.increment();
+        } else {
+            hits.increment();
+        }
+        return Optional.ofNullable(token);
+    }
+
+    public boolean hasValidAccessToken(String email) {
+        return get(email).map(token -> !token.expiresWithin(TOKEN_EXPIRY_BUFFER * 1000)).orElse(false);
+    }
+
+    public void store(String email, Token token) {
+        if (email == null || email.isEmpty() || token.accessToken() == null || token.accessToken().isEmpty()) {
+            logger.warn("Attempted to store null or empty email or access token");
+            return;
+        }
+        try {
+            tokens.compute(email, (id, current) -> {
+                try {
+                    write(id, token);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return new Cached(token, System.nanoTime());
+            });
+            logger.info("User data stored successfully for email: {}", email);
+        } catch (RuntimeException e) {
+            Throwable cause = e instanceof UncheckedIOException ? e.getCause() : e;
+            logger.error("Failed to store user data for email: {}", email, cause);
+            throw new RuntimeException("Failed to store user data", cause);
+        }
+    }
+
+    // Tokens whose access token expires within the given time, for proactive refresh. The ones still valid
+    // come first, so accounts that can no longer be refreshed never crowd them out of a batch.
+    public List<Map.Entry<String, Token>> expiringWithin(long millis) {
+        String before = Instant.now().plusMillis(millis).toString();
+        try {
+            SearchResponse<LinkedInTokenDocument> response = esClient.search(s -> s
+                            .index(TOKEN_INDEX)
+                            .ignoreUnavailable(true)
+                            .size(REFRESH_BATCH)
+                            .sort(so -> so.field(f -> f.field("expires_at").order(SortOrder.Desc)))
+                            .query(q -> q.range(r -> r.field("expires_at").lt(JsonData.of(before)))),
+                    LinkedInTokenDocument.class);
+            List<Map.Entry<String, Token>> expiring = new ArrayList<>();
+            for (Hit<LinkedInTokenDocument> hit : response.hits().hits()) {
+                Token token = decode(hit.id(), hit.source());
+                if (token != null) {
+                    expiring.add(Map.entry(hit.id(), token));
+                }
+            }
+            return expiring;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to look up expiring LinkedIn tokens", e);
+            return List.of();
+        }
+    }
+
+    // Reads the token from the index. The cache is only updated if nothing was stored meanwhile; when the
+    // index cannot be reached the cached token, if any, is kept.
+    private Cached reload(String email, Cached cached) {
+        Token token;
+        try {
+            token = read(email);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to load LinkedIn token for {}: {}", email, e.getMessage());
+            return cached;
+        }
+        Cached loaded = token != null ? new Cached(token, System.nanoTime()) : null;
+        return tokens.compute(email, (id, current) -> current == cached ? loaded : current);
+    }
+
+    private Token read(String email) throws IOException {
+        GetResponse<LinkedInTokenDocument> response;
+        try {
+            response = esClient.get(g -> g.index(TOKEN_INDEX).id(email), LinkedInTokenDocument.class);
+        } catch (RuntimeException e) {
+            if (ElasticsearchErrors.status(e) == 404) {
+                // No token was ever stored, so the index does not exist yet
+                return null;
+            }
+            throw e;
+        }
+        return response.found() ? decode(email, response.source()) : null;
+    }
+
+    private void write(String email, Token token) throws IOException {
+        LinkedInTokenDocument document = new LinkedInTokenDocument(email, token.memberId(),
+                seal(email, "access_token", token.accessToken()), Instant.ofEpochMilli(token.expiresAt()),
+                seal(email, "refresh_token", token.refreshToken()),
+                token.refreshExpiresAt() > 0 ? Instant.ofEpochMilli(token.refreshExpiresAt()) : null, Instant.now());
+        esClient.index(i -> i.index(TOKEN_INDEX).id(email).document(document));
+    }
+
+    private Token decode(String email, LinkedInTokenDocument document) {
+        if (document == null || document.accessToken() == null) {
+            return null;
+        }
+        try {
+            return new Token(open(email, "access_token", document.accessToken()), document.memberId(),
+                    document.expiresAt() != null ? document.expiresAt().toEpochMilli() : 0,
+                    open(email, "refresh_token", document.refreshToken()),
+                    document.refreshExpiresAt() != null ? document.refreshExpiresAt().toEpochMilli() : 0);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            logger.error("Failed to decrypt LinkedIn token for {}; check linkedin.token.encryption-key", email, e);
+            return null;
+        }
+    }
+
+    private String seal(String email, String field, String value) {
+        if (value == null || key == null) {
+            return value;
+        }
+        try {
+            byte[] iv = new byte[IV_BYTES];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD((email + "/" + field).getBytes(StandardCharsets.UTF_8));
+            byte[] sealed = cipher.doFinal(value.getBytes(StandardCharsets.UTF_8));
+            return CIPHER_PREFIX + Base64.getEncoder().encodeToString(
+                    ByteBuffer.allocate(iv.length + sealed.length).put(iv).put(sealed).array());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to encrypt LinkedIn token", e);
+        }
+    }
+
+    private String open(String email, String field, String value) throws GeneralSecurityException {
+        if (value == null || !value.startsWith(CIPHER_PREFIX)) {
+            // Stored before linkedin.token.encryption-key was set
+            return value;
+        }
+        if (key == null) {
+            throw new GeneralSecurityException("token is encrypted but linkedin.token.encryption-key is not set");
+        }
+        byte[] data = Base64.getDecoder().decode(value.substring(CIPHER_PREFIX.length()));
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, data, 0, IV_BYTES));
+        cipher.updateAAD((email + "/" + field).getBytes(StandardCharsets.UTF_8));
+        return new String(cipher.doFinal(data, IV_BYTES, data.length - IV_BYTES), StandardCharsets.UTF_8);
+    }
+
+    private static SecretKey aesKey(String encoded) {
+        byte[] bytes = Base64.getDecoder().decode(encoded.trim());
+        if (bytes.length != 16 && bytes.length != 24 && bytes.length != 32) {
+            throw new IllegalArgumentException("linkedin.token.encryption-key must be a base64 AES key of 16, 24 or 32 bytes");
+        }
+        return new SecretKeySpec(bytes, "AES");
+    }
+
+    private void importLegacyFiles() {
+        if (!Files.isDirectory(legacyDirectory)) {
+            return;
+        }
+        int imported = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(legacyDirectory, "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String email = name.substring(0, name.length() - FILE_SUFFIX.length());
+                try {
+                    Token token = Token.parse(Files.readString(file, StandardCharsets.UTF_8).trim());
+                    if (token == null) {
+                        continue;
+                    }
+                    Token current = read(email);
+                    if (current == null || current.expiresAt() < token.expiresAt()) {
+                        write(email, token);
+                        imported++;
+                    }
+                    Files.delete(file);
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Failed to import the LinkedIn token file for email: {}", email, e);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to list LinkedIn token files in {}", legacyDirectory, e);
+        }
+        if (imported > 0) {
+            logger.info("Imported LinkedIn token files for {} account(s) into {}", imported, TOKEN_INDEX);
+        }
+    }
+
+    private record Cached(Token token, long loadedAtNanos) {
+    }
+
+    // Expiry times are epoch milliseconds; refreshToken is null when LinkedIn did not issue one
+    public record Token(String accessToken, String memberId, long expiresAt,
+                        String refreshToken, long refreshExpiresAt) {
+
+        public boolean expiresWithin(long millis) {
+            return System.currentTimeMillis() > expiresAt - millis;
+        }
+
+        public boolean canRefresh() {
+            return refreshToken != null && !refreshToken.isEmpty()
+                    && (refreshExpiresAt == 0 || System.currentTimeMillis() < refreshExpiresAt);
+        }
+
+        // The legacy token file layout: "access,member,expiry", then the refresh token and its expiry if any
+        static Token parse(String data) {
+            String[] fields = data.split(DATA_SEPARATOR);
+            if (fields[0].isEmpty()) {
+                return null;
+            }
+            String memberId = fields.length > 1 && !fields[1].isEmpty() ? fields[1] : null;
+            String refreshToken = fields.length > 3 && !fields[3].isEmpty() ? fields[3] : null;
+            // Assume expired if we can't parse the time
+            return new Token(fields[0], memberId, parseTime(fields, 2), refreshToken, parseTime(fields, 4));
+        }
+
+        private static long parseTime(String[] fields, int index) {
+            if (fields.length <= index) {
+                return 0;
+            }
+            try {
+                return Long.parseLong(fields[index]);
+            } catch (NumberFormatException e) {
+                logger.error("Invalid expiration time format", e);
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Conflicts;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch.core.GetResponse;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+// Persistent tier of the LLM response cache, kept in its own index. Entries expire after the TTL and
+// the oldest ones are dropped once the index grows past ai.cache.store.max-entries.
+// Failures are logged and treated as misses: the cache must never break a completion.
+@Service
+public class LlmResponseStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(LlmResponseStore.class);
+    private static final String CACHE_INDEX = "social-pilot-llm-cache";
+    private static final int MAX_EVICTION_BATCH = 1000;
+
+    private final ElasticsearchClient esClient;
+    private final boolean enabled;
+    private final Duration ttl;
+    private final long maxEntries;
+
+    public LlmResponseStore(ElasticsearchClient esClient,
+                            @Value("${ai.cache.store.enabled:true}") boolean enabled,
+                            @Value("${ai.cache.ttl-hours:168}") long ttlHours,
+                            @Value("${ai.cache.store.max-entries:10000}") long maxEntries) {
+        this.esClient = esClient;
+        this.enabled = enabled;
+        this.ttl = Duration.ofHours(ttlHours);
+        this.maxEntries = maxEntries;
+    }
+
+    public Optional<CachedCompletion> get(String key) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        try {
+            GetResponse<CachedCompletion> response = esClient.get(g -> g.index(CACHE_INDEX).id(key), CachedCompletion.class);
+            if (!response.found() || response.source() == null) {
+                return Optional.empty();
+            }
+            CachedCompletion entry = response.source();
+            if (entry.createdAt() == null || entry.createdAt().plus(ttl).isBefore(Instant.now())) {
+                return Optional.empty();
+            }
+            return Optional.of(entry);
+        } catch (Exception e) {
+            logger.warn("LLM cache lookup failed for key {}: {}", key, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    public void put(String key, CachedCompletion entry) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            esClient.index(i -> i.index(CACHE_INDEX).id(key).document(entry));
+        } catch (Exception e) {
+            logger.warn("Failed to store LLM cache entry {}: {}", key, e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${ai.cache.store.purge-interval-ms:3600000}", initialDelay = 60000)
+    public void purge() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            String cutoff = Instant.now().minus(ttl).toString();
+            var expired = esClient.deleteByQuery(d -> d
+                    .index(CACHE_INDEX)
+                    .query(q -> q.range(r -> r.field("created_at").lt(JsonData.of(cutoff))))
+                    .conflicts(Conflicts.Proceed)
+                    .ignoreUnavailable(true)
+            );
+
+            long count = esClient.count(c -> c.index(CACHE_INDEX).ignoreUnavailable(true)).count();
+            long excess = count - maxEntries;
+            long evicted = 0;
+            if (excess > 0) {
+                SearchResponse<Void> oldest = esClient.search(s -> s
+                        .index(CACHE_INDEX)
+                        .size((int) Math.min(excess, MAX_EVICTION_BATCH))
+                        .sort(so -> so.field(f -> f.field("created_at").order(SortOrder.Asc)))
+                        .source(src -> src.fetch(false)),
+                        Void.class
+                );
+                List<BulkOperation> deletes = oldest.hits().hits().stream()
+                        .map(Hit::id)
+                        .map(id -> BulkOperation.of(b -> b.delete(del -> del.index(CACHE_INDEX).id(id))))
+                        .collect(Collectors.toList());
+                if (!deletes.isEmpty()) {
+                    esClient.bulk(b -> b.operations(deletes));
+                    evicted = deletes.size();
+                }
+            }
+            logger.info("Purged LLM cache: {} expired, {} evicted over max size", expired.deleted(), evicted);
+        } catch (Exception e) {
+            logger.warn("Failed to purge LLM cache: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.davidgeorgehope.socialmediaposter.model.StoredMedia;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+// One-off migration of the media directory to the content-addressed layout, run with --media.compact=true:
+// legacy UUID_name files are hashed in parallel, copied to <sha256>.<ext> (one copy per distinct content),
+// documents are repointed with bulk updates, and only then are the legacy files deleted. A legacy file still
+// referenced by a document whose update failed is kept, so a second run can repoint it.
+@Component
+@ConditionalOnProperty(name = "media.compact", havingValue = "true")
+public class MediaCompactionRunner implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaCompactionRunner.class);
+
+    private final MediaStore mediaStore;
+    private final ElasticsearchService elasticsearchService;
+    private final ConfigurableApplicationContext context;
+
+    @Value("${media.upload.dir}")
+    private String mediaUploadDir;
+
+    @Value("${media.compact.parallelism:4}")
+    private int parallelism;
+
+    // Stop the application once compaction is done, so it can be run as a command
+    @Value("${media.compact.exit:true}")
+    private boolean exitWhenDone;
+
+    public MediaCompactionRunner(MediaStore mediaStore, ElasticsearchService elasticsearchService,
+                                 ConfigurableApplicationContext context) {
+        this.mediaStore = mediaStore;
+        this.elasticsearchService = elasticsearchService;
+        this.context = context;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        List<Path> legacyFiles;
+        try (Stream<Path> files = Files.list(Paths.get(mediaUploadDir))) {
+            legacyFiles = files
+                    .filter(Files::isRegularFile)
+                    .filter(file -> !file.getFileName().toString().startsWith("."))
+                    .filter(file -> !mediaStore.isHashed(file))
+                    .toList();
+        }
+        logger.info("Compacting {} legacy media files with parallelism {}", legacyFiles.size(), parallelism);
+
+        Map<String, StoredMedia> replacements = new ConcurrentHashMap<>();
+        AtomicLong legacyBytes = new AtomicLong();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> legacyFiles.parallelStream().forEach(file -> {
+                try {
+                    legacyBytes.addAndGet(Files.size(file));
+                    replacements.put(file.getFileName().toString(), mediaStore.adopt(file));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to store " + file, e);
+                }
+            })).get();
+        } finally {
+            pool.shutdown();
+        }
+
+        long storedBytes = replacements.values().stream()
+                .filter(distinctByHash())
+                .mapToLong(StoredMedia::size)
+                .sum();
+        ElasticsearchService.MediaRewrite rewrite = elasticsearchService.rewriteMedia(replacements);
+
+        long retainedBytes = 0;
+        for (Path file : legacyFiles) {
+            if (rewrite.retainedFiles().contains(file.getFileName().toString())) {
+                retainedBytes += Files.size(file);
+            } else {
+                Files.deleteIfExists(file);
+            }
+        }
+        if (!rewrite.failedIds().isEmpty()) {
+            logger.error("{} documents could not be rewritten and still reference {} legacy files, which were kept; "
+                    + "run the compaction again to retry them: {}", rewrite.failedIds().size(),
+                    rewrite.retainedFiles().size(), rewrite.failedIds());
+        }
+        logger.info("Media compaction done: {} files became {} distinct files, {} documents rewritten, {} bytes reclaimed",
+                legacyFiles.size(), replacements.values().stream().map(StoredMedia::hash).distinct().count(),
+                rewrite.rewritten(), legacyBytes.get() - storedBytes - retainedBytes);
+
+        if (exitWhenDone) {
+            System.exit(SpringApplication.exit(context, () -> 0));
+        }
+    }
+
+    private static Predicate<StoredMedia> distinctByHash() {
+        Map<String, Boolean> seen = new ConcurrentHashMap<>();
+        return media -> seen.putIfAbsent(media.hash(), Boolean.TRUE) == null;
+    }
+}
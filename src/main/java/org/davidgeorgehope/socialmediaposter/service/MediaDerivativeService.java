@@ -0,0 +1,222 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import org.davidgeorgehope.socialmediaposter.model.MediaDerivatives;
+import org.davidgeorgehope.socialmediaposter.model.StoredMedia;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Background pipeline that turns a stored upload into a UI thumbnail and a LinkedIn-sized JPEG.
+// Work runs on media.derivatives.workers threads behind a queue of media.derivatives.queue-capacity;
+// when the queue is full the upload is kept without derivatives rather than blocking the request thread.
+// Results are announced with a MediaDerivativesReadyEvent and remembered for a while, so a document
+// indexed after the work finished still picks them up. Images are subsampled while decoding by their longest
+// side, and images over media.derivatives.max-pixels are not decoded at all: the original is used as is.
+@Service
+public class MediaDerivativeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaDerivativeService.class);
+    private static final Set<String> DECODABLE_TYPES = Set.of("image/jpeg", "image/png", "image/gif", "image/bmp");
+
+    private final MediaStore mediaStore;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ThreadPoolExecutor executor;
+    private final Cache<String, MediaDerivatives> completed;
+    private final boolean enabled;
+    private final int thumbnailSize;
+    private final int linkedInMaxWidth;
+    private final float jpegQuality;
+    private final long maxPixels;
+
+    public MediaDerivativeService(MediaStore mediaStore, ApplicationEventPublisher eventPublisher,
+                                  @Value("${media.derivatives.enabled:true}") boolean enabled,
+                                  @Value("${media.derivatives.workers:2}") int workers,
+                                  @Value("${media.derivatives.queue-capacity:50}") int queueCapacity,
+                                  @Value("${media.derivatives.thumbnail-size:320}") int thumbnailSize,
+                                  @Value("${media.derivatives.linkedin-max-width:1200}") int linkedInMaxWidth,
+                                  @Value("${media.derivatives.jpeg-quality:0.85}") float jpegQuality,
+                                  @Value("${media.derivatives.max-pixels:100000000}") long maxPixels) {
+        this.mediaStore = mediaStore;
+        this.eventPublisher = eventPublisher;
+        this.enabled = enabled;
+        this.thumbnailSize = thumbnailSize;
+        this.linkedInMaxWidth = linkedInMaxWidth;
+        this.jpegQuality = jpegQuality;
+        this.maxPixels = maxPixels;
+        this.completed = Caffeine.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(Duration.ofHours(1))
+                .build();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "media-derivatives-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public void submit(StoredMedia media) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            executor.execute(() -> generate(media));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Derivative queue is full, skipping derivatives for {}", media.mediaUrl());
+        }
+    }
+
+    public Optional<MediaDerivatives> completed(String mediaHash) {
+        return mediaHash != null ? Optional.ofNullable(completed.getIfPresent(mediaHash)) : Optional.empty();
+    }
+
+    private void generate(StoredMedia media) {
+        long start = System.nanoTime();
+        try {
+            MediaDerivatives derivatives = createDerivatives(Paths.get(media.mediaUrl()), media.hash());
+            completed.put(media.hash(), derivatives);
+            logger.info("Derivatives for {} ready in {} ms: {}", media.mediaUrl(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), derivatives);
+            eventPublisher.publishEvent(new MediaDerivativesReadyEvent(media.hash(), derivatives));
+        } catch (Exception e) {
+            logger.error("Failed to create derivatives for {}", media.mediaUrl(), e);
+        }
+    }
+
+    private MediaDerivatives createDerivatives(Path source, String hash) throws IOException {
+        String contentType = MediaStore.detectContentType(source);
+        if (contentType == null || !DECODABLE_TYPES.contains(contentType)) {
+            // Videos and formats ImageIO cannot decode only get their real content type recorded
+            return new MediaDerivatives(contentType, null, null, null, null);
+        }
+
+        try (ImageInputStream input = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return new MediaDerivatives(contentType, null, null, null, null);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    logger.warn("{} is {}x{}, over media.derivatives.max-pixels; keeping the original only", source, width, height);
+                    return new MediaDerivatives(contentType, width, height, null, null);
+                }
+
+                // Subsample while decoding so a huge image never needs a full-resolution raster
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = subsampling(width, height, linkedInMaxWidth);
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage decoded = reader.read(0, param);
+
+                Path thumbnail = mediaStore.derivativePath(hash, "thumb");
+                writeJpeg(scale(decoded, thumbnailSize), thumbnail);
+
+                String optimizedUrl = null;
+                // Animated GIFs would lose their animation, so LinkedIn gets the original
+                if (!"image/gif".equals(contentType)) {
+                    Path optimized = mediaStore.derivativePath(hash, "linkedin");
+                    writeJpeg(scale(decoded, linkedInMaxWidth), optimized);
+                    boolean originalFits = "image/jpeg".equals(contentType) && Math.max(width, height) <= linkedInMaxWidth;
+                    if (originalFits && Files.size(optimized) >= Files.size(source)) {
+                        Files.deleteIfExists(optimized);
+                    } else {
+                        optimizedUrl = mediaStore.mediaUrlOf(optimized);
+                    }
+                }
+                return new MediaDerivatives(contentType, width, height, mediaStore.mediaUrlOf(thumbnail), optimizedUrl);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // The largest step that still leaves the longest side at maxSize or more, for scale() to finish
+    static int subsampling(int width, int height, int maxSize) {
+        return Math.max(1, Math.max(width, height) / maxSize);
+    }
+
+    // Fits the image within maxSize on its longest side (never upscaling) and flattens it onto white,
+    // since JPEG has no alpha channel
+    private static BufferedImage scale(BufferedImage image, int maxSize) {
+        double factor = Math.min(1.0, (double) maxSize / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private void writeJpeg(BufferedImage image, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        Path temp = Files.createTempFile(target.getParent(), ".derivative-", ".tmp");
+        try {
+            try (ImageOutputStream output = ImageIO.createImageOutputStream(temp.toFile())) {
+                writer.setOutput(output);
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(jpegQuality);
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+                writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
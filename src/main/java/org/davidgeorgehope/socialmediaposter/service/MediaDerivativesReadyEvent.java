@@ -0,0 +1,7 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.davidgeorgehope.socialmediaposter.model.MediaDerivatives;
+
+// Published by the derivative pipeline once the files for a media hash are on disk
+public record MediaDerivativesReadyEvent(String mediaHash, MediaDerivatives derivatives) {
+}
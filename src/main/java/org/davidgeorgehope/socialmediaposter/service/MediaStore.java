@@ -0,0 +1,208 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.davidgeorgehope.socialmediaposter.model.StoredMedia;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+// Content-addressable media directory: every file is stored as <sha256>.<ext>, so uploading the same
+// bytes twice keeps a single copy. The hash is computed while the upload streams to a temp file.
+@Service
+public class MediaStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaStore.class);
+    // <sha256>.<ext> for originals, <sha256>.<variant>.jpg for derivatives
+    private static final Pattern HASHED_NAME = Pattern.compile("^[0-9a-f]{64}(\\.[a-z]+)?\\.[a-z0-9]+$");
+    private static final Pattern EXTENSION = Pattern.compile("^[a-z0-9]{1,8}$");
+
+    public static final int MAGIC_BYTES = 16;
+
+    private final String mediaUploadDir;
+
+    public MediaStore(@Value("${media.upload.dir}") String mediaUploadDir) {
+        this.mediaUploadDir = mediaUploadDir;
+    }
+
+    public StoredMedia store(InputStream in, String originalFilename) throws IOException {
+        Path dir = Paths.get(mediaUploadDir);
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, ".upload-", ".tmp");
+        try {
+            MessageDigest digest = newDigest();
+            long size;
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(temp), digest)) {
+                size = in.transferTo(out);
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            String fileName = hash + "." + extensionOf(originalFilename);
+            Path target = dir.resolve(fileName);
+            if (Files.exists(target)) {
+                logger.debug("Media {} already stored, dropping the duplicate upload", fileName);
+            } else {
+                moveIntoPlace(temp, target);
+            }
+            return new StoredMedia(mediaUploadDir + fileName, hash, size);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Stores an existing file under its hash, leaving the source in place
+    public StoredMedia adopt(Path source) throws IOException {
+        String hash = sha256(source);
+        String fileName = hash + "." + extensionOf(source.getFileName().toString());
+        Path target = Paths.get(mediaUploadDir).resolve(fileName);
+        if (!Files.exists(target)) {
+            Path temp = Files.createTempFile(target.getParent(), ".adopt-", ".tmp");
+            try {
+                Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+                moveIntoPlace(temp, target);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return new StoredMedia(mediaUploadDir + fileName, hash, Files.size(target));
+    }
+
+    public boolean isHashed(Path file) {
+        return HASHED_NAME.matcher(file.getFileName().toString()).matches();
+    }
+
+    // Files written by the store carry their hash in the name, so only legacy files need to be read.
+    // For a derivative the variant stays part of the key, so it never collides with its original.
+    public String hashOf(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        return isHashed(file) ? name.substring(0, name.lastIndexOf('.')) : sha256(file);
+    }
+
+    public Path derivativePath(String hash, String variant) {
+        return Paths.get(mediaUploadDir).resolve(hash + "." + variant + ".jpg");
+    }
+
+    public String mediaUrlOf(Path file) {
+        return mediaUploadDir + file.getFileName();
+    }
+
+    // Sniffs the first bytes instead of trusting the extension or the client's Content-Type
+    public static String detectContentType(Path file) throws IOException {
+        byte[] header = new byte[MAGIC_BYTES];
+        int read;
+        try (InputStream in = Files.newInputStream(file)) {
+            read = in.readNBytes(header, 0, header.length);
+        }
+        return detectContentType(header, read);
+    }
+
+    // header holds the first read bytes of a file, at least MAGIC_BYTES of them when the file is that long
+    public static String detectContentType(byte[] header, int read) {
+        if (read >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
+            return "image/jpeg";
+        }
+        if (read >= 8 && (header[0] & 0xFF) == 0x89 && startsWith(header, 1, "PNG")) {
+            return "image/png";
+        }
+        if (read >= 6 && startsWith(header, 0, "GIF8")) {
+            return "image/gif";
+        }
+        if (read >= 12 && startsWith(header, 0, "RIFF") && startsWith(header, 8, "WEBP")) {
+            return "image/webp";
+        }
+        if (read >= 2 && startsWith(header, 0, "BM")) {
+            return "image/bmp";
+        }
+        if (read >= 12 && startsWith(header, 4, "ftyp")) {
+            return startsWith(header, 8, "qt") ? "video/quicktime" : "video/mp4";
+        }
+        if (read >= 4 && (header[0] & 0xFF) == 0x1A && (header[1] & 0xFF) == 0x45
+                && (header[2] & 0xFF) == 0xDF && (header[3] & 0xFF) == 0xA3) {
+            return "video/webm";
+        }
+        return null;
+    }
+
+    public static String extensionFor(String contentType) {
+        if (contentType == null) {
+            return "bin";
+        }
+        return switch (contentType) {
+            case "image/jpeg" -> "jpg";
+            case "image/png" -> "png";
+            case "image/gif" -> "gif";
+            case "image/webp" -> "webp";
+            case "image/bmp" -> "bmp";
+            case "video/mp4" -> "mp4";
+            case "video/quicktime" -> "mov";
+            case "video/webm" -> "webm";
+            default -> "bin";
+        };
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            if (offset + i >= bytes.length || bytes[offset + i] != (byte) ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Streams the file through the digest, so large videos are never loaded into memory
+    public static String sha256(Path path) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(path), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void moveIntoPlace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            try {
+                Files.move(temp, target);
+            } catch (FileAlreadyExistsException ignored) {
+                // Stored concurrently by another upload of the same bytes
+            }
+        }
+    }
+
+    private static String extensionOf(String filename) {
+        if (filename != null) {
+            int dot = filename.lastIndexOf('.');
+            if (dot >= 0) {
+                String extension = filename.substring(dot + 1).toLowerCase(Locale.ROOT);
+                if (EXTENSION.matcher(extension).matches()) {
+                    return extension;
+                }
+            }
+        }
+        return "bin";
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -1,31 +1,98 @@
 package org.davidgeorgehope.socialmediaposter.service;
 
+import com.theokanning.openai.client.OpenAiApi;
 import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionResult;
 import com.theokanning.openai.completion.chat.ChatMessage;
 import com.theokanning.openai.service.OpenAiService;
+import io.reactivex.SingleObserver;
+import io.reactivex.disposables.Disposable;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 @Service
 public class OpenAICompletionService implements AICompletionService {
 
+    private static final String MODEL = "gpt-4";
+
     private final OpenAiService openAiService;
+    private final OpenAiApi openAiApi;
 
-    public OpenAICompletionService(OpenAiService openAiService) {
+    public OpenAICompletionService(OpenAiService openAiService, OpenAiApi openAiApi) {
         this.openAiService = openAiService;
+        this.openAiApi = openAiApi;
+    }
+
+    @Override
+    public String providerName() {
+        return "openai";
+    }
+
+    @Override
+    public String modelName() {
+        return MODEL;
     }
 
     @Override
     public String generateCompletion(String systemPrompt, String userPrompt) {
-        ChatCompletionRequest completionRequest = ChatCompletionRequest.builder()
-            .model("gpt-4")
+        return openAiService.createChatCompletion(buildRequest(systemPrompt, userPrompt)).getChoices().get(0).getMessage().getContent();
+    }
+
+    // Disposing the Retrofit subscription cancels the underlying OkHttp call. The adapter runs the call inside
+    // subscribe, so the result is handed over through a future that an abort completes right away.
+    @Override
+    public String generateCompletion(String systemPrompt, String userPrompt, boolean bypassCache, CompletionAttempt attempt) {
+        CompletableFuture<ChatCompletionResult> result = new CompletableFuture<>();
+        openAiApi.createChatCompletion(buildRequest(systemPrompt, userPrompt)).subscribe(new SingleObserver<>() {
+            @Override
+            public void onSubscribe(Disposable call) {
+                attempt.onAbort(() -> {
+                    call.dispose();
+                    result.cancel(false);
+                });
+            }
+
+            @Override
+            public void onSuccess(ChatCompletionResult completion) {
+                result.complete(completion);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                result.completeExceptionally(error);
+            }
+        });
+        try {
+            return result.join().getChoices().get(0).getMessage().getContent();
+        } catch (CancellationException e) {
+            throw e;
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException runtime ? runtime : e;
+        }
+    }
+
+    @Override
+    public void streamCompletion(String systemPrompt, String userPrompt, Consumer<String> onDelta) {
+        openAiService.streamChatCompletion(buildRequest(systemPrompt, userPrompt))
+            .blockingForEach(chunk -> chunk.getChoices().forEach(choice -> {
+                if (choice.getMessage() != null && choice.getMessage().getContent() != null) {
+                    onDelta.accept(choice.getMessage().getContent());
+                }
+            }));
+    }
+
+    private ChatCompletionRequest buildRequest(String systemPrompt, String userPrompt) {
+        return ChatCompletionRequest.builder()
+            .model(MODEL)
             .messages(List.of(
                 new ChatMessage("system", systemPrompt),
                 new ChatMessage("user", userPrompt)
             ))
             .build();
-
-        return openAiService.createChatCompletion(completionRequest).getChoices().get(0).getMessage().getContent();
     }
-}
\ No newline at end of file
+}
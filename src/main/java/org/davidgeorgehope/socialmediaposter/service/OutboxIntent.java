@@ -0,0 +1,76 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Instant;
+
+// The intent to post one piece of content to one account, stored in the outbox under its idempotency key.
+// pending -> executing (claimed) -> posted (LinkedIn accepted it, post_urn is set) -> completed (content marked
+// as posted). A failed attempt goes back to pending with a later next_attempt_at, or to dead when out of attempts.
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record OutboxIntent(
+        @JsonProperty("key") String key,
+        @JsonProperty("account") String account,
+        @JsonProperty("content_id") String contentId,
+        @JsonProperty("status") String status,
+        @JsonProperty("attempts") int attempts,
+        @JsonProperty("next_attempt_at") Instant nextAttemptAt,
+        @JsonProperty("claimed_by") String claimedBy,
+        @JsonProperty("claimed_until") Instant claimedUntil,
+        @JsonProperty("post_urn") String postUrn,
+        @JsonProperty("last_error") String lastError,
+        @JsonProperty("created_at") Instant createdAt,
+        @JsonProperty("updated_at") Instant updatedAt) {
+
+    public static final String STATUS_PENDING = "pending";
+    public static final String STATUS_EXECUTING = "executing";
+    public static final String STATUS_POSTED = "posted";
+    public static final String STATUS_COMPLETED = "completed";
+    public static final String STATUS_DEAD = "dead";
+
+    public static OutboxIntent pending(String key, String account, String contentId, Instant now) {
+        return new OutboxIntent(key, account, contentId, STATUS_PENDING, 0, now, null, null, null, null, now, now);
+    }
+
+    // Posting claims count as attempts; finishing the index update of an already posted intent does not
+    public OutboxIntent claimed(String node, Instant until, Instant now) {
+        boolean posting = STATUS_PENDING.equals(status) || STATUS_EXECUTING.equals(status);
+        return new OutboxIntent(key, account, contentId, posting ? STATUS_EXECUTING : status,
+                posting ? attempts + 1 : attempts, nextAttemptAt, node, until, postUrn, lastError, createdAt, now);
+    }
+
+    // Heartbeat of the worker holding the claim
+    public OutboxIntent renewed(Instant until, Instant now) {
+        return new OutboxIntent(key, account, contentId, status, attempts, nextAttemptAt, claimedBy, until,
+                postUrn, lastError, createdAt, now);
+    }
+
+    public OutboxIntent posted(String postUrn, Instant now) {
+        return new OutboxIntent(key, account, contentId, STATUS_POSTED, attempts, now, claimedBy, claimedUntil,
+                postUrn, null, createdAt, now);
+    }
+
+    public OutboxIntent completed(Instant now) {
+        return new OutboxIntent(key, account, contentId, STATUS_COMPLETED, attempts, null, null, null,
+                postUrn, null, createdAt, now);
+    }
+
+    // Back to pending, or to posted when only the index update is left, to be retried at nextAttemptAt
+    public OutboxIntent retryAt(Instant nextAttemptAt, String error, Instant now) {
+        String retryStatus = postUrn != null || STATUS_POSTED.equals(status) ? STATUS_POSTED : STATUS_PENDING;
+        return new OutboxIntent(key, account, contentId, retryStatus, attempts, nextAttemptAt, null, null,
+                postUrn, error, createdAt, now);
+    }
+
+    public OutboxIntent dead(String error, Instant now) {
+        return new OutboxIntent(key, account, contentId, STATUS_DEAD, attempts, null, null, null,
+                postUrn, error, createdAt, now);
+    }
+
+    public OutboxIntent requeued(Instant now) {
+        String retryStatus = postUrn != null ? STATUS_POSTED : STATUS_PENDING;
+        return new OutboxIntent(key, account, contentId, retryStatus, 0, now, null, null,
+                postUrn, lastError, createdAt, now);
+    }
+}
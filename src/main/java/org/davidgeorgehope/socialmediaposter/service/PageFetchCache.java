@@ -0,0 +1,107 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.jsoup.Connection;
+import org.jsoup.HttpStatusException;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+// Remembers what was extracted from a fetched page, so regenerating a post for the same article does not
+// download and parse it again. Within page.cache.ttl-seconds the entry is used without touching the network;
+// after that the page is revalidated with If-None-Match/If-Modified-Since and a 304 keeps the entry.
+// Entries are dropped after page.cache.max-age-hours or when page.cache.max-entries is exceeded.
+// Metrics: page.cache.requests{result=hit|revalidated|miss}.
+@Service
+public class PageFetchCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(PageFetchCache.class);
+
+    private final Cache<String, CachedPage> pages;
+    private final long ttlNanos;
+    private final int timeoutMs;
+    private final int maxBodyBytes;
+    private final Counter hits;
+    private final Counter revalidated;
+    private final Counter misses;
+
+    public PageFetchCache(MeterRegistry meterRegistry,
+                          @Value("${page.cache.ttl-seconds:600}") long ttlSeconds,
+                          @Value("${page.cache.max-age-hours:24}") long maxAgeHours,
+                          @Value("${page.cache.max-entries:500}") long maxEntries,
+                          @Value("${page.fetch.timeout-ms:10000}") int timeoutMs,
+                          @Value("${page.fetch.max-body-bytes:5242880}") int maxBodyBytes) {
+        this.ttlNanos = Duration.ofSeconds(ttlSeconds).toNanos();
+        this.timeoutMs = timeoutMs;
+        this.maxBodyBytes = maxBodyBytes;
+        this.pages = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Duration.ofHours(maxAgeHours))
+                .build();
+        this.hits = meterRegistry.counter("page.cache.requests", "result", "hit");
+        this.revalidated = meterRegistry.counter("page.cache.requests", "result", "revalidated");
+        this.misses = meterRegistry.counter("page.cache.requests", "result", "miss");
+    }
+
+    // Returns what extractor made of the page, running it only when the page was actually downloaded
+    public Map<String, String> fetch(String url, Function<Document, Map<String, String>> extractor) throws IOException {
+        CachedPage cached = pages.getIfPresent(url);
+        long now = System.nanoTime();
+        if (cached != null && now - cached.fetchedAt() < ttlNanos) {
+            hits.increment();
+            logger.debug("Page cache hit for {}", url);
+            return cached.extracted();
+        }
+
+        Connection connection = Jsoup.connect(url)
+                .timeout(timeoutMs)
+                .maxBodySize(maxBodyBytes)
+                .followRedirects(true)
+                .ignoreHttpErrors(true);
+        if (cached != null) {
+            if (cached.etag() != null) {
+                connection.header("If-None-Match", cached.etag());
+            }
+            if (cached.lastModified() != null) {
+                connection.header("If-Modified-Since", cached.lastModified());
+            }
+        }
+
+        Connection.Response response = connection.execute();
+        if (response.statusCode() == 304 && cached != null) {
+            revalidated.increment();
+            logger.info("Page {} not modified, reusing cached content", url);
+            pages.put(url, cached.withFetchedAt(now));
+            return cached.extracted();
+        }
+        if (response.statusCode() / 100 != 2) {
+            throw new HttpStatusException("HTTP error fetching URL", response.statusCode(), url);
+        }
+
+        misses.increment();
+        Document doc = response.parse();
+        // The image URL may be null, which Map.copyOf would reject
+        Map<String, String> extracted = Collections.unmodifiableMap(new HashMap<>(extractor.apply(doc)));
+        pages.put(url, new CachedPage(extracted, response.header("ETag"), response.header("Last-Modified"), now));
+        return extracted;
+    }
+
+    private record CachedPage(Map<String, String> extracted, String etag, String lastModified, long fetchedAt) {
+        CachedPage withFetchedAt(long fetchedAt) {
+            return new CachedPage(extracted, etag, lastModified, fetchedAt);
+        }
+    }
+}
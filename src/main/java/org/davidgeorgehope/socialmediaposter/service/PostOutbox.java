@@ -0,0 +1,506 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch.core.GetResponse;
+import co.elastic.clients.elasticsearch.core.IndexResponse;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.davidgeorgehope.socialmediaposter.model.SocialPilotContent;
+import org.elasticsearch.client.ResponseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Durable outbox for LinkedIn posts. Each post is first written as an intent (see OutboxIntent) under an
+// idempotency key derived from the account and the scheduled slot, with op_type=create, so the same slot can
+// never enqueue two posts. A worker claims the intent with a conditional write (if_seq_no), posts it, records
+// the post URN, and only then marks the content as posted; if that index update fails, only the update is
+// retried, never the post. Failed posts are retried with exponential backoff (outbox.backoff-ms doubling up to
+// outbox.max-backoff-ms) and dead-lettered after outbox.max-attempts; a 4xx from LinkedIn dead-letters at once.
+// While a worker holds the claim it renews claimed_until every outbox.heartbeat-interval-ms, so a slow post
+// (a large upload) never outlives outbox.claim-timeout-ms; it also renews right before calling LinkedIn. Every
+// write under the claim is conditional on the seq_no of the previous one: a worker that lost its claim (it was
+// paused past claimed_until and another node took over) stops before posting, and one that finds out after
+// posting moves the intent, as it now stands, to posted with the post URN, so the index update is all that is left.
+// An intent left executing past its claim (the node died mid-post) may or may not have been posted, so it is
+// dead-lettered for a human to check, unless outbox.stuck.retry=true prefers a possible duplicate over a miss.
+// Metrics: outbox.intents{result=completed|retried|dead|lost}.
+@Service
+public class PostOutbox {
+
+    private static final Logger logger = LoggerFactory.getLogger(PostOutbox.class);
+    static final String OUTBOX_INDEX = "social-pilot-outbox";
+    private static final int MAX_ERROR_LENGTH = 1000;
+    private static final int LOST_CLAIM_ATTEMPTS = 5;
+
+    private final ElasticsearchClient esClient;
+    private final ElasticsearchService elasticsearchService;
+    private final LinkedInService linkedInService;
+    private final SchedulerLease schedulerLease;
+    private final Duration claimTimeout;
+    private final Duration backoff;
+    private final Duration maxBackoff;
+    private final int maxAttempts;
+    private final int batchSize;
+    private final boolean retryStuck;
+    private final Duration heartbeatInterval;
+    private final ThreadPoolExecutor workers;
+    private final ScheduledThreadPoolExecutor heartbeats;
+    private final Counter completed;
+    private final Counter retried;
+    private final Counter dead;
+    private final Counter lost;
+
+    public PostOutbox(ElasticsearchClient esClient, ElasticsearchService elasticsearchService,
+                      LinkedInService linkedInService, SchedulerLease schedulerLease, MeterRegistry meterRegistry,
+                      @Value("${outbox.claim-timeout-ms:300000}") long claimTimeoutMs,
+                      @Value("${outbox.backoff-ms:60000}") long backoffMs,
+                      @Value("${outbox.max-backoff-ms:3600000}") long maxBackoffMs,
+                      @Value("${outbox.max-attempts:5}") int maxAttempts,
+                      @Value("${outbox.batch-size:50}") int batchSize,
+                      @Value("${outbox.workers:4}") int workerCount,
+                      @Value("${outbox.stuck.retry:false}") boolean retryStuck,
+                      @Value("${outbox.heartbeat-interval-ms:60000}") long heartbeatIntervalMs) {
+        this.esClient = esClient;
+        this.elasticsearchService = elasticsearchService;
+        this.linkedInService = linkedInService;
+        this.schedulerLease = schedulerLease;
+        this.claimTimeout = Duration.ofMillis(claimTimeoutMs);
+        this.backoff = Duration.ofMillis(backoffMs);
+        this.maxBackoff = Duration.ofMillis(maxBackoffMs);
+        this.maxAttempts = maxAttempts;
+        this.batchSize = batchSize;
+        this.retryStuck = retryStuck;
+        this.heartbeatInterval = Duration.ofMillis(heartbeatIntervalMs);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(batchSize),
+                r -> {
+                    Thread t = new Thread(r, "outbox-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.workers.allowCoreThreadTimeOut(true);
+        this.heartbeats = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "outbox-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        this.heartbeats.setRemoveOnCancelPolicy(true);
+        this.completed = meterRegistry.counter("outbox.intents", "result", "completed");
+        this.retried = meterRegistry.counter("outbox.intents", "result", "retried");
+        this.dead = meterRegistry.counter("outbox.intents", "result", "dead");
+        this.lost = meterRegistry.counter("outbox.intents", "result", "lost");
+    }
+
+    public static String keyFor(String account, Instant slot) {
+        return "post_" + account + "_" + slot.getEpochSecond();
+    }
+
+    public Optional<OutboxIntent> get(String key) throws IOException {
+        GetResponse<OutboxIntent> response = read(key);
+        return response != null && response.found() ? Optional.ofNullable(response.source()) : Optional.empty();
+    }
+
+    // Null until the first intent creates the outbox index
+    private GetResponse<OutboxIntent> read(String key) throws IOException {
+        try {
+            return esClient.get(g -> g.index(OUTBOX_INDEX).id(key), OutboxIntent.class);
+        } catch (ElasticsearchException e) {
+            if (e.status() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    // False when an intent with this key already exists, whatever its state
+    public boolean enqueue(String key, String account, String contentId) throws IOException {
+        OutboxIntent intent = OutboxIntent.pending(key, account, contentId, Instant.now());
+        try {
+            esClient.create(c -> c.index(OUTBOX_INDEX).id(key).document(intent));
+            logger.info("Enqueued post intent {} for content {}", key, contentId);
+            return true;
+        } catch (ElasticsearchException | ResponseException e) {
+            if (ElasticsearchErrors.isConflict(e)) {
+                logger.info("Post intent {} already exists, not enqueuing content {}", key, contentId);
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    // Runs the intent now if it is due and nobody else holds it. Never throws for a failed post: the
+    // failure is recorded on the intent and retried by the poller.
+    public void process(String key) {
+        try {
+            GetResponse<OutboxIntent> response = read(key);
+            if (response != null && response.found() && response.source() != null) {
+                process(response.source(), response.seqNo(), response.primaryTerm());
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to process post intent {}", key, e);
+        }
+    }
+
+    // Picks up intents that are due for a retry, plus any stuck executing past their claim.
+    // In scheduler.mode=cluster only the lease holder polls; the claim still guards against overlap.
+    @Scheduled(fixedDelayString = "${outbox.poll-interval-ms:30000}", initialDelay = 30000)
+    public void processDue() {
+        if (schedulerLease.isClusterMode() && !schedulerLease.isLeader()) {
+            return;
+        }
+        String now = Instant.now().toString();
+        try {
+            SearchResponse<OutboxIntent> response = esClient.search(s -> s
+                    .index(OUTBOX_INDEX)
+                    .ignoreUnavailable(true)
+                    .size(batchSize)
+                    .seqNoPrimaryTerm(true)
+                    .sort(so -> so.field(f -> f.field("updated_at").order(SortOrder.Asc)))
+                    .query(q -> q.bool(b -> b
+                            .should(sh -> sh.bool(due -> due
+                                    .filter(f -> f.terms(t -> t.field("status").terms(v -> v.value(List.of(
+                                            FieldValue.of(OutboxIntent.STATUS_PENDING),
+                                            FieldValue.of(OutboxIntent.STATUS_POSTED))))))
+                                    .filter(f -> f.range(r -> r.field("next_attempt_at").lte(JsonData.of(now))))))
+                            .should(sh -> sh.bool(stuck -> stuck
+                                    .filter(f -> f.term(t -> t.field("status").value(OutboxIntent.STATUS_EXECUTING)))
+                                    .filter(f -> f.range(r -> r.field("claimed_until").lt(JsonData.of(now))))))
+                            .minimumShouldMatch("1"))),
+                    OutboxIntent.class);
+
+            for (Hit<OutboxIntent> hit : response.hits().hits()) {
+                if (hit.source() == null) {
+                    continue;
+                }
+                OutboxIntent intent = hit.source();
+                Long seqNo = hit.seqNo();
+                Long primaryTerm = hit.primaryTerm();
+                try {
+                    workers.execute(() -> process(intent, seqNo, primaryTerm));
+                } catch (RejectedExecutionException e) {
+                    logger.debug("Outbox workers are busy, leaving {} for the next poll", intent.key());
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to poll the outbox", e);
+        }
+    }
+
+    // Dead-lettered intents, most recent first
+    public List<OutboxIntent> deadLetters(int size) throws IOException {
+        SearchResponse<OutboxIntent> response = esClient.search(s -> s
+                .index(OUTBOX_INDEX)
+                .ignoreUnavailable(true)
+                .size(size)
+                .sort(so -> so.field(f -> f.field("updated_at").order(SortOrder.Desc)))
+                .query(q -> q.term(t -> t.field("status").value(OutboxIntent.STATUS_DEAD))),
+                OutboxIntent.class);
+        return response.hits().hits().stream().map(Hit::source).filter(intent -> intent != null).toList();
+    }
+
+    // Puts a dead-lettered intent back in the queue with a fresh set of attempts
+    public boolean requeue(String key) throws IOException {
+        GetResponse<OutboxIntent> response = read(key);
+        if (response == null || !response.found() || response.source() == null
+                || !OutboxIntent.STATUS_DEAD.equals(response.source().status())) {
+            return false;
+        }
+        OutboxIntent requeued = response.source().requeued(Instant.now());
+        if (!write(requeued, response.seqNo(), response.primaryTerm())) {
+            return false;
+        }
+        logger.info("Requeued dead post intent {}", key);
+        try {
+            workers.execute(() -> process(key));
+        } catch (RejectedExecutionException e) {
+            logger.debug("Outbox workers are busy, leaving {} for the next poll", key);
+        }
+        return true;
+    }
+
+    private void process(OutboxIntent intent, Long seqNo, Long primaryTerm) {
+        Instant now = Instant.now();
+        String status = intent.status();
+        if (OutboxIntent.STATUS_EXECUTING.equals(status)) {
+            if (intent.claimedUntil() != null && intent.claimedUntil().isAfter(now)) {
+                return;
+            }
+            if (!retryStuck) {
+                if (write(intent.dead("Interrupted while posting by " + intent.claimedBy()
+                        + "; check LinkedIn before requeuing", now), seqNo, primaryTerm)) {
+                    dead.increment();
+                    logger.error("Post intent {} was interrupted mid-post, dead-lettered", intent.key());
+                }
+                return;
+            }
+        } else if (!OutboxIntent.STATUS_PENDING.equals(status) && !OutboxIntent.STATUS_POSTED.equals(status)) {
+            return;
+        }
+        if (intent.nextAttemptAt() != null && intent.nextAttemptAt().isAfter(now)) {
+            return;
+        }
+
+        Claim claim = new Claim(intent, seqNo, primaryTerm);
+        try {
+            if (!claim.write(intent.claimed(schedulerLease.nodeId(), now.plus(claimTimeout), now))) {
+                logger.debug("Post intent {} was claimed by another worker", intent.key());
+                return;
+            }
+        } catch (IOException e) {
+            logger.error("Failed to claim post intent {}", intent.key(), e);
+            return;
+        }
+        long intervalMs = heartbeatInterval.toMillis();
+        ScheduledFuture<?> heartbeat = heartbeats.scheduleWithFixedDelay(() -> heartbeat(claim),
+                intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        try {
+            execute(claim);
+        } finally {
+            heartbeat.cancel(false);
+        }
+    }
+
+    private void execute(Claim claim) {
+        String postUrn = claim.intent().postUrn();
+        try {
+            if (!OutboxIntent.STATUS_POSTED.equals(claim.intent().status())) {
+                OutboxIntent intent = claim.intent();
+                SocialPilotContent content = elasticsearchService.getContentById(intent.contentId());
+                String text = content.text() != null ? content.text() : "No text available";
+                String mediaUrl = content.linkedInMediaUrl() != null ? content.linkedInMediaUrl() : "";
+                String mediaType = content.mediaType() != null ? content.mediaType() : "";
+                // Also confirms that nobody took the intent over while this worker was getting ready
+                if (!claim.renew()) {
+                    lostClaim(intent, null);
+                    return;
+                }
+                logger.info("Posting intent {} - content ID: {}, MediaUrl: {}, MediaType: {}",
+                        intent.key(), intent.contentId(), mediaUrl, mediaType);
+
+                postUrn = linkedInService.postToLinkedIn(text, intent.account(), mediaUrl, mediaType);
+                // Recorded before touching the content index, so a failure from here on never reposts
+                if (!claim.write(claim.intent().posted(postUrn, Instant.now()))) {
+                    lostClaim(intent, postUrn);
+                    return;
+                }
+            }
+
+            OutboxIntent posted = claim.intent();
+            elasticsearchService.markPosted(posted.contentId(), posted.account(), Instant.now());
+            if (!claim.write(posted.completed(Instant.now()))) {
+                lostClaim(posted, postUrn);
+                return;
+            }
+            completed.increment();
+            logger.info("Post intent {} completed, LinkedIn post {}", posted.key(), posted.postUrn());
+        } catch (LinkedInService.RejectedPostException e) {
+            fail(claim, postUrn, e, true);
+        } catch (IOException | RuntimeException e) {
+            fail(claim, postUrn, e, false);
+        }
+    }
+
+    private void heartbeat(Claim claim) {
+        try {
+            if (!claim.renew()) {
+                logger.warn("Post intent {} was taken over by another worker while this one held it", claim.intent().key());
+            }
+        } catch (IOException | RuntimeException e) {
+            // Retried on the next beat; if the claim expires meanwhile, the next write finds out
+            logger.warn("Failed to renew the claim on post intent {}: {}", claim.intent().key(), e.getMessage());
+        }
+    }
+
+    // The intent now belongs to another worker. Once LinkedIn has accepted the post, the intent is moved to posted
+    // with its URN, whatever state that worker left it in, so that only the index update is left to do. The write
+    // is conditional on the version just read and retried on conflict, so a concurrent change is never overwritten.
+    private void lostClaim(OutboxIntent intent, String postUrn) {
+        lost.increment();
+        if (postUrn == null) {
+            logger.warn("Post intent {} was taken over by another worker before posting, leaving it", intent.key());
+            return;
+        }
+        logger.error("Post intent {} was taken over by another worker after LinkedIn accepted post {}",
+                intent.key(), postUrn);
+        try {
+            for (int attempt = 1; attempt <= LOST_CLAIM_ATTEMPTS; attempt++) {
+                GetResponse<OutboxIntent> response = read(intent.key());
+                if (response == null || !response.found() || response.source() == null) {
+                    logger.error("Post intent {} is gone, LinkedIn post {} is not recorded", intent.key(), postUrn);
+                    return;
+                }
+                OutboxIntent current = response.source();
+                if (current.postUrn() != null && !current.postUrn().equals(postUrn)) {
+                    logger.error("Post intent {} was posted again as {}, LinkedIn post {} is a duplicate",
+                            intent.key(), current.postUrn(), postUrn);
+                }
+                if (OutboxIntent.STATUS_COMPLETED.equals(current.status())
+                        || (OutboxIntent.STATUS_POSTED.equals(current.status()) && current.postUrn() != null)) {
+                    return;
+                }
+                OutboxIntent posted = current.posted(current.postUrn() != null ? current.postUrn() : postUrn, Instant.now());
+                if (write(posted, response.seqNo(), response.primaryTerm())) {
+                    logger.info("Recorded LinkedIn post {} on post intent {}, left to finish the index update",
+                            posted.postUrn(), intent.key());
+                    try {
+                        workers.execute(() -> process(intent.key()));
+                    } catch (RejectedExecutionException e) {
+                        logger.debug("Outbox workers are busy, leaving {} for the next poll", intent.key());
+                    }
+                    return;
+                }
+            }
+            logger.error("Gave up recording LinkedIn post {} on post intent {} after {} conflicting writes",
+                    postUrn, intent.key(), LOST_CLAIM_ATTEMPTS);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to record LinkedIn post {} on post intent {}", postUrn, intent.key(), e);
+        }
+    }
+
+    // postUrn is set once LinkedIn accepted the post, even if recording it failed, so the retry never reposts
+    private void fail(Claim claim, String postUrn, Exception error, boolean permanent) {
+        Instant now = Instant.now();
+        OutboxIntent intent = postUrn != null && claim.intent().postUrn() == null
+                ? claim.intent().posted(postUrn, now) : claim.intent();
+        String message = truncate(error.getMessage());
+        try {
+            if (permanent || intent.attempts() >= maxAttempts) {
+                if (!claim.write(intent.dead(message, now))) {
+                    lostClaim(intent, intent.postUrn());
+                    return;
+                }
+                dead.increment();
+                logger.error("Post intent {} dead-lettered after {} attempt(s)", intent.key(), intent.attempts(), error);
+                return;
+            }
+            Instant nextAttempt = now.plus(backoffFor(intent.attempts()));
+            if (!claim.write(intent.retryAt(nextAttempt, message, now))) {
+                lostClaim(intent, intent.postUrn());
+                return;
+            }
+            retried.increment();
+            logger.warn("Post intent {} failed (attempt {}), retrying at {}: {}",
+                    intent.key(), intent.attempts(), nextAttempt, message);
+        } catch (IOException | RuntimeException e) {
+            // Left executing or posted; the claim timeout or the poller picks it up again
+            logger.error("Failed to record the failure of post intent {}", intent.key(), e);
+        }
+    }
+
+    private Duration backoffFor(int attempts) {
+        long factor = 1L << Math.min(Math.max(attempts - 1, 0), 20);
+        Duration delay = backoff.multipliedBy(factor);
+        return delay.compareTo(maxBackoff) > 0 ? maxBackoff : delay;
+    }
+
+    // Conditional write: false when the intent changed since it was read
+    private boolean write(OutboxIntent intent, Long seqNo, Long primaryTerm) {
+        try {
+            esClient.index(i -> i.index(OUTBOX_INDEX).id(intent.key()).document(intent)
+                    .ifSeqNo(seqNo).ifPrimaryTerm(primaryTerm));
+            return true;
+        } catch (ElasticsearchException e) {
+            if (ElasticsearchErrors.isConflict(e)) {
+                return false;
+            }
+            throw e;
+        } catch (IOException e) {
+            if (ElasticsearchErrors.isConflict(e)) {
+                return false;
+            }
+            logger.error("Failed to write post intent {}", intent.key(), e);
+            return false;
+        }
+    }
+
+    // The intent as this worker last wrote it, and the seq_no that write got: the next write only succeeds if
+    // nobody else wrote the intent in between. Shared by the worker and the heartbeat thread.
+    private final class Claim {
+        private OutboxIntent intent;
+        private Long seqNo;
+        private Long primaryTerm;
+        private boolean lost;
+
+        Claim(OutboxIntent intent, Long seqNo, Long primaryTerm) {
+            this.intent = intent;
+            this.seqNo = seqNo;
+            this.primaryTerm = primaryTerm;
+        }
+
+        synchronized OutboxIntent intent() {
+            return intent;
+        }
+
+        // False, for good, once the intent was changed by someone else
+        synchronized boolean write(OutboxIntent next) throws IOException {
+            if (lost) {
+                return false;
+            }
+            Long expectedSeqNo = seqNo;
+            Long expectedPrimaryTerm = primaryTerm;
+            try {
+                IndexResponse response = esClient.index(i -> i.index(OUTBOX_INDEX).id(next.key()).document(next)
+                        .ifSeqNo(expectedSeqNo).ifPrimaryTerm(expectedPrimaryTerm));
+                intent = next;
+                seqNo = response.seqNo();
+                primaryTerm = response.primaryTerm();
+                return true;
+            } catch (ElasticsearchException | ResponseException e) {
+                if (ElasticsearchErrors.isConflict(e)) {
+                    lost = true;
+                    return false;
+                }
+                throw e;
+            }
+        }
+
+        // Only an intent that is still being worked on is renewed
+        synchronized boolean renew() throws IOException {
+            if (!OutboxIntent.STATUS_EXECUTING.equals(intent.status())
+                    && !OutboxIntent.STATUS_POSTED.equals(intent.status())) {
+                return !lost;
+            }
+            Instant now = Instant.now();
+            return write(intent.renewed(now.plus(claimTimeout), now));
+        }
+    }
+
+    private static String truncate(String message) {
+        if (message == null) {
+            return null;
+        }
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+        heartbeats.shutdownNow();
+    }
+}
@@ -1,142 +1,195 @@
 package org.davidgeorgehope.socialmediaposter.service;
 
+import org.davidgeorgehope.socialmediaposter.model.SocialPilotContent;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.support.CronExpression;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Optional;
 import java.util.Random;
-import java.util.stream.Collectors;
-import java.time.format.DateTimeParseException;
-import java.util.HashMap;
 
 @Service
 public class PostSchedulerService {
 
     private static final Logger logger = LoggerFactory.getLogger(PostSchedulerService.class);
+    private static final String SLOT_JOB = "daily-post";
+    static final String GENERATION_PROMPT = "Generate a LinkedIn post about Elastic Observability for Site Reliability Engineers. Focus on how it helps prevent downtime, consolidates tool stacks, and reduces toil.";
 
     private final ElasticsearchService elasticsearchService;
-    private final LinkedInService linkedInService;
+    private final PostOutbox postOutbox;
     private final String userEmail;
+    private final SchedulerLease schedulerLease;
+    private final SchedulerSlots schedulerSlots;
+
+    @Value("${scheduler.cooldown-days:30}")
+    private int cooldownDays;
+    @Value("${scheduler.cron:0 00 08 * * ?}")
+    private String cron;
+    @Value("${scheduler.zone:America/New_York}")
+    private String zone;
+    @Value("${scheduler.catch-up.max-age-hours:6}")
+    private long catchUpMaxAgeHours;
     @Autowired
     private ElasticsearchOpenAIService elasticsearchOpenAIService;
+    @Autowired
+    private ContentPregenerator contentPregenerator;
 
     @Autowired
     public PostSchedulerService(ElasticsearchService elasticsearchService, 
-                                LinkedInService linkedInService,
+                                PostOutbox postOutbox,
+                                SchedulerLease schedulerLease,
+                                SchedulerSlots schedulerSlots,
                                 @Value("${linkedin.user-email}") String userEmail) {
         this.elasticsearchService = elasticsearchService;
-        this.linkedInService = linkedInService;
+        this.postOutbox = postOutbox;
+        this.schedulerLease = schedulerLease;
+        this.schedulerSlots = schedulerSlots;
         this.userEmail = userEmail;
     }
-    @Scheduled(cron = "0 00 08 * * ?", zone = "America/New_York") // Runs daily at 1:20 PM EST
-    //@Scheduled(fixedRate = 86400000, initialDelay = 10000) // Runs every 24 hours after an initial delay of 10 seconds
-    public void schedulePost() throws IOException {
-        logger.info("Starting schedulePost() method at {}", LocalDateTime.now());
-        
-        List<Map<String, Object>> eligibleContent = getEligibleContent();
-        logger.info("Found {} eligible content items", eligibleContent.size());
 
-        if (!eligibleContent.isEmpty()) {
-            Map<String, Object> selectedContent = selectContent(eligibleContent);
-            logger.info("Selected content with ID: {}", selectedContent.get("_id"));
-            postContent(selectedContent);
+    @Scheduled(cron = "${scheduler.cron:0 00 08 * * ?}", zone = "${scheduler.zone:America/New_York}") // Runs daily at 8 AM New York time
+    //@Scheduled(fixedRate = 86400000, initialDelay = 10000) // Runs every 24 hours after an initial delay of 10 seconds
+    public void onSchedule() throws IOException {
+        if (schedulerLease.isClusterMode()) {
+            runDueSlots();
         } else {
-            logger.info("No eligible content found. Generating new content.");
-            Map<String, Object> generatedContent = generateNewContent();
-            postContent(generatedContent);
+            schedulePost();
         }
-        
-        logger.info("Finished schedulePost() method at {}", LocalDateTime.now());
     }
 
-    private List<Map<String, Object>> getEligibleContent() throws IOException {
-        logger.info("Starting getEligibleContent() method");
-        List<Map<String, Object>> availableContent = elasticsearchService.getContentForScheduling();
-        logger.info("Retrieved {} available content items from Elasticsearch", availableContent.size());
-        
-        LocalDateTime thirtyDaysAgo = LocalDateTime.now().minusDays(30);
-        logger.info("Filtering content posted before {}", thirtyDaysAgo);
-
-        List<Map<String, Object>> eligibleContent = availableContent.stream()
-            .filter(content -> {
-                String lastPostedDateStr = (String) content.get("last_posted_date");
-                if (lastPostedDateStr == null || lastPostedDateStr.isEmpty()) {
-                    logger.info("Content with ID {} has never been posted", content.get("_id"));
-                    return true; // Content that has never been posted is eligible
-                }
-                try {
-                    Instant lastPostedInstant = Instant.parse(lastPostedDateStr);
-                    LocalDateTime lastPostedDate = LocalDateTime.ofInstant(lastPostedInstant, ZoneId.systemDefault());
-                    boolean isEligible = lastPostedDate.isBefore(thirtyDaysAgo);
-                    logger.info("Content with ID {} last posted on {}. Eligible: {}", content.get("_id"), lastPostedDate, isEligible);
-                    return isEligible;
-                } catch (DateTimeParseException e) {
-                    logger.error("Error parsing date: {} for content ID: {}. Considering content eligible.", lastPostedDateStr, content.get("_id"), e);
-                    return true;
-                }
-            })
-            .collect(Collectors.toList());
-
-        logger.info("Finished getEligibleContent() method. Found {} eligible items", eligibleContent.size());
-        return eligibleContent;
+    // With scheduler.mode=cluster every node checks regularly, but only the lease holder acts. This also
+    // catches up a slot that was missed because the previous leader died or no node was leader at the time.
+    @Scheduled(fixedDelayString = "${scheduler.catch-up.interval-ms:60000}", initialDelay = 60000)
+    public void catchUp() throws IOException {
+        if (schedulerLease.isLeader()) {
+            runDueSlots();
+        }
     }
 
-    private Map<String, Object> selectContent(List<Map<String, Object>> eligibleContent) {
-        // Select a random piece of content from the eligible content
-        return eligibleContent.get(new Random().nextInt(eligibleContent.size()));
+    // Runs the most recent slot that is due and unclaimed. Older missed slots within
+    // scheduler.catch-up.max-age-hours are recorded as skipped rather than posted in a burst;
+    // slots older than that are ignored.
+    private synchronized void runDueSlots() throws IOException {
+        if (!schedulerLease.isLeader()) {
+            logger.debug("Not the scheduler leader, leaving the scheduled post to the lease holder");
+            return;
+        }
+        ZoneId zoneId = ZoneId.of(zone);
+        ZonedDateTime now = ZonedDateTime.now(zoneId);
+        CronExpression expression = CronExpression.parse(cron);
+        List<Instant> due = new ArrayList<>();
+        for (ZonedDateTime slot = expression.next(now.minusHours(catchUpMaxAgeHours));
+             slot != null && !slot.isAfter(now); slot = expression.next(slot)) {
+            due.add(slot.toInstant());
+        }
+
+        for (int i = 0; i < due.size(); i++) {
+            Instant slot = due.get(i);
+            if (schedulerSlots.isClaimed(SLOT_JOB, slot)) {
+                continue;
+            }
+            boolean latest = i == due.size() - 1;
+            String status = latest ? SchedulerSlots.STATUS_RUNNING : SchedulerSlots.STATUS_SKIPPED;
+            if (!schedulerSlots.claim(SLOT_JOB, slot, schedulerLease.nodeId(), status)) {
+                continue;
+            }
+            if (!latest) {
+                logger.warn("Skipping missed slot {}, a later slot is also due", slot);
+                continue;
+            }
+            logger.info("Node {} running scheduled slot {}", schedulerLease.nodeId(), slot);
+            try {
+                schedulePost(userEmail, slot);
+                schedulerSlots.finish(SLOT_JOB, slot, SchedulerSlots.STATUS_DONE);
+            } catch (IOException | RuntimeException e) {
+                // Not retried as a slot; an enqueued post is retried by the outbox
+                schedulerSlots.finish(SLOT_JOB, slot, SchedulerSlots.STATUS_FAILED);
+                throw e;
+            }
+        }
     }
 
-    private void postContent(Map<String, Object> content) throws IOException {
-        logger.info("Starting postContent method with content ID: {}", content.get("_id"));
+    public void schedulePost() throws IOException {
+        schedulePost(userEmail, Instant.now().truncatedTo(ChronoUnit.MINUTES));
+    }
 
-        String contentId = content.get("_id").toString();
-        Object textObj = content.get("text");
-        String text = (textObj instanceof String) ? (String) textObj : 
-                      (textObj instanceof Map) ? ((Map<?, ?>) textObj).get("text").toString() : 
-                      "No text available";
-        
-        Object mediaUrlObj = content.get("mediaUrl");
-        String mediaUrl = (mediaUrlObj instanceof String) ? (String) mediaUrlObj : "";
+    // Posts one piece of eligible (or freshly generated) content to the given LinkedIn account for the given
+    // slot. The post goes through the outbox keyed by account and slot, so running the same slot again
+    // (a retry, a restart, a second node) finds the existing intent instead of posting twice.
+    public void schedulePost(String email, Instant slot) throws IOException {
+        logger.info("Starting schedulePost() method for {} at {}", email, LocalDateTime.now());
+        String key = PostOutbox.keyFor(email, slot);
+        if (postOutbox.get(key).isPresent()) {
+            logger.info("Slot {} for {} already has post intent {}", slot, email, key);
+            postOutbox.process(key);
+            return;
+        }
         
-        Object mediaTypeObj = content.get("mediaType");
-        String mediaType = (mediaTypeObj instanceof String) ? (String) mediaTypeObj : "";
-
-        logger.info("Posting content - ID: {}, Text: {}, MediaUrl: {}, MediaType: {}", 
-                    contentId, text, mediaUrl, mediaType);
+        String selectedId = selectEligibleContentId(email);
 
-        linkedInService.postToLinkedIn(text, userEmail, mediaUrl, mediaType);
+        if (selectedId != null) {
+            logger.info("Selected content with ID: {}", selectedId);
+        } else {
+            Optional<SocialPilotContent> pregenerated = elasticsearchService.claimPregenerated(email);
+            // Refill the buffer in the background rather than at the next slot
+            contentPregenerator.refill();
+            if (pregenerated.isPresent()) {
+                logger.info("No eligible content found. Using pre-generated content {}", pregenerated.get().id());
+                selectedId = pregenerated.get().id();
+            } else {
+                logger.warn("No eligible or pre-generated content found. Generating new content.");
+                selectedId = generateNewContent().id();
+            }
+        }
 
-        // Update the last_posted_date in Elasticsearch
-        content.put("last_posted_date", Instant.now().toString());
-        elasticsearchService.updateContent(contentId, content);
+        if (postOutbox.enqueue(key, email, selectedId)) {
+            postOutbox.process(key);
+        }
+        
+        logger.info("Finished schedulePost() method for {} at {}", email, LocalDateTime.now());
+    }
 
-        logger.info("Successfully posted and updated content with ID: {}", contentId);
+    // Picks a uniformly random eligible item while streaming the eligible set (reservoir sampling),
+    // so the selection covers the whole library without holding it in memory. The cooldown is the account's
+    // own, so accounts due in the same tick neither block nor wait for each other.
+    private String selectEligibleContentId(String email) throws IOException {
+        logger.info("Streaming content not posted to {} in the last {} days", email, cooldownDays);
+        Random random = new Random();
+        String[] selected = new String[1];
+        long[] seen = new long[1];
+
+        elasticsearchService.streamEligibleContent(email, Duration.ofDays(cooldownDays), content -> {
+            seen[0]++;
+            if (random.nextLong(seen[0]) == 0) {
+                selected[0] = content.id();
+            }
+        });
+
+        logger.info("Found {} eligible content items", seen[0]);
+        return selected[0];
     }
 
-    private Map<String, Object> generateNewContent() throws IOException {
-        String prompt = "Generate a LinkedIn post about Elastic Observability for Site Reliability Engineers. Focus on how it helps prevent downtime, consolidates tool stacks, and reduces toil.";
-        String generatedText = elasticsearchOpenAIService.processQuestion(prompt);
+    private SocialPilotContent generateNewContent() throws IOException {
+        String generatedText = elasticsearchOpenAIService.processQuestion(GENERATION_PROMPT);
         
-        Map<String, Object> newContent = new HashMap<>();
-        newContent.put("text", generatedText);
-        newContent.put("last_posted_date", Instant.now().toString());
-        newContent.put("mediaUrl", "");
-        newContent.put("mediaType", "");
+        SocialPilotContent newContent = SocialPilotContent.of(generatedText, "", "");
         
         // Index the new content
         String contentId = elasticsearchService.indexContent(newContent);
-        newContent.put("_id", contentId);
         
-        return newContent;
+        return newContent.withId(contentId);
     }
-}
\ No newline at end of file
+}
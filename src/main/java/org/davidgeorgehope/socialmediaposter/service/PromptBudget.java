@@ -0,0 +1,71 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+// Caps how much source text goes into a prompt, per provider: ai.prompt.<provider>.max-content-tokens,
+// falling back to ai.prompt.max-content-tokens. The router may pick either backend, so it gets the smaller
+// budget. Tokens are estimated at four characters each, which is close enough for English prose without
+// pulling in a tokenizer. Text over budget keeps its leading paragraphs, since articles front-load the point,
+// and is cut at a sentence boundary.
+@Service
+public class PromptBudget {
+
+    private static final Logger logger = LoggerFactory.getLogger(PromptBudget.class);
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private final int openAIMaxTokens;
+    private final int claudeMaxTokens;
+
+    public PromptBudget(@Value("${ai.prompt.openai.max-content-tokens:${ai.prompt.max-content-tokens:6000}}") int openAIMaxTokens,
+                        @Value("${ai.prompt.claude.max-content-tokens:${ai.prompt.max-content-tokens:6000}}") int claudeMaxTokens) {
+        this.openAIMaxTokens = openAIMaxTokens;
+        this.claudeMaxTokens = claudeMaxTokens;
+    }
+
+    public static int estimateTokens(String text) {
+        return text == null ? 0 : (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    public int maxTokens(String provider) {
+        return switch (provider) {
+            case "openai" -> openAIMaxTokens;
+            case "claude" -> claudeMaxTokens;
+            default -> Math.min(openAIMaxTokens, claudeMaxTokens);
+        };
+    }
+
+    public String fit(String text, String provider) {
+        int maxTokens = maxTokens(provider);
+        int tokens = estimateTokens(text);
+        if (tokens <= maxTokens) {
+            logger.info("Prompt content is {} tokens, within the {} budget of {}", tokens, provider, maxTokens);
+            return text;
+        }
+
+        int maxChars = maxTokens * CHARS_PER_TOKEN;
+        int cut = text.lastIndexOf("\n\n", maxChars);
+        if (cut < maxChars / 2) {
+            cut = lastSentenceEnd(text, maxChars);
+        }
+        if (cut < maxChars / 2) {
+            cut = maxChars;
+        }
+        String fitted = text.substring(0, cut).trim();
+        logger.info("Trimmed prompt content from {} to {} tokens for the {} budget of {}",
+                tokens, estimateTokens(fitted), provider, maxTokens);
+        return fitted;
+    }
+
+    private static int lastSentenceEnd(String text, int maxChars) {
+        for (int i = Math.min(maxChars, text.length()) - 1; i > maxChars / 2; i--) {
+            char c = text.charAt(i - 1);
+            if ((c == '.' || c == '!' || c == '?') && Character.isWhitespace(text.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,187 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import jakarta.annotation.PreDestroy;
+import org.davidgeorgehope.socialmediaposter.model.StoredMedia;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Downloads a remote image (e.g. a page's og:image) straight into the MediaStore: the body is streamed
+// to disk and hashed on the way, never buffered in memory. Downloads are capped at media.remote.max-bytes,
+// must connect within media.remote.connect-timeout-ms and finish within media.remote.timeout-ms.
+// The type comes from the body's magic bytes, with the Content-Type header as a fallback, never the URL.
+@Service
+public class RemoteMediaFetcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(RemoteMediaFetcher.class);
+
+    private final MediaStore mediaStore;
+    private final MediaDerivativeService mediaDerivativeService;
+    private final ThreadPoolExecutor executor;
+    private final HttpClient httpClient;
+    private final long maxBytes;
+    private final Duration timeout;
+
+    public RemoteMediaFetcher(MediaStore mediaStore, MediaDerivativeService mediaDerivativeService,
+                              @Value("${media.remote.max-bytes:20971520}") long maxBytes,
+                              @Value("${media.remote.connect-timeout-ms:5000}") long connectTimeoutMs,
+                              @Value("${media.remote.timeout-ms:30000}") long timeoutMs,
+                              @Value("${media.remote.max-concurrent:4}") int maxConcurrent) {
+        this.mediaStore = mediaStore;
+        this.mediaDerivativeService = mediaDerivativeService;
+        this.maxBytes = maxBytes;
+        this.timeout = Duration.ofMillis(timeoutMs);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxConcurrent * 10),
+                r -> {
+                    Thread t = new Thread(r, "remote-media-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    // Completes with the stored image, or exceptionally when the download fails, is too large,
+    // is not an image or takes longer than the timeout
+    public CompletableFuture<StoredMedia> fetchImage(String url) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(timeout)
+                    .header("Accept", "image/*")
+                    .GET()
+                    .build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        AtomicReference<InputStream> body = new AtomicReference<>();
+        long start = System.nanoTime();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .thenApplyAsync(response -> {
+                    body.set(response.body());
+                    return store(url, response);
+                }, executor)
+                .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((media, error) -> {
+                    if (error != null) {
+                        // Closing the body aborts a read that is still blocked on a slow server
+                        closeQuietly(body.get());
+                        logger.warn("Failed to download image from {}: {}", url,
+                                error instanceof TimeoutException ? "timed out" : error.getMessage());
+                    } else {
+                        logger.info("Downloaded image from {} ({} bytes) in {} ms", url, media.size(),
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                        mediaDerivativeService.submit(media);
+                    }
+                });
+    }
+
+    private StoredMedia store(String url, HttpResponse<InputStream> response) {
+        try (InputStream in = new BufferedInputStream(response.body())) {
+            if (response.statusCode() / 100 != 2) {
+                throw new IOException("HTTP " + response.statusCode());
+            }
+            long declaredLength = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+            if (declaredLength > maxBytes) {
+                throw new IOException("Content-Length " + declaredLength + " exceeds the limit of " + maxBytes + " bytes");
+            }
+
+            in.mark(MediaStore.MAGIC_BYTES);
+            byte[] header = new byte[MediaStore.MAGIC_BYTES];
+            int read = in.readNBytes(header, 0, header.length);
+            in.reset();
+
+            String contentType = MediaStore.detectContentType(header, read);
+            if (contentType == null) {
+                contentType = response.headers().firstValue("Content-Type")
+                        .map(value -> value.split(";")[0].trim().toLowerCase())
+                        .orElse(null);
+            }
+            if (contentType == null || !contentType.startsWith("image/")) {
+                throw new IOException("Not an image: " + contentType);
+            }
+
+            return mediaStore.store(new CappedInputStream(in, maxBytes), "remote." + MediaStore.extensionFor(contentType));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e.getMessage(), e);
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            in.close();
+        } catch (IOException ignored) {
+            // Already failing; nothing more to do
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // Fails the read instead of silently truncating once more than maxBytes have been read
+    private static class CappedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long count;
+
+        CappedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        private void count(int read) throws IOException {
+            count += read;
+            if (count > maxBytes) {
+                throw new IOException("Download exceeds the limit of " + maxBytes + " bytes");
+            }
+        }
+    }
+}
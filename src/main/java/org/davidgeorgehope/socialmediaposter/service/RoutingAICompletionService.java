@@ -0,0 +1,314 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+// Routes each completion to the fastest healthy backend, ranked by an EWMA of latency. A backend whose EWMA
+// error rate exceeds maxErrorRate is skipped, except for one probe request per probeInterval so it can recover.
+// With hedging on, a second backend is asked when the first has not answered within its own p95 latency;
+// the first success wins and the other request is aborted at the HTTP client, not just interrupted. Latency is
+// measured from when the backend's throttle lets the request start. Failed requests fail over to the next backend.
+// Metrics: ai.router.requests{backend,outcome}, ai.router.latency{backend}, ai.router.latency.ewma{backend},
+// ai.router.error.rate{backend}, ai.router.routed{backend}, ai.router.hedges{backend}, ai.router.hedge.wins{backend}
+// and ai.router.failovers{backend}.
+public class RoutingAICompletionService implements AICompletionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoutingAICompletionService.class);
+
+    private final List<Backend> backends;
+    private final ExecutorService executor;
+    private final boolean hedgingEnabled;
+    private final Duration minHedgeDelay;
+
+    public RoutingAICompletionService(List<AICompletionService> delegates, ExecutorService executor,
+                                      boolean hedgingEnabled, Duration minHedgeDelay, double ewmaAlpha,
+                                      double maxErrorRate, Duration probeInterval, MeterRegistry meterRegistry) {
+        if (delegates.isEmpty()) {
+            throw new IllegalArgumentException("At least one AI backend is required");
+        }
+        this.backends = delegates.stream()
+                .map(delegate -> new Backend(delegate, ewmaAlpha, maxErrorRate, probeInterval, meterRegistry))
+                .toList();
+        this.executor = executor;
+        this.hedgingEnabled = hedgingEnabled;
+        this.minHedgeDelay = minHedgeDelay;
+    }
+
+    @Override
+    public String generateCompletion(String systemPrompt, String userPrompt) {
+        return route((backend, attempt) -> backend.delegate.generateCompletion(systemPrompt, userPrompt, false, attempt));
+    }
+
+    @Override
+    public String generateCompletion(String systemPrompt, String userPrompt, boolean bypassCache) {
+        return route((backend, attempt) -> backend.delegate.generateCompletion(systemPrompt, userPrompt, bypassCache, attempt));
+    }
+
+    // Streams are not hedged, since two streams cannot be merged; a backend that fails before its first
+    // delta fails over to the next one, a failure mid-stream is passed on to the caller
+    @Override
+    public void streamCompletion(String systemPrompt, String userPrompt, Consumer<String> onDelta) {
+        List<Backend> ranked = ranked();
+        ranked.get(0).routed.increment();
+        RuntimeException lastFailure = null;
+        for (Backend backend : ranked) {
+            AtomicBoolean started = new AtomicBoolean();
+            long start = System.nanoTime();
+            try {
+                backend.delegate.streamCompletion(systemPrompt, userPrompt, delta -> {
+                    started.set(true);
+                    onDelta.accept(delta);
+                });
+                backend.recordSuccess(System.nanoTime() - start);
+                return;
+            } catch (RuntimeException e) {
+                backend.recordFailure();
+                if (started.get()) {
+                    throw e;
+                }
+                lastFailure = e;
+                backend.failovers.increment();
+                logger.warn("Streaming from {} failed, failing over: {}", backend.name, e.getMessage());
+            }
+        }
+        throw lastFailure;
+    }
+
+    @Override
+    public String providerName() {
+        return "router";
+    }
+
+    @Override
+    public String modelName() {
+        return backends.stream().map(backend -> backend.delegate.modelName()).collect(Collectors.joining(","));
+    }
+
+    private String route(BiFunction<Backend, CompletionAttempt, String> call) {
+        List<Backend> ranked = ranked();
+        Backend primary = ranked.get(0);
+        primary.routed.increment();
+
+        AtomicBoolean settled = new AtomicBoolean();
+        CompletionService<String> attempts = new ExecutorCompletionService<>(executor);
+        Map<Future<String>, Backend> inFlight = new LinkedHashMap<>();
+        Map<Future<String>, CompletionAttempt> requests = new HashMap<>();
+        int next = 0;
+
+        Future<String> first = submit(attempts, ranked.get(next++), call, settled, requests);
+        if (first == null) {
+            // Router pool exhausted: answer on the caller's thread without hedging
+            return primary.call(call, settled, new CompletionAttempt());
+        }
+        inFlight.put(first, primary);
+
+        Future<String> hedged = null;
+        try {
+            Future<String> done = null;
+            if (hedgingEnabled && next < ranked.size()) {
+                done = attempts.poll(primary.hedgeDelay(minHedgeDelay).toMillis(), TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    Backend hedge = ranked.get(next++);
+                    hedged = submit(attempts, hedge, call, settled, requests);
+                    if (hedged != null) {
+                        hedge.hedges.increment();
+                        inFlight.put(hedged, hedge);
+                        logger.debug("{} slower than its p95, hedging with {}", primary.name, hedge.name);
+                    }
+                }
+            }
+
+            ExecutionException lastFailure = null;
+            while (!inFlight.isEmpty()) {
+                if (done == null) {
+                    done = attempts.take();
+                }
+                Backend backend = inFlight.remove(done);
+                try {
+                    String response = done.get();
+                    settled.set(true);
+                    if (done == hedged) {
+                        backend.hedgeWins.increment();
+                    }
+                    inFlight.keySet().forEach(loser -> abort(loser, requests));
+                    return response;
+                } catch (ExecutionException e) {
+                    lastFailure = e;
+                    if (inFlight.isEmpty() && next < ranked.size()) {
+                        Backend fallback = ranked.get(next++);
+                        backend.failovers.increment();
+                        logger.warn("{} failed, failing over to {}: {}", backend.name, fallback.name, e.getCause().getMessage());
+                        Future<String> retry = submit(attempts, fallback, call, settled, requests);
+                        if (retry != null) {
+                            inFlight.put(retry, fallback);
+                        }
+                    }
+                }
+                done = null;
+            }
+            Throwable cause = lastFailure != null ? lastFailure.getCause() : null;
+            throw cause instanceof RuntimeException runtime ? runtime
+                    : new RuntimeException("All AI backends failed", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            settled.set(true);
+            inFlight.keySet().forEach(attempt -> abort(attempt, requests));
+            throw new RuntimeException("Interrupted while waiting for an AI backend", e);
+        }
+    }
+
+    private Future<String> submit(CompletionService<String> attempts, Backend backend,
+                                  BiFunction<Backend, CompletionAttempt, String> call, AtomicBoolean settled,
+                                  Map<Future<String>, CompletionAttempt> requests) {
+        CompletionAttempt attempt = new CompletionAttempt();
+        try {
+            Future<String> future = attempts.submit(() -> backend.call(call, settled, attempt));
+            requests.put(future, attempt);
+            return future;
+        } catch (RejectedExecutionException e) {
+            logger.debug("Router pool is full, not starting a request to {}", backend.name);
+            return null;
+        }
+    }
+
+    // Interrupting the worker does not unblock a socket read, so the provider's HTTP call is aborted first
+    private static void abort(Future<String> future, Map<Future<String>, CompletionAttempt> requests) {
+        CompletionAttempt attempt = requests.get(future);
+        if (attempt != null) {
+            attempt.abort();
+        }
+        future.cancel(true);
+    }
+
+    // Healthy backends first, fastest first; untried backends rank ahead so every backend gets measured
+    private List<Backend> ranked() {
+        long now = System.nanoTime();
+        List<Backend> ranked = new ArrayList<>(backends);
+        ranked.sort(Comparator.comparing((Backend backend) -> !backend.isAvailable(now))
+                .thenComparingDouble(Backend::latencyEwma));
+        return ranked;
+    }
+
+    static class Backend {
+        private static final int LATENCY_SAMPLES = 100;
+
+        private final AICompletionService delegate;
+        private final String name;
+        private final double alpha;
+        private final double maxErrorRate;
+        private final long probeIntervalNanos;
+        private final long[] samples = new long[LATENCY_SAMPLES];
+        private int sampleCount;
+        private int nextSample;
+        private double latencyEwmaMs = -1;
+        private double errorRateEwma;
+        private volatile long lastAttempt;
+
+        private final Counter successes;
+        private final Counter failures;
+        private final Counter routed;
+        private final Counter hedges;
+        private final Counter hedgeWins;
+        private final Counter failovers;
+        private final Timer latency;
+
+        Backend(AICompletionService delegate, double alpha, double maxErrorRate, Duration probeInterval,
+                MeterRegistry meterRegistry) {
+            this.delegate = delegate;
+            this.name = delegate.providerName();
+            this.alpha = alpha;
+            this.maxErrorRate = maxErrorRate;
+            this.probeIntervalNanos = probeInterval.toNanos();
+            this.lastAttempt = System.nanoTime() - probeIntervalNanos;
+            this.successes = meterRegistry.counter("ai.router.requests", "backend", name, "outcome", "success");
+            this.failures = meterRegistry.counter("ai.router.requests", "backend", name, "outcome", "error");
+            this.routed = meterRegistry.counter("ai.router.routed", "backend", name);
+            this.hedges = meterRegistry.counter("ai.router.hedges", "backend", name);
+            this.hedgeWins = meterRegistry.counter("ai.router.hedge.wins", "backend", name);
+            this.failovers = meterRegistry.counter("ai.router.failovers", "backend", name);
+            this.latency = meterRegistry.timer("ai.router.latency", "backend", name);
+            meterRegistry.gauge("ai.router.latency.ewma", List.of(Tag.of("backend", name)),
+                    this, Backend::latencyEwma);
+            meterRegistry.gauge("ai.router.error.rate", List.of(Tag.of("backend", name)),
+                    this, Backend::errorRate);
+        }
+
+        // A request cancelled because another backend already answered is not counted as a failure
+        String call(BiFunction<Backend, CompletionAttempt, String> call, AtomicBoolean settled, CompletionAttempt attempt) {
+            lastAttempt = System.nanoTime();
+            try {
+                String response = call.apply(this, attempt);
+                recordSuccess(System.nanoTime() - attempt.startNanos());
+                return response;
+            } catch (RuntimeException e) {
+                if (!settled.get()) {
+                    recordFailure();
+                }
+                throw e;
+            }
+        }
+
+        synchronized void recordSuccess(long nanos) {
+            double millis = nanos / 1_000_000.0;
+            latencyEwmaMs = latencyEwmaMs < 0 ? millis : alpha * millis + (1 - alpha) * latencyEwmaMs;
+            errorRateEwma = (1 - alpha) * errorRateEwma;
+            samples[nextSample] = nanos;
+            nextSample = (nextSample + 1) % LATENCY_SAMPLES;
+            sampleCount = Math.min(sampleCount + 1, LATENCY_SAMPLES);
+            successes.increment();
+            latency.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        synchronized void recordFailure() {
+            errorRateEwma = alpha + (1 - alpha) * errorRateEwma;
+            failures.increment();
+        }
+
+        synchronized double latencyEwma() {
+            return latencyEwmaMs < 0 ? 0 : latencyEwmaMs;
+        }
+
+        synchronized double errorRate() {
+            return errorRateEwma;
+        }
+
+        // Unhealthy backends become available again for a probe once probeInterval has passed since their last attempt
+        boolean isAvailable(long now) {
+            return errorRate() < maxErrorRate || now - lastAttempt >= probeIntervalNanos;
+        }
+
+        synchronized Duration hedgeDelay(Duration minimum) {
+            if (sampleCount == 0) {
+                return minimum;
+            }
+            long[] sorted = Arrays.copyOf(samples, sampleCount);
+            Arrays.sort(sorted);
+            long p95 = sorted[Math.min(sampleCount - 1, (int) Math.ceil(sampleCount * 0.95) - 1)];
+            return Duration.ofNanos(Math.max(p95, minimum.toNanos()));
+        }
+    }
+}
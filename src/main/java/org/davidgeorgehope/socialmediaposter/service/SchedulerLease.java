@@ -0,0 +1,164 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch.core.GetResponse;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Leader election for scheduler.mode=cluster: the node holding the lease document in Elasticsearch is the
+// only one that runs scheduled posts. A free lease is taken with op_type=create, an expired or own lease is
+// taken over or renewed with if_seq_no/if_primary_term, so two nodes can never both win the same round.
+// The lease lasts scheduler.lease.duration-ms and is renewed every scheduler.lease.renew-interval-ms on a
+// dedicated thread, so a long-running post never delays renewal. A node considers itself leader only until
+// its lease would expire as measured on its own clock, so a paused node stops acting before another takes over.
+// An idle node takes over at most duration + renew-interval after the leader stops renewing; a node that
+// shuts down cleanly releases the lease at once.
+@Service
+public class SchedulerLease {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchedulerLease.class);
+    static final String SCHEDULER_INDEX = "social-pilot-scheduler";
+    private static final String LEASE_ID = "leader";
+
+    private final ElasticsearchClient esClient;
+    private final boolean clusterMode;
+    private final String nodeId;
+    private final Duration leaseDuration;
+    private final ScheduledThreadPoolExecutor renewer;
+
+    private volatile long leaderUntilNanos;
+    private long seqNo = -1;
+    private long primaryTerm = -1;
+
+    public SchedulerLease(ElasticsearchClient esClient,
+                          @Value("${scheduler.mode:local}") String mode,
+                          @Value("${scheduler.node-id:}") String nodeId,
+                          @Value("${scheduler.lease.duration-ms:30000}") long leaseDurationMs,
+                          @Value("${scheduler.lease.renew-interval-ms:10000}") long renewIntervalMs) {
+        this.esClient = esClient;
+        this.clusterMode = "cluster".equalsIgnoreCase(mode);
+        this.nodeId = nodeId.isBlank() ? defaultNodeId() : nodeId;
+        this.leaseDuration = Duration.ofMillis(leaseDurationMs);
+        this.leaderUntilNanos = System.nanoTime();
+        this.renewer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "scheduler-lease");
+            t.setDaemon(true);
+            return t;
+        });
+        if (clusterMode) {
+            logger.info("Cluster scheduling enabled, node {} competing for the scheduler lease", this.nodeId);
+            renewer.scheduleWithFixedDelay(this::acquireOrRenew, 0, renewIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean isClusterMode() {
+        return clusterMode;
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public boolean isLeader() {
+        return clusterMode && System.nanoTime() - leaderUntilNanos < 0;
+    }
+
+    synchronized void acquireOrRenew() {
+        boolean wasLeader = isLeader();
+        long start = System.nanoTime();
+        Instant now = Instant.now();
+        Lease lease = new Lease(nodeId, now.plus(leaseDuration), now);
+        try {
+            GetResponse<Lease> current = currentLease();
+            if (current == null || !current.found()) {
+                var created = esClient.create(c -> c.index(SCHEDULER_INDEX).id(LEASE_ID).document(lease));
+                remember(created.seqNo(), created.primaryTerm(), start);
+            } else if (nodeId.equals(current.source().holder()) || current.source().expiresAt().isBefore(now)) {
+                var updated = esClient.index(i -> i.index(SCHEDULER_INDEX).id(LEASE_ID)
+                        .ifSeqNo(current.seqNo()).ifPrimaryTerm(current.primaryTerm())
+                        .document(lease));
+                remember(updated.seqNo(), updated.primaryTerm(), start);
+            } else {
+                leaderUntilNanos = start;
+                if (wasLeader) {
+                    logger.warn("Scheduler lease is now held by {}", current.source().holder());
+                }
+                return;
+            }
+            if (!wasLeader) {
+                logger.info("Node {} acquired the scheduler lease", nodeId);
+            }
+        } catch (Exception e) {
+            if (ElasticsearchErrors.isConflict(e)) {
+                // Another node won this round
+                leaderUntilNanos = start;
+            } else {
+                // Keep the current local expiry: leadership lapses on its own if Elasticsearch stays unreachable
+                logger.warn("Failed to renew the scheduler lease: {}", e.getMessage());
+            }
+        }
+    }
+
+    // Null until the first lease is created, which also creates the scheduler index
+    private GetResponse<Lease> currentLease() throws IOException {
+        try {
+            return esClient.get(g -> g.index(SCHEDULER_INDEX).id(LEASE_ID), Lease.class);
+        } catch (ElasticsearchException e) {
+            if (e.status() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    // Leadership is measured from before the request was sent, so it never outlives the stored expiry
+    private void remember(Long seqNo, Long primaryTerm, long requestStart) {
+        this.seqNo = seqNo != null ? seqNo : -1;
+        this.primaryTerm = primaryTerm != null ? primaryTerm : -1;
+        this.leaderUntilNanos = requestStart + leaseDuration.toNanos();
+    }
+
+    @PreDestroy
+    public synchronized void release() {
+        renewer.shutdownNow();
+        if (!isLeader() || seqNo < 0) {
+            return;
+        }
+        leaderUntilNanos = System.nanoTime();
+        try {
+            esClient.delete(d -> d.index(SCHEDULER_INDEX).id(LEASE_ID).ifSeqNo(seqNo).ifPrimaryTerm(primaryTerm));
+            logger.info("Node {} released the scheduler lease", nodeId);
+        } catch (Exception e) {
+            logger.warn("Failed to release the scheduler lease, it expires on its own: {}", e.getMessage());
+        }
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "node";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    record Lease(
+            @JsonProperty("holder") String holder,
+            @JsonProperty("expires_at") Instant expiresAt,
+            @JsonProperty("renewed_at") Instant renewedAt) {
+    }
+}
@@ -0,0 +1,73 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.elasticsearch.client.ResponseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
+
+// One claim document per scheduled run, created with op_type=create: whichever node creates it owns the run,
+// so a slot is executed at most once even if two nodes briefly both believe they are leader.
+// The document then records how the run ended.
+@Service
+public class SchedulerSlots {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchedulerSlots.class);
+
+    public static final String STATUS_RUNNING = "running";
+    public static final String STATUS_DONE = "done";
+    public static final String STATUS_FAILED = "failed";
+    public static final String STATUS_SKIPPED = "skipped";
+
+    private final ElasticsearchClient esClient;
+
+    public SchedulerSlots(ElasticsearchClient esClient) {
+        this.esClient = esClient;
+    }
+
+    public boolean isClaimed(String job, Instant slot) throws IOException {
+        return esClient.exists(e -> e.index(SchedulerLease.SCHEDULER_INDEX).id(documentId(job, slot))).value();
+    }
+
+    // True when this node now owns the slot, false when another node claimed it first
+    public boolean claim(String job, Instant slot, String nodeId, String status) throws IOException {
+        Claim claim = new Claim(job, slot, nodeId, status, Instant.now(), null);
+        try {
+            esClient.create(c -> c.index(SchedulerLease.SCHEDULER_INDEX).id(documentId(job, slot)).document(claim));
+            return true;
+        } catch (ElasticsearchException | ResponseException e) {
+            if (ElasticsearchErrors.isConflict(e)) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    public void finish(String job, Instant slot, String status) {
+        try {
+            esClient.update(u -> u.index(SchedulerLease.SCHEDULER_INDEX).id(documentId(job, slot))
+                    .doc(Map.of("status", status, "finished_at", Instant.now().toString())), Claim.class);
+        } catch (Exception e) {
+            logger.warn("Failed to record {} for {} slot {}: {}", status, job, slot, e.getMessage());
+        }
+    }
+
+    private static String documentId(String job, Instant slot) {
+        return "slot_" + job + "_" + slot.getEpochSecond();
+    }
+
+    record Claim(
+            @JsonProperty("job") String job,
+            @JsonProperty("slot") Instant slot,
+            @JsonProperty("node") String node,
+            @JsonProperty("status") String status,
+            @JsonProperty("claimed_at") Instant claimedAt,
+            @JsonProperty("finished_at") Instant finishedAt) {
+    }
+}
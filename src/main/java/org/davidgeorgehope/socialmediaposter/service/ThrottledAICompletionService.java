@@ -0,0 +1,113 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Protects one provider from 429s: at most maxConcurrent requests in flight, and a token bucket
+// that allows requestsPerMinute on average with bursts up to maxConcurrent.
+public class ThrottledAICompletionService implements AICompletionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThrottledAICompletionService.class);
+
+    private final AICompletionService delegate;
+    private final Semaphore inFlight;
+    private final TokenBucket rateLimit;
+
+    public ThrottledAICompletionService(AICompletionService delegate, int maxConcurrent, int requestsPerMinute) {
+        this.delegate = delegate;
+        this.inFlight = new Semaphore(maxConcurrent, true);
+        this.rateLimit = new TokenBucket(maxConcurrent, requestsPerMinute / 60.0);
+    }
+
+    @Override
+    public String generateCompletion(String systemPrompt, String userPrompt) {
+        return throttled(() -> delegate.generateCompletion(systemPrompt, userPrompt));
+    }
+
+    @Override
+    public String generateCompletion(String systemPrompt, String userPrompt, boolean bypassCache) {
+        return throttled(() -> delegate.generateCompletion(systemPrompt, userPrompt, bypassCache));
+    }
+
+    // The attempt starts once both permits are held, so the router does not count queueing as latency
+    @Override
+    public String generateCompletion(String systemPrompt, String userPrompt, boolean bypassCache, CompletionAttempt attempt) {
+        return throttled(() -> {
+            attempt.throwIfAborted();
+            attempt.started();
+            return delegate.generateCompletion(systemPrompt, userPrompt, bypassCache, attempt);
+        });
+    }
+
+    @Override
+    public void streamCompletion(String systemPrompt, String userPrompt, Consumer<String> onDelta) {
+        throttled(() -> {
+            delegate.streamCompletion(systemPrompt, userPrompt, onDelta);
+            return null;
+        });
+    }
+
+    @Override
+    public String providerName() {
+        return delegate.providerName();
+    }
+
+    @Override
+    public String modelName() {
+        return delegate.modelName();
+    }
+
+    private <T> T throttled(Supplier<T> call) {
+        try {
+            rateLimit.acquire();
+            if (!inFlight.tryAcquire()) {
+                logger.debug("{} at its concurrency limit, waiting for a slot", delegate.providerName());
+                inFlight.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for " + delegate.providerName() + " capacity", e);
+        }
+        try {
+            return call.get();
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    static class TokenBucket {
+        private final double capacity;
+        private final double tokensPerNano;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(double capacity, double tokensPerSecond) {
+            this.capacity = Math.max(1, capacity);
+            this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.tokens = this.capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        void acquire() throws InterruptedException {
+            while (true) {
+                long waitNanos;
+                synchronized (this) {
+                    long now = System.nanoTime();
+                    tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+                    lastRefill = now;
+                    if (tokens >= 1) {
+                        tokens -= 1;
+                        return;
+                    }
+                    waitNanos = (long) Math.ceil((1 - tokens) / tokensPerNano);
+                }
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+}
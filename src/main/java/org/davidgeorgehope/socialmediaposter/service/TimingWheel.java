@@ -0,0 +1,281 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Hashed timing wheel: a ring of buckets, one per tick, each holding a linked list of timeouts. Scheduling
+// and cancelling are O(1) queue offers picked up by the wheel thread on its next tick; firing walks only
+// the current bucket, where a timeout more than one revolution away just counts down its remaining rounds.
+// Precision is one tick. Expired tasks are handed to onExpire on the wheel thread, which must return quickly.
+// Time comes from a Ticker; a wheel built without a name has no thread and fires only when advance() is called,
+// which lets tests and benchmarks run it on a simulated clock.
+public class TimingWheel<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long tickNanos;
+    private final long startNanos;
+    private final Ticker ticker;
+    private final Consumer<T> onExpire;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicLong size = new AtomicLong();
+    private final Thread worker;
+    private volatile boolean stopped;
+    private long tick;
+
+    public TimingWheel(String name, Duration tickDuration, int ticksPerWheel, Consumer<T> onExpire) {
+        this(name, tickDuration, ticksPerWheel, Ticker.SYSTEM, onExpire);
+    }
+
+    public TimingWheel(Duration tickDuration, int ticksPerWheel, Ticker ticker, Consumer<T> onExpire) {
+        this(null, tickDuration, ticksPerWheel, ticker, onExpire);
+    }
+
+    @SuppressWarnings("unchecked")
+    private TimingWheel(String name, Duration tickDuration, int ticksPerWheel, Ticker ticker, Consumer<T> onExpire) {
+        int buckets = Integer.highestOneBit(Math.max(1, ticksPerWheel - 1)) << 1;
+        this.wheel = (Bucket[]) new TimingWheel.Bucket[buckets];
+        for (int i = 0; i < buckets; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = buckets - 1;
+        this.tickNanos = tickDuration.toNanos();
+        this.onExpire = onExpire;
+        this.ticker = ticker;
+        this.startNanos = ticker.nanoTime();
+        if (name != null) {
+            this.worker = new Thread(this::run, name);
+            this.worker.setDaemon(true);
+            this.worker.start();
+        } else {
+            this.worker = null;
+        }
+    }
+
+    // Runs task once at the given time; a time in the past fires on the next tick
+    public Timeout schedule(T task, Instant at) {
+        long delayNanos = Math.max(0, Duration.between(ticker.now(), at).toNanos());
+        Timeout timeout = new Timeout(task, ticker.nanoTime() - startNanos + delayNanos);
+        size.incrementAndGet();
+        pending.add(timeout);
+        return timeout;
+    }
+
+    public long size() {
+        return size.get();
+    }
+
+    public void stop() {
+        stopped = true;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    // Runs every tick that has ended by the ticker's current time, on the calling thread. Only for a wheel
+    // without a worker thread.
+    public void advance() {
+        if (worker != null) {
+            throw new IllegalStateException("Timing wheel is driven by its own thread");
+        }
+        long elapsed = ticker.nanoTime() - startNanos;
+        while (!stopped && tickNanos * (tick + 1) <= elapsed) {
+            runTick(elapsed);
+        }
+    }
+
+    private void run() {
+        while (!stopped) {
+            long deadline = waitForNextTick();
+            if (deadline < 0) {
+                break;
+            }
+            runTick(deadline);
+        }
+    }
+
+    private void runTick(long deadline) {
+        removeCancelled();
+        transferPending();
+        wheel[(int) (tick & mask)].expire(deadline);
+        tick++;
+    }
+
+    // Sleeps until the end of the current tick and returns the elapsed time since the wheel started
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long elapsed = ticker.nanoTime() - startNanos;
+            long sleepNanos = deadline - elapsed;
+            if (sleepNanos <= 0) {
+                return elapsed;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            } catch (InterruptedException e) {
+                if (stopped) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = pending.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.state.get() == STATE_CANCELLED) {
+                continue;
+            }
+            long dueTick = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (dueTick - tick) / wheel.length;
+            // Already overdue timeouts go into the current bucket and fire on this tick
+            wheel[(int) (Math.max(dueTick, tick) & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    public interface Ticker {
+        Ticker SYSTEM = new Ticker() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+
+            @Override
+            public Instant now() {
+                return Instant.now();
+            }
+        };
+
+        // Monotonic, for measuring ticks
+        long nanoTime();
+
+        // Wall clock, for turning the Instant passed to schedule into a delay
+        Instant now();
+    }
+
+    public final class Timeout {
+        private final T task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(T task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public T task() {
+            return task;
+        }
+
+        public boolean cancel() {
+            if (!state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+                return false;
+            }
+            size.decrementAndGet();
+            cancelled.add(this);
+            return true;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+                return;
+            }
+            size.decrementAndGet();
+            try {
+                onExpire.accept(task);
+            } catch (RuntimeException e) {
+                logger.error("Timing wheel task {} failed", task, e);
+            }
+        }
+    }
+
+    // Only ever touched by the wheel thread
+    private final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void expire(long deadline) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    if (timeout.deadline <= deadline) {
+                        timeout.expire();
+                    } else {
+                        // Placed in the wrong bucket; should not happen, but never drop a timeout
+                        pending.add(timeout);
+                    }
+                } else if (timeout.state.get() == STATE_CANCELLED) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.next = null;
+            timeout.prev = null;
+            timeout.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import jakarta.annotation.PreDestroy;
+import org.davidgeorgehope.socialmediaposter.model.SocialPilotContent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Fans one piece of content out into N alternative drafts generated concurrently. The URL body is fetched
+// once and shared by all variants; provider concurrency and rate limits are enforced by the
+// ThrottledAICompletionService in front of the provider, this pool only bounds local fan-out threads.
+@Service
+public class VariantGenerationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(VariantGenerationService.class);
+
+    private final ElasticsearchOpenAIService elasticsearchOpenAIService;
+    private final ElasticsearchService elasticsearchService;
+    private final ThreadPoolExecutor executor;
+    private final int maxVariants;
+
+    public VariantGenerationService(ElasticsearchOpenAIService elasticsearchOpenAIService,
+                                    ElasticsearchService elasticsearchService,
+                                    @Value("${ai.variants.max-parallel:4}") int maxParallel,
+                                    @Value("${ai.variants.queue-capacity:50}") int queueCapacity,
+                                    @Value("${ai.variants.max-count:5}") int maxVariants) {
+        this.elasticsearchOpenAIService = elasticsearchOpenAIService;
+        this.elasticsearchService = elasticsearchService;
+        this.maxVariants = maxVariants;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxParallel, maxParallel, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "variant-generator-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Generates up to ai.variants.max-count drafts, stores each one as a draft document and hands it to
+    // onVariant as soon as it is ready. onError receives failed variants. The returned future completes
+    // when every variant has finished.
+    public CompletableFuture<Void> generateVariants(String content, int count,
+                                                    Consumer<SocialPilotContent> onVariant,
+                                                    Consumer<Throwable> onError) throws IOException {
+        int variants = Math.max(1, Math.min(count, maxVariants));
+        Map<String, String> prepared = elasticsearchOpenAIService.prepareContentPrompt(content);
+        String prompt = prepared.get("prompt");
+        logger.info("Generating {} variants", variants);
+
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[variants];
+        for (int i = 0; i < variants; i++) {
+            int variant = i + 1;
+            futures[i] = CompletableFuture
+                    .supplyAsync(() -> generateDraft(prompt, variant, variants), executor)
+                    .whenComplete((draft, error) -> {
+                        if (error != null) {
+                            logger.error("Variant {} of {} failed", variant, variants, error);
+                            onError.accept(error);
+                        } else {
+                            onVariant.accept(draft);
+                        }
+                    });
+        }
+        return CompletableFuture.allOf(futures).exceptionally(error -> null);
+    }
+
+    private SocialPilotContent generateDraft(String prompt, int variant, int variants) {
+        try {
+            String text = elasticsearchOpenAIService.generateVariant(prompt, variant, variants);
+            SocialPilotContent draft = SocialPilotContent.of(text, null, null)
+                    .withStatus(SocialPilotContent.STATUS_DRAFT);
+            return draft.withId(elasticsearchService.indexContent(draft));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to generate variant " + variant, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,62 @@
+package org.davidgeorgehope.socialmediaposter.bench;
+
+import org.davidgeorgehope.socialmediaposter.service.ArticleExtractor;
+import org.davidgeorgehope.socialmediaposter.service.PromptBudget;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+// What goes into the prompt for each saved page in src/test/resources/articles:
+//   pageText       - doc.body().text(), what fetchContentFromUrl used before, chrome included
+//   extractArticle - ArticleExtractor's main-content text
+// Both start from the parsed document. Extraction runs once per fetched page, since PageFetchCache keeps its
+// result, while the tokens it removes are saved on every LLM call. Setup prints both token estimates.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ArticleExtractionBenchmark {
+
+    @Param({"sre-blog.html", "docs-page.html", "news-article.html"})
+    public String fixture;
+
+    private final ArticleExtractor extractor = new ArticleExtractor();
+    private Document document;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        try (InputStream in = ArticleExtractionBenchmark.class.getResourceAsStream("/articles/" + fixture)) {
+            document = Jsoup.parse(in, "UTF-8", "https://example.com/" + fixture);
+        }
+        System.out.printf("%n%s: page %d tokens, article %d tokens%n", fixture,
+                PromptBudget.estimateTokens(document.body().text()),
+                PromptBudget.estimateTokens(extractor.extract(document)));
+    }
+
+    @Benchmark
+    public String pageText() {
+        return document.body().text();
+    }
+
+    @Benchmark
+    public String extractArticle() {
+        return extractor.extract(document);
+    }
+}
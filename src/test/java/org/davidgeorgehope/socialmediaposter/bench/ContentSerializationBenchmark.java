@@ -0,0 +1,170 @@
+package org.davidgeorgehope.socialmediaposter.bench;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.GetResponse;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.davidgeorgehope.socialmediaposter.model.SocialPilotContent;
+import org.davidgeorgehope.socialmediaposter.support.FakeElasticsearch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// The content document round trip before and after the typed model:
+//   legacy*  - Map<String, Object> documents, a new ObjectMapper and a String per index call, "text" probed
+//              for String vs semantic_text object by the caller
+//   typed*   - SocialPilotContent records (de)serialized once by the client's shared mapper
+// The index/get/search pairs run against FakeElasticsearch over HTTP, so both sides pay the same transport
+// cost; the write/read pairs measure the mapping alone, without a client.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ContentSerializationBenchmark {
+
+    private static final String INDEX = "social-pilot-content";
+    private static final int DOCUMENTS = 100;
+
+    private FakeElasticsearch elasticsearch;
+    private ElasticsearchClient client;
+    private Map<String, Object> legacyDocument;
+    private SocialPilotContent typedDocument;
+    private ObjectMapper sharedMapper;
+    private byte[] storedSource;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        elasticsearch = new FakeElasticsearch();
+        client = elasticsearch.client();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            String text = "Post " + i + ": what we learned moving our alerting to SLO burn rates.";
+            Map<String, Double> embeddings = new LinkedHashMap<>();
+            for (int t = 0; t < 30; t++) {
+                embeddings.put("token" + (i * 7 + t), (t + 1) / 30.0);
+            }
+            elasticsearch.put(INDEX, "doc-" + i, Map.of(
+                    "text", Map.of("text", text, "inference", Map.of("chunks", List.of(
+                            Map.of("text", text, "embeddings", embeddings)))),
+                    "mediaUrl", "/content/media/" + i + ".jpg",
+                    "mediaType", "image",
+                    "last_posted_date", "2024-03-01T09:00:00Z",
+                    "last_updated", "2024-03-02T09:00:00Z"));
+        }
+        String text = "A new post about reducing alert fatigue.";
+        legacyDocument = new HashMap<>(Map.of("text", text, "mediaUrl", "/content/media/new.jpg", "mediaType", "image"));
+        typedDocument = SocialPilotContent.of(text, "/content/media/new.jpg", "image");
+        sharedMapper = FakeElasticsearch.jsonpMapper().objectMapper();
+        storedSource = elasticsearch.source(INDEX, "doc-42").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        elasticsearch.close();
+    }
+
+    @Benchmark
+    public String legacyIndex() throws IOException {
+        legacyDocument.put("last_updated", Instant.now().toString());
+        ObjectMapper objectMapper = new ObjectMapper();
+        String json = objectMapper.writeValueAsString(legacyDocument);
+        return client.index(i -> i.index(INDEX).id("indexed").withJson(new StringReader(json))).id();
+    }
+
+    @Benchmark
+    public String typedIndex() throws IOException {
+        SocialPilotContent document = typedDocument.withLastUpdated(Instant.now());
+        return client.index(i -> i.index(INDEX).id("indexed").document(document)).id();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public String legacyGet() throws IOException {
+        GetResponse<Map<String, Object>> response = client.get(g -> g.index(INDEX).id("doc-42"),
+                (Class<Map<String, Object>>) (Class<?>) Map.class);
+        Map<String, Object> source = response.source();
+        source.put("_id", response.id());
+        return legacyText(source);
+    }
+
+    @Benchmark
+    public String typedGet() throws IOException {
+        GetResponse<SocialPilotContent> response = client.get(g -> g.index(INDEX).id("doc-42"), SocialPilotContent.class);
+        return response.source().withId(response.id()).text();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public void legacySearch(Blackhole blackhole) throws IOException {
+        SearchResponse<Map<String, Object>> response = client.search(s -> s.index(INDEX).size(DOCUMENTS),
+                (Class<Map<String, Object>>) (Class<?>) Map.class);
+        for (Hit<Map<String, Object>> hit : response.hits().hits()) {
+            Map<String, Object> source = hit.source() != null ? hit.source() : new HashMap<>();
+            source.put("_id", hit.id());
+            blackhole.consume(legacyText(source));
+        }
+    }
+
+    @Benchmark
+    public void typedSearch(Blackhole blackhole) throws IOException {
+        SearchResponse<SocialPilotContent> response = client.search(s -> s.index(INDEX).size(DOCUMENTS),
+                SocialPilotContent.class);
+        for (Hit<SocialPilotContent> hit : response.hits().hits()) {
+            blackhole.consume(hit.source().withId(hit.id()).text());
+        }
+    }
+
+    @Benchmark
+    public String legacyWrite() throws IOException {
+        legacyDocument.put("last_updated", Instant.now().toString());
+        return new ObjectMapper().writeValueAsString(legacyDocument);
+    }
+
+    @Benchmark
+    public byte[] typedWrite() throws IOException {
+        return sharedMapper.writeValueAsBytes(typedDocument.withLastUpdated(Instant.now()));
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public String legacyRead() throws IOException {
+        return legacyText(sharedMapper.readValue(storedSource, Map.class));
+    }
+
+    @Benchmark
+    public String typedRead() throws IOException {
+        return sharedMapper.readValue(storedSource, SocialPilotContent.class).text();
+    }
+
+    // What the controller and templates did with every document before the record existed
+    @SuppressWarnings("unchecked")
+    private static String legacyText(Map<String, Object> source) {
+        Object text = source.get("text");
+        if (text instanceof Map<?, ?> semantic) {
+            return (String) ((Map<String, Object>) semantic).get("text");
+        }
+        return (String) text;
+    }
+}
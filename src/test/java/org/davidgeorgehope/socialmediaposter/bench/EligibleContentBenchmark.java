@@ -0,0 +1,162 @@
+package org.davidgeorgehope.socialmediaposter.bench;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import org.davidgeorgehope.socialmediaposter.service.ElasticsearchService;
+import org.davidgeorgehope.socialmediaposter.support.FakeElasticsearch;
+import org.davidgeorgehope.socialmediaposter.support.TestServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Picking eligible content at 10k and 100k documents, half of them eligible, each carrying sparse embeddings:
+//   legacyFirst100   - the old path: the first 100 full documents, dates parsed in Java (misses most of the backlog)
+//   legacyFullScan   - the old client-side filter applied to the whole backlog, full _source for every document
+//   streamEligible   - ElasticsearchService.streamEligibleContent: filtered by Elasticsearch, lightweight fields only
+// Runs against FakeElasticsearch over HTTP, so the numbers show client, transfer and parsing cost rather than
+// cluster-side query cost.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class EligibleContentBenchmark {
+
+    private static final String INDEX = "social-pilot-content";
+    private static final Duration COOLDOWN = Duration.ofDays(30);
+
+    @Param({"10000", "100000"})
+    public int documents;
+
+    private FakeElasticsearch elasticsearch;
+    private ElasticsearchClient client;
+    private ElasticsearchService service;
+    private Path mediaDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        elasticsearch = new FakeElasticsearch();
+        mediaDir = Files.createTempDirectory("bench-media");
+        service = TestServices.elasticsearchService(elasticsearch, mediaDir);
+        client = elasticsearch.client();
+        Instant now = Instant.now();
+        for (int i = 0; i < documents; i++) {
+            Map<String, Object> source = new HashMap<>();
+            String text = "Post number " + i + " about observability, SLOs and reducing toil for SREs.";
+            source.put("text", Map.of("text", text, "inference", Map.of("chunks", List.of(
+                    Map.of("text", text, "embeddings", embeddings(i))))));
+            source.put("last_updated", now.toString());
+            if (i % 2 == 1) {
+                // Odd documents were posted recently and are not eligible
+                source.put("last_posted_date", now.minus(Duration.ofDays(i % 29)).toString());
+            } else if (i % 4 == 0) {
+                source.put("last_posted_date", now.minus(Duration.ofDays(31 + i % 300)).toString());
+            }
+            elasticsearch.put(INDEX, "doc-" + i, source);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        elasticsearch.close();
+    }
+
+    @Benchmark
+    public long streamEligible(Blackhole blackhole) throws IOException {
+        return service.streamEligibleContent(COOLDOWN, blackhole::consume);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public int legacyFirst100(Blackhole blackhole) throws IOException {
+        SearchResponse<Map<String, Object>> response = client.search(s -> s
+                .index(INDEX)
+                .size(100)
+                .sort(sort -> sort.field(f -> f.field("last_posted_date").order(SortOrder.Asc).missing("_first"))),
+                (Class<Map<String, Object>>) (Class<?>) Map.class);
+        int eligible = 0;
+        for (Hit<Map<String, Object>> hit : response.hits().hits()) {
+            if (isEligible(hit.source())) {
+                blackhole.consume(hit.source());
+                eligible++;
+            }
+        }
+        return eligible;
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public int legacyFullScan(Blackhole blackhole) throws IOException {
+        String pitId = client.openPointInTime(p -> p.index(INDEX).keepAlive(k -> k.time("1m"))).id();
+        int eligible = 0;
+        try {
+            List<FieldValue> after = null;
+            while (true) {
+                List<FieldValue> searchAfter = after;
+                SearchResponse<Map<String, Object>> response = client.search(s -> {
+                    s.pit(p -> p.id(pitId)).size(1000).sort(so -> so.field(f -> f.field("_shard_doc")));
+                    if (searchAfter != null) {
+                        s.searchAfter(searchAfter);
+                    }
+                    return s;
+                }, (Class<Map<String, Object>>) (Class<?>) Map.class);
+                List<Hit<Map<String, Object>>> hits = response.hits().hits();
+                for (Hit<Map<String, Object>> hit : hits) {
+                    if (isEligible(hit.source())) {
+                        blackhole.consume(hit.source());
+                        eligible++;
+                    }
+                }
+                if (hits.size() < 1000) {
+                    break;
+                }
+                after = hits.get(hits.size() - 1).sort();
+            }
+        } finally {
+            client.closePointInTime(c -> c.id(pitId));
+        }
+        return eligible;
+    }
+
+    private static boolean isEligible(Map<String, Object> source) {
+        Object lastPosted = source.get("last_posted_date");
+        if (lastPosted == null || lastPosted.toString().isEmpty()) {
+            return true;
+        }
+        return Instant.parse(lastPosted.toString()).isBefore(Instant.now().minus(COOLDOWN));
+    }
+
+    private static Map<String, Double> embeddings(int seed) {
+        Map<String, Double> tokens = new LinkedHashMap<>();
+        for (int t = 0; t < 30; t++) {
+            tokens.put("token" + ((seed * 31 + t * 17) % 5000), (t + 1) / 30.0);
+        }
+        return tokens;
+    }
+}
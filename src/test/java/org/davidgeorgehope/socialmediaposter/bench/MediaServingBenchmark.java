@@ -0,0 +1,143 @@
+package org.davidgeorgehope.socialmediaposter.bench;
+
+import org.davidgeorgehope.socialmediaposter.controller.ContentController;
+import org.davidgeorgehope.socialmediaposter.service.ElasticsearchOpenAIService;
+import org.davidgeorgehope.socialmediaposter.service.ElasticsearchService;
+import org.davidgeorgehope.socialmediaposter.service.LinkedInService;
+import org.davidgeorgehope.socialmediaposter.service.MediaStore;
+import org.davidgeorgehope.socialmediaposter.service.RemoteMediaFetcher;
+import org.davidgeorgehope.socialmediaposter.service.VariantGenerationService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.servlet.context.AnnotationConfigServletWebServerApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.web.servlet.DispatcherServlet;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.mock;
+
+// GET /content/media/{hash}.jpg from ContentController on an embedded Tomcat, over kept-alive loopback
+// connections, the body read into a reused buffer so the client allocates next to nothing:
+//   fullFile    - the whole file
+//   singleRange - a 64 KB range at a random offset, as a video player seeks
+// with media.sendfile.enabled on (Tomcat writes the file from the kernel) and off (Spring copies it through a
+// heap buffer). Score is requests per second; multiply by the file or range size for bytes served, and add
+// -prof gc to see the heap allocated per request on the server side of each mode.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(4)
+@Fork(1)
+public class MediaServingBenchmark {
+
+    private static final String HASH = "cd".repeat(32);
+    private static final int RANGE_BYTES = 64 * 1024;
+
+    @Param({"true", "false"})
+    public boolean sendfile;
+
+    @Param({"1048576", "16777216"})
+    public int fileBytes;
+
+    private Path mediaDir;
+    private AnnotationConfigServletWebServerApplicationContext context;
+    private URL url;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mediaDir = Files.createTempDirectory("media-serving-bench");
+        byte[] bytes = new byte[fileBytes];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        Files.write(mediaDir.resolve(HASH + ".jpg"), bytes);
+
+        context = new AnnotationConfigServletWebServerApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("bench", Map.of(
+                "media.upload.dir", mediaDir + "/",
+                "media.sendfile.enabled", String.valueOf(sendfile))));
+        context.registerBean(TomcatServletWebServerFactory.class, () -> new TomcatServletWebServerFactory(0));
+        context.registerBean("dispatcherServlet", DispatcherServlet.class);
+        context.registerBean(ContentController.class, () -> new ContentController(mock(ElasticsearchService.class),
+                mock(LinkedInService.class), mock(ElasticsearchOpenAIService.class),
+                mock(VariantGenerationService.class), new MediaStore(mediaDir + "/"), mock(RemoteMediaFetcher.class)));
+        context.register(WebConfig.class);
+        context.refresh();
+
+        url = new URL("http://localhost:" + context.getWebServer().getPort() + "/content/media/" + HASH + ".jpg");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        try (Stream<Path> files = Files.walk(mediaDir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public long fullFile(Buffer buffer) throws IOException {
+        return get(null, 200, buffer);
+    }
+
+    @Benchmark
+    public long singleRange(Buffer buffer) throws IOException {
+        long start = ThreadLocalRandom.current().nextLong(fileBytes - RANGE_BYTES);
+        return get("bytes=" + start + "-" + (start + RANGE_BYTES - 1), 206, buffer);
+    }
+
+    // Returns the bytes read; reading the body to the end hands the connection back for reuse
+    private long get(String range, int expectedStatus, Buffer buffer) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        int status = connection.getResponseCode();
+        if (status != expectedStatus) {
+            throw new IllegalStateException("expected " + expectedStatus + " but got " + status);
+        }
+        long read = 0;
+        try (InputStream in = connection.getInputStream()) {
+            for (int n; (n = in.read(buffer.bytes)) != -1; ) {
+                read += n;
+            }
+        }
+        return read;
+    }
+
+    @State(Scope.Thread)
+    public static class Buffer {
+        final byte[] bytes = new byte[64 * 1024];
+    }
+
+    @EnableWebMvc
+    static class WebConfig {
+    }
+}
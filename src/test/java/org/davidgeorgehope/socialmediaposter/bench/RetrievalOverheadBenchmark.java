@@ -0,0 +1,92 @@
+package org.davidgeorgehope.socialmediaposter.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.davidgeorgehope.socialmediaposter.service.ContextRetriever;
+import org.davidgeorgehope.socialmediaposter.support.FakeElasticsearch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// What ContextRetriever adds in front of every processQuestion call:
+//   disabled         - ai.retrieval.enabled=false, the default
+//   cachedContext    - the same question again within ai.retrieval.cache.ttl-minutes
+//   uncachedContext  - a new question: a search template round trip, bounded by ai.retrieval.timeout-ms
+// The search runs against FakeElasticsearch with esLatencyMs added to every request, standing in for the
+// inference-backed sparse_vector query; 600 ms is past the 500 ms budget, so those lookups time out and
+// return no context.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RetrievalOverheadBenchmark {
+
+    private static final String SEARCH_RESPONSE = """
+            {"took":1,"timed_out":false,"_shards":{"total":1,"successful":1,"skipped":0,"failed":0},
+             "hits":{"total":{"value":1,"relation":"eq"},"max_score":1.0,"hits":[
+              {"_index":"social-pilot-content","_id":"p1","_score":1.0,"inner_hits":{"social-pilot-content.text":{
+               "hits":{"total":{"value":1,"relation":"eq"},"max_score":1.0,"hits":[
+                {"_index":"social-pilot-content","_id":"p1","_nested":{"field":"text.inference.chunks","offset":0},
+                 "_score":1.0,"_source":{"text":"We moved paging to burn-rate alerts and cut pages by three quarters."}}]}}}}]}}
+            """;
+
+    @Param({"0", "50", "600"})
+    public long esLatencyMs;
+
+    private FakeElasticsearch elasticsearch;
+    private ContextRetriever disabled;
+    private ContextRetriever enabled;
+    private long questions;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        elasticsearch = new FakeElasticsearch();
+        var response = new ObjectMapper().readTree(SEARCH_RESPONSE);
+        elasticsearch.route("POST /social-pilot-content/_search/template", request -> FakeElasticsearch.ok(response));
+        elasticsearch.latency(esLatencyMs);
+        disabled = retriever(false);
+        enabled = retriever(true);
+        enabled.contextFor("how do burn-rate alerts reduce pages?");
+        // A lookup that timed out still fills the cache once its answer arrives
+        Thread.sleep(esLatencyMs + 200);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        elasticsearch.close();
+    }
+
+    @Benchmark
+    public String disabled() {
+        return disabled.contextFor("how do burn-rate alerts reduce pages?");
+    }
+
+    @Benchmark
+    public String cachedContext() {
+        return enabled.contextFor("how do burn-rate alerts reduce pages?");
+    }
+
+    @Benchmark
+    public String uncachedContext() {
+        return enabled.contextFor("how do burn-rate alerts reduce pages? variant " + questions++);
+    }
+
+    private ContextRetriever retriever(boolean on) {
+        return new ContextRetriever(elasticsearch.asyncClient(), new SimpleMeterRegistry(), on, 500, 3, 2000, 100_000, 10);
+    }
+}
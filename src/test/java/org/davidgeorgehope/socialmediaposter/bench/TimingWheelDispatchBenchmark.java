@@ -0,0 +1,136 @@
+package org.davidgeorgehope.socialmediaposter.bench;
+
+import org.davidgeorgehope.socialmediaposter.service.TimingWheel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// One simulated second of AccountPostingEngine dispatch with `accounts` accounts, each with one upcoming slot
+// spread over the next hour; a fired slot schedules the account's next one an hour later, and `churn` accounts
+// have their schedule changed (cancel and reschedule) every second:
+//   wheel - TimingWheel with the engine's defaults (100 ms ticks, 512 buckets), driven by a simulated ticker
+//   heap  - a PriorityQueue ordered by deadline, the binary heap ScheduledThreadPoolExecutor keeps its tasks in,
+//           where cancelling means remove(Object), a linear scan
+// Neither side posts anything, so this is the cost of the timer structure alone.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TimingWheelDispatchBenchmark {
+
+    private static final long HORIZON_MS = 3_600_000;
+
+    @Param({"1000", "100000"})
+    public int accounts;
+
+    @Param({"10"})
+    public int churn;
+
+    private final Random random = new Random(42);
+    private SimulatedTicker ticker;
+    private TimingWheel<Integer> wheel;
+    private TimingWheel<Integer>.Timeout[] timeouts;
+    private PriorityQueue<Slot> heap;
+    private Slot[] slots;
+    private long heapNowMs;
+    private long fired;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        ticker = new SimulatedTicker(Instant.parse("2024-03-01T00:00:00Z"));
+        wheel = new TimingWheel<>(Duration.ofMillis(100), 512, ticker, account -> {
+            fired++;
+            timeouts[account] = wheel.schedule(account, ticker.now().plusMillis(HORIZON_MS));
+        });
+        timeouts = (TimingWheel<Integer>.Timeout[]) new TimingWheel.Timeout[accounts];
+        heap = new PriorityQueue<>(accounts);
+        slots = new Slot[accounts];
+        for (int account = 0; account < accounts; account++) {
+            long offset = random.nextLong(HORIZON_MS);
+            timeouts[account] = wheel.schedule(account, ticker.now().plusMillis(offset));
+            slots[account] = new Slot(account, offset);
+            heap.add(slots[account]);
+        }
+    }
+
+    @Benchmark
+    public long wheel() {
+        for (int i = 0; i < churn; i++) {
+            int account = random.nextInt(accounts);
+            if (timeouts[account].cancel()) {
+                timeouts[account] = wheel.schedule(account, ticker.now().plusMillis(random.nextLong(HORIZON_MS)));
+            }
+        }
+        ticker.advance(Duration.ofSeconds(1));
+        wheel.advance();
+        return fired;
+    }
+
+    @Benchmark
+    public long heap() {
+        for (int i = 0; i < churn; i++) {
+            int account = random.nextInt(accounts);
+            if (heap.remove(slots[account])) {
+                slots[account] = new Slot(account, heapNowMs + random.nextLong(HORIZON_MS));
+                heap.add(slots[account]);
+            }
+        }
+        heapNowMs += 1000;
+        Slot due;
+        while ((due = heap.peek()) != null && due.atMs() <= heapNowMs) {
+            heap.poll();
+            fired++;
+            slots[due.account()] = new Slot(due.account(), heapNowMs + HORIZON_MS);
+            heap.add(slots[due.account()]);
+        }
+        return fired;
+    }
+
+    private record Slot(int account, long atMs) implements Comparable<Slot> {
+        @Override
+        public int compareTo(Slot other) {
+            return Long.compare(atMs, other.atMs);
+        }
+    }
+
+    private static final class SimulatedTicker implements TimingWheel.Ticker {
+        private final Instant origin;
+        private long nanos;
+
+        SimulatedTicker(Instant origin) {
+            this.origin = origin;
+        }
+
+        void advance(Duration duration) {
+            nanos += duration.toNanos();
+        }
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+
+        @Override
+        public Instant now() {
+            return origin.plusNanos(nanos);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.davidgeorgehope.socialmediaposter.controller;
+
+import org.davidgeorgehope.socialmediaposter.service.ElasticsearchOpenAIService;
+import org.davidgeorgehope.socialmediaposter.service.ElasticsearchService;
+import org.davidgeorgehope.socialmediaposter.service.LinkedInService;
+import org.davidgeorgehope.socialmediaposter.service.MediaStore;
+import org.davidgeorgehope.socialmediaposter.service.RemoteMediaFetcher;
+import org.davidgeorgehope.socialmediaposter.service.VariantGenerationService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+// GET /content/media/{filename} through MockMvc, on a hash-named and a legacy file. MockMvc has no sendfile
+// support, so by default the Resource path runs; the sendfile cases set Tomcat's support attribute themselves.
+class MediaServingTest {
+
+    private static final String HASH = "ab".repeat(32);
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+
+    @TempDir
+    Path mediaDir;
+
+    private MockMvc mvc;
+    private byte[] bytes;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        bytes = new byte[1000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        Files.write(mediaDir.resolve(HASH + ".jpg"), bytes);
+        Path legacy = Files.write(mediaDir.resolve("1111_photo.jpg"), bytes);
+        Files.setLastModifiedTime(legacy, FileTime.fromMillis(1_700_000_000_000L));
+
+        ContentController controller = new ContentController(mock(ElasticsearchService.class),
+                mock(LinkedInService.class), mock(ElasticsearchOpenAIService.class),
+                mock(VariantGenerationService.class), new MediaStore(mediaDir + "/"), mock(RemoteMediaFetcher.class));
+        ReflectionTestUtils.setField(controller, "mediaUploadDir", mediaDir + "/");
+        ReflectionTestUtils.setField(controller, "mediaSendfileEnabled", true);
+        mvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    void hashedFileIsImmutableWithItsHashAsETag() throws Exception {
+        MockHttpServletResponse response = perform(get("/content/media/" + HASH + ".jpg"));
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"" + HASH + "\"");
+        assertThat(response.getHeader(HttpHeaders.CACHE_CONTROL)).contains("max-age=31536000", "public", "immutable");
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getContentType()).isEqualTo("image/jpeg");
+        assertThat(response.getContentAsByteArray()).isEqualTo(bytes);
+    }
+
+    @Test
+    void legacyFileIsRevalidatedWithASizeAndModificationTimeETag() throws Exception {
+        MockHttpServletResponse response = perform(get("/content/media/1111_photo.jpg"));
+
+        assertThat(response.getHeader(HttpHeaders.ETAG))
+                .isEqualTo("\"" + Long.toHexString(1000) + "-" + Long.toHexString(1_700_000_000_000L) + "\"");
+        assertThat(response.getHeader(HttpHeaders.CACHE_CONTROL)).contains("no-cache").doesNotContain("immutable");
+    }
+
+    @Test
+    void conditionalGetWithTheCurrentETagIsNotModified() throws Exception {
+        MockHttpServletResponse response = perform(get("/content/media/" + HASH + ".jpg")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"" + HASH + "\""));
+
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"" + HASH + "\"");
+    }
+
+    @Test
+    void conditionalGetWithAnotherETagGetsTheFile() throws Exception {
+        MockHttpServletResponse response = perform(get("/content/media/1111_photo.jpg")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"3e8-0\""));
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsByteArray()).isEqualTo(bytes);
+    }
+
+    @Test
+    void singleRangeIsServedAsPartialContent() throws Exception {
+        MockHttpServletResponse response = perform(get("/content/media/" + HASH + ".jpg")
+                .header(HttpHeaders.RANGE, "bytes=100-199"));
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 100-199/1000");
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(bytes, 100, 200));
+    }
+
+    @Test
+    void unsatisfiableRangeIsRejected() throws Exception {
+        MockHttpServletResponse response = perform(get("/content/media/" + HASH + ".jpg")
+                .header(HttpHeaders.RANGE, "bytes=5000-6000"));
+
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */1000");
+    }
+
+    @Test
+    void rangeWithAStaleIfRangeGetsTheWholeFile() throws Exception {
+        MockHttpServletResponse response = perform(get("/content/media/1111_photo.jpg")
+                .header(HttpHeaders.RANGE, "bytes=100-199")
+                .header(HttpHeaders.IF_RANGE, "\"3e8-0\""));
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isNull();
+        assertThat(response.getContentAsByteArray()).isEqualTo(bytes);
+    }
+
+    @Test
+    void rangeWithTheCurrentIfRangeIsPartial() throws Exception {
+        MockHttpServletResponse response = perform(get("/content/media/" + HASH + ".jpg")
+                .header(HttpHeaders.RANGE, "bytes=100-199")
+                .header(HttpHeaders.IF_RANGE, "\"" + HASH + "\""));
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(bytes, 100, 200));
+    }
+
+    @Test
+    void sendfileHandsTheFileOrRangeToTomcatWithoutABody() throws Exception {
+        MockHttpServletRequestBuilder request = get("/content/media/" + HASH + ".jpg")
+                .requestAttr(SENDFILE_SUPPORT, true)
+                .header(HttpHeaders.RANGE, "bytes=100-");
+        var result = mvc.perform(request).andReturn();
+        MockHttpServletRequest served = result.getRequest();
+        MockHttpServletResponse response = result.getResponse();
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 100-999/1000");
+        assertThat(response.getHeader(HttpHeaders.CONTENT_LENGTH)).isEqualTo("900");
+        assertThat(response.getContentAsByteArray()).isEmpty();
+        assertThat(served.getAttribute("org.apache.tomcat.sendfile.filename"))
+                .isEqualTo(mediaDir.resolve(HASH + ".jpg").toAbsolutePath().normalize().toString());
+        assertThat(served.getAttribute("org.apache.tomcat.sendfile.start")).isEqualTo(100L);
+        assertThat(served.getAttribute("org.apache.tomcat.sendfile.end")).isEqualTo(1000L);
+    }
+
+    @Test
+    void sendfileRejectsAnUnsatisfiableRange() throws Exception {
+        MockHttpServletResponse response = perform(get("/content/media/" + HASH + ".jpg")
+                .requestAttr(SENDFILE_SUPPORT, true)
+                .header(HttpHeaders.RANGE, "bytes=5000-"));
+
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */1000");
+    }
+
+    @Test
+    void multipleRangesFallBackFromSendfileToTheResourcePath() throws Exception {
+        var result = mvc.perform(get("/content/media/" + HASH + ".jpg")
+                .requestAttr(SENDFILE_SUPPORT, true)
+                .header(HttpHeaders.RANGE, "bytes=0-9,100-109")).andReturn();
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(206);
+        assertThat(result.getResponse().getContentType()).startsWith("multipart/byteranges");
+        assertThat(result.getRequest().getAttribute("org.apache.tomcat.sendfile.filename")).isNull();
+    }
+
+    @Test
+    void pathsOutsideTheMediaDirectoryAreNotServed() throws Exception {
+        Files.writeString(mediaDir.getParent().resolve("secret.txt"), "secret");
+
+        assertThat(perform(get("/content/media/..%2Fsecret.txt")).getStatus()).isEqualTo(404);
+        assertThat(perform(get("/content/media/missing.jpg")).getStatus()).isEqualTo(404);
+    }
+
+    private MockHttpServletResponse perform(MockHttpServletRequestBuilder request) throws Exception {
+        return mvc.perform(request).andReturn().getResponse();
+    }
+}
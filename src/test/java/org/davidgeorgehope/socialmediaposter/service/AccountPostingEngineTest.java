@@ -0,0 +1,171 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.davidgeorgehope.socialmediaposter.model.AccountSchedule;
+import org.davidgeorgehope.socialmediaposter.support.FakeElasticsearch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Slots that were due a few minutes ago stand in for slots that fired while no node held the lease: the engine
+// only puts the next slot of each account on its wheel, so these are reached by catchUp() alone
+class AccountPostingEngineTest {
+
+    private static final DateTimeFormatter HH_MM = DateTimeFormatter.ofPattern("HH:mm");
+
+    private FakeElasticsearch elasticsearch;
+    private AccountScheduleStore scheduleStore;
+    private SchedulerSlots schedulerSlots;
+    private SchedulerLease schedulerLease;
+    private PostSchedulerService postSchedulerService;
+    private SimpleMeterRegistry meterRegistry;
+    private AccountPostingEngine engine;
+    private final Map<String, List<Instant>> posts = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        elasticsearch = new FakeElasticsearch();
+        scheduleStore = new AccountScheduleStore(elasticsearch.client());
+        schedulerSlots = new SchedulerSlots(elasticsearch.client());
+        schedulerLease = mock(SchedulerLease.class);
+        when(schedulerLease.isClusterMode()).thenReturn(true);
+        when(schedulerLease.isLeader()).thenReturn(true);
+        when(schedulerLease.nodeId()).thenReturn("node-1");
+        postSchedulerService = mock(PostSchedulerService.class);
+        doAnswer(invocation -> {
+            posts.computeIfAbsent(invocation.getArgument(0), key -> new CopyOnWriteArrayList<>())
+                    .add(invocation.getArgument(1));
+            return null;
+        }).when(postSchedulerService).schedulePost(anyString(), any());
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (engine != null) {
+            engine.shutdown();
+        }
+        elasticsearch.close();
+    }
+
+    @Test
+    void leaderCatchesUpASlotThatNoNodeDispatchedExactlyOnce() throws Exception {
+        engine = engine(8, 100);
+        Instant missed = minutesAgo(2);
+        schedule("alice@example.com", missed);
+
+        engine.catchUp();
+        await(() -> posts.containsKey("alice@example.com"));
+        engine.catchUp();
+        Thread.sleep(200);
+
+        assertThat(posts.get("alice@example.com")).containsExactly(missed);
+        assertThat(slotStatus("alice@example.com", missed)).isEqualTo(SchedulerSlots.STATUS_DONE);
+    }
+
+    @Test
+    void nonLeaderLeavesMissedSlotsAlone() throws Exception {
+        when(schedulerLease.isLeader()).thenReturn(false);
+        engine = engine(8, 100);
+        schedule("alice@example.com", minutesAgo(2));
+
+        engine.catchUp();
+        Thread.sleep(200);
+
+        assertThat(posts).isEmpty();
+        assertThat(elasticsearch.sources(SchedulerLease.SCHEDULER_INDEX)).isEmpty();
+    }
+
+    @Test
+    void olderMissedSlotsAreRecordedAsSkippedAndOnlyTheLatestPosts() throws Exception {
+        engine = engine(8, 100);
+        Instant older = minutesAgo(6);
+        Instant latest = minutesAgo(2);
+        schedule("alice@example.com", older, latest);
+
+        engine.catchUp();
+        // The slot is marked done after the post returns
+        await(() -> SchedulerSlots.STATUS_DONE.equals(slotStatus("alice@example.com", latest)));
+
+        assertThat(posts.get("alice@example.com")).containsExactly(latest);
+        assertThat(slotStatus("alice@example.com", older)).isEqualTo(SchedulerSlots.STATUS_SKIPPED);
+    }
+
+    @Test
+    void postsRejectedBySaturatedWorkersAreRetriedRatherThanDropped() throws Exception {
+        // One worker and one queued task: the first account blocks the worker, the second waits in the
+        // queue and the third is rejected
+        engine = engine(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            posts.computeIfAbsent(invocation.getArgument(0), key -> new CopyOnWriteArrayList<>())
+                    .add(invocation.getArgument(1));
+            return null;
+        }).when(postSchedulerService).schedulePost(anyString(), any());
+        Instant missed = minutesAgo(2);
+        for (String account : List.of("a@example.com", "b@example.com", "c@example.com")) {
+            schedule(account, missed);
+        }
+
+        engine.catchUp();
+        await(() -> meterRegistry.counter("scheduler.accounts.dispatches", "result", "rejected").count() > 0);
+        release.countDown();
+        await(() -> posts.size() == 3);
+
+        assertThat(posts.values()).allSatisfy(slots -> assertThat(slots).containsExactly(missed));
+    }
+
+    private AccountPostingEngine engine(int workers, int queueCapacity) {
+        return new AccountPostingEngine(scheduleStore, postSchedulerService, schedulerLease, schedulerSlots,
+                meterRegistry, true, workers, queueCapacity, 10, 64, 600_000, 50);
+    }
+
+    private void schedule(String account, Instant... slots) throws Exception {
+        List<String> times = Arrays.stream(slots)
+                .map(slot -> LocalTime.ofInstant(slot, ZoneOffset.UTC).format(HH_MM))
+                .toList();
+        scheduleStore.save(new AccountSchedule(account, "UTC", times, null, true, null));
+        engine.refresh(account);
+    }
+
+    private String slotStatus(String account, Instant slot) {
+        ObjectNode claim = elasticsearch.source(SchedulerLease.SCHEDULER_INDEX,
+                "slot_account_" + account + "_" + slot.getEpochSecond());
+        return claim != null ? claim.path("status").asText() : null;
+    }
+
+    private static Instant minutesAgo(int minutes) {
+        return Instant.now().truncatedTo(ChronoUnit.MINUTES).minus(minutes, ChronoUnit.MINUTES);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime() - deadline).as("condition not met within 5 s").isNegative();
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Extraction over the saved pages in src/test/resources/articles, which ArticleExtractionBenchmark also uses
+class ArticleExtractorTest {
+
+    private final ArticleExtractor extractor = new ArticleExtractor();
+
+    @Test
+    void blogPostKeepsTheArticleAndDropsBannerSidebarAndComments() throws IOException {
+        String text = extractor.extract(fixture("sre-blog.html"));
+
+        assertThat(text)
+                .contains("Burn-rate alerting asks a different question")
+                .contains("Synthetic traffic or a minimum request count")
+                .doesNotContain("We use cookies")
+                .doesNotContain("Popular posts")
+                .doesNotContain("Related posts")
+                .doesNotContain("Great write-up")
+                .doesNotContain("All rights reserved");
+    }
+
+    @Test
+    void documentationPageDropsNavigationAndTableOfContents() throws IOException {
+        String text = extractor.extract(fixture("docs-page.html"));
+
+        assertThat(text)
+                .contains("An index lifecycle policy describes how an index changes as it ages")
+                .contains("Changing a policy does not affect the phase")
+                .doesNotContain("Version 8.12 is now available")
+                .doesNotContain("Snapshot and restore for disaster recovery planning")
+                .doesNotContain("On this page")
+                .doesNotContain("System status");
+    }
+
+    @Test
+    void newsArticleDropsConsentAdsNewsletterAndRelatedLinks() throws IOException {
+        String text = extractor.extract(fixture("news-article.html"));
+
+        assertThat(text)
+                .contains("caused by an internal TLS certificate")
+                .contains("The final incident report is expected within two weeks")
+                .doesNotContain("842 partners")
+                .doesNotContain("free trial")
+                .doesNotContain("Sign up for the Infra Weekly newsletter")
+                .doesNotContain("Five lessons from a decade");
+    }
+
+    @Test
+    void extractedArticleIsMuchSmallerThanThePage() throws IOException {
+        for (String name : new String[]{"sre-blog.html", "docs-page.html", "news-article.html"}) {
+            Document document = fixture(name);
+            int page = PromptBudget.estimateTokens(document.body().text());
+            int article = PromptBudget.estimateTokens(extractor.extract(document));
+            assertThat(article).as(name).isLessThan(page * 3 / 4);
+        }
+    }
+
+    @Test
+    void pageWithoutAnArticleFallsBackToTheBody() {
+        Document document = Jsoup.parse("<html><body><div>Short note.</div><p>Nothing else here.</p></body></html>");
+
+        assertThat(extractor.extract(document)).isEqualTo("Short note. Nothing else here.");
+    }
+
+    static Document fixture(String name) throws IOException {
+        try (InputStream in = ArticleExtractorTest.class.getResourceAsStream("/articles/" + name)) {
+            return Jsoup.parse(in, "UTF-8", "https://example.com/" + name);
+        }
+    }
+}
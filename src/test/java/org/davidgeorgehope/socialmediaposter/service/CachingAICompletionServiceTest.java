@@ -0,0 +1,175 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.davidgeorgehope.socialmediaposter.support.FakeElasticsearch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CachingAICompletionServiceTest {
+
+    private static final String CACHE_INDEX = "social-pilot-llm-cache";
+
+    private FakeElasticsearch elasticsearch;
+    private LlmResponseStore store;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        elasticsearch = new FakeElasticsearch();
+        store = new LlmResponseStore(elasticsearch.client(), true, 24, 100);
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        elasticsearch.close();
+    }
+
+    @Test
+    void repeatedPromptIsAnsweredFromMemory() {
+        CountingProvider provider = new CountingProvider("openai", "gpt-4o");
+        CachingAICompletionService service = caching(provider);
+
+        String first = service.generateCompletion("system", "summarize https://example.com/post");
+        String second = service.generateCompletion("system", "summarize https://example.com/post");
+
+        assertThat(second).isEqualTo(first);
+        assertThat(provider.calls).hasValue(1);
+        assertThat(requests("memory_hit")).isEqualTo(1);
+        assertThat(meterRegistry.get("ai.cache.saved").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void keyCoversProviderModelAndBothPrompts() {
+        CountingProvider gpt = new CountingProvider("openai", "gpt-4o");
+        CountingProvider mini = new CountingProvider("openai", "gpt-4o-mini");
+        CachingAICompletionService gptService = caching(gpt);
+        CachingAICompletionService miniService = caching(mini);
+
+        gptService.generateCompletion("system", "prompt");
+        gptService.generateCompletion("other system", "prompt");
+        gptService.generateCompletion("system", "other prompt");
+        miniService.generateCompletion("system", "prompt");
+
+        assertThat(gpt.calls).hasValue(3);
+        assertThat(mini.calls).hasValue(1);
+        assertThat(elasticsearch.sources(CACHE_INDEX)).hasSize(4);
+    }
+
+    @Test
+    void bypassCallsTheProviderAndRefreshesTheEntry() {
+        CountingProvider provider = new CountingProvider("claude", "claude-3-5-sonnet");
+        CachingAICompletionService service = caching(provider);
+
+        service.generateCompletion("system", "prompt");
+        String regenerated = service.generateCompletion("system", "prompt", true);
+
+        assertThat(provider.calls).hasValue(2);
+        assertThat(regenerated).isEqualTo("answer 2");
+        assertThat(service.generateCompletion("system", "prompt")).isEqualTo("answer 2");
+        assertThat(requests("bypass")).isEqualTo(1);
+    }
+
+    @Test
+    void persistentTierServesAnotherInstance() {
+        CountingProvider provider = new CountingProvider("openai", "gpt-4o");
+        caching(provider).generateCompletion("system", "prompt");
+
+        // A restarted node has an empty memory tier but shares the index
+        CachingAICompletionService restarted = caching(provider);
+        String answer = restarted.generateCompletion("system", "prompt");
+
+        assertThat(answer).isEqualTo("answer 1");
+        assertThat(provider.calls).hasValue(1);
+        assertThat(requests("store_hit")).isEqualTo(1);
+    }
+
+    @Test
+    void expiredStoreEntryIsAMiss() {
+        CountingProvider provider = new CountingProvider("openai", "gpt-4o");
+        caching(provider).generateCompletion("system", "prompt");
+        String key = elasticsearch.sources(CACHE_INDEX).keySet().iterator().next();
+        elasticsearch.put(CACHE_INDEX, key, Map.of(
+                "provider", "openai", "model", "gpt-4o", "response", "old answer", "latency_ms", 900,
+                "created_at", Instant.now().minus(Duration.ofDays(2)).toString()));
+
+        assertThat(caching(provider).generateCompletion("system", "prompt")).isEqualTo("answer 2");
+    }
+
+    @Test
+    void storeFailuresFallBackToTheProvider() {
+        elasticsearch.failWhen(request -> true);
+        CountingProvider provider = new CountingProvider("openai", "gpt-4o");
+        CachingAICompletionService service = caching(provider);
+
+        assertThat(service.generateCompletion("system", "prompt")).isEqualTo("answer 1");
+        assertThat(requests("miss")).isEqualTo(1);
+    }
+
+    @Test
+    void streamedCompletionIsCachedWhole() {
+        CountingProvider provider = new CountingProvider("openai", "gpt-4o");
+        CachingAICompletionService service = caching(provider);
+
+        List<String> firstDeltas = new ArrayList<>();
+        service.streamCompletion("system", "prompt", firstDeltas::add);
+        List<String> secondDeltas = new ArrayList<>();
+        service.streamCompletion("system", "prompt", secondDeltas::add);
+
+        assertThat(firstDeltas).containsExactly("answer ", "1");
+        assertThat(secondDeltas).containsExactly("answer 1");
+        assertThat(provider.calls).hasValue(1);
+    }
+
+    private CachingAICompletionService caching(AICompletionService provider) {
+        return new CachingAICompletionService(provider, store, 100, Duration.ofHours(24), meterRegistry);
+    }
+
+    private double requests(String result) {
+        return meterRegistry.get("ai.cache.requests").tag("result", result).counter().count();
+    }
+
+    private static class CountingProvider implements AICompletionService {
+
+        private final String provider;
+        private final String model;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        CountingProvider(String provider, String model) {
+            this.provider = provider;
+            this.model = model;
+        }
+
+        @Override
+        public String generateCompletion(String systemPrompt, String userPrompt) {
+            return "answer " + calls.incrementAndGet();
+        }
+
+        @Override
+        public void streamCompletion(String systemPrompt, String userPrompt, Consumer<String> onDelta) {
+            onDelta.accept("answer ");
+            onDelta.accept(String.valueOf(calls.incrementAndGet()));
+        }
+
+        @Override
+        public String providerName() {
+            return provider;
+        }
+
+        @Override
+        public String modelName() {
+            return model;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.davidgeorgehope.socialmediaposter.model.SocialPilotContent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContentCacheTest {
+
+    private final ContentCache cache = new ContentCache(true, 100, 300, new SimpleMeterRegistry());
+
+    @Test
+    void servesRepeatedReadsFromTheCache() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("a", () -> content("v" + loads.incrementAndGet()));
+        SocialPilotContent second = cache.get("a", () -> content("v" + loads.incrementAndGet()));
+
+        assertThat(second.text()).isEqualTo("v1");
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void loadThatRacedWithAnInvalidationIsNotCached() throws Exception {
+        cache.get("a", () -> {
+            SocialPilotContent stale = content("stale");
+            cache.onContentChanged(new ContentChangedEvent("a"));
+            return stale;
+        });
+
+        assertThat(cache.get("a", () -> content("fresh")).text()).isEqualTo("fresh");
+    }
+
+    @Test
+    void asyncLoadThatRacedWithAFullInvalidationIsNotCached() throws Exception {
+        CompletableFuture<SocialPilotContent> pending = new CompletableFuture<>();
+        CompletableFuture<SocialPilotContent> read = cache.getAsync("a", () -> pending);
+
+        cache.onContentChanged(new ContentChangedEvent(null));
+        pending.complete(content("stale"));
+
+        assertThat(read.get().text()).isEqualTo("stale");
+        assertThat(cache.get("a", () -> content("fresh")).text()).isEqualTo("fresh");
+    }
+
+    // A writer updates the stored version and then invalidates, as ElasticsearchService does, while readers
+    // keep loading. Once everyone is done the cache must not hold anything older than the last write.
+    @Test
+    void neverKeepsAVersionOlderThanTheLastInvalidatedWrite() throws Exception {
+        AtomicReference<String> stored = new AtomicReference<>("0");
+        ExecutorService pool = Executors.newFixedThreadPool(5);
+        try {
+            for (int round = 0; round < 50; round++) {
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> readers = new ArrayList<>();
+                for (int r = 0; r < 4; r++) {
+                    readers.add(pool.submit(() -> {
+                        start.await();
+                        for (int i = 0; i < 500; i++) {
+                            cache.get("a", () -> content(stored.get()));
+                        }
+                        return null;
+                    }));
+                }
+                Future<?> writer = pool.submit(() -> {
+                    start.await();
+                    for (int i = 1; i <= 200; i++) {
+                        stored.set(String.valueOf(i));
+                        cache.onContentChanged(new ContentChangedEvent(i % 10 == 0 ? null : "a"));
+                    }
+                    return null;
+                });
+                start.countDown();
+                writer.get(30, TimeUnit.SECONDS);
+                for (Future<?> reader : readers) {
+                    reader.get(30, TimeUnit.SECONDS);
+                }
+
+                assertThat(cache.get("a", () -> content(stored.get())).text()).isEqualTo("200");
+                stored.set("0");
+                cache.onContentChanged(new ContentChangedEvent("a"));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static SocialPilotContent content(String text) {
+        return SocialPilotContent.of(text, null, null);
+    }
+}
@@ -0,0 +1,133 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.davidgeorgehope.socialmediaposter.model.ContentPage;
+import org.davidgeorgehope.socialmediaposter.model.SocialPilotContent;
+import org.davidgeorgehope.socialmediaposter.support.FakeElasticsearch;
+import org.davidgeorgehope.socialmediaposter.support.TestServices;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContentListingTest {
+
+    private static final String INDEX = "social-pilot-content";
+    private static final int DOCUMENTS = 25;
+
+    @TempDir
+    Path mediaDir;
+
+    private FakeElasticsearch elasticsearch;
+    private ElasticsearchService service;
+
+    @BeforeEach
+    void setUp() {
+        elasticsearch = new FakeElasticsearch();
+        service = TestServices.elasticsearchService(elasticsearch, mediaDir);
+        // Written in the same millisecond and never posted: every sort value but content_id ties
+        for (int i = 0; i < DOCUMENTS; i++) {
+            String id = String.format("doc-%02d", i);
+            elasticsearch.put(INDEX, id, Map.of(
+                    "content_id", id,
+                    "text", "post " + i,
+                    "last_updated", "2024-05-01T10:00:00Z"));
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        elasticsearch.close();
+    }
+
+    @Test
+    void cursorPagingVisitsEveryDocumentOnceDespiteTiedTimestamps() throws Exception {
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        int page = 1;
+        do {
+            ContentPage result = service.listContent(page++, 10, cursor);
+            result.items().forEach(content -> seen.add(content.id()));
+            cursor = result.nextCursor();
+        } while (cursor != null);
+
+        assertThat(seen).hasSize(DOCUMENTS).doesNotHaveDuplicates();
+    }
+
+    @Test
+    void numberedPageIsResolvedWithSearchAfterInsteadOfFrom() throws Exception {
+        ContentPage third = service.listContent(3, 10, null);
+
+        assertThat(third.items()).extracting(SocialPilotContent::id)
+                .containsExactly("doc-20", "doc-21", "doc-22", "doc-23", "doc-24");
+        assertThat(elasticsearch.requests("POST", "/_search"))
+                .allSatisfy(search -> assertThat(search.json().path("from").asInt(0)).isZero());
+
+        // The walk cached the boundary of page 2 on the way
+        elasticsearch.clearRequests();
+        ContentPage second = service.listContent(2, 10, null);
+        assertThat(second.items()).extracting(SocialPilotContent::id).startsWith("doc-10").endsWith("doc-19");
+        assertThat(elasticsearch.requests("POST", "/_search")).hasSize(1);
+    }
+
+    @Test
+    void pagePastTheEndIsEmpty() throws Exception {
+        ContentPage page = service.listContent(9, 10, null);
+
+        assertThat(page.items()).isEmpty();
+        assertThat(page.nextCursor()).isNull();
+    }
+
+    @Test
+    void indexedContentStoresItsIdAsContentId() throws Exception {
+        String id = service.indexContent(SocialPilotContent.of("fresh post", null, null));
+
+        assertThat(elasticsearch.source(INDEX, id).path("content_id").asText()).isEqualTo(id);
+    }
+
+    @Test
+    void documentsWithoutContentIdKeepTheirListingOrderThroughTheBackfill() throws Exception {
+        // Indexed before content_id existed, and updated after the tied documents, so they are listed first
+        for (int i = 0; i < 5; i++) {
+            elasticsearch.put(INDEX, "legacy-" + i, Map.of(
+                    "text", "legacy post " + i,
+                    "last_updated", "2024-05-02T10:00:0" + i + "Z"));
+        }
+        List<String> before = listAll();
+        assertThat(before).hasSize(DOCUMENTS + 5)
+                .startsWith("legacy-4", "legacy-3", "legacy-2", "legacy-1", "legacy-0");
+
+        ElasticsearchService.ContentIdBackfill backfill = service.backfillContentIds();
+
+        assertThat(backfill.backfilled()).isEqualTo(5);
+        assertThat(backfill.failedIds()).isEmpty();
+        assertThat(listAll()).isEqualTo(before);
+        for (int i = 0; i < 5; i++) {
+            assertThat(elasticsearch.source(INDEX, "legacy-" + i).path("content_id").asText()).isEqualTo("legacy-" + i);
+            assertThat(elasticsearch.source(INDEX, "legacy-" + i).path("last_updated").asText())
+                    .isEqualTo("2024-05-02T10:00:0" + i + "Z");
+        }
+        assertThat(elasticsearch.requests("POST", "/_update_by_query")).isEmpty();
+
+        // Only documents still lacking the field are touched, so a second run does nothing
+        assertThat(service.backfillContentIds().backfilled()).isZero();
+    }
+
+    private List<String> listAll() throws Exception {
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        int page = 1;
+        do {
+            ContentPage result = service.listContent(page++, 10, cursor);
+            result.items().forEach(content -> seen.add(content.id()));
+            cursor = result.nextCursor();
+        } while (cursor != null);
+        return seen;
+    }
+}
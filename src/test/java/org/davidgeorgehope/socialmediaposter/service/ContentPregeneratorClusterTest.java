@@ -0,0 +1,160 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import org.davidgeorgehope.socialmediaposter.support.FakeElasticsearch;
+import org.davidgeorgehope.socialmediaposter.support.TestServices;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Several application contexts, each a node with its own SchedulerLease and ContentPregenerator in
+// scheduler.mode=cluster, sharing one FakeElasticsearch. The LLM is stubbed and records which node it ran on.
+class ContentPregeneratorClusterTest {
+
+    private static final long LEASE_MS = 2000;
+    private static final long RENEW_MS = 200;
+    private static final String ACCOUNT = "poster@example.com";
+    // 200 characters, so every generation costs 50 tokens plus the question
+    private static final String POST = "x".repeat(200);
+    private static final long TOKENS_PER_POST = 50 + PromptBudget.estimateTokens(PostSchedulerService.GENERATION_PROMPT);
+
+    @TempDir
+    Path mediaDir;
+
+    private FakeElasticsearch elasticsearch;
+    private final List<Node> nodes = new ArrayList<>();
+    private final List<String> generatedOn = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        elasticsearch = new FakeElasticsearch();
+    }
+
+    @AfterEach
+    void tearDown() {
+        nodes.forEach(node -> node.context().close());
+        elasticsearch.close();
+    }
+
+    @Test
+    void onlyTheLeaseHolderPregenerates() throws Exception {
+        startNodes(3, 100_000);
+        Node leader = awaitSingleLeader();
+
+        nodes.forEach(node -> node.pregenerator().refill());
+        await(() -> countPregenerated() == 2);
+        Thread.sleep(300);
+
+        assertThat(generatedOn).containsExactly(leader.id(), leader.id());
+        assertThat(countPregenerated()).isEqualTo(2);
+    }
+
+    @Test
+    void dailyBudgetIsSharedAcrossALeaderChange() throws Exception {
+        // Room for two posts: the second one starts below the cap and ends above it
+        startNodes(2, TOKENS_PER_POST + 1);
+        Node first = awaitSingleLeader();
+        first.pregenerator().refill();
+        await(() -> countPregenerated() == 2);
+
+        first.context().close();
+        nodes.remove(first);
+        Node second = awaitSingleLeader();
+        // The buffer is used up, so the new leader would refill it if it had a budget of its own
+        ElasticsearchService elasticsearchService = second.context().getBean(ElasticsearchService.class);
+        elasticsearchService.claimPregenerated(ACCOUNT);
+        elasticsearchService.claimPregenerated(ACCOUNT);
+        second.pregenerator().refill();
+        Thread.sleep(300);
+
+        assertThat(generatedOn).containsExactly(first.id(), first.id());
+        assertThat(elasticsearch.source(SchedulerLease.SCHEDULER_INDEX,
+                ContentPregenerator.budgetId(LocalDate.now(ZoneOffset.UTC))).path("tokens_used").asLong())
+                .isEqualTo(2 * TOKENS_PER_POST);
+    }
+
+    private void startNodes(int count, long maxTokensPerDay) throws Exception {
+        for (int i = 1; i <= count; i++) {
+            nodes.add(startNode("node-" + i, maxTokensPerDay));
+        }
+    }
+
+    private Node startNode(String id, long maxTokensPerDay) throws Exception {
+        ElasticsearchOpenAIService openAIService = mock(ElasticsearchOpenAIService.class);
+        when(openAIService.createOpenAIPrompt(anyString())).thenReturn("");
+        when(openAIService.processQuestion(anyString(), anyBoolean())).thenAnswer(invocation -> {
+            generatedOn.add(id);
+            return POST;
+        });
+
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("node", Map.of(
+                "scheduler.mode", "cluster",
+                "scheduler.node-id", id,
+                "scheduler.lease.duration-ms", String.valueOf(LEASE_MS),
+                "scheduler.lease.renew-interval-ms", String.valueOf(RENEW_MS),
+                "linkedin.user-email", ACCOUNT,
+                "content.pregen.zone", "UTC",
+                "content.pregen.max-tokens-per-day", String.valueOf(maxTokensPerDay))));
+        context.registerBean(ElasticsearchClient.class, elasticsearch::client);
+        context.registerBean(ElasticsearchService.class, () -> TestServices.elasticsearchService(elasticsearch, mediaDir));
+        context.registerBean(ElasticsearchOpenAIService.class, () -> openAIService);
+        context.registerBean(AccountScheduleStore.class, () -> mock(AccountScheduleStore.class));
+        context.register(SchedulerLease.class, ContentPregenerator.class);
+        context.refresh();
+        return new Node(id, context);
+    }
+
+    private long countPregenerated() {
+        try {
+            return nodes.get(0).context().getBean(ElasticsearchService.class).countPregenerated(ACCOUNT);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Node awaitSingleLeader() throws InterruptedException {
+        await(() -> nodes.stream().filter(node -> node.lease().isLeader()).count() == 1);
+        Thread.sleep(RENEW_MS * 3);
+        List<Node> leaders = nodes.stream().filter(node -> node.lease().isLeader()).toList();
+        assertThat(leaders).hasSize(1);
+        return leaders.get(0);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long timeoutMs = LEASE_MS + RENEW_MS + 2000;
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime() - deadline).as("condition not met within %d ms", timeoutMs).isNegative();
+            Thread.sleep(20);
+        }
+    }
+
+    private record Node(String id, AnnotationConfigApplicationContext context) {
+        SchedulerLease lease() {
+            return context.getBean(SchedulerLease.class);
+        }
+
+        ContentPregenerator pregenerator() {
+            return context.getBean(ContentPregenerator.class);
+        }
+    }
+}
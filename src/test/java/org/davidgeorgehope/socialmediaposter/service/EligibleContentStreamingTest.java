@@ -0,0 +1,108 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.davidgeorgehope.socialmediaposter.model.SocialPilotContent;
+import org.davidgeorgehope.socialmediaposter.support.FakeElasticsearch;
+import org.davidgeorgehope.socialmediaposter.support.TestServices;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EligibleContentStreamingTest {
+
+    private static final String INDEX = "social-pilot-content";
+
+    @TempDir
+    Path mediaDir;
+
+    private FakeElasticsearch elasticsearch;
+    private ElasticsearchService service;
+
+    @BeforeEach
+    void setUp() {
+        elasticsearch = new FakeElasticsearch();
+        service = TestServices.elasticsearchService(elasticsearch, mediaDir);
+        ReflectionTestUtils.setField(service, "schedulingPageSize", 3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        elasticsearch.close();
+    }
+
+    @Test
+    void streamsEveryEligibleDocumentAcrossPages() throws Exception {
+        Instant now = Instant.now();
+        List<String> eligible = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            String id = "never-" + i;
+            elasticsearch.put(INDEX, id, document("never posted " + i, null, null));
+            eligible.add(id);
+        }
+        for (int i = 0; i < 4; i++) {
+            String id = "old-" + i;
+            elasticsearch.put(INDEX, id, document("posted long ago " + i, now.minus(Duration.ofDays(40 + i)), null));
+            eligible.add(id);
+        }
+        elasticsearch.put(INDEX, "recent", document("posted last week", now.minus(Duration.ofDays(5)), null));
+        elasticsearch.put(INDEX, "draft", document("a draft", null, SocialPilotContent.STATUS_DRAFT));
+        elasticsearch.put(INDEX, "pregenerated", document("buffered", null, SocialPilotContent.STATUS_PREGENERATED));
+
+        List<String> streamed = new ArrayList<>();
+        long count = service.streamEligibleContent(Duration.ofDays(30), content -> streamed.add(content.id()));
+
+        assertThat(count).isEqualTo(eligible.size());
+        assertThat(streamed).containsExactlyInAnyOrderElementsOf(eligible);
+    }
+
+    @Test
+    void filtersInElasticsearchAndFetchesOnlyLightweightFields() throws Exception {
+        for (int i = 0; i < 7; i++) {
+            elasticsearch.put(INDEX, "doc-" + i, document("text " + i, null, null));
+        }
+
+        service.streamEligibleContent(Duration.ofDays(30), content -> assertThat(content.text()).isNull());
+
+        assertThat(elasticsearch.requests("POST", "/_pit")).hasSize(1);
+        assertThat(elasticsearch.requests("DELETE", "/_pit")).hasSize(1);
+        List<FakeElasticsearch.Request> searches = elasticsearch.requests("POST", "/_search");
+        // 7 documents in pages of 3: two full pages and a partial one
+        assertThat(searches).hasSize(3);
+        for (FakeElasticsearch.Request search : searches) {
+            JsonNode body = search.json();
+            assertThat(body.path("pit").path("id").asText()).isNotEmpty();
+            assertThat(body.path("query").path("bool").path("should")).hasSize(2);
+            assertThat(body.path("track_total_hits").asBoolean(true)).isFalse();
+            List<String> includes = new ArrayList<>();
+            body.path("_source").path("includes").forEach(field -> includes.add(field.asText()));
+            assertThat(includes).doesNotContain("text").contains("last_posted_date");
+        }
+        assertThat(searches.get(0).json().has("search_after")).isFalse();
+        assertThat(searches.get(1).json().has("search_after")).isTrue();
+    }
+
+    private static Map<String, Object> document(String text, Instant lastPostedDate, String status) {
+        Map<String, Object> source = new HashMap<>();
+        source.put("text", Map.of("text", text, "inference", Map.of("chunks", List.of(Map.of("text", text)))));
+        source.put("last_updated", Instant.now().toString());
+        if (lastPostedDate != null) {
+            source.put("last_posted_date", lastPostedDate.toString());
+        }
+        if (status != null) {
+            source.put("status", status);
+        }
+        return source;
+    }
+}
@@ -0,0 +1,127 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.davidgeorgehope.socialmediaposter.support.FakeElasticsearch;
+import org.davidgeorgehope.socialmediaposter.support.FakeLinkedIn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Reposting the same media through LinkedInService, with the asset cache on FakeElasticsearch
+class LinkedInAssetCacheTest {
+
+    private static final String ASSET_INDEX = "social-pilot-linkedin-assets";
+    private static final String EMAIL = "author@example.com";
+    private static final String HASH = "ab".repeat(32);
+
+    @TempDir
+    Path dir;
+
+    private FakeElasticsearch elasticsearch;
+    private FakeLinkedIn linkedIn;
+    private CloseableHttpClient httpClient;
+    private LinkedInService service;
+    private Path image;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        elasticsearch = new FakeElasticsearch();
+        linkedIn = new FakeLinkedIn();
+        httpClient = HttpClients.createDefault();
+        image = Files.write(dir.resolve(HASH + ".jpg"), new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 0, 1, 2, 3});
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        LinkedInTokenStore tokenStore = new LinkedInTokenStore(elasticsearch.client(), meterRegistry,
+                Files.createDirectory(dir.resolve("tokens")).toString(), "", 300_000);
+        tokenStore.store(EMAIL, new LinkedInTokenStore.Token("access", "member-1",
+                System.currentTimeMillis() + 3_600_000, null, 0));
+        service = new LinkedInService(new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient)),
+                new LinkedInAssetCache(elasticsearch.client(), true, 90), new MediaStore(dir + "/"), tokenStore,
+                new SchedulerLease(elasticsearch.client(), "local", "", 30_000, 10_000), meterRegistry,
+                "client-id", "client-secret");
+        ReflectionTestUtils.setField(service, "apiBaseUrl", linkedIn.baseUrl());
+        ReflectionTestUtils.setField(service, "oauthBaseUrl", linkedIn.baseUrl());
+        ReflectionTestUtils.setField(service, "uploadMaxAttempts", 1);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        httpClient.close();
+        linkedIn.close();
+        elasticsearch.close();
+    }
+
+    @Test
+    void repostReusesTheAssetWithoutRegisteringOrUploading() {
+        service.postToLinkedIn("first", EMAIL, image.toString(), "image");
+        elasticsearch.clearRequests();
+
+        service.postToLinkedIn("again", EMAIL, image.toString(), "image");
+
+        assertThat(linkedIn.requests("POST /v2/assets")).isEqualTo(1);
+        assertThat(linkedIn.uploads()).hasSize(1);
+        assertThat(linkedIn.posts()).extracting(LinkedInAssetCacheTest::assetOf)
+                .containsExactly("urn:li:digitalmediaAsset:1", "urn:li:digitalmediaAsset:1");
+        // A hit only reads the entry
+        assertThat(elasticsearch.requests()).extracting(FakeElasticsearch.Request::method).containsOnly("GET");
+    }
+
+    @Test
+    void rejectedAssetIsUploadedAgainAndReplacedInTheCache() {
+        service.postToLinkedIn("first", EMAIL, image.toString(), "image");
+        linkedIn.rejectPosts(post -> "urn:li:digitalmediaAsset:1".equals(assetOf(post)));
+
+        String postUrn = service.postToLinkedIn("again", EMAIL, image.toString(), "image");
+
+        assertThat(postUrn).isNotNull();
+        assertThat(linkedIn.requests("POST /v2/assets")).isEqualTo(2);
+        assertThat(linkedIn.posts()).extracting(LinkedInAssetCacheTest::assetOf).last()
+                .isEqualTo("urn:li:digitalmediaAsset:2");
+        assertThat(elasticsearch.source(ASSET_INDEX, HASH + "_member-1").path("asset_urn").asText())
+                .isEqualTo("urn:li:digitalmediaAsset:2");
+    }
+
+    @Test
+    void entryOlderThanTheValidityIsUploadedAgain() {
+        elasticsearch.put(ASSET_INDEX, HASH + "_member-1", Map.of(
+                "asset_urn", "urn:li:digitalmediaAsset:old", "member_id", "member-1", "media_hash", HASH,
+                "media_type", "image", "uploaded_at", Instant.now().minus(Duration.ofDays(91)).toString()));
+
+        service.postToLinkedIn("post", EMAIL, image.toString(), "image");
+
+        assertThat(linkedIn.requests("POST /v2/assets")).isEqualTo(1);
+        assertThat(linkedIn.posts()).extracting(LinkedInAssetCacheTest::assetOf)
+                .containsExactly("urn:li:digitalmediaAsset:1");
+    }
+
+    @Test
+    void cacheOutageFallsBackToAnUpload() {
+        elasticsearch.failWhen(request -> true);
+
+        service.postToLinkedIn("first", EMAIL, image.toString(), "image");
+        service.postToLinkedIn("again", EMAIL, image.toString(), "image");
+
+        assertThat(linkedIn.requests("POST /v2/assets")).isEqualTo(2);
+        assertThat(linkedIn.posts()).hasSize(2);
+    }
+
+    private static String assetOf(JsonNode post) {
+        return post.path("specificContent").path("com.linkedin.ugc.ShareContent").path("media").path(0)
+                .path("media").asText(null);
+    }
+}
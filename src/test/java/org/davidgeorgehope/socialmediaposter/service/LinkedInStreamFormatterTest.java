@@ -0,0 +1,144 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+// Every text is streamed split in two at every offset, and in three at every pair of offsets, through the
+// formatter the assistant stream uses; the concatenated output must equal formatting the whole text at once
+class LinkedInStreamFormatterTest {
+
+    private final UnaryOperator<String> linkedIn = new ElasticsearchOpenAIService(mock(AICompletionService.class),
+            mock(PageFetchCache.class), mock(ArticleExtractor.class), mock(PromptBudget.class),
+            mock(ContextRetriever.class))::formatForLinkedIn;
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "**Burn-rate alerts** page you before the error budget is gone.",
+            "Three wins:\n* fewer tools\n* less toil\n* **faster** triage",
+            "A trailing star *",
+            "Ends on a bold marker **",
+            "Stars ***everywhere*** and * bullets",
+            "Read [the SRE book](https://sre.google/books) and [the blog](http://example.com/a_b).",
+            "An unclosed [link](https://example.com/never-closed",
+            "Brackets [that are not] links (at all) and [one](ftp://not-http)",
+            "Nested [see [1]](https://example.com) and [a [b](https://example.com/x)",
+            "A paren first [a)](https://example.com) then [c](https://example.com/x[y)",
+            "_italic_ and **[bold link](https://example.com)** together",
+            "Underscored bullets *_ one *__ two",
+            "Markup inside the syntax [a]_(https://example.com) and [b]**(https://example.com/b)"
+    })
+    void everySplitFormatsLikeTheWholeText(String text) {
+        String whole = linkedIn.apply(text);
+
+        for (int i = 0; i <= text.length(); i++) {
+            assertThat(stream(text.substring(0, i), text.substring(i)))
+                    .as("split at %d", i).isEqualTo(whole);
+            for (int j = i; j <= text.length(); j++) {
+                assertThat(stream(text.substring(0, i), text.substring(i, j), text.substring(j)))
+                        .as("split at %d and %d", i, j).isEqualTo(whole);
+            }
+        }
+    }
+
+    @Test
+    void randomMarkupInRandomDeltasFormatsLikeTheWholeText() {
+        // Mostly the characters the formatter cares about, so most texts are near-misses of some construct
+        String[] alphabet = {"*", "*", "_", " ", "[", "]", "(", ")", "a", "\n", "https://", "http://x", ")"};
+        Random random = new Random(42);
+        for (int n = 0; n < 20_000; n++) {
+            StringBuilder text = new StringBuilder();
+            for (int k = random.nextInt(30); k > 0; k--) {
+                text.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+            List<String> deltas = new ArrayList<>();
+            for (int start = 0; start < text.length(); ) {
+                int end = Math.min(text.length(), start + 1 + random.nextInt(4));
+                deltas.add(text.substring(start, end));
+                start = end;
+            }
+
+            assertThat(stream(deltas.toArray(String[]::new))).as("deltas %s", deltas)
+                    .isEqualTo(linkedIn.apply(text.toString()));
+        }
+    }
+
+    @Test
+    void characterByCharacterFormatsLikeTheWholeText() {
+        String text = "**Tip:** read [the runbook](https://example.com/runbook) *before* the page.\n* step one\n* step two";
+        String[] deltas = text.split("");
+
+        assertThat(stream(deltas)).isEqualTo(linkedIn.apply(text));
+    }
+
+    @Test
+    void trailingStarIsHeldUntilTheNextDeltaDecidesIt() {
+        List<String> out = new ArrayList<>();
+        LinkedInStreamFormatter formatter = new LinkedInStreamFormatter(linkedIn, out::add);
+
+        formatter.accept("Use *");
+        assertThat(out).containsExactly("Use ");
+        formatter.accept("*bold** now");
+        assertThat(String.join("", out)).isEqualTo("Use bold now");
+    }
+
+    @Test
+    void unclosedLinkIsHeldUntilItCloses() {
+        List<String> out = new ArrayList<>();
+        LinkedInStreamFormatter formatter = new LinkedInStreamFormatter(linkedIn, out::add);
+
+        formatter.accept("See [the docs](https://exa");
+        assertThat(out).containsExactly("See ");
+        formatter.accept("mple.com) today");
+        assertThat(String.join("", out)).isEqualTo("See https://example.com today");
+    }
+
+    @Test
+    void heldLinkIsReleasedOnceItGrowsPastTheLimit() {
+        List<String> out = new ArrayList<>();
+        LinkedInStreamFormatter formatter = new LinkedInStreamFormatter(linkedIn, out::add);
+        String unclosed = "[" + "x".repeat(600);
+
+        formatter.accept("Start ");
+        for (int i = 0; i < unclosed.length(); i += 50) {
+            formatter.accept(unclosed.substring(i, Math.min(i + 50, unclosed.length())));
+        }
+
+        // Released before the stream ended, and still what formatting the whole text gives
+        assertThat(String.join("", out)).startsWith("Start [").hasSizeGreaterThan(100);
+        formatter.finish();
+        assertThat(String.join("", out)).isEqualTo(linkedIn.apply("Start " + unclosed));
+    }
+
+    @Test
+    void finishFlushesWhatIsStillHeld() {
+        List<String> out = new ArrayList<>();
+        LinkedInStreamFormatter formatter = new LinkedInStreamFormatter(linkedIn, out::add);
+
+        formatter.accept("Almost [a link](https://example.com *");
+        assertThat(out).containsExactly("Almost ");
+        formatter.finish();
+        assertThat(String.join("", out)).isEqualTo("Almost [a link](https://example.com *");
+
+        formatter.finish();
+        assertThat(out).hasSize(2);
+    }
+
+    private String stream(String... deltas) {
+        StringBuilder out = new StringBuilder();
+        LinkedInStreamFormatter formatter = new LinkedInStreamFormatter(linkedIn, out::append);
+        for (String delta : deltas) {
+            formatter.accept(delta);
+        }
+        formatter.finish();
+        return out.toString();
+    }
+}
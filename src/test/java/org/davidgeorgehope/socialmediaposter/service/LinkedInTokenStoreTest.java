@@ -0,0 +1,143 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.davidgeorgehope.socialmediaposter.support.FakeElasticsearch;
+import org.davidgeorgehope.socialmediaposter.support.FakeLinkedIn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Token stores on two "nodes" sharing one FakeElasticsearch: tokens stored or refreshed on one node reach the
+// other, are encrypted at rest when a key is set, and are refreshed by the lease holder only
+class LinkedInTokenStoreTest {
+
+    private static final String EMAIL = "author@example.com";
+    private static final String KEY = Base64.getEncoder().encodeToString(new byte[32]);
+
+    @TempDir
+    Path dir;
+
+    private FakeElasticsearch elasticsearch;
+
+    @BeforeEach
+    void setUp() {
+        elasticsearch = new FakeElasticsearch();
+    }
+
+    @AfterEach
+    void tearDown() {
+        elasticsearch.close();
+    }
+
+    @Test
+    void tokenStoredOnOneNodeIsSeenByAnotherAndRefreshesReachItsCache() throws Exception {
+        LinkedInTokenStore first = store("", 100);
+        LinkedInTokenStore second = store("", 100);
+        assertThat(second.get(EMAIL)).isEmpty();
+
+        first.store(EMAIL, token("access-1"));
+        // Nothing cached for the email, so the lookup goes to the index
+        assertThat(second.get(EMAIL)).map(LinkedInTokenStore.Token::accessToken).contains("access-1");
+
+        first.store(EMAIL, token("access-2"));
+        assertThat(second.get(EMAIL)).map(LinkedInTokenStore.Token::accessToken).contains("access-1");
+        Thread.sleep(150);
+        assertThat(second.get(EMAIL)).map(LinkedInTokenStore.Token::accessToken).contains("access-2");
+    }
+
+    @Test
+    void tokensAreEncryptedAtRestWhenAKeyIsSet() throws IOException {
+        store(KEY, 300_000).store(EMAIL, new LinkedInTokenStore.Token("secret-access", "member-1",
+                System.currentTimeMillis() + 3_600_000, "secret-refresh", 0));
+
+        ObjectNode source = elasticsearch.source(LinkedInTokenStore.TOKEN_INDEX, EMAIL);
+        assertThat(source.path("access_token").asText()).startsWith("v1:").doesNotContain("secret");
+        assertThat(source.path("refresh_token").asText()).startsWith("v1:").doesNotContain("secret");
+        assertThat(source.path("member_id").asText()).isEqualTo("member-1");
+
+        assertThat(store(KEY, 300_000).get(EMAIL)).hasValueSatisfying(token -> {
+            assertThat(token.accessToken()).isEqualTo("secret-access");
+            assertThat(token.refreshToken()).isEqualTo("secret-refresh");
+        });
+        // Without the key the token cannot be read, and is treated as missing
+        assertThat(store("", 300_000).get(EMAIL)).isEmpty();
+    }
+
+    @Test
+    void legacyTokenFileIsImportedIntoTheIndexAndDeleted() throws IOException {
+        Path file = Files.writeString(dir.resolve(EMAIL + "_linkedin_data.txt"),
+                "file-access,member-1," + (System.currentTimeMillis() + 3_600_000) + ",file-refresh,0");
+
+        LinkedInTokenStore imported = store(KEY, 300_000);
+
+        assertThat(file).doesNotExist();
+        assertThat(elasticsearch.source(LinkedInTokenStore.TOKEN_INDEX, EMAIL).path("access_token").asText())
+                .startsWith("v1:");
+        assertThat(imported.get(EMAIL)).map(LinkedInTokenStore.Token::refreshToken).contains("file-refresh");
+    }
+
+    @Test
+    void onlyTheLeaseHolderRefreshesExpiringTokens() throws Exception {
+        try (FakeLinkedIn linkedIn = new FakeLinkedIn(); CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            LinkedInTokenStore leaderStore = store("", 100);
+            LinkedInTokenStore followerStore = store("", 100);
+            leaderStore.store(EMAIL, new LinkedInTokenStore.Token("old-access", "member-1",
+                    System.currentTimeMillis() + 3_600_000, "old-refresh", 0));
+            LinkedInService leader = service(leaderStore, lease(true), linkedIn, httpClient);
+            LinkedInService follower = service(followerStore, lease(false), linkedIn, httpClient);
+
+            follower.refreshExpiringTokens();
+            leader.refreshExpiringTokens();
+            follower.refreshExpiringTokens();
+
+            assertThat(linkedIn.requests("POST /oauth/v2/accessToken")).isEqualTo(1);
+            Thread.sleep(150);
+            assertThat(followerStore.get(EMAIL)).hasValueSatisfying(token -> {
+                assertThat(token.accessToken()).isEqualTo("access-1");
+                assertThat(token.refreshToken()).isEqualTo("refresh-1");
+            });
+        }
+    }
+
+    private LinkedInTokenStore store(String key, long cacheTtlMs) {
+        return new LinkedInTokenStore(elasticsearch.client(), new SimpleMeterRegistry(), dir.toString(), key, cacheTtlMs);
+    }
+
+    private static LinkedInTokenStore.Token token(String accessToken) {
+        return new LinkedInTokenStore.Token(accessToken, "member-1", System.currentTimeMillis() + 3_600_000, null, 0);
+    }
+
+    private static SchedulerLease lease(boolean leader) {
+        SchedulerLease lease = mock(SchedulerLease.class);
+        when(lease.isClusterMode()).thenReturn(true);
+        when(lease.isLeader()).thenReturn(leader);
+        return lease;
+    }
+
+    private LinkedInService service(LinkedInTokenStore tokenStore, SchedulerLease lease, FakeLinkedIn linkedIn,
+                                    CloseableHttpClient httpClient) {
+        LinkedInService service = new LinkedInService(new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient)),
+                new LinkedInAssetCache(null, false, 90), new MediaStore(dir + "/"), tokenStore, lease,
+                new SimpleMeterRegistry(), "client-id", "client-secret");
+        ReflectionTestUtils.setField(service, "apiBaseUrl", linkedIn.baseUrl());
+        ReflectionTestUtils.setField(service, "oauthBaseUrl", linkedIn.baseUrl());
+        ReflectionTestUtils.setField(service, "refreshAheadSeconds", 86_400L);
+        return service;
+    }
+}
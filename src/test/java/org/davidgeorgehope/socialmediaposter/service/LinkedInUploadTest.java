@@ -0,0 +1,152 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.davidgeorgehope.socialmediaposter.support.FakeElasticsearch;
+import org.davidgeorgehope.socialmediaposter.support.FakeLinkedIn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// A 1 GB video through the production RestTemplate setup (HttpClient 5) against a stub LinkedIn. Surefire runs
+// the tests with -Xmx256m, so an upload that buffered the file, or a whole part, would fail with an
+// OutOfMemoryError instead of passing.
+class LinkedInUploadTest {
+
+    private static final long SIZE = 1024L * 1024 * 1024;
+    private static final long PART_SIZE = 64L * 1024 * 1024;
+    private static final String EMAIL = "author@example.com";
+
+    @TempDir
+    static Path mediaDir;
+    private static Path video;
+
+    private FakeElasticsearch elasticsearch;
+    private FakeLinkedIn linkedIn;
+    private CloseableHttpClient httpClient;
+    private LinkedInService service;
+
+    @BeforeEach
+    void setUp(@TempDir Path tokenDir) throws IOException {
+        if (video == null) {
+            video = sparseVideo(mediaDir.resolve("0".repeat(64) + ".mp4"));
+        }
+        elasticsearch = new FakeElasticsearch();
+        linkedIn = new FakeLinkedIn();
+        linkedIn.partSize(PART_SIZE);
+        httpClient = HttpClients.createDefault();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        LinkedInTokenStore tokenStore = new LinkedInTokenStore(elasticsearch.client(), meterRegistry,
+                tokenDir.toString(), "", 300_000);
+        tokenStore.store(EMAIL, new LinkedInTokenStore.Token("access", "member-1",
+                System.currentTimeMillis() + 3_600_000, null, 0));
+        service = new LinkedInService(new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient)),
+                new LinkedInAssetCache(null, false, 90), new MediaStore(mediaDir + "/"), tokenStore,
+                new SchedulerLease(elasticsearch.client(), "local", "", 30_000, 10_000), meterRegistry,
+                "client-id", "client-secret");
+        ReflectionTestUtils.setField(service, "apiBaseUrl", linkedIn.baseUrl());
+        ReflectionTestUtils.setField(service, "oauthBaseUrl", linkedIn.baseUrl());
+        ReflectionTestUtils.setField(service, "multipartThresholdBytes", 100L * 1024 * 1024);
+        ReflectionTestUtils.setField(service, "uploadMaxAttempts", 3);
+        ReflectionTestUtils.setField(service, "uploadRetryBackoffMs", 0L);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        httpClient.close();
+        linkedIn.close();
+        elasticsearch.close();
+    }
+
+    @Test
+    void heapIsSmallerThanTheUpload() {
+        assertThat(Runtime.getRuntime().maxMemory()).isLessThan(SIZE / 2);
+    }
+
+    @Test
+    void largeVideoIsUploadedInPartsWithAFailedPartRetried() throws IOException {
+        linkedIn.failUploads(1);
+
+        String postUrn = service.postToLinkedIn("launch video", EMAIL, video.toString(), "video");
+
+        assertThat(postUrn).startsWith("urn:li:share:");
+        List<FakeLinkedIn.Upload> uploads = new ArrayList<>(linkedIn.uploads());
+        uploads.sort(Comparator.comparingInt(FakeLinkedIn.Upload::part));
+        assertThat(uploads).hasSize((int) (SIZE / PART_SIZE));
+        assertThat(uploads).extracting(FakeLinkedIn.Upload::crc32).containsExactlyElementsOf(checksums(PART_SIZE));
+        // The failed first part was sent again, and only that part
+        assertThat(linkedIn.requests("PUT /upload/")).isEqualTo(SIZE / PART_SIZE + 1);
+        assertThat(linkedIn.requests("POST /v2/assets?action=completeMultiPartUpload")).isEqualTo(1);
+        assertThat(linkedIn.posts()).hasSize(1);
+    }
+
+    @Test
+    void videoBelowTheThresholdIsStreamedInOneRequest() throws IOException {
+        ReflectionTestUtils.setField(service, "multipartThresholdBytes", 2 * SIZE);
+
+        service.postToLinkedIn("launch video", EMAIL, video.toString(), "video");
+
+        assertThat(linkedIn.uploads()).singleElement().satisfies(upload -> {
+            assertThat(upload.bytes()).isEqualTo(SIZE);
+            assertThat(upload.crc32()).isEqualTo(checksums(SIZE).get(0));
+        });
+        assertThat(linkedIn.requests("POST /v2/assets?action=completeMultiPartUpload")).isZero();
+    }
+
+    // Mostly holes, with random blocks spread through the file so a misplaced byte range changes a checksum
+    private static Path sparseVideo(Path path) throws IOException {
+        Random random = new Random(42);
+        byte[] block = new byte[4096];
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(SIZE);
+            for (long offset = 0; offset < SIZE; offset += 16L * 1024 * 1024) {
+                random.nextBytes(block);
+                file.seek(offset + random.nextInt(1024 * 1024));
+                file.write(block);
+            }
+        }
+        return path;
+    }
+
+    private static List<Long> checksums(long chunkSize) throws IOException {
+        List<Long> checksums = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+        try (FileChannel channel = FileChannel.open(video, StandardOpenOption.READ)) {
+            CRC32 crc = new CRC32();
+            long inChunk = 0;
+            while (channel.read(buffer.clear()) > 0) {
+                buffer.flip();
+                crc.update(buffer);
+                inChunk += buffer.limit();
+                if (inChunk == chunkSize) {
+                    checksums.add(crc.getValue());
+                    crc.reset();
+                    inChunk = 0;
+                }
+            }
+            if (inChunk > 0) {
+                checksums.add(crc.getValue());
+            }
+        }
+        return checksums;
+    }
+}
@@ -0,0 +1,96 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.davidgeorgehope.socialmediaposter.support.FakeElasticsearch;
+import org.davidgeorgehope.socialmediaposter.support.TestServices;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MediaCompactionRunnerTest {
+
+    private static final String CONTENT_INDEX = "social-pilot-content";
+
+    @TempDir
+    Path mediaDir;
+
+    private FakeElasticsearch elasticsearch;
+    private MediaCompactionRunner runner;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        elasticsearch = new FakeElasticsearch();
+        legacy("1111_a.jpg", "image a");
+        legacy("2222_b.jpg", "image b");
+        legacy("3333_c.jpg", "image c");
+        elasticsearch.put(CONTENT_INDEX, "doc-1", Map.of("text", "one", "mediaUrl", mediaDir + "/1111_a.jpg"));
+        elasticsearch.put(CONTENT_INDEX, "doc-2", Map.of("text", "two", "mediaUrl", mediaDir + "/2222_b.jpg"));
+        elasticsearch.put(CONTENT_INDEX, "doc-3", Map.of("text", "three", "mediaUrl", mediaDir + "/2222_b.jpg"));
+        elasticsearch.put(CONTENT_INDEX, "doc-4", Map.of("text", "four", "mediaUrl", mediaDir + "/3333_c.jpg"));
+
+        ElasticsearchService elasticsearchService = TestServices.elasticsearchService(elasticsearch, mediaDir);
+        runner = new MediaCompactionRunner(new MediaStore(mediaDir + "/"), elasticsearchService, null);
+        ReflectionTestUtils.setField(runner, "mediaUploadDir", mediaDir + "/");
+        ReflectionTestUtils.setField(runner, "parallelism", 2);
+        ReflectionTestUtils.setField(runner, "exitWhenDone", false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        elasticsearch.close();
+    }
+
+    @Test
+    void rewritesEveryDocumentAndDeletesTheLegacyFiles() throws Exception {
+        runner.run(null);
+
+        assertThat(legacyFiles()).isZero();
+        for (String id : new String[]{"doc-1", "doc-2", "doc-3", "doc-4"}) {
+            assertThat(Files.exists(Path.of(mediaUrl(id)))).as(id).isTrue();
+        }
+    }
+
+    @Test
+    void keepsTheLegacyFileOfADocumentWhoseUpdateFailed() throws Exception {
+        elasticsearch.failBulkItems("doc-3"::equals);
+
+        runner.run(null);
+
+        // doc-2 was repointed, but doc-3 still needs 2222_b.jpg
+        assertThat(mediaUrl("doc-3")).endsWith("/2222_b.jpg");
+        assertThat(mediaDir.resolve("2222_b.jpg")).exists();
+        assertThat(mediaDir.resolve("1111_a.jpg")).doesNotExist();
+        assertThat(mediaDir.resolve("3333_c.jpg")).doesNotExist();
+        assertThat(Files.exists(Path.of(mediaUrl("doc-2")))).isTrue();
+
+        // A second run picks up what the first one left behind
+        elasticsearch.failBulkItems(id -> false);
+        runner.run(null);
+
+        assertThat(legacyFiles()).isZero();
+        assertThat(mediaUrl("doc-3")).isEqualTo(mediaUrl("doc-2"));
+    }
+
+    private void legacy(String name, String content) throws IOException {
+        Files.writeString(mediaDir.resolve(name), content, StandardCharsets.UTF_8);
+    }
+
+    private String mediaUrl(String id) {
+        return elasticsearch.source(CONTENT_INDEX, id).path("mediaUrl").asText();
+    }
+
+    private long legacyFiles() throws IOException {
+        try (var files = Files.list(mediaDir)) {
+            return files.filter(file -> file.getFileName().toString().contains("_")).count();
+        }
+    }
+}
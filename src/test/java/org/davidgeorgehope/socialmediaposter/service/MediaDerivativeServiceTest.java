@@ -0,0 +1,106 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.davidgeorgehope.socialmediaposter.model.MediaDerivatives;
+import org.davidgeorgehope.socialmediaposter.model.StoredMedia;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MediaDerivativeServiceTest {
+
+    @TempDir
+    Path mediaDir;
+
+    private final CompletableFuture<MediaDerivativesReadyEvent> ready = new CompletableFuture<>();
+    private MediaDerivativeService service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void subsamplesByTheLongestSide() {
+        assertThat(MediaDerivativeService.subsampling(1000, 100_000, 1200)).isEqualTo(83);
+        assertThat(MediaDerivativeService.subsampling(100_000, 1000, 1200)).isEqualTo(83);
+        assertThat(MediaDerivativeService.subsampling(800, 600, 1200)).isEqualTo(1);
+    }
+
+    @Test
+    void tallNarrowImageGetsDerivativesWithinTheLinkedInSize() throws Exception {
+        BufferedImage tall = new BufferedImage(100, 30_000, BufferedImage.TYPE_BYTE_GRAY);
+        Path source = mediaDir.resolve("tall.png");
+        ImageIO.write(tall, "png", source.toFile());
+
+        MediaDerivatives derivatives = generate(source, 1_000_000_000);
+
+        assertThat(derivatives.width()).isEqualTo(100);
+        assertThat(derivatives.height()).isEqualTo(30_000);
+        BufferedImage optimized = ImageIO.read(Path.of(derivatives.optimizedUrl()).toFile());
+        assertThat(Math.max(optimized.getWidth(), optimized.getHeight())).isLessThanOrEqualTo(1200);
+    }
+
+    // The header claims 50000x50000; the reader is never asked for pixels, so the missing data is not noticed
+    @Test
+    void imageOverThePixelCapIsNotDecoded() throws Exception {
+        Path source = Files.write(mediaDir.resolve("huge.png"), pngHeader(50_000, 50_000));
+
+        MediaDerivatives derivatives = generate(source, 100_000_000);
+
+        assertThat(derivatives.contentType()).isEqualTo("image/png");
+        assertThat(derivatives.width()).isEqualTo(50_000);
+        assertThat(derivatives.thumbnailUrl()).isNull();
+        assertThat(derivatives.optimizedUrl()).isNull();
+    }
+
+    private MediaDerivatives generate(Path source, long maxPixels) throws Exception {
+        service = new MediaDerivativeService(new MediaStore(mediaDir + "/"), event -> {
+            if (event instanceof MediaDerivativesReadyEvent derivativesReady) {
+                ready.complete(derivativesReady);
+            }
+        }, true, 1, 1, 320, 1200, 0.85f, maxPixels);
+        service.submit(new StoredMedia(source.toString(), "a".repeat(64), Files.size(source)));
+        return ready.get(30, TimeUnit.SECONDS).derivatives();
+    }
+
+    private static byte[] pngHeader(int width, int height) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+        ByteArrayOutputStream ihdr = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(ihdr);
+        data.writeInt(width);
+        data.writeInt(height);
+        data.write(new byte[]{8, 0, 0, 0, 0});
+        chunk(out, "IHDR", ihdr.toByteArray());
+        chunk(out, "IEND", new byte[0]);
+        return bytes.toByteArray();
+    }
+
+    private static void chunk(DataOutputStream out, String type, byte[] data) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        out.writeInt((int) crc.getValue());
+    }
+}
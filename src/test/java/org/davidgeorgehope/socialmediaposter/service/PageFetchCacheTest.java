@@ -0,0 +1,137 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jsoup.HttpStatusException;
+import org.jsoup.nodes.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// PageFetchCache against a local page server that counts requests and honours conditional GETs
+class PageFetchCacheTest {
+
+    private HttpServer server;
+    private final List<String> conditionalHeaders = new CopyOnWriteArrayList<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger extractions = new AtomicInteger();
+    private volatile String etag = "\"v1\"";
+    private volatile String body = "<html><head><title>First</title></head><body><p>first version</p></body></html>";
+    private volatile int status = 200;
+    private SimpleMeterRegistry meterRegistry;
+    private String url;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/article", exchange -> {
+            requests.incrementAndGet();
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            conditionalHeaders.add(ifNoneMatch + "|" + exchange.getRequestHeaders().getFirst("If-Modified-Since"));
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Last-Modified", "Mon, 01 Jan 2024 00:00:00 GMT");
+            if (etag.equals(ifNoneMatch)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/article";
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void withinTheTtlThePageIsServedWithoutARequest() throws IOException {
+        PageFetchCache cache = cache(600);
+
+        Map<String, String> first = cache.fetch(url, extractor());
+        Map<String, String> second = cache.fetch(url, extractor());
+
+        assertThat(second).isEqualTo(first).containsEntry("title", "First");
+        assertThat(requests).hasValue(1);
+        assertThat(extractions).hasValue(1);
+        assertThat(count("hit")).isEqualTo(1);
+        assertThat(count("miss")).isEqualTo(1);
+    }
+
+    @Test
+    void afterTheTtlAnUnchangedPageIsRevalidatedWithoutParsing() throws IOException {
+        PageFetchCache cache = cache(0);
+
+        cache.fetch(url, extractor());
+        Map<String, String> revalidated = cache.fetch(url, extractor());
+
+        assertThat(revalidated).containsEntry("title", "First");
+        assertThat(requests).hasValue(2);
+        assertThat(conditionalHeaders.get(0)).isEqualTo("null|null");
+        assertThat(conditionalHeaders.get(1)).isEqualTo("\"v1\"|Mon, 01 Jan 2024 00:00:00 GMT");
+        assertThat(extractions).hasValue(1);
+        assertThat(count("revalidated")).isEqualTo(1);
+    }
+
+    @Test
+    void aChangedPageIsDownloadedAndExtractedAgain() throws IOException {
+        PageFetchCache cache = cache(0);
+        cache.fetch(url, extractor());
+
+        etag = "\"v2\"";
+        body = "<html><head><title>Second</title></head><body><p>second version</p></body></html>";
+        Map<String, String> changed = cache.fetch(url, extractor());
+
+        assertThat(changed).containsEntry("title", "Second");
+        assertThat(extractions).hasValue(2);
+        assertThat(count("miss")).isEqualTo(2);
+    }
+
+    @Test
+    void errorResponsesAreThrownAndNotCached() throws IOException {
+        PageFetchCache cache = cache(600);
+        status = 500;
+
+        assertThatThrownBy(() -> cache.fetch(url, extractor())).isInstanceOf(HttpStatusException.class);
+
+        status = 200;
+        assertThat(cache.fetch(url, extractor())).containsEntry("title", "First");
+        assertThat(requests).hasValue(2);
+    }
+
+    private PageFetchCache cache(long ttlSeconds) {
+        return new PageFetchCache(meterRegistry, ttlSeconds, 24, 100, 5000, 1024 * 1024);
+    }
+
+    private Function<Document, Map<String, String>> extractor() {
+        return document -> {
+            extractions.incrementAndGet();
+            return Map.of("title", document.title(), "text", document.body().text());
+        };
+    }
+
+    private double count(String result) {
+        return meterRegistry.get("page.cache.requests").tag("result", result).counter().count();
+    }
+}
@@ -0,0 +1,117 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.davidgeorgehope.socialmediaposter.support.FakeElasticsearch;
+import org.davidgeorgehope.socialmediaposter.support.TestServices;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PartialContentUpdateTest {
+
+    private static final String INDEX = "social-pilot-content";
+
+    @TempDir
+    Path mediaDir;
+
+    private FakeElasticsearch elasticsearch;
+    private ElasticsearchService service;
+    private ObjectNode embeddedText;
+
+    @BeforeEach
+    void setUp() {
+        elasticsearch = new FakeElasticsearch();
+        service = TestServices.elasticsearchService(elasticsearch, mediaDir);
+        elasticsearch.put(INDEX, "post-1", Map.of(
+                "text", Map.of(
+                        "text", "Observability for SREs",
+                        "inference", Map.of(
+                                "inference_id", "social-pilot-inference",
+                                "chunks", List.of(Map.of(
+                                        "text", "Observability for SREs",
+                                        "embeddings", Map.of("observability", 1.7, "sre", 1.2))))),
+                "mediaUrl", "/content/media/abc.jpg",
+                "last_updated", "2024-01-01T00:00:00Z"));
+        embeddedText = (ObjectNode) elasticsearch.source(INDEX, "post-1").get("text").deepCopy();
+        elasticsearch.clearRequests();
+    }
+
+    @AfterEach
+    void tearDown() {
+        elasticsearch.close();
+    }
+
+    @Test
+    void markPostedSendsOnlyTheChangedFieldsAndLeavesEmbeddingsUntouched() throws Exception {
+        Instant postedAt = Instant.parse("2024-06-01T08:00:00Z");
+
+        service.markPosted("post-1", "author@example.com", postedAt);
+
+        List<FakeElasticsearch.Request> updates = elasticsearch.requests("POST", "/_update/post-1");
+        assertThat(updates).hasSize(1);
+        JsonNode body = updates.get(0).json();
+        assertThat(fieldNames(body.path("doc"))).containsExactlyInAnyOrder("last_posted_date", "last_posted_by", "last_updated");
+        // No full-document rewrite and no ingest pipeline, so inference has nothing to re-run
+        assertThat(elasticsearch.requests("PUT", "/_doc/post-1")).isEmpty();
+        assertThat(updates.get(0).query()).doesNotContainKey("pipeline");
+
+        ObjectNode stored = elasticsearch.source(INDEX, "post-1");
+        assertThat(stored.get("text")).isEqualTo(embeddedText);
+        assertThat(stored.get("last_posted_date").asText()).isEqualTo(postedAt.toString());
+        assertThat(stored.path("last_posted_by").path("author@example%2Ecom").asText()).isEqualTo(postedAt.toString());
+        assertThat(stored.get("mediaUrl").asText()).isEqualTo("/content/media/abc.jpg");
+        assertThat(stored.get("last_updated").asText()).isNotEqualTo("2024-01-01T00:00:00Z");
+    }
+
+    @Test
+    void patchContentDoesNotSendTextWhenOnlyMediaChanged() throws Exception {
+        service.patchContent("post-1", Map.of("mediaUrl", "/content/media/def.png", "mediaType", "image"));
+
+        JsonNode doc = elasticsearch.requests("POST", "/_update/post-1").get(0).json().path("doc");
+        assertThat(fieldNames(doc)).containsExactlyInAnyOrder("mediaUrl", "mediaType", "last_updated");
+        assertThat(elasticsearch.source(INDEX, "post-1").get("text")).isEqualTo(embeddedText);
+    }
+
+    @Test
+    void unchangedFieldsAreDroppedAndANoChangePatchWritesNothing() throws Exception {
+        List<Object> events = new ArrayList<>();
+        service = TestServices.elasticsearchService(elasticsearch, mediaDir,
+                new ContentCache(true, 1000, 300, new SimpleMeterRegistry()), events::add);
+
+        service.patchContent("post-1", Map.of("mediaUrl", "/content/media/abc.jpg"));
+
+        assertThat(elasticsearch.requests("POST", "/_update/post-1")).isEmpty();
+        assertThat(elasticsearch.source(INDEX, "post-1").get("last_updated").asText()).isEqualTo("2024-01-01T00:00:00Z");
+        assertThat(events).isEmpty();
+
+        service.patchContent("post-1", Map.of("mediaUrl", "/content/media/abc.jpg", "mediaType", "image"));
+
+        JsonNode doc = elasticsearch.requests("POST", "/_update/post-1").get(0).json().path("doc");
+        assertThat(fieldNames(doc)).containsExactlyInAnyOrder("mediaType", "last_updated");
+        assertThat(events).hasSize(1);
+    }
+
+    @Test
+    void emptyPatchSkipsTheRequest() throws Exception {
+        service.patchContent("post-1", Map.of());
+
+        assertThat(elasticsearch.requests()).isEmpty();
+    }
+
+    private static List<String> fieldNames(JsonNode node) {
+        List<String> names = new ArrayList<>();
+        node.fieldNames().forEachRemaining(names::add);
+        return names;
+    }
+}
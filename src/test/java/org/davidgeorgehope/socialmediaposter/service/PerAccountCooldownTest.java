@@ -0,0 +1,153 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.davidgeorgehope.socialmediaposter.support.FakeElasticsearch;
+import org.davidgeorgehope.socialmediaposter.support.TestServices;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Two accounts due in the same tick, each posting through PostSchedulerService and a real PostOutbox onto one
+// FakeElasticsearch. LinkedIn is stubbed and records which text went to which account.
+class PerAccountCooldownTest {
+
+    private static final String INDEX = "social-pilot-content";
+    private static final String ALICE = "alice@example.com";
+    private static final String BOB = "bob@example.com";
+    private static final Instant SLOT = Instant.now().truncatedTo(ChronoUnit.MINUTES);
+
+    @TempDir
+    Path mediaDir;
+
+    private FakeElasticsearch elasticsearch;
+    private PostOutbox postOutbox;
+    private PostSchedulerService scheduler;
+    private final Map<String, List<String>> posted = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        elasticsearch = new FakeElasticsearch();
+        ElasticsearchService elasticsearchService = TestServices.elasticsearchService(elasticsearch, mediaDir);
+        LinkedInService linkedInService = mock(LinkedInService.class);
+        when(linkedInService.postToLinkedIn(anyString(), anyString(), anyString(), anyString())).thenAnswer(invocation -> {
+            posted.computeIfAbsent(invocation.getArgument(1), account -> new CopyOnWriteArrayList<>())
+                    .add(invocation.getArgument(0));
+            return "urn:li:share:" + posted.values().stream().mapToInt(List::size).sum();
+        });
+        SchedulerLease lease = new SchedulerLease(elasticsearch.client(), "local", "node-1", 30_000, 10_000);
+        postOutbox = new PostOutbox(elasticsearch.client(), elasticsearchService, linkedInService, lease,
+                new SimpleMeterRegistry(), 300_000, 60_000, 3_600_000, 5, 50, 2, false, 60_000);
+        ElasticsearchOpenAIService openAIService = mock(ElasticsearchOpenAIService.class);
+        when(openAIService.processQuestion(anyString())).thenReturn("freshly generated");
+
+        scheduler = new PostSchedulerService(elasticsearchService, postOutbox, lease,
+                new SchedulerSlots(elasticsearch.client()), ALICE);
+        ReflectionTestUtils.setField(scheduler, "cooldownDays", 30);
+        ReflectionTestUtils.setField(scheduler, "elasticsearchOpenAIService", openAIService);
+        ReflectionTestUtils.setField(scheduler, "contentPregenerator", mock(ContentPregenerator.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        postOutbox.shutdown();
+        elasticsearch.close();
+    }
+
+    @Test
+    void accountsDueInTheSameTickEachSkipOnlyWhatTheyPostedThemselves() throws Exception {
+        Instant fiveDaysAgo = Instant.now().minus(Duration.ofDays(5));
+        elasticsearch.put(INDEX, "posted-by-alice", document("posted by alice", fiveDaysAgo, Map.of(ALICE, fiveDaysAgo)));
+        elasticsearch.put(INDEX, "posted-by-bob", document("posted by bob", fiveDaysAgo, Map.of(BOB, fiveDaysAgo)));
+        // Posted before per-account dates were kept: in cooldown for everybody
+        elasticsearch.put(INDEX, "legacy", document("posted before", fiveDaysAgo, null));
+
+        runInTheSameTick(ALICE, BOB);
+
+        assertThat(posted.get(ALICE)).containsExactly("posted by bob");
+        assertThat(posted.get(BOB)).containsExactly("posted by alice");
+        for (String id : List.of("posted-by-alice", "posted-by-bob")) {
+            List<String> accounts = new ArrayList<>();
+            elasticsearch.source(INDEX, id).path(ElasticsearchService.POSTED_BY_FIELD).fieldNames()
+                    .forEachRemaining(accounts::add);
+            assertThat(accounts).containsExactlyInAnyOrder(ElasticsearchService.postedByKey(ALICE),
+                    ElasticsearchService.postedByKey(BOB));
+        }
+    }
+
+    @Test
+    void contentBothAccountsPostedInOneTickIsInCooldownForEachOfThem() throws Exception {
+        elasticsearch.put(INDEX, "only", document("the only post", null, null));
+
+        runInTheSameTick(ALICE, BOB);
+        assertThat(posted.get(ALICE)).containsExactly("the only post");
+        assertThat(posted.get(BOB)).containsExactly("the only post");
+
+        scheduler.schedulePost(ALICE, SLOT.plus(Duration.ofDays(1)));
+
+        assertThat(posted.get(ALICE)).containsExactly("the only post", "freshly generated");
+    }
+
+    @Test
+    void accountKeysAreEscapedSoDotsNeverNestTheField() {
+        assertThat(ElasticsearchService.postedByKey("First.Last@Example.com")).isEqualTo("first%2Elast@example%2Ecom");
+        assertThat(ElasticsearchService.postedByKey("a%2Eb@x")).isNotEqualTo(ElasticsearchService.postedByKey("a.b@x"));
+    }
+
+    private void runInTheSameTick(String... accounts) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        for (String account : accounts) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await(5, TimeUnit.SECONDS);
+                    scheduler.schedulePost(account, SLOT);
+                } catch (Exception e) {
+                    errors.add(e);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join(10_000);
+        }
+        assertThat(errors).isEmpty();
+    }
+
+    private static Map<String, Object> document(String text, Instant lastPostedDate, Map<String, Instant> postedBy) {
+        Map<String, Object> source = new HashMap<>();
+        source.put("text", Map.of("text", text));
+        source.put("last_updated", Instant.now().toString());
+        if (lastPostedDate != null) {
+            source.put("last_posted_date", lastPostedDate.toString());
+        }
+        if (postedBy != null) {
+            Map<String, Object> dates = new HashMap<>();
+            postedBy.forEach((account, at) -> dates.put(ElasticsearchService.postedByKey(account), at.toString()));
+            source.put(ElasticsearchService.POSTED_BY_FIELD, dates);
+        }
+        return source;
+    }
+}
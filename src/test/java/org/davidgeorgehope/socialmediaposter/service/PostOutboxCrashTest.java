@@ -0,0 +1,226 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.davidgeorgehope.socialmediaposter.support.FakeElasticsearch;
+import org.davidgeorgehope.socialmediaposter.support.FakeLinkedIn;
+import org.davidgeorgehope.socialmediaposter.support.TestServices;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Two outbox "nodes" share one FakeElasticsearch and post to one FakeLinkedIn. Crashes and pauses are injected
+// between the steps of a post: while LinkedIn is slow to answer, right after it accepted the post, and while
+// the worker is still loading the content.
+class PostOutboxCrashTest {
+
+    private static final String CONTENT_INDEX = "social-pilot-content";
+    private static final String ACCOUNT = "author@example.com";
+    private static final String KEY = PostOutbox.keyFor(ACCOUNT, Instant.parse("2024-03-01T08:00:00Z"));
+
+    @TempDir
+    Path dir;
+
+    private FakeElasticsearch elasticsearch;
+    private FakeLinkedIn linkedIn;
+    private CloseableHttpClient httpClient;
+    private ElasticsearchService elasticsearchService;
+    private LinkedInService linkedInService;
+    private final List<PostOutbox> nodes = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        elasticsearch = new FakeElasticsearch();
+        linkedIn = new FakeLinkedIn();
+        httpClient = HttpClients.createDefault();
+        elasticsearchService = TestServices.elasticsearchService(elasticsearch, Files.createDirectory(dir.resolve("media")));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        LinkedInTokenStore tokenStore = new LinkedInTokenStore(elasticsearch.client(), meterRegistry,
+                Files.createDirectory(dir.resolve("tokens")).toString(), "", 300_000);
+        tokenStore.store(ACCOUNT, new LinkedInTokenStore.Token("access", "member-1",
+                System.currentTimeMillis() + 3_600_000, null, 0));
+        linkedInService = new LinkedInService(new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient)),
+                new LinkedInAssetCache(elasticsearch.client(), true, 90), new MediaStore(dir + "/"), tokenStore,
+                new SchedulerLease(elasticsearch.client(), "local", "", 30_000, 10_000), meterRegistry,
+                "client-id", "client-secret");
+        ReflectionTestUtils.setField(linkedInService, "apiBaseUrl", linkedIn.baseUrl());
+        ReflectionTestUtils.setField(linkedInService, "oauthBaseUrl", linkedIn.baseUrl());
+        elasticsearch.put(CONTENT_INDEX, "c1", Map.of("text", Map.of("text", "Burn-rate alerts cut our pages"),
+                "last_updated", Instant.now().toString()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        nodes.forEach(PostOutbox::shutdown);
+        httpClient.close();
+        linkedIn.close();
+        elasticsearch.close();
+    }
+
+    @Test
+    void heartbeatKeepsASlowPostClaimedSoAnotherNodeNeverRepostsIt() throws Exception {
+        PostOutbox posting = node("node-1", 400, 100, false);
+        // Would take over and post again as soon as it saw the claim expire
+        PostOutbox other = node("node-2", 400, 100, true);
+        linkedIn.postDelay(1500);
+        posting.enqueue(KEY, ACCOUNT, "c1");
+
+        Thread worker = new Thread(() -> posting.process(KEY));
+        worker.start();
+        while (worker.isAlive()) {
+            other.process(KEY);
+            Thread.sleep(50);
+        }
+
+        assertThat(linkedIn.posts()).hasSize(1);
+        assertThat(intent().status()).isEqualTo(OutboxIntent.STATUS_COMPLETED);
+        assertThat(intent().postUrn()).isEqualTo("urn:li:share:1");
+        assertThat(elasticsearch.source(CONTENT_INDEX, "c1").has("last_posted_date")).isTrue();
+    }
+
+    @Test
+    void claimThatExpiresWhileThePostIsInFlightEndsPostedAndIsFinishedWithoutReposting() throws Exception {
+        // No heartbeat within the claim timeout: the claim expires while LinkedIn is still answering
+        PostOutbox paused = node("node-1", 300, 60_000, false);
+        PostOutbox other = node("node-2", 300, 60_000, false);
+        linkedIn.postDelay(1000);
+        paused.enqueue(KEY, ACCOUNT, "c1");
+
+        Thread worker = new Thread(() -> paused.process(KEY));
+        worker.start();
+        Thread.sleep(600);
+        // The other node finds the intent executing past its claim and dead-letters it for a human to check
+        other.process(KEY);
+        assertThat(intent().status()).isEqualTo(OutboxIntent.STATUS_DEAD);
+        worker.join();
+
+        // The paused worker's own posted write fails, so it moves the dead letter to posted with the URN,
+        // and the index update is then finished without posting again
+        awaitStatus(OutboxIntent.STATUS_COMPLETED);
+        assertThat(intent().postUrn()).isEqualTo("urn:li:share:1");
+        assertThat(linkedIn.posts()).hasSize(1);
+        assertThat(elasticsearch.source(CONTENT_INDEX, "c1").has("last_posted_date")).isTrue();
+    }
+
+    @Test
+    void postUrnOfALostClaimIsRecordedAgainstTheLatestVersionOfTheIntent() throws Exception {
+        PostOutbox worker = node("node-1", 300_000, 60_000, false);
+        worker.enqueue(KEY, ACCOUNT, "c1");
+        // While LinkedIn takes the post, another node takes the intent over
+        linkedIn.rejectPosts(post -> {
+            ObjectNode intent = elasticsearch.source(PostOutbox.OUTBOX_INDEX, KEY);
+            intent.put("claimed_by", "node-2");
+            elasticsearch.put(PostOutbox.OUTBOX_INDEX, KEY, intent);
+            return false;
+        });
+        // ...and keeps writing it: the worker's own posted write and the first attempt to record the URN
+        // both race with a heartbeat of node-2
+        AtomicInteger heartbeats = new AtomicInteger();
+        elasticsearch.failWhen(request -> {
+            if (request.path().equals("/" + PostOutbox.OUTBOX_INDEX + "/_doc/" + KEY)
+                    && OutboxIntent.STATUS_POSTED.equals(request.json().path("status").asText())
+                    && heartbeats.incrementAndGet() <= 2) {
+                ObjectNode intent = elasticsearch.source(PostOutbox.OUTBOX_INDEX, KEY);
+                intent.put("claimed_until", Instant.now().plusSeconds(300).toString());
+                elasticsearch.put(PostOutbox.OUTBOX_INDEX, KEY, intent);
+            }
+            return false;
+        });
+
+        worker.process(KEY);
+
+        assertThat(heartbeats.get()).isGreaterThanOrEqualTo(3);
+        awaitStatus(OutboxIntent.STATUS_COMPLETED);
+        assertThat(intent().postUrn()).isEqualTo("urn:li:share:1");
+        assertThat(linkedIn.posts()).hasSize(1);
+    }
+
+    @Test
+    void nodeThatDiesRightAfterLinkedInAcceptedThePostIsNeverReposted() throws Exception {
+        PostOutbox crashing = node("node-1", 300, 100, false);
+        PostOutbox other = node("node-2", 300, 100, false);
+        crashing.enqueue(KEY, ACCOUNT, "c1");
+        // From the moment LinkedIn accepts the post, node-1 can no longer reach Elasticsearch
+        AtomicBoolean crashed = new AtomicBoolean();
+        linkedIn.rejectPosts(post -> {
+            crashed.set(true);
+            return false;
+        });
+        elasticsearch.failWhen(request -> crashed.get());
+
+        crashing.process(KEY);
+        crashing.shutdown();
+        elasticsearch.failWhen(request -> false);
+
+        // Left executing: whether it was posted is unknown to the outbox, so it must not be posted again
+        assertThat(intent().status()).isEqualTo(OutboxIntent.STATUS_EXECUTING);
+        Thread.sleep(400);
+        other.process(KEY);
+
+        assertThat(linkedIn.posts()).hasSize(1);
+        assertThat(intent().status()).isEqualTo(OutboxIntent.STATUS_DEAD);
+        assertThat(intent().lastError()).contains("node-1");
+    }
+
+    @Test
+    void workerDoesNotPostWhenTheIntentWasTakenOverWhileItWasGettingReady() throws Exception {
+        PostOutbox slow = node("node-1", 300_000, 60_000, false);
+        slow.enqueue(KEY, ACCOUNT, "c1");
+        // While node-1 loads the content, someone else writes the intent (an operator, or a node that took
+        // over after node-1 was paused past its claim)
+        AtomicBoolean takenOver = new AtomicBoolean();
+        elasticsearch.failWhen(request -> {
+            if (request.path().equals("/" + CONTENT_INDEX + "/_doc/c1") && takenOver.compareAndSet(false, true)) {
+                ObjectNode intent = elasticsearch.source(PostOutbox.OUTBOX_INDEX, KEY);
+                intent.put("claimed_by", "node-2");
+                elasticsearch.put(PostOutbox.OUTBOX_INDEX, KEY, intent);
+            }
+            return false;
+        });
+
+        slow.process(KEY);
+
+        assertThat(takenOver).isTrue();
+        assertThat(linkedIn.posts()).isEmpty();
+        assertThat(intent().claimedBy()).isEqualTo("node-2");
+        assertThat(intent().status()).isEqualTo(OutboxIntent.STATUS_EXECUTING);
+    }
+
+    private PostOutbox node(String nodeId, long claimTimeoutMs, long heartbeatIntervalMs, boolean retryStuck) {
+        SchedulerLease lease = new SchedulerLease(elasticsearch.client(), "local", nodeId, 30_000, 10_000);
+        PostOutbox outbox = new PostOutbox(elasticsearch.client(), elasticsearchService, linkedInService, lease,
+                new SimpleMeterRegistry(), claimTimeoutMs, 60_000, 3_600_000, 5, 50, 2, retryStuck, heartbeatIntervalMs);
+        nodes.add(outbox);
+        return outbox;
+    }
+
+    private OutboxIntent intent() throws IOException {
+        return nodes.get(0).get(KEY).orElseThrow();
+    }
+
+    private void awaitStatus(String status) throws Exception {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!status.equals(intent().status())) {
+            assertThat(System.nanoTime()).as("intent never reached %s", status).isLessThan(deadline);
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.davidgeorgehope.socialmediaposter.model.SocialPilotContent;
+import org.davidgeorgehope.socialmediaposter.support.FakeElasticsearch;
+import org.davidgeorgehope.socialmediaposter.support.TestServices;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PregeneratedClaimTest {
+
+    private static final String INDEX = "social-pilot-content";
+    private static final String ACCOUNT = "poster@example.com";
+
+    @TempDir
+    Path mediaDir;
+
+    private FakeElasticsearch elasticsearch;
+    private ElasticsearchService service;
+
+    @BeforeEach
+    void setUp() {
+        elasticsearch = new FakeElasticsearch();
+        service = TestServices.elasticsearchService(elasticsearch, mediaDir);
+        elasticsearch.put(INDEX, "older", pregenerated("older post", Instant.parse("2024-01-01T00:00:00Z")));
+        elasticsearch.put(INDEX, "newer", pregenerated("newer post", Instant.parse("2024-01-02T00:00:00Z")));
+    }
+
+    @AfterEach
+    void tearDown() {
+        elasticsearch.close();
+    }
+
+    @Test
+    void claimsTheOldestPregeneratedPost() throws Exception {
+        Optional<SocialPilotContent> claimed = service.claimPregenerated(ACCOUNT);
+
+        assertThat(claimed).map(SocialPilotContent::id).contains("older");
+        assertThat(elasticsearch.source(INDEX, "older").path("status").asText()).isEqualTo(SocialPilotContent.STATUS_READY);
+        assertThat(service.countPregenerated(ACCOUNT)).isEqualTo(1);
+    }
+
+    @Test
+    void postClaimedConcurrentlyIsPassedOverForTheNextOne() throws Exception {
+        // Another node changed the oldest post between the search and the conditional update
+        elasticsearch.route("POST /" + INDEX + "/_update/older", request ->
+                FakeElasticsearch.error(409, "version_conflict_engine_exception", "[older]: version conflict"));
+
+        Optional<SocialPilotContent> claimed = service.claimPregenerated(ACCOUNT);
+
+        assertThat(claimed).map(SocialPilotContent::id).contains("newer");
+        assertThat(elasticsearch.source(INDEX, "newer").path("status").asText()).isEqualTo(SocialPilotContent.STATUS_READY);
+    }
+
+    private static Map<String, Object> pregenerated(String text, Instant lastUpdated) {
+        return Map.of(
+                "text", Map.of("text", text),
+                "status", SocialPilotContent.STATUS_PREGENERATED,
+                "account", ACCOUNT,
+                "last_updated", lastUpdated.toString());
+    }
+}
@@ -0,0 +1,178 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.davidgeorgehope.socialmediaposter.model.StoredMedia;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+// RemoteMediaFetcher against a local image server: a well-behaved image, one sent with the wrong Content-Type,
+// bodies over the size limit with and without a Content-Length, and a server that stalls mid-body
+class RemoteMediaFetcherTest {
+
+    private static final int MAX_BYTES = 64 * 1024;
+    private static final long TIMEOUT_MS = 500;
+    private static final byte[] PNG = png(2000);
+
+    @TempDir
+    Path mediaDir;
+
+    private HttpServer server;
+    private MediaDerivativeService mediaDerivativeService;
+    private RemoteMediaFetcher fetcher;
+    private String baseUrl;
+    private final CountDownLatch releaseStalled = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/image.png", exchange -> send(exchange, "image/png", PNG, PNG.length));
+        server.createContext("/mislabelled", exchange -> send(exchange, "text/html; charset=utf-8", PNG, PNG.length));
+        server.createContext("/page.html", exchange -> {
+            byte[] html = "<html><body>not an image</body></html>".getBytes(StandardCharsets.UTF_8);
+            send(exchange, "text/html", html, html.length);
+        });
+        server.createContext("/declared-too-large", exchange -> send(exchange, "image/png", png(MAX_BYTES + 1), MAX_BYTES + 1));
+        // Chunked, so the size is only found out while streaming the body to disk
+        server.createContext("/chunked-too-large", exchange -> send(exchange, "image/png", png(MAX_BYTES * 4), 0));
+        server.createContext("/stalls", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.sendResponseHeaders(200, PNG.length * 2L);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(PNG);
+                out.flush();
+                releaseStalled.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException | IOException e) {
+                // The client gave up on us
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        mediaDerivativeService = mock(MediaDerivativeService.class);
+        fetcher = new RemoteMediaFetcher(new MediaStore(mediaDir + "/"), mediaDerivativeService,
+                MAX_BYTES, 1000, TIMEOUT_MS, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        releaseStalled.countDown();
+        fetcher.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    void imageIsStoredUnderItsHashAndHandedToDerivatives() throws Exception {
+        StoredMedia media = fetcher.fetchImage(baseUrl + "/image.png").get(5, TimeUnit.SECONDS);
+
+        assertThat(media.size()).isEqualTo(PNG.length);
+        assertThat(media.mediaUrl()).endsWith(media.hash() + ".png");
+        assertThat(files()).containsExactly(media.hash() + ".png");
+        assertThat(Files.readAllBytes(mediaDir.resolve(media.hash() + ".png"))).isEqualTo(PNG);
+        verify(mediaDerivativeService).submit(media);
+    }
+
+    @Test
+    void wrongContentTypeIsCorrectedFromTheMagicBytes() throws Exception {
+        StoredMedia media = fetcher.fetchImage(baseUrl + "/mislabelled").get(5, TimeUnit.SECONDS);
+
+        assertThat(media.mediaUrl()).endsWith(".png");
+        assertThat(files()).containsExactly(media.hash() + ".png");
+    }
+
+    @Test
+    void bodyThatIsNotAnImageIsRejectedWithoutAFile() {
+        assertFailsWith(fetcher.fetchImage(baseUrl + "/page.html"), "Not an image");
+
+        assertThat(files()).isEmpty();
+        verify(mediaDerivativeService, never()).submit(any());
+    }
+
+    @Test
+    void declaredOversizedBodyIsRejectedBeforeItIsRead() {
+        assertFailsWith(fetcher.fetchImage(baseUrl + "/declared-too-large"), "exceeds the limit");
+
+        assertThat(files()).isEmpty();
+    }
+
+    @Test
+    void oversizedBodyIsAbortedWhileStreamingWithoutLeavingAPartialFile() {
+        assertFailsWith(fetcher.fetchImage(baseUrl + "/chunked-too-large"), "exceeds the limit");
+
+        assertThat(files()).isEmpty();
+        verify(mediaDerivativeService, never()).submit(any());
+    }
+
+    @Test
+    void serverThatStallsMidBodyTimesOutAndTheTemporaryFileIsRemoved() throws Exception {
+        long start = System.nanoTime();
+        CompletableFuture<StoredMedia> download = fetcher.fetchImage(baseUrl + "/stalls");
+
+        assertThatThrownBy(() -> download.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertThat(elapsedMs).isBetween(TIMEOUT_MS, TIMEOUT_MS + 2000);
+        // Closing the body unblocks the worker, which then deletes its temporary file
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!files().isEmpty()) {
+            assertThat(System.nanoTime()).as("partial file left behind: %s", files()).isLessThan(deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private static void assertFailsWith(CompletableFuture<StoredMedia> download, String message) {
+        assertThatThrownBy(() -> download.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasMessageContaining(message);
+    }
+
+    private List<String> files() {
+        try (Stream<Path> files = Files.list(mediaDir)) {
+            return files.map(file -> file.getFileName().toString()).toList();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void send(HttpExchange exchange, String contentType, byte[] body, long length) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        } catch (IOException e) {
+            // The client stopped reading once it had enough
+        }
+    }
+
+    // A PNG signature followed by filler, enough for the magic-byte check
+    private static byte[] png(int size) {
+        byte[] bytes = new byte[size];
+        byte[] signature = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+        System.arraycopy(signature, 0, bytes, 0, signature.length);
+        for (int i = signature.length; i < size; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,182 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import com.sun.net.httpserver.HttpServer;
+import com.theokanning.openai.client.OpenAiApi;
+import com.theokanning.openai.service.OpenAiService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Hedging against stub provider servers, through the real OpenAI (OkHttp) and Claude (HttpClient 5) clients
+class RoutingAICompletionServiceTest {
+
+    private static final String OPENAI_RESPONSE = """
+            {"id":"chatcmpl-1","object":"chat.completion","created":1,"model":"gpt-4",
+             "choices":[{"index":0,"message":{"role":"assistant","content":"from openai"},"finish_reason":"stop"}]}""";
+    private static final String CLAUDE_RESPONSE = """
+            {"id":"msg_1","type":"message","content":[{"type":"text","text":"from claude"}]}""";
+
+    private HttpServer openAIStub;
+    private HttpServer claudeStub;
+    private volatile long openAIDelayMillis;
+    private volatile long claudeDelayMillis;
+    private CloseableHttpClient httpClient;
+    private ThreadPoolExecutor routerPool;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        openAIStub = stub("/v1/chat/completions", OPENAI_RESPONSE, () -> openAIDelayMillis);
+        claudeStub = stub("/v1/messages", CLAUDE_RESPONSE, () -> claudeDelayMillis);
+        httpClient = HttpClients.createDefault();
+        routerPool = new ThreadPoolExecutor(4, 4, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(16));
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        routerPool.shutdownNow();
+        httpClient.close();
+        openAIStub.stop(0);
+        claudeStub.stop(0);
+    }
+
+    @Test
+    void slowClaudeIsHedgedByOpenAIAndItsRequestIsAborted() {
+        claudeDelayMillis = 10_000;
+        RoutingAICompletionService router = router(claude(), openAI());
+
+        long start = System.nanoTime();
+        String answer = router.generateCompletion("system", "prompt");
+
+        assertThat(answer).isEqualTo("from openai");
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(5_000);
+        assertThat(meterRegistry.get("ai.router.hedge.wins").tag("backend", "openai").counter().count()).isEqualTo(1);
+        // A blocked HttpClient 5 read ignores interrupts; only cancelling the request frees the worker
+        assertThat(poolIdleWithin(Duration.ofSeconds(2))).isTrue();
+        assertThat(meterRegistry.get("ai.router.requests").tag("backend", "claude").tag("outcome", "error")
+                .counter().count()).isZero();
+    }
+
+    @Test
+    void slowOpenAIIsHedgedByClaudeAndItsCallIsCancelled() {
+        openAIDelayMillis = 10_000;
+        RoutingAICompletionService router = router(openAI(), claude());
+
+        String answer = router.generateCompletion("system", "prompt");
+
+        assertThat(answer).isEqualTo("from claude");
+        assertThat(poolIdleWithin(Duration.ofSeconds(2))).isTrue();
+    }
+
+    @Test
+    void latencyExcludesTimeSpentWaitingForTheThrottle() throws Exception {
+        claudeDelayMillis = 50;
+        ThrottledAICompletionService throttled = new ThrottledAICompletionService(claude(), 1, 6000);
+        RoutingAICompletionService router = new RoutingAICompletionService(List.of(throttled), routerPool, false,
+                Duration.ofMillis(100), 0.2, 0.5, Duration.ofSeconds(30), meterRegistry);
+
+        // Hold the only permit for a while so the routed request queues behind it
+        claudeDelayMillis = 800;
+        CountDownLatch holding = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            holding.countDown();
+            throttled.generateCompletion("system", "holding the permit");
+        });
+        holder.start();
+        holding.await();
+        Thread.sleep(100);
+        claudeDelayMillis = 50;
+
+        long start = System.nanoTime();
+        router.generateCompletion("system", "prompt");
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        holder.join();
+
+        double recordedMillis = meterRegistry.get("ai.router.latency").tag("backend", "claude").timer()
+                .max(TimeUnit.MILLISECONDS);
+        assertThat(waitedMillis).isGreaterThanOrEqualTo(500);
+        assertThat(recordedMillis).isLessThan(400);
+    }
+
+    private RoutingAICompletionService router(AICompletionService... backends) {
+        return new RoutingAICompletionService(List.of(backends), routerPool, true, Duration.ofMillis(200),
+                0.2, 0.5, Duration.ofSeconds(30), meterRegistry);
+    }
+
+    private OpenAICompletionService openAI() {
+        OpenAiApi api = OpenAiService.defaultRetrofit(
+                        OpenAiService.defaultClient("test-key", Duration.ofSeconds(30)), OpenAiService.defaultObjectMapper())
+                .newBuilder()
+                .baseUrl("http://127.0.0.1:" + openAIStub.getAddress().getPort() + "/")
+                .build()
+                .create(OpenAiApi.class);
+        return new OpenAICompletionService(new OpenAiService(api), api);
+    }
+
+    private ClaudeCompletionService claude() {
+        return new ClaudeCompletionService(new RestTemplate(), httpClient, "test-key",
+                "http://127.0.0.1:" + claudeStub.getAddress().getPort() + "/v1/messages");
+    }
+
+    private boolean poolIdleWithin(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (routerPool.getActiveCount() == 0) {
+                return true;
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static HttpServer stub(String path, String body, java.util.function.LongSupplier delayMillis) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "provider-stub");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.createContext(path, exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            try {
+                Thread.sleep(delayMillis.getAsLong());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            try (OutputStream out = exchange.getResponseBody()) {
+                exchange.sendResponseHeaders(200, bytes.length);
+                out.write(bytes);
+            } catch (IOException e) {
+                // the client went away, as an aborted hedge loser does
+            }
+        });
+        server.start();
+        return server;
+    }
+}
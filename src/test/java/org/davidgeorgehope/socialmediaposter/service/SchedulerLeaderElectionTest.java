@@ -0,0 +1,235 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.davidgeorgehope.socialmediaposter.model.SocialPilotContent;
+import org.davidgeorgehope.socialmediaposter.support.FakeElasticsearch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// Several application contexts, each a node with its own SchedulerLease, SchedulerSlots and PostSchedulerService
+// in scheduler.mode=cluster, sharing one FakeElasticsearch. Posting is stubbed at the outbox, which records
+// which node enqueued each slot.
+class SchedulerLeaderElectionTest {
+
+    private static final long LEASE_MS = 2000;
+    private static final long RENEW_MS = 200;
+    private static final String ACCOUNT = "poster@example.com";
+
+    private FakeElasticsearch elasticsearch;
+    private final List<Node> nodes = new ArrayList<>();
+    private final Map<String, List<String>> enqueued = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        elasticsearch = new FakeElasticsearch();
+    }
+
+    @AfterEach
+    void tearDown() {
+        nodes.forEach(node -> node.context().close());
+        elasticsearch.close();
+    }
+
+    @Test
+    void exactlyOneNodeLeadsAndRunsEachSlotOnce() throws Exception {
+        startNodes(3);
+        Node leader = awaitSingleLeader();
+
+        runConcurrently(Node::onSchedule);
+        runConcurrently(Node::onSchedule);
+
+        String latest = PostOutbox.keyFor(ACCOUNT, Instant.now().truncatedTo(ChronoUnit.HOURS));
+        assertThat(enqueued).containsOnlyKeys(latest);
+        assertThat(enqueued.get(latest)).containsExactly(leader.id());
+        // Hourly slots over scheduler.catch-up.max-age-hours=6: the latest runs, the older ones are skipped
+        assertThat(slotStatuses()).isEqualTo(Map.of(SchedulerSlots.STATUS_DONE, 1L, SchedulerSlots.STATUS_SKIPPED, 5L));
+    }
+
+    @Test
+    void crashedLeaderIsReplacedAfterItsLeaseExpiresAndTheMissedSlotIsCaughtUp() throws Exception {
+        startNodes(3);
+        Node crashed = awaitSingleLeader();
+
+        // The leader stops renewing without releasing the lease, as if the process had died or hung
+        ((ScheduledThreadPoolExecutor) ReflectionTestUtils.getField(crashed.lease(), "renewer")).shutdownNow();
+        long crashedAt = System.nanoTime();
+        List<Node> survivors = nodes.stream().filter(node -> node != crashed).toList();
+
+        // The lease was renewed at most RENEW_MS before the crash, so nobody may take it over for a while
+        Thread.sleep(LEASE_MS / 2);
+        assertThat(survivors).noneMatch(node -> node.lease().isLeader());
+
+        await(() -> survivors.stream().anyMatch(node -> node.lease().isLeader()), LEASE_MS + RENEW_MS + 1000);
+        long takeoverMs = (System.nanoTime() - crashedAt) / 1_000_000;
+        assertThat(takeoverMs).isLessThan(LEASE_MS + RENEW_MS + 1000);
+        assertThat(crashed.lease().isLeader()).isFalse();
+        assertThat(survivors.stream().filter(node -> node.lease().isLeader())).hasSize(1);
+        Node successor = survivors.stream().filter(node -> node.lease().isLeader()).findFirst().orElseThrow();
+
+        // The slot fell due while nobody was running it; the periodic catch-up on the new leader posts it,
+        // the crashed node no longer acts even if it wakes up
+        runConcurrently(Node::catchUp);
+
+        String latest = PostOutbox.keyFor(ACCOUNT, Instant.now().truncatedTo(ChronoUnit.HOURS));
+        assertThat(enqueued).containsOnlyKeys(latest);
+        assertThat(enqueued.get(latest)).containsExactly(successor.id());
+    }
+
+    @Test
+    void cleanShutdownHandsTheLeaseOverWithinARenewInterval() throws Exception {
+        startNodes(2);
+        Node leader = awaitSingleLeader();
+
+        long closedAt = System.nanoTime();
+        leader.context().close();
+        nodes.remove(leader);
+        Node successor = awaitSingleLeader();
+
+        assertThat(successor).isNotSameAs(leader);
+        assertThat((System.nanoTime() - closedAt) / 1_000_000).isLessThan(LEASE_MS / 2);
+    }
+
+    @Test
+    void slotIsClaimedOnceWhenTwoNodesBothBelieveTheyLead() throws Exception {
+        startNodes(2);
+        awaitSingleLeader();
+        Instant slot = Instant.now().truncatedTo(ChronoUnit.HOURS);
+
+        List<Boolean> claims = new CopyOnWriteArrayList<>();
+        runConcurrently(node -> claims.add(node.context().getBean(SchedulerSlots.class)
+                .claim("daily-post", slot, node.id(), SchedulerSlots.STATUS_RUNNING)));
+
+        assertThat(claims).containsExactlyInAnyOrder(true, false);
+    }
+
+    private void startNodes(int count) {
+        for (int i = 1; i <= count; i++) {
+            nodes.add(startNode("node-" + i));
+        }
+    }
+
+    private Node startNode(String id) {
+        ElasticsearchService elasticsearchService = mock(ElasticsearchService.class);
+        PostOutbox outbox = mock(PostOutbox.class);
+        try {
+            when(elasticsearchService.claimPregenerated(anyString()))
+                    .thenReturn(Optional.of(SocialPilotContent.of("Pre-generated post", "", "").withId("pre-" + id)));
+            when(outbox.get(any())).thenReturn(Optional.empty());
+            when(outbox.enqueue(anyString(), anyString(), anyString())).thenAnswer(invocation -> {
+                enqueued.computeIfAbsent(invocation.getArgument(0), key -> new CopyOnWriteArrayList<>()).add(id);
+                return true;
+            });
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("node", Map.of(
+                "scheduler.mode", "cluster",
+                "scheduler.node-id", id,
+                "scheduler.lease.duration-ms", String.valueOf(LEASE_MS),
+                "scheduler.lease.renew-interval-ms", String.valueOf(RENEW_MS),
+                "scheduler.cron", "0 0 * * * *",
+                "scheduler.zone", "UTC",
+                "linkedin.user-email", ACCOUNT)));
+        context.registerBean(ElasticsearchClient.class, elasticsearch::client);
+        context.registerBean(ElasticsearchService.class, () -> elasticsearchService);
+        context.registerBean(PostOutbox.class, () -> outbox);
+        context.registerBean(ElasticsearchOpenAIService.class, () -> mock(ElasticsearchOpenAIService.class));
+        context.registerBean(ContentPregenerator.class, () -> mock(ContentPregenerator.class));
+        context.register(SchedulerLease.class, SchedulerSlots.class, PostSchedulerService.class);
+        context.refresh();
+        return new Node(id, context);
+    }
+
+    private Node awaitSingleLeader() throws InterruptedException {
+        await(() -> nodes.stream().filter(node -> node.lease().isLeader()).count() == 1, LEASE_MS + RENEW_MS + 1000);
+        // Hold for a few renew rounds: leadership must stay with one node
+        Thread.sleep(RENEW_MS * 3);
+        List<Node> leaders = nodes.stream().filter(node -> node.lease().isLeader()).toList();
+        assertThat(leaders).hasSize(1);
+        return leaders.get(0);
+    }
+
+    private void runConcurrently(NodeAction action) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (Node node : nodes) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    action.run(node);
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }, "node-action-" + node.id());
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(failures).isEmpty();
+    }
+
+    private Map<String, Long> slotStatuses() {
+        Map<String, Long> statuses = new ConcurrentHashMap<>();
+        for (Map.Entry<String, ObjectNode> entry : elasticsearch.sources(SchedulerLease.SCHEDULER_INDEX).entrySet()) {
+            if (entry.getKey().startsWith("slot_")) {
+                statuses.merge(entry.getValue().path("status").asText(), 1L, Long::sum);
+            }
+        }
+        return statuses;
+    }
+
+    private static void await(BooleanSupplier condition, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime() - deadline).as("condition not met within %d ms", timeoutMs).isNegative();
+            Thread.sleep(20);
+        }
+    }
+
+    private interface NodeAction {
+        void run(Node node) throws Exception;
+    }
+
+    private record Node(String id, AnnotationConfigApplicationContext context) {
+        SchedulerLease lease() {
+            return context.getBean(SchedulerLease.class);
+        }
+
+        void onSchedule() throws Exception {
+            context.getBean(PostSchedulerService.class).onSchedule();
+        }
+
+        void catchUp() throws Exception {
+            context.getBean(PostSchedulerService.class).catchUp();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ThrottledAICompletionServiceTest {
+
+    @Test
+    void keepsAtMostMaxConcurrentRequestsInFlight() throws Exception {
+        SlowProvider provider = new SlowProvider(30);
+        ThrottledAICompletionService throttled = new ThrottledAICompletionService(provider, 2, 6000);
+
+        runConcurrently(8, () -> throttled.generateCompletion("system", "prompt"));
+
+        assertThat(provider.calls).hasValue(8);
+        assertThat(provider.maxInFlight).hasValueLessThanOrEqualTo(2);
+    }
+
+    @Test
+    void spacesRequestsBeyondTheBurstAtTheConfiguredRate() throws Exception {
+        // 600 per minute is one every 100ms once the burst of maxConcurrent (2) is used up
+        ThrottledAICompletionService throttled = new ThrottledAICompletionService(new SlowProvider(0), 2, 600);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; i++) {
+            throttled.generateCompletion("system", "prompt");
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat(elapsedMillis).isGreaterThanOrEqualTo(350);
+    }
+
+    private static void runConcurrently(int callers, Runnable call) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                futures.add(pool.submit(call));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static class SlowProvider implements AICompletionService {
+
+        private final long latencyMillis;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        SlowProvider(long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public String generateCompletion(String systemPrompt, String userPrompt) {
+            calls.incrementAndGet();
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            return "answer";
+        }
+
+        @Override
+        public String providerName() {
+            return "openai";
+        }
+
+        @Override
+        public String modelName() {
+            return "gpt-4o";
+        }
+    }
+}
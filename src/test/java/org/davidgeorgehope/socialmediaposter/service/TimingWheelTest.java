@@ -0,0 +1,142 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Drives a wheel without a worker thread on a simulated clock, so every assertion is about ticks, not timing
+class TimingWheelTest {
+
+    private static final Duration TICK = Duration.ofMillis(100);
+
+    private final SimulatedTicker ticker = new SimulatedTicker(Instant.parse("2024-03-01T08:00:00Z"));
+    private final List<Fired> fired = new ArrayList<>();
+    private final TimingWheel<String> wheel = new TimingWheel<>(TICK, 8, ticker,
+            task -> fired.add(new Fired(task, ticker.now())));
+
+    @Test
+    void firesOnTheTickItsDeadlineFallsIn() {
+        wheel.schedule("post", ticker.now().plusMillis(250));
+
+        advance(Duration.ofMillis(200));
+        assertThat(fired).isEmpty();
+        assertThat(wheel.size()).isEqualTo(1);
+
+        advance(Duration.ofMillis(100));
+        assertThat(fired).extracting(Fired::task).containsExactly("post");
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void timeoutSeveralRevolutionsAwayWaitsOutItsRounds() {
+        // 8 buckets of 100 ms: one revolution is 800 ms
+        wheel.schedule("later", ticker.now().plusMillis(2050));
+
+        advance(Duration.ofMillis(2000));
+        assertThat(fired).isEmpty();
+
+        advance(Duration.ofMillis(100));
+        assertThat(fired).extracting(Fired::task).containsExactly("later");
+    }
+
+    @Test
+    void cancelledTimeoutNeverFires() {
+        TimingWheel<String>.Timeout cancelled = wheel.schedule("cancelled", ticker.now().plusMillis(500));
+        wheel.schedule("kept", ticker.now().plusMillis(500));
+        advance(Duration.ofMillis(200));
+
+        assertThat(cancelled.cancel()).isTrue();
+        assertThat(cancelled.cancel()).isFalse();
+        advance(Duration.ofSeconds(2));
+
+        assertThat(fired).extracting(Fired::task).containsExactly("kept");
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void timeInThePastFiresOnTheNextTick() {
+        advance(Duration.ofSeconds(3));
+        wheel.schedule("overdue", ticker.now().minusSeconds(60));
+
+        advance(TICK);
+
+        assertThat(fired).extracting(Fired::task).containsExactly("overdue");
+    }
+
+    @Test
+    void everyTimeoutFiresWithinOneTickOfItsDeadline() {
+        Random random = new Random(42);
+        Instant start = ticker.now();
+        List<Instant> deadlines = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            Instant at = start.plusMillis(random.nextInt(3_600_000));
+            deadlines.add(at);
+            wheel.schedule(String.valueOf(i), at);
+        }
+
+        // Uneven steps, as a worker that wakes up late would see
+        while (fired.size() < deadlines.size()) {
+            advance(Duration.ofMillis(50 + random.nextInt(400)));
+        }
+
+        for (Fired f : fired) {
+            Instant deadline = deadlines.get(Integer.parseInt(f.task()));
+            assertThat(f.at()).isAfterOrEqualTo(deadline).isBefore(deadline.plus(TICK).plusMillis(450));
+        }
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void failingTaskDoesNotStopTheWheel() {
+        TimingWheel<String> failing = new TimingWheel<>(TICK, 8, ticker, task -> {
+            if (task.equals("bad")) {
+                throw new IllegalStateException("boom");
+            }
+            fired.add(new Fired(task, ticker.now()));
+        });
+        failing.schedule("bad", ticker.now().plusMillis(100));
+        failing.schedule("good", ticker.now().plusMillis(300));
+
+        ticker.advance(Duration.ofMillis(400));
+        failing.advance();
+
+        assertThat(fired).extracting(Fired::task).containsExactly("good");
+    }
+
+    private void advance(Duration duration) {
+        ticker.advance(duration);
+        wheel.advance();
+    }
+
+    private record Fired(String task, Instant at) {
+    }
+
+    static final class SimulatedTicker implements TimingWheel.Ticker {
+        private final Instant origin;
+        private long nanos;
+
+        SimulatedTicker(Instant origin) {
+            this.origin = origin;
+        }
+
+        void advance(Duration duration) {
+            nanos += duration.toNanos();
+        }
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+
+        @Override
+        public Instant now() {
+            return origin.plusNanos(nanos);
+        }
+    }
+}
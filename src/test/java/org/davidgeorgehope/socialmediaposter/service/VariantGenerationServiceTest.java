@@ -0,0 +1,101 @@
+package org.davidgeorgehope.socialmediaposter.service;
+
+import org.davidgeorgehope.socialmediaposter.model.SocialPilotContent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class VariantGenerationServiceTest {
+
+    private static final String URL = "https://example.com/blog/slo-alerting";
+
+    private ElasticsearchOpenAIService openAIService;
+    private ElasticsearchService elasticsearchService;
+    private VariantGenerationService service;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        openAIService = mock(ElasticsearchOpenAIService.class);
+        elasticsearchService = mock(ElasticsearchService.class);
+        when(openAIService.prepareContentPrompt(URL)).thenReturn(Map.of("prompt", "fetched page prompt"));
+        when(openAIService.generateVariant(eq("fetched page prompt"), anyInt(), anyInt())).thenAnswer(invocation -> {
+            int now = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(now, Math::max);
+            try {
+                Thread.sleep(50);
+                return "draft " + invocation.getArgument(1);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        });
+        AtomicInteger ids = new AtomicInteger();
+        when(elasticsearchService.indexContent(any())).thenAnswer(invocation -> "id-" + ids.incrementAndGet());
+        service = new VariantGenerationService(openAIService, elasticsearchService, 2, 10, 5);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void fetchesTheSourceOnceAndStoresEveryVariantAsADraft() throws Exception {
+        List<SocialPilotContent> drafts = new CopyOnWriteArrayList<>();
+
+        service.generateVariants(URL, 4, drafts::add, error -> { }).get(10, TimeUnit.SECONDS);
+
+        verify(openAIService, times(1)).prepareContentPrompt(URL);
+        assertThat(drafts).hasSize(4)
+                .allSatisfy(draft -> assertThat(draft.isDraft()).isTrue())
+                .extracting(SocialPilotContent::text)
+                .containsExactlyInAnyOrder("draft 1", "draft 2", "draft 3", "draft 4");
+        assertThat(drafts).extracting(SocialPilotContent::id).doesNotContainNull().doesNotHaveDuplicates();
+    }
+
+    @Test
+    void runsAtMostMaxParallelVariantsAtOnce() throws Exception {
+        service.generateVariants(URL, 5, draft -> { }, error -> { }).get(10, TimeUnit.SECONDS);
+
+        assertThat(maxInFlight).hasValueLessThanOrEqualTo(2);
+        verify(openAIService, times(5)).generateVariant(eq("fetched page prompt"), anyInt(), eq(5));
+    }
+
+    @Test
+    void capsTheCountAtMaxVariants() throws Exception {
+        List<SocialPilotContent> drafts = new CopyOnWriteArrayList<>();
+
+        service.generateVariants(URL, 50, drafts::add, error -> { }).get(10, TimeUnit.SECONDS);
+
+        assertThat(drafts).hasSize(5);
+    }
+
+    @Test
+    void aFailedVariantIsReportedWhileTheOthersComplete() throws Exception {
+        when(openAIService.generateVariant(eq("fetched page prompt"), eq(2), anyInt()))
+                .thenThrow(new IllegalStateException("provider returned 500"));
+        List<SocialPilotContent> drafts = new CopyOnWriteArrayList<>();
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+
+        service.generateVariants(URL, 3, drafts::add, errors::add).get(10, TimeUnit.SECONDS);
+
+        assertThat(drafts).extracting(SocialPilotContent::text).containsExactlyInAnyOrder("draft 1", "draft 3");
+        assertThat(errors).hasSize(1);
+    }
+}
@@ -0,0 +1,880 @@
+package org.davidgeorgehope.socialmediaposter.support;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.davidgeorgehope.socialmediaposter.SocialMediaPosterApplication;
+import org.elasticsearch.client.RestClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// An in-memory stand-in for the parts of the Elasticsearch REST API this application uses, served over HTTP
+// so tests exercise the real Java client: document CRUD with seq_no/primary_term concurrency control, update
+// with doc merge and detect_noop, bulk, count, points in time, and search with bool/term/terms/range/exists
+// queries, field and _shard_doc sorts, search_after and _source filtering. Every request is recorded.
+// Strings that parse as ISO instants are treated as dates, and date sort values are epoch millis like in
+// Elasticsearch. Anything else (search templates, unusual queries) can be answered by a custom route.
+public class FakeElasticsearch implements AutoCloseable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    static {
+        // The JDK server writes headers and body separately; without TCP_NODELAY every response waits for the
+        // client's delayed ACK (~40ms). Read once when the server implementation loads.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Map<String, StoredDocument>> indices = new ConcurrentHashMap<>();
+    private final Map<String, String> pointsInTime = new ConcurrentHashMap<>();
+    // Sorted matches per point in time, query and sort: a PIT is a snapshot, so later pages reuse the first result
+    private final Map<String, List<SortedHit>> pitHits = new ConcurrentHashMap<>();
+    private final Map<String, Function<Request, Response>> routes = new ConcurrentHashMap<>();
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+    private final AtomicLong seqNo = new AtomicLong();
+    private final AtomicLong ordinal = new AtomicLong();
+    private volatile Predicate<Request> failWhen = request -> false;
+    private volatile Predicate<String> failBulkItem = id -> false;
+    private volatile long latencyMillis;
+    private final List<RestClient> clients = new CopyOnWriteArrayList<>();
+
+    public FakeElasticsearch() {
+        try {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        executor = Executors.newFixedThreadPool(8, r -> {
+            Thread t = new Thread(r, "fake-es");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public ElasticsearchClient client() {
+        return new ElasticsearchClient(transport());
+    }
+
+    public ElasticsearchAsyncClient asyncClient() {
+        return new ElasticsearchAsyncClient(transport());
+    }
+
+    public static JacksonJsonpMapper jsonpMapper() {
+        return new SocialMediaPosterApplication().jsonpMapper();
+    }
+
+    private RestClientTransport transport() {
+        RestClient restClient = RestClient.builder(new HttpHost("127.0.0.1", port(), "http")).build();
+        clients.add(restClient);
+        return new RestClientTransport(restClient, jsonpMapper());
+    }
+
+    // Answers requests whose "METHOD path" matches the key, e.g. "POST /idx/_search/template"
+    public void route(String methodAndPath, Function<Request, Response> handler) {
+        routes.put(methodAndPath, handler);
+    }
+
+    // Matching requests get a 503 before they are applied
+    public void failWhen(Predicate<Request> predicate) {
+        this.failWhen = predicate;
+    }
+
+    // Bulk items for matching ids fail individually while the rest of the bulk succeeds
+    public void failBulkItems(Predicate<String> ids) {
+        this.failBulkItem = ids;
+    }
+
+    public void latency(long millis) {
+        this.latencyMillis = millis;
+    }
+
+    public List<Request> requests() {
+        return List.copyOf(requests);
+    }
+
+    public List<Request> requests(String method, String pathSuffix) {
+        return requests.stream()
+                .filter(r -> r.method().equals(method) && r.path().endsWith(pathSuffix))
+                .toList();
+    }
+
+    public void clearRequests() {
+        requests.clear();
+    }
+
+    public void put(String index, String id, Object source) {
+        ObjectNode node = MAPPER.valueToTree(source);
+        documents(index).put(id, new StoredDocument(node, seqNo.incrementAndGet(), 1, ordinal.incrementAndGet()));
+    }
+
+    public ObjectNode source(String index, String id) {
+        StoredDocument document = documents(index).get(id);
+        return document != null ? document.source.deepCopy() : null;
+    }
+
+    public Map<String, ObjectNode> sources(String index) {
+        Map<String, ObjectNode> copy = new LinkedHashMap<>();
+        Map<String, StoredDocument> documents = indices.get(index);
+        if (documents != null) {
+            synchronized (documents) {
+                documents.forEach((id, document) -> copy.put(id, document.source.deepCopy()));
+            }
+        }
+        return copy;
+    }
+
+    private Map<String, StoredDocument> documents(String index) {
+        return indices.computeIfAbsent(index, key -> java.util.Collections.synchronizedMap(new LinkedHashMap<>()));
+    }
+
+    @Override
+    public void close() {
+        for (RestClient client : clients) {
+            try {
+                client.close();
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+        }
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Request request;
+        try {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            request = new Request(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(),
+                    parseQuery(exchange.getRequestURI().getRawQuery()), new String(body, StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            send(exchange, error(400, "parse_exception", e.getMessage()));
+            return;
+        }
+        requests.add(request);
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Response response;
+        try {
+            if (failWhen.test(request)) {
+                response = error(503, "unavailable_shards_exception", "injected failure");
+            } else {
+                Function<Request, Response> custom = routes.get(request.method() + " " + request.path());
+                response = custom != null ? custom.apply(request) : dispatch(request);
+            }
+        } catch (RuntimeException e) {
+            response = error(500, "exception", String.valueOf(e));
+        }
+        send(exchange, response);
+    }
+
+    private void send(HttpExchange exchange, Response response) throws IOException {
+        exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        if (response.body() == null || exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(response.status(), -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = MAPPER.writeValueAsBytes(response.body());
+        exchange.sendResponseHeaders(response.status(), bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private Response dispatch(Request request) {
+        String[] parts = request.path().substring(1).split("/");
+        String method = request.method();
+        if (parts.length == 1 && parts[0].equals("_bulk")) {
+            return bulk(request);
+        }
+        if (parts.length == 1 && parts[0].equals("_search")) {
+            return search(null, request);
+        }
+        if (parts.length == 1 && parts[0].equals("_pit") && method.equals("DELETE")) {
+            String closing = request.json().path("id").asText();
+            boolean freed = pointsInTime.remove(closing) != null;
+            pitHits.keySet().removeIf(key -> key.startsWith(closing + "\n"));
+            return ok(object().put("succeeded", true).put("num_freed", freed ? 1 : 0));
+        }
+        if (parts.length == 2 && parts[0].equals("_scripts")) {
+            return ok(object().put("acknowledged", true));
+        }
+        String index = parts[0];
+        if (parts.length == 1) {
+            if (method.equals("HEAD")) {
+                return new Response(indices.containsKey(index) ? 200 : 404, null);
+            }
+            if (method.equals("PUT")) {
+                documents(index);
+                return ok(object().put("acknowledged", true).put("index", index));
+            }
+        }
+        String action = parts.length > 1 ? parts[1] : "";
+        String id = parts.length > 2 ? URLDecoder.decode(parts[2], StandardCharsets.UTF_8) : null;
+        return switch (action) {
+            case "_doc" -> switch (method) {
+                case "GET", "HEAD" -> get(index, id, method.equals("HEAD"));
+                case "DELETE" -> delete(index, id, request);
+                default -> write(index, id != null ? id : UUID.randomUUID().toString(), request,
+                        "create".equals(request.query().get("op_type")));
+            };
+            case "_create" -> write(index, id, request, true);
+            case "_update" -> update(index, id, request);
+            case "_search" -> search(index, request);
+            case "_count" -> count(index, request);
+            case "_pit" -> openPointInTime(index);
+            case "_refresh" -> ok(object().set("_shards", shards()));
+            case "_update_by_query" -> ok(object().put("task", "fake:1"));
+            default -> error(400, "illegal_argument_exception", "unsupported " + method + " " + request.path());
+        };
+    }
+
+    private Response get(String index, String id, boolean head) {
+        StoredDocument document = indices.getOrDefault(index, Map.of()).get(id);
+        if (head) {
+            return new Response(document != null ? 200 : 404, null);
+        }
+        if (document == null) {
+            if (!indices.containsKey(index)) {
+                return error(404, "index_not_found_exception", "no such index [" + index + "]");
+            }
+            return new Response(404, object().put("_index", index).put("_id", id).put("found", false));
+        }
+        ObjectNode body = documentMeta(index, id, document).put("found", true);
+        body.set("_source", document.source.deepCopy());
+        return ok(body);
+    }
+
+    private Response write(String index, String id, Request request, boolean create) {
+        Map<String, StoredDocument> documents = documents(index);
+        synchronized (documents) {
+            StoredDocument current = documents.get(id);
+            if (create && current != null) {
+                return conflict(id, "document already exists");
+            }
+            Response precondition = checkSeqNo(id, current, request);
+            if (precondition != null) {
+                return precondition;
+            }
+            StoredDocument next = new StoredDocument((ObjectNode) request.json(), seqNo.incrementAndGet(),
+                    current != null ? current.version + 1 : 1, current != null ? current.ordinal : ordinal.incrementAndGet());
+            documents.put(id, next);
+            return new Response(current == null ? 201 : 200,
+                    documentMeta(index, id, next).put("result", current == null ? "created" : "updated").set("_shards", shards()));
+        }
+    }
+
+    private Response update(String index, String id, Request request) {
+        Map<String, StoredDocument> documents = documents(index);
+        synchronized (documents) {
+            StoredDocument current = documents.get(id);
+            JsonNode body = request.json();
+            if (current == null) {
+                if (body.has("upsert") || body.path("doc_as_upsert").asBoolean()) {
+                    ObjectNode source = body.has("upsert") ? (ObjectNode) body.get("upsert") : (ObjectNode) body.get("doc");
+                    StoredDocument created = new StoredDocument(source, seqNo.incrementAndGet(), 1, ordinal.incrementAndGet());
+                    documents.put(id, created);
+                    return new Response(201, documentMeta(index, id, created).put("result", "created").set("_shards", shards()));
+                }
+                return error(404, "document_missing_exception", "[" + id + "]: document missing");
+            }
+            Response precondition = checkSeqNo(id, current, request);
+            if (precondition != null) {
+                return precondition;
+            }
+            ObjectNode merged = current.source.deepCopy();
+            merge(merged, (ObjectNode) body.path("doc"));
+            if (merged.equals(current.source) && body.path("detect_noop").asBoolean(true)) {
+                return ok(documentMeta(index, id, current).put("result", "noop").set("_shards", shards()));
+            }
+            StoredDocument next = new StoredDocument(merged, seqNo.incrementAndGet(), current.version + 1, current.ordinal);
+            documents.put(id, next);
+            return ok(documentMeta(index, id, next).put("result", "updated").set("_shards", shards()));
+        }
+    }
+
+    private Response delete(String index, String id, Request request) {
+        Map<String, StoredDocument> documents = documents(index);
+        synchronized (documents) {
+            StoredDocument current = documents.get(id);
+            Response precondition = checkSeqNo(id, current, request);
+            if (precondition != null) {
+                return precondition;
+            }
+            if (current == null) {
+                return new Response(404, object().put("_index", index).put("_id", id).put("_version", 1)
+                        .put("result", "not_found").put("_seq_no", seqNo.get()).put("_primary_term", 1).set("_shards", shards()));
+            }
+            documents.remove(id);
+            return ok(object().put("_index", index).put("_id", id).put("_version", current.version + 1)
+                    .put("result", "deleted").put("_seq_no", seqNo.incrementAndGet()).put("_primary_term", 1).set("_shards", shards()));
+        }
+    }
+
+    private Response checkSeqNo(String id, StoredDocument current, Request request) {
+        String ifSeqNo = request.query().get("if_seq_no");
+        if (ifSeqNo == null) {
+            return null;
+        }
+        if (current == null || current.seqNo != Long.parseLong(ifSeqNo)
+                || 1 != Long.parseLong(request.query().getOrDefault("if_primary_term", "1"))) {
+            return conflict(id, "required seqNo [" + ifSeqNo + "], current " + (current != null ? current.seqNo : "missing"));
+        }
+        return null;
+    }
+
+    private Response bulk(Request request) {
+        ArrayNode items = NODES.arrayNode();
+        boolean errors = false;
+        Iterator<String> lines = request.body().lines().filter(line -> !line.isBlank()).iterator();
+        while (lines.hasNext()) {
+            JsonNode action = parse(lines.next());
+            String type = action.fieldNames().next();
+            JsonNode meta = action.get(type);
+            String index = meta.path("_index").asText();
+            String id = meta.path("_id").asText(null);
+            String body = type.equals("delete") ? "" : lines.next();
+            Response result;
+            if (failBulkItem.test(id)) {
+                result = error(503, "unavailable_shards_exception", "injected bulk item failure");
+            } else {
+                Request itemRequest = new Request(type.equals("update") ? "POST" : "PUT", "/" + index, Map.of(), body);
+                result = switch (type) {
+                    case "update" -> update(index, id, itemRequest);
+                    case "delete" -> delete(index, id, itemRequest);
+                    default -> write(index, id != null ? id : UUID.randomUUID().toString(), itemRequest, type.equals("create"));
+                };
+            }
+            ObjectNode item = object().put("_index", index).put("_id", id).put("status", result.status());
+            if (result.status() >= 300) {
+                errors = true;
+                item.set("error", result.body().path("error"));
+            } else {
+                item.put("result", result.body().path("result").asText());
+            }
+            items.add(object().set(type, item));
+        }
+        ObjectNode response = object().put("took", 1).put("errors", errors);
+        response.set("items", items);
+        return ok(response);
+    }
+
+    private Response openPointInTime(String index) {
+        String id = "pit-" + UUID.randomUUID();
+        pointsInTime.put(id, index);
+        return ok(object().put("id", id));
+    }
+
+    private Response count(String index, Request request) {
+        JsonNode query = request.body().isBlank() ? NODES.missingNode() : request.json().path("query");
+        long count = matching(index, query).size();
+        return ok(object().put("count", count).set("_shards", shards()));
+    }
+
+    private Response search(String index, Request request) {
+        JsonNode body = request.body().isBlank() ? object() : request.json();
+        String pitId = body.path("pit").path("id").asText(null);
+        if (pitId != null) {
+            index = pointsInTime.get(pitId);
+            if (index == null) {
+                return error(404, "search_context_missing_exception", "No search context found for id [" + pitId + "]");
+            }
+        }
+        if (!indices.containsKey(index)) {
+            if ("true".equals(request.query().get("ignore_unavailable"))) {
+                return ok(searchResponse(List.of(), 0, pitId));
+            }
+            return error(404, "index_not_found_exception", "no such index [" + index + "]");
+        }
+
+        List<SortField> sort = sortFields(body.path("sort"));
+        List<SortedHit> hits = pitId == null
+                ? sortedMatches(index, body, sort)
+                : pitHits.computeIfAbsent(pitId + "\n" + body.path("query") + "\n" + body.path("sort"),
+                        key -> sortedMatches(pointsInTime.get(pitId), body, sort));
+        long total = hits.size();
+        JsonNode searchAfter = body.path("search_after");
+        if (searchAfter.isArray() && !sort.isEmpty()) {
+            // Hits are sorted, so binary search for the first one after the cursor
+            int low = 0;
+            int high = hits.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compareToAfter(hits.get(mid).sortValues(), searchAfter, sort) > 0) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            hits = hits.subList(low, hits.size());
+        }
+        int from = body.path("from").asInt(0);
+        int size = body.path("size").asInt(10);
+        if (from + size > 10_000) {
+            return error(400, "illegal_argument_exception", "Result window is too large, from + size must be less than or equal to: [10000]");
+        }
+        List<SortedHit> page = hits.subList(Math.min(from, hits.size()), Math.min(from + size, hits.size()));
+
+        ArrayNode hitNodes = NODES.arrayNode();
+        boolean seqNoPrimaryTerm = body.path("seq_no_primary_term").asBoolean(false);
+        for (SortedHit hit : page) {
+            ObjectNode node = object().put("_index", index).put("_id", hit.id());
+            node.putNull("_score");
+            JsonNode source = filterSource(hit.document().source, body.path("_source"));
+            if (source != null) {
+                node.set("_source", source);
+            }
+            if (seqNoPrimaryTerm) {
+                node.put("_seq_no", hit.document().seqNo).put("_primary_term", 1);
+            }
+            if (!sort.isEmpty()) {
+                ArrayNode values = node.putArray("sort");
+                hit.sortValues().forEach(values::add);
+            }
+            hitNodes.add(node);
+        }
+        boolean trackTotal = !body.path("track_total_hits").isBoolean() || body.path("track_total_hits").asBoolean();
+        ObjectNode response = searchResponse(hitNodes, trackTotal ? total : -1, pitId);
+        return ok(response);
+    }
+
+    private List<SortedHit> sortedMatches(String index, JsonNode body, List<SortField> sort) {
+        List<SortedHit> hits = new ArrayList<>();
+        for (Map.Entry<String, StoredDocument> hit : matching(index, body.path("query"))) {
+            hits.add(new SortedHit(hit.getKey(), hit.getValue(), sort.isEmpty() ? List.of() : sortValues(hit, sort)));
+        }
+        hits.sort(comparator(sort));
+        return hits;
+    }
+
+    private ObjectNode searchResponse(Iterable<JsonNode> hits, long total, String pitId) {
+        ObjectNode response = object().put("took", 1).put("timed_out", false);
+        if (pitId != null) {
+            response.put("pit_id", pitId);
+        }
+        response.set("_shards", shards());
+        ObjectNode hitsNode = response.putObject("hits");
+        if (total >= 0) {
+            hitsNode.putObject("total").put("value", total).put("relation", "eq");
+        }
+        hitsNode.putNull("max_score");
+        ArrayNode array = hitsNode.putArray("hits");
+        hits.forEach(array::add);
+        return response;
+    }
+
+    private List<Map.Entry<String, StoredDocument>> matching(String index, JsonNode query) {
+        Map<String, StoredDocument> documents = indices.getOrDefault(index, Map.of());
+        List<Map.Entry<String, StoredDocument>> result = new ArrayList<>();
+        synchronized (documents) {
+            for (Map.Entry<String, StoredDocument> entry : documents.entrySet()) {
+                if (query.isMissingNode() || query.isNull() || matches(entry.getKey(), entry.getValue().source, query)) {
+                    result.add(Map.entry(entry.getKey(), entry.getValue()));
+                }
+            }
+        }
+        return result;
+    }
+
+    private boolean matches(String id, ObjectNode source, JsonNode query) {
+        String type = query.fieldNames().next();
+        JsonNode clause = query.get(type);
+        switch (type) {
+            case "match_all":
+                return true;
+            case "bool": {
+                for (JsonNode must : clauses(clause, "must")) {
+                    if (!matches(id, source, must)) return false;
+                }
+                for (JsonNode filter : clauses(clause, "filter")) {
+                    if (!matches(id, source, filter)) return false;
+                }
+                for (JsonNode mustNot : clauses(clause, "must_not")) {
+                    if (matches(id, source, mustNot)) return false;
+                }
+                List<JsonNode> should = clauses(clause, "should");
+                int minimumShouldMatch = clause.has("minimum_should_match") ? clause.get("minimum_should_match").asInt()
+                        : (clause.has("must") || clause.has("filter") ? 0 : (should.isEmpty() ? 0 : 1));
+                int matched = 0;
+                for (JsonNode shouldClause : should) {
+                    if (matches(id, source, shouldClause)) matched++;
+                }
+                return matched >= minimumShouldMatch;
+            }
+            case "term": {
+                String field = clause.fieldNames().next();
+                JsonNode value = clause.get(field).isObject() ? clause.get(field).get("value") : clause.get(field);
+                return values(id, source, field).stream().anyMatch(v -> sameValue(v, value));
+            }
+            case "terms": {
+                String field = clause.fieldNames().next();
+                List<JsonNode> fieldValues = values(id, source, field);
+                for (JsonNode value : clause.get(field)) {
+                    if (fieldValues.stream().anyMatch(v -> sameValue(v, value))) return true;
+                }
+                return false;
+            }
+            case "ids": {
+                for (JsonNode value : clause.path("values")) {
+                    if (value.asText().equals(id)) return true;
+                }
+                return false;
+            }
+            case "exists":
+                return !values(id, source, clause.get("field").asText()).isEmpty();
+            case "range": {
+                String field = clause.fieldNames().next();
+                JsonNode bounds = clause.get(field);
+                List<JsonNode> fieldValues = values(id, source, field);
+                return fieldValues.stream().anyMatch(v ->
+                        (!bounds.has("gt") || compareValues(v, bounds.get("gt")) > 0)
+                                && (!bounds.has("gte") || compareValues(v, bounds.get("gte")) >= 0)
+                                && (!bounds.has("lt") || compareValues(v, bounds.get("lt")) < 0)
+                                && (!bounds.has("lte") || compareValues(v, bounds.get("lte")) <= 0));
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported query type " + type);
+        }
+    }
+
+    private static List<JsonNode> clauses(JsonNode bool, String occur) {
+        JsonNode node = bool.path(occur);
+        List<JsonNode> result = new ArrayList<>();
+        if (node.isArray()) {
+            node.forEach(result::add);
+        } else if (node.isObject()) {
+            result.add(node);
+        }
+        return result;
+    }
+
+    // Leaf values of a dotted path; ".keyword" sub-fields read the field itself
+    private static List<JsonNode> values(String id, JsonNode source, String field) {
+        if (field.equals("_id")) {
+            return List.of(NODES.textNode(id));
+        }
+        String path = field.endsWith(".keyword") ? field.substring(0, field.length() - ".keyword".length()) : field;
+        List<JsonNode> current = List.of(source);
+        for (String part : path.split("\\.")) {
+            List<JsonNode> next = new ArrayList<>();
+            for (JsonNode node : current) {
+                JsonNode child = node.path(part);
+                if (child.isArray()) {
+                    child.forEach(next::add);
+                } else if (!child.isMissingNode() && !child.isNull()) {
+                    next.add(child);
+                }
+            }
+            current = next;
+        }
+        return current.stream().filter(node -> !node.isContainerNode() || node.isObject()).toList();
+    }
+
+    private static boolean sameValue(JsonNode a, JsonNode b) {
+        if (a.isNumber() && b.isNumber()) {
+            return a.decimalValue().compareTo(b.decimalValue()) == 0;
+        }
+        return a.asText().equals(b.asText());
+    }
+
+    private static int compareValues(JsonNode a, JsonNode b) {
+        Object left = comparable(a);
+        Object right = comparable(b);
+        if (left instanceof Long l && right instanceof Long r) {
+            return Long.compare(l, r);
+        }
+        if (left instanceof Number l && right instanceof Number r) {
+            return Double.compare(l.doubleValue(), r.doubleValue());
+        }
+        return String.valueOf(left).compareTo(String.valueOf(right));
+    }
+
+    // Dates become epoch millis, like date fields in Elasticsearch
+    private static Object comparable(JsonNode node) {
+        if (node.isIntegralNumber()) {
+            return node.asLong();
+        }
+        if (node.isNumber()) {
+            return node.asDouble();
+        }
+        String text = node.asText();
+        try {
+            return Instant.parse(text).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return text;
+        }
+    }
+
+    private record SortField(String field, boolean descending, boolean missingFirst) {
+    }
+
+    private static List<SortField> sortFields(JsonNode sort) {
+        List<SortField> fields = new ArrayList<>();
+        List<JsonNode> entries = new ArrayList<>();
+        if (sort.isArray()) {
+            sort.forEach(entries::add);
+        } else if (!sort.isMissingNode()) {
+            entries.add(sort);
+        }
+        for (JsonNode entry : entries) {
+            if (entry.isTextual()) {
+                fields.add(new SortField(entry.asText(), false, false));
+                continue;
+            }
+            String field = entry.fieldNames().next();
+            JsonNode options = entry.get(field);
+            boolean descending = options.isTextual() ? options.asText().equals("desc") : options.path("order").asText("asc").equals("desc");
+            String missing = options.path("missing").asText("_last");
+            fields.add(new SortField(field, descending, missing.equals("_first")));
+        }
+        return fields;
+    }
+
+    // Missing values sort with Long.MIN_VALUE / Long.MAX_VALUE sentinels, as numeric and date fields do
+    private static List<JsonNode> sortValues(Map.Entry<String, StoredDocument> hit, List<SortField> sort) {
+        List<JsonNode> values = new ArrayList<>();
+        for (SortField field : sort) {
+            if (field.field().equals("_shard_doc") || field.field().equals("_doc")) {
+                values.add(NODES.numberNode(hit.getValue().ordinal));
+                continue;
+            }
+            List<JsonNode> fieldValues = values(hit.getKey(), hit.getValue().source, field.field());
+            if (fieldValues.isEmpty()) {
+                boolean low = field.descending() != field.missingFirst();
+                values.add(NODES.numberNode(low ? Long.MIN_VALUE : Long.MAX_VALUE));
+                continue;
+            }
+            Object value = comparable(fieldValues.get(0));
+            if (value instanceof Long l) {
+                values.add(NODES.numberNode(l));
+            } else if (value instanceof Double d) {
+                values.add(NODES.numberNode(d));
+            } else {
+                values.add(NODES.textNode(value.toString()));
+            }
+        }
+        return values;
+    }
+
+    private record SortedHit(String id, StoredDocument document, List<JsonNode> sortValues) {
+    }
+
+    private static Comparator<SortedHit> comparator(List<SortField> sort) {
+        if (sort.isEmpty()) {
+            return Comparator.comparingLong(hit -> hit.document().ordinal);
+        }
+        return (a, b) -> {
+            List<JsonNode> left = a.sortValues();
+            List<JsonNode> right = b.sortValues();
+            for (int i = 0; i < sort.size(); i++) {
+                int compared = compareSortValue(left.get(i), right.get(i));
+                if (compared != 0) {
+                    return sort.get(i).descending() ? -compared : compared;
+                }
+            }
+            return 0;
+        };
+    }
+
+    private static int compareSortValue(JsonNode a, JsonNode b) {
+        if (a.isNumber() != b.isNumber()) {
+            // A sentinel against a string: the sentinel's sign decides
+            JsonNode number = a.isNumber() ? a : b;
+            int sign = number.asLong() == Long.MIN_VALUE ? -1 : 1;
+            return a.isNumber() ? sign : -sign;
+        }
+        return compareValues(a, b);
+    }
+
+    private static int compareToAfter(List<JsonNode> values, JsonNode after, List<SortField> sort) {
+        for (int i = 0; i < sort.size() && i < after.size(); i++) {
+            int compared = compareSortValue(values.get(i), after.get(i));
+            if (compared != 0) {
+                return sort.get(i).descending() ? -compared : compared;
+            }
+        }
+        return 0;
+    }
+
+    private static JsonNode filterSource(ObjectNode source, JsonNode filter) {
+        if (filter.isBoolean()) {
+            return filter.asBoolean() ? source.deepCopy() : null;
+        }
+        if (filter.isMissingNode()) {
+            return source.deepCopy();
+        }
+        List<String> includes = strings(filter.has("includes") ? filter.get("includes") : filter.path("include"));
+        List<String> excludes = strings(filter.has("excludes") ? filter.get("excludes") : filter.path("exclude"));
+        if (filter.isArray() || filter.isTextual()) {
+            includes = strings(filter);
+        }
+        ObjectNode result = source.deepCopy();
+        if (!includes.isEmpty()) {
+            List<String> included = includes;
+            result.retain(new ArrayList<>(collect(result, name -> included.stream()
+                    .anyMatch(path -> path.equals(name) || path.startsWith(name + ".")))));
+        }
+        for (String exclude : excludes) {
+            String[] parts = exclude.split("\\.");
+            JsonNode parent = result;
+            for (int i = 0; i < parts.length - 1 && parent != null; i++) {
+                parent = parent.get(parts[i]);
+            }
+            if (parent instanceof ObjectNode object) {
+                object.remove(parts[parts.length - 1]);
+            }
+        }
+        return result;
+    }
+
+    private static List<String> collect(ObjectNode node, Predicate<String> keep) {
+        List<String> names = new ArrayList<>();
+        node.fieldNames().forEachRemaining(name -> {
+            if (keep.test(name)) {
+                names.add(name);
+            }
+        });
+        return names;
+    }
+
+    private static List<String> strings(JsonNode node) {
+        List<String> values = new ArrayList<>();
+        if (node.isTextual()) {
+            values.add(node.asText());
+        } else if (node.isArray()) {
+            node.forEach(value -> values.add(value.asText()));
+        }
+        return values;
+    }
+
+    private static void merge(ObjectNode target, ObjectNode patch) {
+        patch.fields().forEachRemaining(entry -> {
+            JsonNode existing = target.get(entry.getKey());
+            if (existing instanceof ObjectNode existingObject && entry.getValue() instanceof ObjectNode patchObject) {
+                merge(existingObject, patchObject);
+            } else {
+                target.set(entry.getKey(), entry.getValue());
+            }
+        });
+    }
+
+    private ObjectNode documentMeta(String index, String id, StoredDocument document) {
+        return object().put("_index", index).put("_id", id).put("_version", document.version)
+                .put("_seq_no", document.seqNo).put("_primary_term", 1);
+    }
+
+    private static ObjectNode shards() {
+        return object().put("total", 1).put("successful", 1).put("failed", 0);
+    }
+
+    private static Response conflict(String id, String reason) {
+        return error(409, "version_conflict_engine_exception", "[" + id + "]: version conflict, " + reason);
+    }
+
+    public static Response error(int status, String type, String reason) {
+        ObjectNode cause = object().put("type", type).put("reason", reason);
+        ObjectNode error = cause.deepCopy();
+        error.putArray("root_cause").add(cause);
+        ObjectNode body = object();
+        body.set("error", error);
+        body.put("status", status);
+        return new Response(status, body);
+    }
+
+    public static Response ok(JsonNode body) {
+        return new Response(200, body);
+    }
+
+    public static ObjectNode object() {
+        return NODES.objectNode();
+    }
+
+    private static JsonNode parse(String json) {
+        try {
+            return MAPPER.readTree(json);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid JSON: " + json, e);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            String[] kv = pair.split("=", 2);
+            query.put(URLDecoder.decode(kv[0], StandardCharsets.UTF_8),
+                    kv.length > 1 ? URLDecoder.decode(kv[1], StandardCharsets.UTF_8) : "");
+        }
+        return query;
+    }
+
+    private static final class StoredDocument {
+        final ObjectNode source;
+        final long seqNo;
+        final long version;
+        final long ordinal;
+
+        StoredDocument(ObjectNode source, long seqNo, long version, long ordinal) {
+            this.source = source;
+            this.seqNo = seqNo;
+            this.version = version;
+            this.ordinal = ordinal;
+        }
+    }
+
+    public record Request(String method, String path, Map<String, String> query, String body) {
+        public JsonNode json() {
+            return body.isBlank() ? object() : parse(body);
+        }
+    }
+
+    public record Response(int status, JsonNode body) {
+    }
+}
@@ -0,0 +1,219 @@
+package org.davidgeorgehope.socialmediaposter.support;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+// A stand-in for the LinkedIn endpoints LinkedInService calls, over HTTP so tests go through the real
+// RestTemplate: the OAuth token endpoint, /v2/me, registerUpload (single or multipart, by the requested
+// fileSize), binary and part uploads, completeMultiPartUpload and ugcPosts. Uploaded bodies are streamed,
+// counted and checksummed, never held in memory. Every request is recorded by method and path.
+public class FakeLinkedIn implements AutoCloseable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final List<JsonNode> posts = new CopyOnWriteArrayList<>();
+    private final List<Upload> uploads = new CopyOnWriteArrayList<>();
+    private final AtomicInteger assets = new AtomicInteger();
+    private final AtomicInteger postIds = new AtomicInteger();
+    private final AtomicInteger uploadFailures = new AtomicInteger();
+    private volatile long partSize = 4 * 1024 * 1024;
+    private volatile Predicate<JsonNode> rejectPost = post -> false;
+    private volatile long postDelayMillis;
+
+    public FakeLinkedIn() {
+        try {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        executor = Executors.newFixedThreadPool(4, r -> {
+            Thread t = new Thread(r, "fake-linkedin");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    // Byte range size handed out for a multipart upload
+    public void partSize(long bytes) {
+        this.partSize = bytes;
+    }
+
+    // The next n binary or part uploads answer 500 after reading their body
+    public void failUploads(int n) {
+        uploadFailures.set(n);
+    }
+
+    // Matching ugcPosts requests are answered 422, as LinkedIn does for an unknown or expired asset
+    public void rejectPosts(Predicate<JsonNode> predicate) {
+        this.rejectPost = predicate;
+    }
+
+    public void postDelay(long millis) {
+        this.postDelayMillis = millis;
+    }
+
+    public List<String> requests() {
+        return List.copyOf(requests);
+    }
+
+    public long requests(String methodAndPathPrefix) {
+        return requests.stream().filter(request -> request.startsWith(methodAndPathPrefix)).count();
+    }
+
+    public List<JsonNode> posts() {
+        return List.copyOf(posts);
+    }
+
+    // Successful binary and part uploads in arrival order; part is 0 for a single upload
+    public List<Upload> uploads() {
+        return List.copyOf(uploads);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        String query = exchange.getRequestURI().getQuery();
+        requests.add(method + " " + path + (query != null ? "?" + query : ""));
+        try {
+            if (method.equals("PUT") && path.startsWith("/upload/")) {
+                upload(exchange, path.substring("/upload/".length()));
+            } else if (path.equals("/oauth/v2/accessToken")) {
+                String form = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                ObjectNode token = MAPPER.createObjectNode()
+                        .put("access_token", "access-" + postIds.incrementAndGet())
+                        .put("expires_in", 5_184_000);
+                if (form.contains("grant_type=refresh_token")) {
+                    token.put("refresh_token", "refresh-" + postIds.get()).put("refresh_token_expires_in", 31_536_000);
+                }
+                respond(exchange, 200, token, Map.of());
+            } else if (path.equals("/v2/me")) {
+                respond(exchange, 200, MAPPER.createObjectNode().put("id", "member-1"), Map.of());
+            } else if (path.equals("/v2/assets") && "action=registerUpload".equals(query)) {
+                respond(exchange, 200, register(MAPPER.readTree(exchange.getRequestBody())), Map.of());
+            } else if (path.equals("/v2/assets") && "action=completeMultiPartUpload".equals(query)) {
+                exchange.getRequestBody().readAllBytes();
+                respond(exchange, 200, MAPPER.createObjectNode(), Map.of());
+            } else if (path.equals("/v2/ugcPosts")) {
+                post(exchange);
+            } else {
+                respond(exchange, 404, MAPPER.createObjectNode().put("message", "no route for " + path), Map.of());
+            }
+        } catch (RuntimeException e) {
+            respond(exchange, 500, MAPPER.createObjectNode().put("message", String.valueOf(e)), Map.of());
+        }
+    }
+
+    private ObjectNode register(JsonNode request) {
+        JsonNode registerRequest = request.path("registerUploadRequest");
+        String asset = "urn:li:digitalmediaAsset:" + assets.incrementAndGet();
+        ObjectNode value = MAPPER.createObjectNode();
+        value.put("asset", asset);
+        value.put("mediaArtifact", asset + ":artifact");
+        ObjectNode mechanism = value.putObject("uploadMechanism");
+        long fileSize = registerRequest.path("fileSize").asLong(-1);
+        if (fileSize < 0) {
+            mechanism.putObject("com.linkedin.digitalmedia.uploading.MediaUploadHttpRequest")
+                    .put("uploadUrl", baseUrl() + "/upload/" + asset);
+        } else {
+            ObjectNode multipart = mechanism.putObject("com.linkedin.digitalmedia.uploading.MultipartUpload");
+            multipart.put("metadata", "metadata-" + asset);
+            ArrayNode parts = multipart.putArray("partUploadRequests");
+            int part = 0;
+            for (long first = 0; first < fileSize; first += partSize) {
+                ObjectNode partRequest = parts.addObject();
+                partRequest.put("url", baseUrl() + "/upload/" + asset + "/part/" + part++);
+                partRequest.putObject("byteRange").put("firstByte", first)
+                        .put("lastByte", Math.min(first + partSize, fileSize) - 1);
+                partRequest.putObject("headers").put("Content-Type", "application/octet-stream");
+            }
+        }
+        ObjectNode response = MAPPER.createObjectNode();
+        response.set("value", value);
+        return response;
+    }
+
+    private void upload(HttpExchange exchange, String target) throws IOException {
+        int partIndex = target.indexOf("/part/");
+        String asset = partIndex >= 0 ? target.substring(0, partIndex) : target;
+        int part = partIndex >= 0 ? Integer.parseInt(target.substring(partIndex + "/part/".length())) : 0;
+        CRC32 crc = new CRC32();
+        long count = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = exchange.getRequestBody()) {
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                crc.update(buffer, 0, read);
+                count += read;
+            }
+        }
+        if (uploadFailures.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            respond(exchange, 500, MAPPER.createObjectNode().put("message", "injected upload failure"), Map.of());
+            return;
+        }
+        uploads.add(new Upload(asset, part, count, crc.getValue()));
+        respond(exchange, 201, null, Map.of("ETag", "\"" + Long.toHexString(crc.getValue()) + "\""));
+    }
+
+    private void post(HttpExchange exchange) throws IOException {
+        JsonNode post = MAPPER.readTree(exchange.getRequestBody());
+        if (postDelayMillis > 0) {
+            try {
+                Thread.sleep(postDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (rejectPost.test(post)) {
+            respond(exchange, 422, MAPPER.createObjectNode().put("message", "asset not found"), Map.of());
+            return;
+        }
+        posts.add(post);
+        respond(exchange, 201, MAPPER.createObjectNode(), Map.of("X-RestLi-Id", "urn:li:share:" + postIds.incrementAndGet()));
+    }
+
+    private static void respond(HttpExchange exchange, int status, JsonNode body, Map<String, String> headers) throws IOException {
+        headers.forEach((name, value) -> exchange.getResponseHeaders().set(name, value));
+        byte[] bytes = body != null ? MAPPER.writeValueAsBytes(body) : new byte[0];
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length > 0 ? bytes.length : -1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public record Upload(String asset, int part, long bytes, long crc32) {
+    }
+}
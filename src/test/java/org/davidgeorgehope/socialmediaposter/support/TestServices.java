@@ -0,0 +1,49 @@
+package org.davidgeorgehope.socialmediaposter.support;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.davidgeorgehope.socialmediaposter.service.ContentCache;
+import org.davidgeorgehope.socialmediaposter.service.ElasticsearchService;
+import org.davidgeorgehope.socialmediaposter.service.MediaDerivativeService;
+import org.davidgeorgehope.socialmediaposter.service.MediaStore;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Wires the content services by hand against a FakeElasticsearch, the way the application context would
+public final class TestServices {
+
+    private TestServices() {
+    }
+
+    public static ElasticsearchService elasticsearchService(FakeElasticsearch elasticsearch, Path mediaDir) {
+        return elasticsearchService(elasticsearch, mediaDir, new ContentCache(true, 1000, 300, new SimpleMeterRegistry()));
+    }
+
+    public static ElasticsearchService elasticsearchService(FakeElasticsearch elasticsearch, Path mediaDir,
+                                                            ContentCache contentCache) {
+        List<Object> events = new CopyOnWriteArrayList<>();
+        return elasticsearchService(elasticsearch, mediaDir, contentCache, events::add);
+    }
+
+    public static ElasticsearchService elasticsearchService(FakeElasticsearch elasticsearch, Path mediaDir,
+                                                            ContentCache contentCache, ApplicationEventPublisher publisher) {
+        MediaStore mediaStore = new MediaStore(mediaDir.toString());
+        MediaDerivativeService derivatives = new MediaDerivativeService(mediaStore, publisher,
+                false, 1, 1, 320, 1200, 0.85f, 100_000_000);
+        // Invalidations reach the cache the way Spring's event multicaster would deliver them
+        ApplicationEventPublisher invalidating = event -> {
+            if (event instanceof org.davidgeorgehope.socialmediaposter.service.ContentChangedEvent changed) {
+                contentCache.onContentChanged(changed);
+            }
+            publisher.publishEvent(event);
+        };
+        ElasticsearchService service = new ElasticsearchService(elasticsearch.client(), elasticsearch.asyncClient(),
+                FakeElasticsearch.jsonpMapper(), contentCache, invalidating, mediaStore, derivatives);
+        // @Value fields keep their Java defaults outside Spring, so apply the property defaults here
+        ReflectionTestUtils.setField(service, "schedulingPageSize", 1000);
+        return service;
+    }
+}